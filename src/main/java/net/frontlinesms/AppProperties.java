@@ -3,6 +3,10 @@
  */
 package net.frontlinesms;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
 import net.frontlinesms.resources.UserHomeFilePropertySet;
 import net.frontlinesms.ui.i18n.InternationalisationUtils;
 
@@ -48,10 +52,45 @@ public final class AppProperties extends UserHomeFilePropertySet {
 	public static final String KEY_SMS_COST_RECEIVED_MESSAGES = "sms.cost.received.messages";
 	/** Property key (String) indicating the country the user is currently in */
 	public static final String KEY_USER_COUNTRY = "user.country";
+	/** Property key (int): number of worker threads processing incoming messages */
+	public static final String KEY_INCOMING_PROCESSOR_THREADS = "incoming.processor.threads";
+	/** Property key (int): maximum number of incoming messages queued for each incoming message worker */
+	public static final String KEY_INCOMING_PROCESSOR_QUEUE_CAPACITY = "incoming.processor.queue.capacity";
+	/** Property key (int): number of times processing of an incoming message is attempted before it is abandoned */
+	public static final String KEY_INCOMING_PROCESSOR_ATTEMPTS = "incoming.processor.attempts";
+	/** Property key (int): maximum number of MMS e-mail accounts polled at the same time */
+	public static final String KEY_MMS_POLLING_THREADS = "mms.polling.threads";
+	/** Property key (String): strategy for choosing which device sends each SMS; one of {@link #SMS_DISPATCH_THROUGHPUT}, {@link #SMS_DISPATCH_LEAST_QUEUED} or {@link #SMS_DISPATCH_COST} */
+	public static final String KEY_SMS_DISPATCH_STRATEGY = "sms.dispatch.strategy";
+	/** Property key (int): for {@link #SMS_DISPATCH_COST}, the longest time, in seconds, an SMS should wait for a cheaper device */
+	public static final String KEY_SMS_DISPATCH_MAX_DELAY = "sms.dispatch.max.delay";
+	/** Property key prefix (double): for {@link #SMS_DISPATCH_COST}, the cost of sending an SMS with a device, e.g. <code>sms.dispatch.cost.modem</code>
+	 * for all modems, or <code>sms.dispatch.cost.modem.&lt;serial&gt;</code> for one modem.  Internet services use <code>internet</code> and their identifier. */
+	public static final String KEY_PREFIX_SMS_DISPATCH_COST = "sms.dispatch.cost.";
+	/** Property key prefix: settings for a keyword action thread pool, e.g. <code>keyword.action.forward.threads</code> (int),
+	 * <code>keyword.action.forward.queue.capacity</code> (int) and <code>keyword.action.forward.timeout</code> (int, seconds).
+	 * See {@link net.frontlinesms.messaging.KeywordActionExecutor.ActionPool}. */
+	public static final String KEY_PREFIX_KEYWORD_ACTION_POOL = "keyword.action.";
+
+//> PROPERTY VALUES
+	/** Value for {@link #KEY_SMS_DISPATCH_STRATEGY}: send with the device expected to send soonest */
+	public static final String SMS_DISPATCH_THROUGHPUT = "throughput";
+	/** Value for {@link #KEY_SMS_DISPATCH_STRATEGY}: send with the device with the fewest messages waiting */
+	public static final String SMS_DISPATCH_LEAST_QUEUED = "least.queued";
+	/** Value for {@link #KEY_SMS_DISPATCH_STRATEGY}: send with the cheapest device which is not backed up */
+	public static final String SMS_DISPATCH_COST = "cost";
 
 //> DEFAULT VALUES
 	/** Default value for {@link #KEY_DATABASE_CONFIG_PATH} */
 	private static final String DEFAULT_DATABASE_CONFIG_PATH = "h2.database.xml";
+	/** Default value for {@link #KEY_INCOMING_PROCESSOR_QUEUE_CAPACITY} */
+	private static final int DEFAULT_INCOMING_PROCESSOR_QUEUE_CAPACITY = 1000;
+	/** Default value for {@link #KEY_INCOMING_PROCESSOR_ATTEMPTS} */
+	private static final int DEFAULT_INCOMING_PROCESSOR_ATTEMPTS = 3;
+	/** Default value for {@link #KEY_MMS_POLLING_THREADS} */
+	private static final int DEFAULT_MMS_POLLING_THREADS = 4;
+	/** Default value for {@link #KEY_SMS_DISPATCH_MAX_DELAY} */
+	private static final int DEFAULT_SMS_DISPATCH_MAX_DELAY = 300;
 	
 	/** Singleton instance of this class. */
 	private static AppProperties instance;
@@ -211,6 +250,129 @@ public final class AppProperties extends UserHomeFilePropertySet {
 		super.setPropertyAsBoolean(KEY_START_DETECTING_AT_STARTUP, shouldStartDetectingAtStartup);
 	}
 	
+	/** @return the number of worker threads processing incoming messages; defaults to the number of available processors */
+	public int getIncomingProcessorThreads() {
+		return Math.max(1, super.getPropertyAsInt(KEY_INCOMING_PROCESSOR_THREADS, Runtime.getRuntime().availableProcessors()));
+	}
+	/** @param threads value for property {@link #KEY_INCOMING_PROCESSOR_THREADS} */
+	public void setIncomingProcessorThreads(int threads) {
+		super.setPropertyAsInteger(KEY_INCOMING_PROCESSOR_THREADS, threads);
+	}
+	
+	/** @return the maximum number of incoming messages queued for each incoming message worker */
+	public int getIncomingProcessorQueueCapacity() {
+		return Math.max(1, super.getPropertyAsInt(KEY_INCOMING_PROCESSOR_QUEUE_CAPACITY, DEFAULT_INCOMING_PROCESSOR_QUEUE_CAPACITY));
+	}
+	/** @param capacity value for property {@link #KEY_INCOMING_PROCESSOR_QUEUE_CAPACITY} */
+	public void setIncomingProcessorQueueCapacity(int capacity) {
+		super.setPropertyAsInteger(KEY_INCOMING_PROCESSOR_QUEUE_CAPACITY, capacity);
+	}
+	
+	/** @return the number of times processing of an incoming message is attempted before it is abandoned */
+	public int getIncomingProcessorAttempts() {
+		return Math.max(1, super.getPropertyAsInt(KEY_INCOMING_PROCESSOR_ATTEMPTS, DEFAULT_INCOMING_PROCESSOR_ATTEMPTS));
+	}
+	/** @param attempts value for property {@link #KEY_INCOMING_PROCESSOR_ATTEMPTS} */
+	public void setIncomingProcessorAttempts(int attempts) {
+		super.setPropertyAsInteger(KEY_INCOMING_PROCESSOR_ATTEMPTS, attempts);
+	}
+	
+	/** @return the maximum number of MMS e-mail accounts polled at the same time */
+	public int getMmsPollingThreads() {
+		return Math.max(1, super.getPropertyAsInt(KEY_MMS_POLLING_THREADS, DEFAULT_MMS_POLLING_THREADS));
+	}
+	/** @param threads value for property {@link #KEY_MMS_POLLING_THREADS} */
+	public void setMmsPollingThreads(int threads) {
+		super.setPropertyAsInteger(KEY_MMS_POLLING_THREADS, threads);
+	}
+	
+	/** @return the strategy for choosing which device sends each SMS */
+	public String getSmsDispatchStrategy() {
+		return super.getProperty(KEY_SMS_DISPATCH_STRATEGY, SMS_DISPATCH_THROUGHPUT);
+	}
+	/** @param strategy value for property {@link #KEY_SMS_DISPATCH_STRATEGY} */
+	public void setSmsDispatchStrategy(String strategy) {
+		super.setProperty(KEY_SMS_DISPATCH_STRATEGY, strategy);
+	}
+	
+	/** @return the longest time, in seconds, an SMS should wait for a cheaper device */
+	public int getSmsDispatchMaxDelay() {
+		return Math.max(0, super.getPropertyAsInt(KEY_SMS_DISPATCH_MAX_DELAY, DEFAULT_SMS_DISPATCH_MAX_DELAY));
+	}
+	/** @param seconds value for property {@link #KEY_SMS_DISPATCH_MAX_DELAY} */
+	public void setSmsDispatchMaxDelay(int seconds) {
+		super.setPropertyAsInteger(KEY_SMS_DISPATCH_MAX_DELAY, seconds);
+	}
+	
+	/** @return the costs set with {@link #KEY_PREFIX_SMS_DISPATCH_COST}, keyed on the rest of the property key */
+	public Map<String, Double> getSmsDispatchCosts() {
+		Map<String, Double> costs = new HashMap<String, Double>();
+		for(String key : new ArrayList<String>(super.getPropertyKeys())) {
+			String value = super.getProperty(key);
+			if(key.startsWith(KEY_PREFIX_SMS_DISPATCH_COST) && value != null) {
+				try {
+					costs.put(key.substring(KEY_PREFIX_SMS_DISPATCH_COST.length()), Double.parseDouble(value));
+				} catch(NumberFormatException ex) { /* ignore invalid costs */ }
+			}
+		}
+		return costs;
+	}
+	/**
+	 * @param deviceKey the key of the device, or type of device, e.g. <code>modem</code> or <code>modem.&lt;serial&gt;</code>
+	 * @param cost the cost of sending an SMS with the device
+	 */
+	public void setSmsDispatchCost(String deviceKey, double cost) {
+		super.setProperty(KEY_PREFIX_SMS_DISPATCH_COST + deviceKey, Double.toString(cost));
+	}
+	
+	/**
+	 * @param pool the name of the keyword action pool, e.g. <code>forward</code>
+	 * @param defaultValue the value to return if none is set
+	 * @return the number of threads in the keyword action pool
+	 */
+	public int getKeywordActionThreads(String pool, int defaultValue) {
+		return Math.max(1, super.getPropertyAsInt(KEY_PREFIX_KEYWORD_ACTION_POOL + pool + ".threads", defaultValue));
+	}
+	/**
+	 * @param pool the name of the keyword action pool, e.g. <code>forward</code>
+	 * @param threads the number of threads in the keyword action pool
+	 */
+	public void setKeywordActionThreads(String pool, int threads) {
+		super.setPropertyAsInteger(KEY_PREFIX_KEYWORD_ACTION_POOL + pool + ".threads", threads);
+	}
+	
+	/**
+	 * @param pool the name of the keyword action pool, e.g. <code>forward</code>
+	 * @param defaultValue the value to return if none is set
+	 * @return the maximum number of actions waiting for each thread of the keyword action pool
+	 */
+	public int getKeywordActionQueueCapacity(String pool, int defaultValue) {
+		return Math.max(1, super.getPropertyAsInt(KEY_PREFIX_KEYWORD_ACTION_POOL + pool + ".queue.capacity", defaultValue));
+	}
+	/**
+	 * @param pool the name of the keyword action pool, e.g. <code>forward</code>
+	 * @param capacity the maximum number of actions waiting for each thread of the keyword action pool
+	 */
+	public void setKeywordActionQueueCapacity(String pool, int capacity) {
+		super.setPropertyAsInteger(KEY_PREFIX_KEYWORD_ACTION_POOL + pool + ".queue.capacity", capacity);
+	}
+	
+	/**
+	 * @param pool the name of the keyword action pool, e.g. <code>forward</code>
+	 * @param defaultValue the value to return if none is set
+	 * @return the time, in seconds, an action of the keyword action pool may run for before it is cancelled; <code>0</code> for no timeout
+	 */
+	public int getKeywordActionTimeout(String pool, int defaultValue) {
+		return Math.max(0, super.getPropertyAsInt(KEY_PREFIX_KEYWORD_ACTION_POOL + pool + ".timeout", defaultValue));
+	}
+	/**
+	 * @param pool the name of the keyword action pool, e.g. <code>forward</code>
+	 * @param timeoutSeconds the time, in seconds, an action of the keyword action pool may run for before it is cancelled
+	 */
+	public void setKeywordActionTimeout(String pool, int timeoutSeconds) {
+		super.setPropertyAsInteger(KEY_PREFIX_KEYWORD_ACTION_POOL + pool + ".timeout", timeoutSeconds);
+	}
+	
 //> INSTANCE HELPER METHODS
 	
 	/** @return number representing the cost of one SMS sent */
@@ -24,6 +24,9 @@ import java.util.Date;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.mail.Authenticator;
 import javax.mail.Message;
@@ -44,6 +47,10 @@ import net.frontlinesms.listener.EmailListener;
 /**
  * This class is used to send e-mails.
  * 
+ * The connection to the server is kept open between e-mails, and closed after it has been idle for
+ * {@link #IDLE_CONNECTION_TIMEOUT}.  If the server drops the connection, it is re-opened and the
+ * e-mail being sent is tried again.
+ * 
  * TODO refactor to email package; UNIT TEST
  *
  * @author Carlos Eduardo Genz
@@ -51,13 +58,23 @@ import net.frontlinesms.listener.EmailListener;
  */
 public class EmailSender extends Thread {
 	private static final boolean DEBUG_SESSION = false;
+	/** Number of times connecting to the server may fail before this thread stops */
+	private static final int MAX_RETRIES = 6;
+	/** Time, in milliseconds, an open connection may be unused before it is closed */
+	private static final long IDLE_CONNECTION_TIMEOUT = 60000;
+	/** The weight given to the latest e-mail when updating {@link #recentSendTime} */
+	private static final double RECENT_WEIGHT = 0.2;
 	
-	private boolean running;
+	private volatile boolean running;
 	private final ConcurrentLinkedQueue<Email> outbox = new ConcurrentLinkedQueue<Email>();
+	/** Released when there are e-mails to send, or this thread should stop */
+	private final Semaphore workSignal = new Semaphore(0);
 	private EmailListener emailListener;
 	
-	private int retries = 6;
-	private long SLEEP_TIME = 30000;
+	private int retries = MAX_RETRIES;
+	/** Time, in milliseconds, to wait before trying again to connect to the server */
+	/* not private to allow unit testing */
+	long SLEEP_TIME = 30000;
 	
 	private String server;
 	private String account;
@@ -65,6 +82,18 @@ public class EmailSender extends Thread {
 	private String password;
 	private boolean isSSL;
 	
+	/** The session {@link #transport} was opened with, or <code>null</code> if there is no open connection */
+	private Session session;
+	/** The open connection to the server, or <code>null</code> if there is none */
+	private Transport transport;
+	
+	/** The number of e-mails sent successfully */
+	private final AtomicLong sentCount = new AtomicLong();
+	/** The number of e-mails which failed to send */
+	private final AtomicLong failedCount = new AtomicLong();
+	/** Moving average of the time, in milliseconds, recent e-mails have taken to send, or <code>0</code> if nothing has been sent yet */
+	private volatile double recentSendTime;
+	
 	private EmailAccount sender;
 	
 	private static Logger LOG = FrontlineUtils.getLogger(EmailSender.class);
@@ -89,6 +118,7 @@ public class EmailSender extends Thread {
 		if (emailListener != null) {
 			emailListener.outgoingEmailEvent(this, email);
 		}
+		signalWork();
 		LOG.trace("EXIT");
 	}
 	
@@ -97,20 +127,18 @@ public class EmailSender extends Thread {
 		running = true;
 		while (running) {
 			if (outbox.size() > 0) {
-				this.server = sender.getAccountServer();
-				this.account = sender.getAccountName();
-				this.password = sender.getAccountPassword();
-				this.isSSL = sender.useSsl();
-				if (sender.getAccountServerPort() == -1) {
-					// This is to fix the old email settings on db, when we created the new column, the default value is -1.
-					if (isSSL) sender.setAccountServerPort(EmailAccount.DEFAULT_SMTPS_PORT);
-					else sender.setAccountServerPort(EmailAccount.DEFAULT_SMTP_PORT);
+				if (refreshSettings()) {
+					LOG.debug("Account settings have changed. Closing connection.");
+					closeTransport();
 				}
-				this.serverPort = sender.getAccountServerPort();
 				send();
 			}
-			FrontlineUtils.sleep_ignoreInterrupts(5000);
+			if (running && !awaitWork(IDLE_CONNECTION_TIMEOUT) && transport != null) {
+				LOG.debug("Connection has been idle for [" + IDLE_CONNECTION_TIMEOUT + "ms]. Closing it.");
+				closeTransport();
+			}
 		}
+		closeTransport();
 		LOG.trace("EXIT");
 	}
 	
@@ -119,6 +147,50 @@ public class EmailSender extends Thread {
 	 */
 	public void stopRunning() {
 		running = false;
+		signalWork();
+	}
+	
+	/** @return the number of e-mails waiting to be sent */
+	public int getOutboxSize() {
+		return outbox.size();
+	}
+	
+	/** @return the number of e-mails sent successfully */
+	public long getSentCount() {
+		return sentCount.get();
+	}
+	
+	/** @return the number of e-mails which failed to send */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+	
+	/** @return the time, in milliseconds, recent e-mails have taken to send; <code>0</code> if nothing has been sent yet */
+	public double getRecentSendTime() {
+		return recentSendTime;
+	}
+	
+	/**
+	 * Reads the account settings.
+	 * @return <code>true</code> if the settings have changed since they were last read
+	 */
+	private boolean refreshSettings() {
+		if (sender.getAccountServerPort() == -1) {
+			// This is to fix the old email settings on db, when we created the new column, the default value is -1.
+			if (sender.useSsl()) sender.setAccountServerPort(EmailAccount.DEFAULT_SMTPS_PORT);
+			else sender.setAccountServerPort(EmailAccount.DEFAULT_SMTP_PORT);
+		}
+		boolean changed = !equal(server, sender.getAccountServer())
+				|| !equal(account, sender.getAccountName())
+				|| !equal(password, sender.getAccountPassword())
+				|| isSSL != sender.useSsl()
+				|| serverPort != sender.getAccountServerPort();
+		this.server = sender.getAccountServer();
+		this.account = sender.getAccountName();
+		this.password = sender.getAccountPassword();
+		this.isSSL = sender.useSsl();
+		this.serverPort = sender.getAccountServerPort();
+		return changed;
 	}
 	
 	/**
@@ -126,23 +198,25 @@ public class EmailSender extends Thread {
 	 */
 	private void send() {
 		LOG.trace("ENTER");
-		java.security.Security.addProvider(new com.sun.net.ssl.internal.ssl.Provider());
-		Session session = getSession();
-		Transport transport = null;
 		boolean everythingOk = true;
 		boolean connectionOk = true;
 		
 		LOG.debug("Number of retries [" + retries + "]");
-		if (retries > 0) {
-			//If this server has more retries, try to connect.
-			try {
-				transport = connect(session);
-			} catch (MessagingException e) {
-				LOG.info("Fail to connect to server [" + server + "]");
-				LOG.debug("Fail to connect to server [" + server + "]", e);
-				connectionOk = false;
-				everythingOk = false;
-				retries--;
+		if (transport == null || !transport.isConnected()) {
+			closeTransport();
+			connectionOk = false;
+			if (retries > 0) {
+				//If this server has more retries, try to connect.
+				try {
+					openTransport();
+					connectionOk = true;
+					retries = MAX_RETRIES;
+				} catch (MessagingException e) {
+					LOG.info("Fail to connect to server [" + server + "]");
+					LOG.debug("Fail to connect to server [" + server + "]", e);
+					everythingOk = false;
+					retries--;
+				}
 			}
 		}
 
@@ -152,6 +226,8 @@ public class EmailSender extends Thread {
 		while ((email = outbox.poll()) != null) {
 			//Construct the message
 			long sent = FrontlineSMSConstants.DEFAULT_END_DATE;
+			long sendStart = System.currentTimeMillis();
+			everythingOk = connectionOk;
 			try {
 				if (connectionOk) {
 					Message msg = new MimeMessage(session);
@@ -166,7 +242,7 @@ public class EmailSender extends Thread {
 					msg.setSentDate(date);
 					sent = date.getTime();
 					LOG.debug("Sending e-mail [" + email + "]");
-					transport.sendMessage(msg, msg.getAllRecipients());
+					sendMessage(msg);
 				}
 			} catch (AddressException e) {
 				LOG.info("Fail to send e-mail [" + email.getEmailContent() + "] to [" + email.getEmailRecipients() + "]");
@@ -185,11 +261,13 @@ public class EmailSender extends Thread {
 			if (everythingOk) {
 				email.setDate(sent);
 				email.setStatus(Email.Status.SENT);
+				recordSend(System.currentTimeMillis() - sendStart);
 				LOG.debug("E-mail [" + email + "] was sent!");
 			} else if (connectionOk || retries == 0) {
 				//Failed to send this e-mail, due to either sending failure or no more retries.
 				LOG.debug("E-mail [" + email + "] was not sent! Setting status to FAILED.");
 				email.setStatus(Email.Status.FAILED);
+				failedCount.incrementAndGet();
 			} else {
 				//We still have some retries for this server, so we should re-try to send e-mails.
 				LOG.debug("E-mail [" + email + "] was not sent! Setting status to RE-TRYING.");
@@ -212,11 +290,95 @@ public class EmailSender extends Thread {
 			for (Email mail : toAdd) {
 				outbox.add(mail);
 			}
+			// Make sure the re-queued e-mails are sent now, rather than after the next e-mail is queued
+			signalWork();
 			LOG.debug("Thread is back to try connection again!");
 		}
+		LOG.debug("Outbox size [" + outbox.size() + "], sent [" + sentCount + "], failed [" + failedCount + "], recent send time [" + recentSendTime + "ms]");
 		LOG.trace("EXIT");
 	}
 	
+	/**
+	 * Sends a message over {@link #transport}.  If the server has dropped the connection since it was
+	 * last used, it is re-opened and the message sent again.
+	 * @param msg the message to send
+	 * @throws MessagingException
+	 */
+	private void sendMessage(Message msg) throws MessagingException {
+		if (transport == null) {
+			// A previous attempt to reconnect failed
+			openTransport();
+		}
+		try {
+			transport.sendMessage(msg, msg.getAllRecipients());
+		} catch (MessagingException e) {
+			if (transport.isConnected()) throw e;
+			LOG.debug("Connection to server [" + server + "] was lost. Reconnecting.", e);
+			closeTransport();
+			openTransport();
+			transport.sendMessage(msg, msg.getAllRecipients());
+		}
+	}
+	
+	/**
+	 * Opens {@link #transport}, and the {@link #session} it uses.
+	 * @throws MessagingException if the connection could not be opened
+	 */
+	private void openTransport() throws MessagingException {
+		java.security.Security.addProvider(new com.sun.net.ssl.internal.ssl.Provider());
+		Session session = getSession();
+		this.transport = connect(session);
+		this.session = session;
+	}
+	
+	/** Closes {@link #transport}, if it is open. */
+	private void closeTransport() {
+		if (transport != null) {
+			try {
+				transport.close();
+			} catch (MessagingException e) {
+				LOG.debug("Error closing connection to server [" + server + "]", e);
+			}
+			transport = null;
+			session = null;
+		}
+	}
+	
+	/**
+	 * Records the time taken to send an e-mail.
+	 * @param duration the time, in milliseconds, the e-mail took to send
+	 */
+	private void recordSend(long duration) {
+		sentCount.incrementAndGet();
+		double previous = recentSendTime;
+		recentSendTime = previous <= 0 ? Math.max(1, duration)
+				: (1 - RECENT_WEIGHT) * previous + RECENT_WEIGHT * duration;
+	}
+	
+	/** Wakes this thread if it is waiting for e-mails to send. */
+	private void signalWork() {
+		if (workSignal.availablePermits() == 0) {
+			workSignal.release();
+		}
+	}
+	
+	/**
+	 * Waits until {@link #signalWork()} is called, or the timeout expires.
+	 * @param timeout the maximum time to wait, in millis
+	 * @return <code>true</code> if {@link #signalWork()} was called; <code>false</code> if the timeout expired
+	 */
+	private boolean awaitWork(long timeout) {
+		boolean signalled = false;
+		try {
+			signalled = workSignal.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			// Interrupted - just carry on with the next pass
+			signalled = true;
+		}
+		workSignal.drainPermits();
+		return signalled;
+	}
+	
 	/**
 	 * Connects to the server
 	 * 
@@ -225,7 +387,8 @@ public class EmailSender extends Thread {
 	 * @throws MessagingException 
 	 * @throws MessagingException
 	 */
-	private Transport connect(Session session) throws MessagingException {
+	/* not private to allow unit testing */
+	Transport connect(Session session) throws MessagingException {
 		LOG.trace("ENTER");
 		LOG.debug("Host [" + server + "]");
 		LOG.debug("Port [" + serverPort + "]");
@@ -258,6 +421,15 @@ public class EmailSender extends Thread {
 		return session;
 	}
 	
+	/**
+	 * @param a
+	 * @param b
+	 * @return <code>true</code> if both values are <code>null</code>, or they are equal
+	 */
+	private static boolean equal(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+	
 	/**
 	 * SMTPAuthenticator is used to do simple authentication when the SMTP
 	 * server requires it.
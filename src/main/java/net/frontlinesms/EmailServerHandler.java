@@ -22,6 +22,7 @@ package net.frontlinesms;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
 
 import net.frontlinesms.data.domain.*;
 import net.frontlinesms.listener.EmailListener;
@@ -31,7 +32,8 @@ import org.apache.log4j.Logger;
 /**
  * EmailServerHandler should be run as a separate thread.
  * 
- * It handles the email accounts available to send emails from.
+ * It handles the email accounts available to send emails from.  E-mails are passed to
+ * the {@link EmailSender} for their account as soon as they are queued.
  * 
  * @author Carlos Eduardo Genz
  * <li> kadu(at)masabi(dot)com
@@ -40,12 +42,14 @@ public class EmailServerHandler extends Thread implements EmailListener {
 	
 	/** List of emails queued to be sent. */
 	private final ConcurrentLinkedQueue<Email> outbox = new ConcurrentLinkedQueue<Email>();
+	/** Released when there are e-mails in {@link #outbox}, or the thread should stop */
+	private final Semaphore workSignal = new Semaphore(0);
 	/** List of servers handlers that this manager is currently looking after. */
 	private final Map<EmailAccount, EmailSender> serverHandlers = new ConcurrentHashMap<EmailAccount, EmailSender>();
 	/** Listener to be passed Email Listener events from this */
 	private EmailListener emailListener;
 	/** Flag indicating that the thread should continue running. */
-	private boolean running;	
+	private volatile boolean running;	
 
 	private static Logger LOG = FrontlineUtils.getLogger(EmailServerHandler.class);
 	
@@ -90,7 +94,9 @@ public class EmailServerHandler extends Thread implements EmailListener {
 					LOG.debug("Error retrieving account details", e);
 				}
 			}
-			FrontlineUtils.sleep_ignoreInterrupts(5000);
+			if (running) {
+				awaitWork();
+			}
 		}
 		LOG.trace("EXIT");
 	}
@@ -128,6 +134,7 @@ public class EmailServerHandler extends Thread implements EmailListener {
 			emailListener.outgoingEmailEvent(null, outgoing);
 		}
 		LOG.debug("E-mail added to outbox. Size is [" + outbox.size() + "]");
+		signalWork();
 		LOG.trace("EXIT");
 	}
 	
@@ -136,10 +143,46 @@ public class EmailServerHandler extends Thread implements EmailListener {
 	 */
 	public void stopRunning() {
 		this.running = false;
+		signalWork();
 		for (EmailAccount acc : serverHandlers.keySet()) {
 			serverHandlers.get(acc).stopRunning();
 		}
 	}
+	
+	/** @return the number of e-mails waiting to be sent, including those already passed to an {@link EmailSender} */
+	public int getOutboxSize() {
+		int size = outbox.size();
+		for (EmailSender sender : serverHandlers.values()) {
+			size += sender.getOutboxSize();
+		}
+		return size;
+	}
+	
+	/**
+	 * Gets the {@link EmailSender} for an account, for example to check its throughput.
+	 * @param account the account
+	 * @return the sender for the account, or <code>null</code> if no e-mails have been sent from it
+	 */
+	public EmailSender getEmailSender(EmailAccount account) {
+		return serverHandlers.get(account);
+	}
+	
+	/** Wakes the internal thread if it is waiting for e-mails to send. */
+	private void signalWork() {
+		if (workSignal.availablePermits() == 0) {
+			workSignal.release();
+		}
+	}
+	
+	/** Waits until {@link #signalWork()} is called. */
+	private void awaitWork() {
+		try {
+			workSignal.acquire();
+		} catch (InterruptedException ex) {
+			// Interrupted - just carry on with the next pass
+		}
+		workSignal.drainPermits();
+	}
 
 	public void outgoingEmailEvent(EmailSender sender, Email email) {
 		if (emailListener != null) {
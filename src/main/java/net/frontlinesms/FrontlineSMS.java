@@ -24,8 +24,8 @@ import java.util.*;
 
 import net.frontlinesms.data.*;
 import net.frontlinesms.data.domain.*;
+import net.frontlinesms.data.domain.FrontlineMessage.Priority;
 import net.frontlinesms.data.domain.FrontlineMessage.Status;
-import net.frontlinesms.data.domain.FrontlineMessage.Type;
 import net.frontlinesms.data.events.DatabaseEntityNotification;
 import net.frontlinesms.data.events.EntityDeleteWarning;
 import net.frontlinesms.data.events.EntityDeletedNotification;
@@ -52,6 +52,7 @@ import net.frontlinesms.plugins.PluginController;
 import net.frontlinesms.plugins.PluginControllerProperties;
 import net.frontlinesms.plugins.PluginProperties;
 import net.frontlinesms.resources.ResourceUtils;
+import net.frontlinesms.settings.DatabaseSettings;
 import net.frontlinesms.ui.UiGeneratorController;
 
 import org.apache.log4j.Logger;
@@ -173,6 +174,8 @@ public class FrontlineSMS implements SmsSender, SmsListener, EmailListener, Even
 		String databasePropertiesPath = ResourceUtils.getConfigDirectoryPath() + ResourceUtils.PROPERTIES_DIRECTORY_NAME + File.separatorChar + appProperties.getDatabaseConfigPath() + ".properties";
 		propertyPlaceholderConfigurer.setLocation(new FileSystemResource(new File(databasePropertiesPath)));
 		propertyPlaceholderConfigurer.setIgnoreResourceNotFound(true);
+		// Defaults for properties which may be missing from database properties files created by older versions
+		propertyPlaceholderConfigurer.setProperties(getDefaultDatabaseProperties());
 		applicationContext.addBeanFactoryPostProcessor(propertyPlaceholderConfigurer);
 		applicationContext.refresh();
 		
@@ -194,6 +197,17 @@ public class FrontlineSMS implements SmsSender, SmsListener, EmailListener, Even
 		eventBus = (EventBus) applicationContext.getBean("eventBus");
 	}
 	
+	/** @return default values for connection pool settings which are not defined in the database properties file */
+	private static Properties getDefaultDatabaseProperties() {
+		Properties defaults = new Properties();
+		defaults.setProperty(DatabaseSettings.PROPERTY_POOL_ENABLED, "true");
+		defaults.setProperty("pool.size.min", "1");
+		defaults.setProperty("pool.size.max", "10");
+		defaults.setProperty("pool.validation.query", "SELECT 1");
+		defaults.setProperty("pool.statement.cache.size", "50");
+		return defaults;
+	}
+	
 	/** Deinitialise {@link #applicationContext}. */
 	public void deinitApplicationContext() {
 		this.applicationContext.close();
@@ -222,7 +236,13 @@ public class FrontlineSMS implements SmsSender, SmsListener, EmailListener, Even
 			// Looks like this has been created already, so ignore the exception
 			LOG.debug("MMS keyword creation failed - already exists.");
 		}
-		
+
+		// Contacts saved by older versions may have phone numbers which are not in canonical form
+		int canonicalisedContacts = contactDao.canonicalisePhoneNumbers();
+		if(canonicalisedContacts > 0) {
+			LOG.info("Converted the phone numbers of " + canonicalisedContacts + " contact(s) to canonical form.");
+		}
+
 		if (this.eventBus != null) {
 			this.eventBus.registerObserver(this);
 		}
@@ -256,10 +276,9 @@ public class FrontlineSMS implements SmsSender, SmsListener, EmailListener, Even
 		emailServerManager.start();
 
 		LOG.debug("Re-Loading messages to outbox.");
-		//We need to reload all messages, which status is OUTBOX, to the outbox.
-		for (FrontlineMessage m : messageDao.getMessages(Type.OUTBOUND, Status.OUTBOX, Status.PENDING)) {
-			smsServiceManager.sendSMS(m);
-		}
+		//We need to reload all messages, which status is OUTBOX, to the outbox.  These are loaded
+		//gradually by the SmsServiceManager, so a large outbox is not all held in memory at once.
+		smsServiceManager.restoreOutbox(messageDao);
 
 		LOG.debug("Re-Loading e-mails to outbox.");
 		//We need to reload all email, which status is RETRYING, to the outbox.
@@ -455,6 +474,18 @@ public class FrontlineSMS implements SmsSender, SmsListener, EmailListener, Even
 	 * @return the {@link FrontlineMessage} describing the sent message
 	 */
 	public FrontlineMessage sendTextMessage(String targetNumber, String textContent) {
+		return sendTextMessage(targetNumber, textContent, Priority.NORMAL);
+	}
+	
+	/**
+	 * Sends an SMS using the phoneManager in the standard way, with the supplied priority.
+	 * @param targetNumber The recipient number.
+	 * @param textContent The message to be sent.
+	 * @param priority The priority with which the message should be sent.
+	 * @return the {@link FrontlineMessage} describing the sent message
+	 * @see #sendTextMessage(String, String)
+	 */
+	public FrontlineMessage sendTextMessage(String targetNumber, String textContent, Priority priority) {
 		LOG.trace("ENTER");
 		
 		// By default, currently replaces the name by the phone number if it's not in the contacts
@@ -480,6 +511,7 @@ public class FrontlineSMS implements SmsSender, SmsListener, EmailListener, Even
 			incomingMessageEvent(EMULATOR, new CIncomingMessage(System.currentTimeMillis(), FrontlineSMSConstants.EMULATOR_MSISDN, textContent.trim(), 1, "NYI"));
 		} else {
 			m = FrontlineMessage.createOutgoingMessage(System.currentTimeMillis(), "", targetNumber, textContent.trim());
+			m.setPriority(priority);
 			this.sendMessage(m);
 		}
 		LOG.trace("EXIT");
@@ -533,6 +565,12 @@ public class FrontlineSMS implements SmsSender, SmsListener, EmailListener, Even
 	public EmailDao getEmailDao() {
 		return emailDao;
 	}
+	/** @return the data source for the database, if it is a {@link PooledDataSource}; otherwise <code>null</code> */
+	public PooledDataSource getPooledDataSource() {
+		Object dataSource = this.applicationContext.getBean("dataSource");
+		if(dataSource instanceof PooledDataSource) return (PooledDataSource) dataSource;
+		else return null;
+	}
 	/** @return {@link #eventBus} */
 	public EventBus getEventBus() {
 		return eventBus;
@@ -67,6 +67,8 @@ public class FrontlineUtils {
 	private static Logger LOG = FrontlineUtils.getLogger(FrontlineUtils.class);
 	/** Date formatter used in logs. */
 	private static final SimpleDateFormat LOG_DATE_FORMATTER = new SimpleDateFormat();
+	/** Connect and read timeout, in millis, for HTTP requests.  A blocked socket read cannot be interrupted, so this bounds how long a timed-out keyword action can keep its thread. */
+	private static final int HTTP_REQUEST_TIMEOUT = 120000;
 
 	static {
 		loadLogConfiguration();
@@ -177,6 +179,8 @@ public class FrontlineUtils {
 		String str = "";
 		URL hp = new URL(url);
 		HttpURLConnection conn = (HttpURLConnection) hp.openConnection();
+		conn.setConnectTimeout(HTTP_REQUEST_TIMEOUT);
+		conn.setReadTimeout(HTTP_REQUEST_TIMEOUT);
 		int rc = conn.getResponseCode();
 		LOG.debug("RC = " + rc);
 		if (rc == HttpURLConnection.HTTP_OK) {
@@ -212,6 +216,8 @@ public class FrontlineUtils {
 		LOG.trace("ENTER");
 		URL hp = new URL(url);
 		URLConnection conn = hp.openConnection();
+		conn.setConnectTimeout(HTTP_REQUEST_TIMEOUT);
+		conn.setReadTimeout(HTTP_REQUEST_TIMEOUT);
 		conn.connect();
 		LOG.trace("EXIT");
 		return conn.getInputStream();
@@ -227,11 +233,27 @@ public class FrontlineUtils {
 	public static InputStream executeExternalProgram(String cmd) throws IOException, InterruptedException {
 		LOG.trace("ENTER");
 		Process p = Runtime.getRuntime().exec(cmd);
-		p.waitFor();
+		waitForOrDestroy(p);
 		LOG.trace("EXIT");
 		return p.getInputStream();
 	}
 
+	/**
+	 * Waits for a process to terminate.  If the waiting thread is interrupted, e.g. because the
+	 * keyword action running the process has timed out, the process is destroyed.
+	 * @param p the process to wait for
+	 * @return the exit value of the process
+	 * @throws InterruptedException if the waiting thread was interrupted
+	 */
+	private static int waitForOrDestroy(Process p) throws InterruptedException {
+		try {
+			return p.waitFor();
+		} catch(InterruptedException ex) {
+			p.destroy();
+			throw ex;
+		}
+	}
+
 	/**
 	 * This method executes a external command and returns the response according to the supplied parameter.
 	 * @param cmd Command to be executed.
@@ -246,7 +268,7 @@ public class FrontlineUtils {
 		Process p = Runtime.getRuntime().exec(cmd);
 		LOG.debug("Wait for response [" + waitForResponse + "]");
 		if (waitForResponse) {
-			int exit = p.waitFor();
+			int exit = waitForOrDestroy(p);
 			LOG.debug("Process exit value [" + exit + "]");
 			if (exit == 0) {
 				InputStream inputStream = null;
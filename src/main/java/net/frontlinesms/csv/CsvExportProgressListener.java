@@ -0,0 +1,17 @@
+/**
+ *
+ */
+package net.frontlinesms.csv;
+
+/**
+ * Listener notified of the progress of a long-running export by {@link CsvExporter}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public interface CsvExportProgressListener {
+	/**
+	 * Called each time a chunk of rows has been written to the export file.
+	 * @param exportedCount the number of rows written so far
+	 * @param totalCount the total number of rows expected to be written
+	 */
+	public void exportProgress(int exportedCount, int totalCount);
+}
@@ -23,11 +23,16 @@ import java.io.File;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import net.frontlinesms.FrontlineUtils;
+import net.frontlinesms.data.Order;
 import net.frontlinesms.data.domain.*;
 import net.frontlinesms.data.domain.FrontlineMessage.Type;
 import net.frontlinesms.data.repository.*;
@@ -57,6 +62,9 @@ public class CsvExporter {
 	/** The delimiter to use between group names when they are exported. */
 	public static final String GROUPS_DELIMITER = "\\"; 
 	
+	/** The number of messages exported at a time.  Contacts for each chunk are fetched with a single lookup. */
+	private static final int EXPORT_CHUNK_SIZE = 500;
+	
 //> UTILITY METHODS
 	/**
 	 * Exports the passed messages to a file.
@@ -102,18 +110,21 @@ public class CsvExporter {
 					CsvUtils.MARKER_RECIPIENT_NAME,		/*->*/ InternationalisationUtils.getI18nString(COMMON_RECIPIENT_NAME),
 					CsvUtils.MARKER_RECIPIENT_NUMBER,	/*->*/ InternationalisationUtils.getI18nString(COMMON_RECIPIENT_NUMBER),
 					CsvUtils.MARKER_MESSAGE_CONTENT,		/*->*/ InternationalisationUtils.getI18nString(COMMON_MESSAGE_CONTENT));
-			for (FrontlineMessage message : messages) {
-				Contact sender = contactDao.getFromMsisdn(message.getSenderMsisdn());
-				String senderName = sender == null ? "" : sender.getName();
-				Contact recipient = contactDao.getFromMsisdn(message.getRecipientMsisdn());
-				String recipientName = recipient == null ? "" : recipient.getName();
-				CsvUtils.writeLine(out, messageFormat, 
-					CsvUtils.MARKER_MESSAGE_DATE,		/*->*/ dateFormatter.format(new Date(message.getDate())),
-					CsvUtils.MARKER_SENDER_NAME,			/*->*/ senderName,
-					CsvUtils.MARKER_SENDER_NUMBER,		/*->*/ message.getSenderMsisdn(),
-					CsvUtils.MARKER_RECIPIENT_NAME,		/*->*/ recipientName,
-					CsvUtils.MARKER_RECIPIENT_NUMBER,	/*->*/ message.getSenderMsisdn(),
-					CsvUtils.MARKER_MESSAGE_CONTENT,		/*->*/ message.getTextContent().replace('\n', ' ').replace('\r', ' '));
+			for (List<? extends FrontlineMessage> chunk : chunk(messages)) {
+				Map<String, Contact> contacts = getContacts(chunk, contactDao);
+				for (FrontlineMessage message : chunk) {
+					Contact sender = contacts.get(message.getSenderMsisdn());
+					String senderName = sender == null ? "" : sender.getName();
+					Contact recipient = contacts.get(message.getRecipientMsisdn());
+					String recipientName = recipient == null ? "" : recipient.getName();
+					CsvUtils.writeLine(out, messageFormat, 
+						CsvUtils.MARKER_MESSAGE_DATE,		/*->*/ dateFormatter.format(new Date(message.getDate())),
+						CsvUtils.MARKER_SENDER_NAME,			/*->*/ senderName,
+						CsvUtils.MARKER_SENDER_NUMBER,		/*->*/ message.getSenderMsisdn(),
+						CsvUtils.MARKER_RECIPIENT_NAME,		/*->*/ recipientName,
+						CsvUtils.MARKER_RECIPIENT_NUMBER,	/*->*/ message.getSenderMsisdn(),
+						CsvUtils.MARKER_MESSAGE_CONTENT,		/*->*/ message.getTextContent().replace('\n', ' ').replace('\r', ' '));
+				}
 			}
 		} finally {
 			if (out != null) out.close();
@@ -131,6 +142,20 @@ public class CsvExporter {
 	 * @throws IOException
 	 */
 	public static void exportMessages(File exportFile, Collection<FrontlineMessage> messages, CsvRowFormat messageFormat, ContactDao contactFactory) throws IOException {
+		exportMessages(exportFile, messages, messageFormat, contactFactory, null);
+	}
+	
+	/**
+	 * Exports the passed messages to a file, using the given format.
+	 * 
+	 * @param exportFile Filenane to be exported.
+	 * @param messages List of messages to be exported.
+	 * @param messageFormat The desired message format.
+	 * @param contactFactory 
+	 * @param progressListener listener to notify of the export's progress, or <code>null</code> if none is required
+	 * @throws IOException
+	 */
+	public static void exportMessages(File exportFile, Collection<FrontlineMessage> messages, CsvRowFormat messageFormat, ContactDao contactFactory, CsvExportProgressListener progressListener) throws IOException {
 		LOG.trace("ENTER : messages: " + messages.size());
 		LOG.debug("Message format [" + messageFormat + "]");
 		LOG.debug("Filename [" + exportFile.getAbsolutePath() + "]");
@@ -140,63 +165,134 @@ public class CsvExporter {
 		try {
 			DateFormat dateFormatter = new SimpleDateFormat(InternationalisationUtils.getI18nString(DEFAULT_EXPORT_DATE_FORMAT));
 			out = new Utf8FileWriter(exportFile);
-			CsvUtils.writeLine(out, messageFormat,
-					CsvUtils.MARKER_MESSAGE_TYPE, InternationalisationUtils.getI18nString(COMMON_MESSAGE_TYPE),
-					CsvUtils.MARKER_MESSAGE_STATUS, InternationalisationUtils.getI18nString(COMMON_MESSAGE_STATUS),
-					CsvUtils.MARKER_MESSAGE_DATE, InternationalisationUtils.getI18nString(COMMON_MESSAGE_DATE),
-					CsvUtils.MARKER_MESSAGE_CONTENT, InternationalisationUtils.getI18nString(COMMON_MESSAGE_CONTENT),
-					CsvUtils.MARKER_SENDER_NUMBER, InternationalisationUtils.getI18nString(COMMON_SENDER_NUMBER),
-					CsvUtils.MARKER_RECIPIENT_NUMBER, InternationalisationUtils.getI18nString(COMMON_RECIPIENT_NUMBER),
-					CsvUtils.MARKER_CONTACT_NAME, InternationalisationUtils.getI18nString(COMMON_CONTACT_NAME),
-					CsvUtils.MARKER_CONTACT_OTHER_PHONE, InternationalisationUtils.getI18nString(COMMON_CONTACT_OTHER_PHONE_NUMBER),
-					CsvUtils.MARKER_CONTACT_EMAIL, InternationalisationUtils.getI18nString(COMMON_CONTACT_E_MAIL_ADDRESS),
-					CsvUtils.MARKER_CONTACT_NOTES, InternationalisationUtils.getI18nString(COMMON_CONTACT_NOTES));
-			for (FrontlineMessage message : messages) {
-				Contact c;
-				if (message.getType() == Type.RECEIVED) {
-					c = contactFactory.getFromMsisdn(message.getSenderMsisdn());
-				} else {
-					c = contactFactory.getFromMsisdn(message.getRecipientMsisdn());
-				}
-	
-				String name = "";
-				String otherPhone = "";
-				String email = "";
-				String notes = "";
-				String messageContent = "";
-	
-				if (c != null) {
-					name = c.getName();
-					otherPhone = c.getOtherPhoneNumber();
-					email = c.getEmailAddress();
-					notes = c.getNotes();
-				}
-				
-				if (message instanceof FrontlineMultimediaMessage) {
-					messageContent = ((FrontlineMultimediaMessage) message).toString(false);
-				} else {
-					messageContent = message.getTextContent();
-				}
+			writeMessagesHeader(out, messageFormat);
+			int exportedCount = 0;
+			for (List<FrontlineMessage> chunk : chunk(messages)) {
+				writeMessages(out, messageFormat, dateFormatter, chunk, contactFactory);
+				exportedCount += chunk.size();
+				if (progressListener != null) progressListener.exportProgress(exportedCount, messages.size());
+			}
+		} finally {
+			if (out != null) out.close();
+			LOG.trace("EXIT");
+		}
+	}
 	
-				CsvUtils.writeLine(out, messageFormat,
-					CsvUtils.MARKER_MESSAGE_TYPE, InternationalisationUtils.getI18nString(
-									message.getType() == Type.RECEIVED ? COMMON_RECEIVED : COMMON_SENT,
-									InternationalisationUtils.getDefaultLanguageBundle()),
-					CsvUtils.MARKER_MESSAGE_STATUS, UiGeneratorController.getMessageStatusAsString(message, InternationalisationUtils.getDefaultLanguageBundle()),
-					CsvUtils.MARKER_MESSAGE_DATE, dateFormatter.format(new Date(message.getDate())),
-					CsvUtils.MARKER_MESSAGE_CONTENT, messageContent.replace('\n', ' ').replace('\r', ' '),
-					CsvUtils.MARKER_SENDER_NUMBER, message.getSenderMsisdn(),
-					CsvUtils.MARKER_RECIPIENT_NUMBER, message.getRecipientMsisdn(),
-					CsvUtils.MARKER_CONTACT_NAME, name,
-					CsvUtils.MARKER_CONTACT_OTHER_PHONE, otherPhone,
-					CsvUtils.MARKER_CONTACT_EMAIL, email,
-					CsvUtils.MARKER_CONTACT_NOTES, notes);
+	/**
+	 * Exports all messages in the database to a file, using the given format.  Messages are read from
+	 * the database in chunks of {@link #EXPORT_CHUNK_SIZE}, so memory use does not grow with the number
+	 * of messages exported.
+	 * 
+	 * @param exportFile File to export to.
+	 * @param messageDao DAO to read the messages from
+	 * @param messageFormat The desired message format.
+	 * @param contactDao DAO to look up contact details of the messages' senders and recipients
+	 * @param progressListener listener to notify of the export's progress, or <code>null</code> if none is required
+	 * @throws IOException
+	 */
+	public static void exportAllMessages(File exportFile, MessageDao messageDao, CsvRowFormat messageFormat, ContactDao contactDao, CsvExportProgressListener progressListener) throws IOException {
+		LOG.trace("ENTER");
+		LOG.debug("Message format [" + messageFormat + "]");
+		LOG.debug("Filename [" + exportFile.getAbsolutePath() + "]");
+		
+		Utf8FileWriter out = null;
+		
+		try {
+			DateFormat dateFormatter = new SimpleDateFormat(InternationalisationUtils.getI18nString(DEFAULT_EXPORT_DATE_FORMAT));
+			int totalCount = messageDao.getMessageCount(Type.ALL, null, null);
+			int exportedCount = 0;
+			out = new Utf8FileWriter(exportFile);
+			writeMessagesHeader(out, messageFormat);
+			FrontlineMessage previous = null;
+			while (true) {
+				List<FrontlineMessage> chunk = messageDao.getMessagesAfter(Type.ALL, Order.ASCENDING, null, null, previous, EXPORT_CHUNK_SIZE);
+				if (chunk.isEmpty()) break;
+				writeMessages(out, messageFormat, dateFormatter, chunk, contactDao);
+				exportedCount += chunk.size();
+				previous = chunk.get(chunk.size() - 1);
+				if (progressListener != null) progressListener.exportProgress(exportedCount, Math.max(exportedCount, totalCount));
 			}
+			LOG.debug("Exported " + exportedCount + " messages.");
 		} finally {
 			if (out != null) out.close();
 			LOG.trace("EXIT");
 		}
 	}
+	
+	/**
+	 * Writes the header row for {@link #exportMessages(File, Collection, CsvRowFormat, ContactDao)}.
+	 * @param out the writer to write to
+	 * @param messageFormat The desired message format.
+	 * @throws IOException
+	 */
+	private static void writeMessagesHeader(Utf8FileWriter out, CsvRowFormat messageFormat) throws IOException {
+		CsvUtils.writeLine(out, messageFormat,
+				CsvUtils.MARKER_MESSAGE_TYPE, InternationalisationUtils.getI18nString(COMMON_MESSAGE_TYPE),
+				CsvUtils.MARKER_MESSAGE_STATUS, InternationalisationUtils.getI18nString(COMMON_MESSAGE_STATUS),
+				CsvUtils.MARKER_MESSAGE_DATE, InternationalisationUtils.getI18nString(COMMON_MESSAGE_DATE),
+				CsvUtils.MARKER_MESSAGE_CONTENT, InternationalisationUtils.getI18nString(COMMON_MESSAGE_CONTENT),
+				CsvUtils.MARKER_SENDER_NUMBER, InternationalisationUtils.getI18nString(COMMON_SENDER_NUMBER),
+				CsvUtils.MARKER_RECIPIENT_NUMBER, InternationalisationUtils.getI18nString(COMMON_RECIPIENT_NUMBER),
+				CsvUtils.MARKER_CONTACT_NAME, InternationalisationUtils.getI18nString(COMMON_CONTACT_NAME),
+				CsvUtils.MARKER_CONTACT_OTHER_PHONE, InternationalisationUtils.getI18nString(COMMON_CONTACT_OTHER_PHONE_NUMBER),
+				CsvUtils.MARKER_CONTACT_EMAIL, InternationalisationUtils.getI18nString(COMMON_CONTACT_E_MAIL_ADDRESS),
+				CsvUtils.MARKER_CONTACT_NOTES, InternationalisationUtils.getI18nString(COMMON_CONTACT_NOTES));
+	}
+	
+	/**
+	 * Writes a chunk of message rows for {@link #exportMessages(File, Collection, CsvRowFormat, ContactDao)}.
+	 * The contacts for the whole chunk are looked up at once.
+	 * @param out the writer to write to
+	 * @param messageFormat The desired message format.
+	 * @param dateFormatter formatter for message dates
+	 * @param messages the messages to write
+	 * @param contactDao DAO to look up contact details of the messages' senders and recipients
+	 * @throws IOException
+	 */
+	private static void writeMessages(Utf8FileWriter out, CsvRowFormat messageFormat, DateFormat dateFormatter, List<? extends FrontlineMessage> messages, ContactDao contactDao) throws IOException {
+		Map<String, Contact> contacts = getContacts(messages, contactDao);
+		for (FrontlineMessage message : messages) {
+			Contact c;
+			if (message.getType() == Type.RECEIVED) {
+				c = contacts.get(message.getSenderMsisdn());
+			} else {
+				c = contacts.get(message.getRecipientMsisdn());
+			}
+
+			String name = "";
+			String otherPhone = "";
+			String email = "";
+			String notes = "";
+			String messageContent = "";
+
+			if (c != null) {
+				name = c.getName();
+				otherPhone = c.getOtherPhoneNumber();
+				email = c.getEmailAddress();
+				notes = c.getNotes();
+			}
+			
+			if (message instanceof FrontlineMultimediaMessage) {
+				messageContent = ((FrontlineMultimediaMessage) message).toString(false);
+			} else {
+				messageContent = message.getTextContent();
+			}
+
+			CsvUtils.writeLine(out, messageFormat,
+				CsvUtils.MARKER_MESSAGE_TYPE, InternationalisationUtils.getI18nString(
+								message.getType() == Type.RECEIVED ? COMMON_RECEIVED : COMMON_SENT,
+								InternationalisationUtils.getDefaultLanguageBundle()),
+				CsvUtils.MARKER_MESSAGE_STATUS, UiGeneratorController.getMessageStatusAsString(message, InternationalisationUtils.getDefaultLanguageBundle()),
+				CsvUtils.MARKER_MESSAGE_DATE, dateFormatter.format(new Date(message.getDate())),
+				CsvUtils.MARKER_MESSAGE_CONTENT, messageContent.replace('\n', ' ').replace('\r', ' '),
+				CsvUtils.MARKER_SENDER_NUMBER, message.getSenderMsisdn(),
+				CsvUtils.MARKER_RECIPIENT_NUMBER, message.getRecipientMsisdn(),
+				CsvUtils.MARKER_CONTACT_NAME, name,
+				CsvUtils.MARKER_CONTACT_OTHER_PHONE, otherPhone,
+				CsvUtils.MARKER_CONTACT_EMAIL, email,
+				CsvUtils.MARKER_CONTACT_NOTES, notes);
+		}
+	}
 
 	/**
 	 * Exports the passed contacts to a file, using the given format.
@@ -215,29 +311,91 @@ public class CsvExporter {
 		
 		try {
 			out = new Utf8FileWriter(exportFile);
-			CsvUtils.writeLine(out, contactFormat,
-					CsvUtils.MARKER_CONTACT_NAME, InternationalisationUtils.getI18nString(COMMON_NAME),
-					CsvUtils.MARKER_CONTACT_PHONE, InternationalisationUtils.getI18nString(COMMON_PHONE_NUMBER),
-					CsvUtils.MARKER_CONTACT_OTHER_PHONE, InternationalisationUtils.getI18nString(COMMON_OTHER_PHONE_NUMBER),
-					CsvUtils.MARKER_CONTACT_EMAIL, InternationalisationUtils.getI18nString(COMMON_E_MAIL_ADDRESS),
-					CsvUtils.MARKER_CONTACT_STATUS, InternationalisationUtils.getI18nString(COMMON_CURRENT_STATUS),
-					CsvUtils.MARKER_CONTACT_NOTES, InternationalisationUtils.getI18nString(COMMON_NOTES),
-					CsvUtils.MARKER_CONTACT_GROUPS, InternationalisationUtils.getI18nString(COMMON_AT_LEAST_ONE_GROUP));
-			for (Contact contact : contacts) {
-				CsvUtils.writeLine(out, contactFormat, 
-					CsvUtils.MARKER_CONTACT_NAME, contact.getName(),
-					CsvUtils.MARKER_CONTACT_PHONE, contact.getPhoneNumber(),
-					CsvUtils.MARKER_CONTACT_OTHER_PHONE, contact.getOtherPhoneNumber(),
-					CsvUtils.MARKER_CONTACT_EMAIL, contact.getEmailAddress(),
-					CsvUtils.MARKER_CONTACT_STATUS, Boolean.toString(contact.isActive()),
-					CsvUtils.MARKER_CONTACT_NOTES, contact.getNotes(),
-					CsvUtils.MARKER_CONTACT_GROUPS, FrontlineUtils.contactGroupsAsString(groupMembershipDao.getGroups(contact), GROUPS_DELIMITER));
+			writeContactsHeader(out, contactFormat);
+			writeContacts(out, contactFormat, contacts, groupMembershipDao);
+		} finally {
+			if(out!= null) out.close();
+			LOG.trace("EXIT");
+		}
+	}
+	
+	/**
+	 * Exports all contacts in the database to a file, using the given format.  Contacts are read from
+	 * the database in chunks of {@link #EXPORT_CHUNK_SIZE}, so memory use does not grow with the number
+	 * of contacts exported.
+	 * 
+	 * @param exportFile File to export to.
+	 * @param contactDao DAO to read the contacts from
+	 * @param groupMembershipDao DAO to look up the groups of each contact
+	 * @param contactFormat The desired contact format.
+	 * @param progressListener listener to notify of the export's progress, or <code>null</code> if none is required
+	 * @throws IOException
+	 */
+	public static void exportAllContacts(File exportFile, ContactDao contactDao, GroupMembershipDao groupMembershipDao, CsvRowFormat contactFormat, CsvExportProgressListener progressListener) throws IOException {
+		LOG.trace("ENTER");
+		LOG.debug("Contact format [" + contactFormat + "]");
+		LOG.debug("Filename [" + exportFile.getAbsolutePath() + "]");
+		
+		Utf8FileWriter out = null;
+		
+		try {
+			int totalCount = contactDao.getContactCount();
+			int exportedCount = 0;
+			out = new Utf8FileWriter(exportFile);
+			writeContactsHeader(out, contactFormat);
+			Contact previous = null;
+			while (true) {
+				List<Contact> chunk = contactDao.getContactsAfter(previous, EXPORT_CHUNK_SIZE);
+				if (chunk.isEmpty()) break;
+				writeContacts(out, contactFormat, chunk, groupMembershipDao);
+				exportedCount += chunk.size();
+				previous = chunk.get(chunk.size() - 1);
+				if (progressListener != null) progressListener.exportProgress(exportedCount, Math.max(exportedCount, totalCount));
 			}
+			LOG.debug("Exported " + exportedCount + " contacts.");
 		} finally {
 			if(out!= null) out.close();
 			LOG.trace("EXIT");
 		}
 	}
+	
+	/**
+	 * Writes the header row for {@link #exportContacts(File, List, GroupMembershipDao, CsvRowFormat)}.
+	 * @param out the writer to write to
+	 * @param contactFormat The desired contact format.
+	 * @throws IOException
+	 */
+	private static void writeContactsHeader(Utf8FileWriter out, CsvRowFormat contactFormat) throws IOException {
+		CsvUtils.writeLine(out, contactFormat,
+				CsvUtils.MARKER_CONTACT_NAME, InternationalisationUtils.getI18nString(COMMON_NAME),
+				CsvUtils.MARKER_CONTACT_PHONE, InternationalisationUtils.getI18nString(COMMON_PHONE_NUMBER),
+				CsvUtils.MARKER_CONTACT_OTHER_PHONE, InternationalisationUtils.getI18nString(COMMON_OTHER_PHONE_NUMBER),
+				CsvUtils.MARKER_CONTACT_EMAIL, InternationalisationUtils.getI18nString(COMMON_E_MAIL_ADDRESS),
+				CsvUtils.MARKER_CONTACT_STATUS, InternationalisationUtils.getI18nString(COMMON_CURRENT_STATUS),
+				CsvUtils.MARKER_CONTACT_NOTES, InternationalisationUtils.getI18nString(COMMON_NOTES),
+				CsvUtils.MARKER_CONTACT_GROUPS, InternationalisationUtils.getI18nString(COMMON_AT_LEAST_ONE_GROUP));
+	}
+	
+	/**
+	 * Writes contact rows for {@link #exportContacts(File, List, GroupMembershipDao, CsvRowFormat)}.
+	 * @param out the writer to write to
+	 * @param contactFormat The desired contact format.
+	 * @param contacts the contacts to write
+	 * @param groupMembershipDao DAO to look up the groups of each contact
+	 * @throws IOException
+	 */
+	private static void writeContacts(Utf8FileWriter out, CsvRowFormat contactFormat, List<? extends Contact> contacts, GroupMembershipDao groupMembershipDao) throws IOException {
+		for (Contact contact : contacts) {
+			CsvUtils.writeLine(out, contactFormat, 
+				CsvUtils.MARKER_CONTACT_NAME, contact.getName(),
+				CsvUtils.MARKER_CONTACT_PHONE, contact.getPhoneNumber(),
+				CsvUtils.MARKER_CONTACT_OTHER_PHONE, contact.getOtherPhoneNumber(),
+				CsvUtils.MARKER_CONTACT_EMAIL, contact.getEmailAddress(),
+				CsvUtils.MARKER_CONTACT_STATUS, Boolean.toString(contact.isActive()),
+				CsvUtils.MARKER_CONTACT_NOTES, contact.getNotes(),
+				CsvUtils.MARKER_CONTACT_GROUPS, FrontlineUtils.contactGroupsAsString(groupMembershipDao.getGroups(contact), GROUPS_DELIMITER));
+		}
+	}
 
 	/**
 	 * Exports the passed keywords to a file, using the given format.
@@ -251,6 +409,24 @@ public class CsvExporter {
 	 * @throws IOException
 	 */
 	public static void exportKeywords(File exportFile, List<? extends Keyword> keywords, CsvRowFormat rowFormat, ContactDao contactFactory, MessageDao messageFactory, FrontlineMessage.Type messageType) throws IOException {
+		exportKeywords(exportFile, keywords, rowFormat, contactFactory, messageFactory, messageType, null);
+	}
+	
+	/**
+	 * Exports the passed keywords to a file, using the given format.  The messages for each keyword are
+	 * read from the database in chunks of {@link #EXPORT_CHUNK_SIZE}, so memory use does not grow with
+	 * the number of messages exported.
+	 * 
+	 * @param exportFile Filename to be exported.
+	 * @param keywords List of keywords to be exported.
+	 * @param rowFormat The desired message format.
+	 * @param contactFactory 
+	 * @param messageFactory 
+	 * @param messageType the type of messages to export for each keyword, or <code>null</code> to export no messages
+	 * @param progressListener listener to notify of the number of messages exported, or <code>null</code> if none is required
+	 * @throws IOException
+	 */
+	public static void exportKeywords(File exportFile, List<? extends Keyword> keywords, CsvRowFormat rowFormat, ContactDao contactFactory, MessageDao messageFactory, FrontlineMessage.Type messageType, CsvExportProgressListener progressListener) throws IOException {
 		LOG.trace("ENTER");
 		LOG.debug("Keyword format [" + rowFormat + "]");
 		LOG.debug("Filename [" + exportFile.getAbsolutePath() + "]");
@@ -273,6 +449,13 @@ public class CsvExporter {
 					CsvUtils.MARKER_CONTACT_OTHER_PHONE, /*->*/ InternationalisationUtils.getI18nString(COMMON_CONTACT_OTHER_PHONE_NUMBER),
 					CsvUtils.MARKER_CONTACT_EMAIL, 		/*->*/ InternationalisationUtils.getI18nString(COMMON_CONTACT_E_MAIL_ADDRESS),
 					CsvUtils.MARKER_CONTACT_NOTES, 		/*->*/ InternationalisationUtils.getI18nString(COMMON_CONTACT_NOTES));
+			int totalCount = 0;
+			if (messageType != null && progressListener != null) {
+				for (Keyword keyword : keywords) {
+					totalCount += messageFactory.getMessageCount(messageType, keyword, null, null);
+				}
+			}
+			int exportedCount = 0;
 			for (Keyword keyword : keywords) {
 				if (messageType == null) {
 					// User dont want any message from this keywords.
@@ -280,38 +463,14 @@ public class CsvExporter {
 							CsvUtils.MARKER_KEYWORD_KEY, 		/*->*/ keyword.getKeyword(),
 							CsvUtils.MARKER_KEYWORD_DESCRIPTION, /*->*/ keyword.getDescription());
 				} else {
-					for (FrontlineMessage message : messageFactory.getMessagesForKeyword(messageType, keyword)) {
-						Contact c;
-						if (message.getType() == Type.RECEIVED) {
-							c = contactFactory.getFromMsisdn(message.getSenderMsisdn());
-						} else {
-							c = contactFactory.getFromMsisdn(message.getRecipientMsisdn());
-						}
-	
-						String name = "";
-						String otherPhone = "";
-						String email = "";
-						String notes = "";
-	
-						if (c != null) {
-							name = c.getName();
-							otherPhone = c.getOtherPhoneNumber();
-							email = c.getEmailAddress();
-							notes = c.getNotes();
-						}
-						
-						CsvUtils.writeLine(out, rowFormat, 
-									CsvUtils.MARKER_KEYWORD_KEY,			/*->*/ keyword.getKeyword(),
-									CsvUtils.MARKER_KEYWORD_DESCRIPTION,	/*->*/ keyword.getDescription(),
-									CsvUtils.MARKER_MESSAGE_TYPE,		/*->*/ message.getType() == Type.RECEIVED ? InternationalisationUtils.getI18nString(COMMON_RECEIVED) : InternationalisationUtils.getI18nString(COMMON_SENT),
-									CsvUtils.MARKER_MESSAGE_DATE, 		/*->*/ dateFormatter.format(new Date(message.getDate())),
-									CsvUtils.MARKER_MESSAGE_CONTENT, 	/*->*/ message.getTextContent().replace('\n', ' ').replace('\r', ' '),
-									CsvUtils.MARKER_SENDER_NUMBER,		/*->*/ message.getSenderMsisdn(),
-									CsvUtils.MARKER_RECIPIENT_NUMBER,	/*->*/ message.getRecipientMsisdn(),
-									CsvUtils.MARKER_CONTACT_NAME,		/*->*/ name,
-									CsvUtils.MARKER_CONTACT_OTHER_PHONE, /*->*/ otherPhone,
-									CsvUtils.MARKER_CONTACT_EMAIL,		/*->*/ email,
-									CsvUtils.MARKER_CONTACT_NOTES,		/*->*/ notes);
+					FrontlineMessage previous = null;
+					while (true) {
+						List<FrontlineMessage> chunk = messageFactory.getMessagesForKeywordAfter(messageType, keyword, previous, EXPORT_CHUNK_SIZE);
+						if (chunk.isEmpty()) break;
+						writeKeywordMessages(out, rowFormat, dateFormatter, keyword, chunk, contactFactory);
+						exportedCount += chunk.size();
+						previous = chunk.get(chunk.size() - 1);
+						if (progressListener != null) progressListener.exportProgress(exportedCount, Math.max(exportedCount, totalCount));
 					}
 				}
 			}
@@ -321,6 +480,88 @@ public class CsvExporter {
 		}
 	}
 	
+	/**
+	 * Writes a chunk of message rows for {@link #exportKeywords(File, List, CsvRowFormat, ContactDao, MessageDao, FrontlineMessage.Type)}.
+	 * The contacts for the whole chunk are looked up at once.
+	 * @param out the writer to write to
+	 * @param rowFormat The desired row format.
+	 * @param dateFormatter formatter for message dates
+	 * @param keyword the keyword the messages were sent to
+	 * @param messages the messages to write
+	 * @param contactDao DAO to look up contact details of the messages' senders and recipients
+	 * @throws IOException
+	 */
+	private static void writeKeywordMessages(Utf8FileWriter out, CsvRowFormat rowFormat, DateFormat dateFormatter, Keyword keyword, List<FrontlineMessage> messages, ContactDao contactDao) throws IOException {
+		Map<String, Contact> contacts = getContacts(messages, contactDao);
+		for (FrontlineMessage message : messages) {
+			Contact c;
+			if (message.getType() == Type.RECEIVED) {
+				c = contacts.get(message.getSenderMsisdn());
+			} else {
+				c = contacts.get(message.getRecipientMsisdn());
+			}
+
+			String name = "";
+			String otherPhone = "";
+			String email = "";
+			String notes = "";
+
+			if (c != null) {
+				name = c.getName();
+				otherPhone = c.getOtherPhoneNumber();
+				email = c.getEmailAddress();
+				notes = c.getNotes();
+			}
+		
+			CsvUtils.writeLine(out, rowFormat, 
+						CsvUtils.MARKER_KEYWORD_KEY,			/*->*/ keyword.getKeyword(),
+						CsvUtils.MARKER_KEYWORD_DESCRIPTION,	/*->*/ keyword.getDescription(),
+						CsvUtils.MARKER_MESSAGE_TYPE,		/*->*/ message.getType() == Type.RECEIVED ? InternationalisationUtils.getI18nString(COMMON_RECEIVED) : InternationalisationUtils.getI18nString(COMMON_SENT),
+						CsvUtils.MARKER_MESSAGE_DATE, 		/*->*/ dateFormatter.format(new Date(message.getDate())),
+						CsvUtils.MARKER_MESSAGE_CONTENT, 	/*->*/ message.getTextContent().replace('\n', ' ').replace('\r', ' '),
+						CsvUtils.MARKER_SENDER_NUMBER,		/*->*/ message.getSenderMsisdn(),
+						CsvUtils.MARKER_RECIPIENT_NUMBER,	/*->*/ message.getRecipientMsisdn(),
+						CsvUtils.MARKER_CONTACT_NAME,		/*->*/ name,
+						CsvUtils.MARKER_CONTACT_OTHER_PHONE, /*->*/ otherPhone,
+						CsvUtils.MARKER_CONTACT_EMAIL,		/*->*/ email,
+						CsvUtils.MARKER_CONTACT_NOTES,		/*->*/ notes);
+		}
+	}
+	
+	/**
+	 * Looks up the contacts who sent or received a chunk of messages.
+	 * @param messages the messages
+	 * @param contactDao DAO to look up the contacts with
+	 * @return map from phone number to contact, for the senders and recipients of the messages
+	 */
+	private static Map<String, Contact> getContacts(Collection<? extends FrontlineMessage> messages, ContactDao contactDao) {
+		Set<String> phoneNumbers = new HashSet<String>();
+		for (FrontlineMessage message : messages) {
+			phoneNumbers.add(message.getSenderMsisdn());
+			phoneNumbers.add(message.getRecipientMsisdn());
+		}
+		return contactDao.getFromMsisdns(phoneNumbers);
+	}
+	
+	/**
+	 * Splits a collection into lists of at most {@link #EXPORT_CHUNK_SIZE} items.
+	 * @param <T> the type of the items
+	 * @param items the items to split
+	 * @return the items, in chunks
+	 */
+	private static <T> List<List<T>> chunk(Collection<T> items) {
+		List<List<T>> chunks = new ArrayList<List<T>>();
+		List<T> chunk = null;
+		for (T item : items) {
+			if (chunk == null || chunk.size() == EXPORT_CHUNK_SIZE) {
+				chunk = new ArrayList<T>(EXPORT_CHUNK_SIZE);
+				chunks.add(chunk);
+			}
+			chunk.add(item);
+		}
+		return chunks;
+	}
+	
 	/** @return the default pattern for exporting messages */
 	private static final CsvRowFormat getDefaultMessageExportFormat() {
 		CsvRowFormat rowFormat = new CsvRowFormat();
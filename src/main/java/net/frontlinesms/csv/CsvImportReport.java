@@ -1,15 +1,54 @@
 /**
- * 
+ *
  */
 package net.frontlinesms.csv;
 
 /**
+ * Report of the outcome of an import.  Counts are updated while the import is in progress, so they
+ * may be read from another thread to report progress.
  * @author Alex Anderson <alex@frontlinesms.com>
  */
 public class CsvImportReport {
-	private boolean successful;
-	
+	private volatile boolean successful;
+	/** The number of lines of values read from the import file so far */
+	private volatile int rowCount;
+	/** The number of new entities created so far */
+	private volatile int createdCount;
+	/** The number of lines read so far which matched entities which already existed */
+	private volatile int existingCount;
+
 	public boolean isSuccessful() {
 		return this.successful;
 	}
+
+	public void setSuccessful(boolean successful) {
+		this.successful = successful;
+	}
+
+	/** @return {@link #rowCount} */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/** @return {@link #createdCount} */
+	public int getCreatedCount() {
+		return createdCount;
+	}
+
+	/** @return {@link #existingCount} */
+	public int getExistingCount() {
+		return existingCount;
+	}
+
+	/**
+	 * Records the outcome of importing a number of lines.
+	 * @param rowCount the number of lines imported
+	 * @param createdCount the number of new entities created from the lines
+	 * @param existingCount the number of lines which matched entities which already existed
+	 */
+	public synchronized void addRows(int rowCount, int createdCount, int existingCount) {
+		this.rowCount += rowCount;
+		this.createdCount += createdCount;
+		this.existingCount += existingCount;
+	}
 }
@@ -40,6 +40,8 @@ public abstract class CsvImporter {
 //> INSTANCE VARIABLES
 	/** Logging object */
 	protected Logger log = FrontlineUtils.getLogger(this.getClass());
+	/** The file values are imported from */
+	private final File importFile;
 	/** The first line of values as loaded from disk */
 	private String[] rawFirstLine;
 	/** Raw values as loaded from disk */
@@ -47,7 +49,20 @@ public abstract class CsvImporter {
 	
 //> CONSTRUCTORS
 	protected CsvImporter(File importFile) throws CsvParseException {
-		this.loadValuesFromCsvFile(importFile);
+		this(importFile, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Create a new {@link CsvImporter}, loading no more than <code>maxRawValues</code> lines into
+	 * {@link #rawValues}.  Subclasses which use this constructor should read the complete file
+	 * with {@link #openValueReader()} when importing.
+	 * @param importFile the file to import from
+	 * @param maxRawValues the maximum number of lines, after the first, to load into {@link #rawValues}
+	 * @throws CsvParseException If there was a problem with the format of the file
+	 */
+	protected CsvImporter(File importFile, int maxRawValues) throws CsvParseException {
+		this.importFile = importFile;
+		this.loadValuesFromCsvFile(maxRawValues);
 	}
 
 //> ACCESSORS
@@ -55,35 +70,47 @@ public abstract class CsvImporter {
 		return this.rawFirstLine;
 	}
 
+	/** @return the first lines of values after {@link #rawFirstLine}, up to the limit supplied to the constructor */
 	public List<String[]> getRawValues() {
 		return this.rawValues;
 	}
-
-//> LOAD METHODS
+	
 	/**
-	 * Import contacts from a CSV file.
-	 * @param filename the file to import from
-	 * @param rowFormat 
+	 * Opens the import file, and skips the first line.  The caller is responsible for closing the returned reader.
+	 * @return a {@link CsvReader} for all lines of the import file after {@link #rawFirstLine}
 	 * @throws IOException If there was a problem accessing the file
 	 * @throws CsvParseException If there was a problem with the format of the file
 	 */
-	private void loadValuesFromCsvFile(File importFile) throws CsvParseException {
+	protected CsvReader openValueReader() throws IOException, CsvParseException {
+		CsvReader reader = new CsvReader(new Utf8FileReader(this.importFile));
+		try {
+			reader.readLine();
+			return reader;
+		} catch(CsvParseException ex) {
+			reader.close();
+			throw ex;
+		}
+	}
+
+//> LOAD METHODS
+	/**
+	 * Load the first lines of the import file into {@link #rawFirstLine} and {@link #rawValues}.
+	 * @param maxRawValues the maximum number of lines, after the first, to load into {@link #rawValues}
+	 * @throws CsvParseException If there was a problem accessing the file, or with the format of the file
+	 */
+	private void loadValuesFromCsvFile(int maxRawValues) throws CsvParseException {
 		log.trace("ENTER");
 		List<String[]> valuesList = new ArrayList<String[]>();
 		
 		if(log.isDebugEnabled()) log.debug("File [" + importFile.getAbsolutePath() + "]");
-		Utf8FileReader reader = null;
+		CsvReader reader = null;
 		try {
-			reader = new Utf8FileReader(importFile);
-			boolean firstLine = true;
+			reader = new CsvReader(new Utf8FileReader(importFile));
+			this.rawFirstLine = reader.readLine();
 			String[] lineValues;
-			while((lineValues = CsvUtils.readLine(reader)) != null) {
-				if(firstLine) {
-					firstLine = false;
-					this.rawFirstLine = lineValues;
-				} else {
-					valuesList.add(lineValues);
-				}
+			while(valuesList.size() < maxRawValues
+					&& (lineValues = reader.readLine()) != null) {
+				valuesList.add(lineValues);
 			}
 		} catch(IOException ex) {
 			throw new CsvParseException(ex);
@@ -0,0 +1,164 @@
+/**
+ *
+ */
+package net.frontlinesms.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * Reads lines of CSV from a {@link Reader}, following RFC 4180: http://tools.ietf.org/html/rfc4180
+ *
+ * Characters are read from the underlying {@link Reader} into an internal buffer, rather than one at
+ * a time, and the buffers used to build values are reused between lines.  This makes reading large
+ * files considerably cheaper than repeated calls to {@link CsvUtils#readLine(Reader)}.
+ *
+ * This class is not threadsafe.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class CsvReader implements Closeable {
+//> STATIC CONSTANTS
+	/** Default size of {@link #buffer} */
+	private static final int DEFAULT_BUFFER_SIZE = 8192;
+	/** Value returned by {@link #read()} when the end of the reader has been reached. */
+	private static final int END = -1;
+	/** Carriage return character. */
+	private static final char CR = '\r';
+	/** The newline character. */
+	private static final char LF = '\n';
+	/** The '"' (inverted comma) character. */
+	private static final char QUOTE = '"';
+	/** The comma character, used for separating items in a line of CSV */
+	private static final char SEPARATOR = ',';
+
+//> INSTANCE PROPERTIES
+	/** The reader CSV is read from */
+	private final Reader reader;
+	/** Characters read from {@link #reader} which have not yet been parsed */
+	private final char[] buffer;
+	/** The index of the next character to parse in {@link #buffer} */
+	private int bufferPosition;
+	/** The number of valid characters in {@link #buffer} */
+	private int bufferLength;
+	/** Values read so far on the current line */
+	private final ArrayList<String> lineValues = new ArrayList<String>();
+	/** The value currently being read */
+	private final StringBuilder currentValue = new StringBuilder();
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new {@link CsvReader} with the default buffer size.
+	 * @param reader value for {@link #reader}
+	 */
+	public CsvReader(Reader reader) {
+		this(reader, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Create a new {@link CsvReader}.  N.B. up to <code>bufferSize</code> characters past the end of the
+	 * last line read may be consumed from the reader.
+	 * @param reader value for {@link #reader}
+	 * @param bufferSize size of {@link #buffer}
+	 */
+	CsvReader(Reader reader, int bufferSize) {
+		this.reader = reader;
+		this.buffer = new char[bufferSize];
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Read a line of CSV and split the line into an array of unescaped values.  Empty lines are skipped.
+	 * @return Array containing list of values on this line, or <code>null</code> if the end of the file was reached before reading any values
+	 * @throws IOException if there was a problem reading from {@link #reader}
+	 * @throws CsvParseException if the CSV was badly formatted
+	 */
+	public String[] readLine() throws IOException, CsvParseException {
+		lineValues.clear();
+		currentValue.setLength(0);
+		boolean insideQuotes = false;
+		int read = read();
+		// if there was NOTHING here, just return null.
+		if(read == END) return null;
+		while(read != END) {
+			if(insideQuotes) {
+				if(read == QUOTE) {
+					// This is either the end of the quoted section, or an escaped quote character
+					read = read();
+					if(read == QUOTE) {
+						currentValue.append(QUOTE);
+						read = read();
+					} else if(read == SEPARATOR || read == CR || read == LF || read == END) {
+						insideQuotes = false;
+						endValue();
+						read = read();
+					} else {
+						throw new CsvParseException("We've reached the end of the quoted section, but apparently not the end of the value.  Only sensible option here is the end of the line...");
+					}
+				} else {
+					currentValue.append((char)read);
+					read = read();
+				}
+			} else {
+				if(read == QUOTE) {
+					if(currentValue.length() > 0)
+						throw new CsvParseException("Unexpected characters before quote in value: '" + currentValue.toString() + "'");
+					insideQuotes = true;
+				} else if(read == SEPARATOR) {
+					endValue();
+				} else if(read == CR || read == LF) {
+					// Accept CRLF, CR or LF as line terminators, and ignore empty lines
+					if(currentValue.length() > 0) {
+						endValue();
+					}
+					if(lineValues.size() > 0) {
+						return getLineValues();
+					}
+				} else {
+					currentValue.append((char)read);
+				}
+				read = read();
+			}
+		}
+		// This is the end of the reader.  Add the value we are building, and return the line.
+		if(currentValue.length() > 0) {
+			endValue();
+		}
+		return lineValues.size() == 0 ? null : getLineValues();
+	}
+
+	/** Closes {@link #reader}. */
+	public void close() {
+		CsvUtils.close(this.reader);
+	}
+
+	/** Adds {@link #currentValue} to {@link #lineValues}, and clears it ready for the next value. */
+	private void endValue() {
+		lineValues.add(currentValue.toString());
+		currentValue.setLength(0);
+	}
+
+	/** @return the values in {@link #lineValues} as an array */
+	private String[] getLineValues() {
+		return lineValues.toArray(new String[lineValues.size()]);
+	}
+
+	/**
+	 * Gets the next character, refilling {@link #buffer} from {@link #reader} if necessary.
+	 * @return the next character, or {@link #END} if the end of {@link #reader} has been reached
+	 * @throws IOException if there was a problem reading from {@link #reader}
+	 */
+	private int read() throws IOException {
+		if(bufferPosition == bufferLength) {
+			int count;
+			do {
+				count = reader.read(buffer, 0, buffer.length);
+			} while(count == 0);
+			if(count == END) return END;
+			bufferPosition = 0;
+			bufferLength = count;
+		}
+		return buffer[bufferPosition++];
+	}
+}
@@ -21,11 +21,9 @@ package net.frontlinesms.csv;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
-import java.util.ArrayList;
 import java.util.Iterator;
 
 import net.frontlinesms.data.domain.Contact;
@@ -78,8 +76,6 @@ public class CsvUtils {
 	/** Character encoding String for UTF-8 */
 	static final String ENCODING_UTF8 = "UTF-8";
 	
-	/** Value read from an {@link InputStream} when the end has been reached. */
-	private static final int END = -1;
 	/** Carriage return character. */
 	private static final char CR = '\r';
 	/** The newline character. */
@@ -154,92 +150,16 @@ public class CsvUtils {
 	 * of unescaped values.
 	 * 
 	 * Reads following RFC 4180, http://tools.ietf.org/html/rfc4180
+	 * 
+	 * To read many lines from the same reader, {@link CsvReader} is much more efficient.
 	 * @param reader
 	 * @return Array containing list of values on this line, or <code>null</code> if the end of the file was reached before reading any characters
 	 * @throws IOException
 	 * @throws CsvParseException 
 	 */
 	public static String[] readLine(Reader reader) throws IOException, CsvParseException {
-		ArrayList<String> readStrings = new ArrayList<String>();
-		int read;
-		StringBuilder lastValue = new StringBuilder();
-		boolean insideQuotes = false;
-		read = reader.read();
-		// if there was NOTHING here, just return null.
-		if(read == END) return null;
-		while(read != END) {
-			if(insideQuotes) {
-				// If we're inside quotes, we need to carry on building our response
-				// until we have ended the quotes again!
-				if(read == QUOTE) {
-					// We've read a quote character.  This is either the end of the escaped section,
-					// or it is an escaped quote character, or it is the end of the line.  Any other
-					// value is unexpected.
-					read = reader.read();
-					if(read == QUOTE) {
-						// We've found two quotes in a row, which is actually read as a single, escaped, quote character.
-						lastValue.append(QUOTE);
-						// We're still inside our quoted region, so: on to the next character!
-						read = reader.read();
-					} else if(read == SEPARATOR || read == CR || read == LF || read == END) {
-						// We've finished this value, so we should continue to the next one
-						insideQuotes = false;
-						readStrings.add(lastValue.toString());
-						lastValue.delete(0, Integer.MAX_VALUE);
-						read = reader.read();
-					} else {
-						// Can anything else appear here?  Should be the end of this value!
-						throw new CsvParseException("We've reached the end of the quoted section, but apparently not the end of the value.  Only sensible option here is the end of the line...");
-					}
-				} else {
-					// This is just a regular character in this value.  Add it 
-					// to the builder, and carry on parsing.
-					lastValue.append((char)read);
-					read = reader.read();
-				}
-			} else {
-				// We're not inside quotes.  At this stage, action characters are:
-				//   - single quote - when this occurs, we are now inside quotes
-				//   - end of line - if there is a line termination.  In ISO spec, this is \r\n,
-				//     and this is what we search for.
-				if(read == QUOTE) {
-					// We're starting a quoted value, it seems.  There should be nothing else
-					// read from the reader for this value.  If there was anything read, and
-					// it wasn't whitespace, then there is something funny going on.
-					if(lastValue.length() > 0)
-						throw new CsvParseException("Unexpected characters before quote in value: '" + lastValue.toString() + "'");
-					insideQuotes = true;
-				} else if(read == SEPARATOR) {
-					// We've finished this value, so we should continue to the next one
-					readStrings.add(lastValue.toString());
-					lastValue.delete(0, Integer.MAX_VALUE);
-				} else if(read == CR || read == LF) {
-					// In case we are seeing combinations like CRLF, or only CR or LF alone, accept all and ignore empty lines
-
-					if(lastValue.length() > 0) {
-						// we've finished the line, with a new value!
-						readStrings.add(lastValue.toString());
-					} if(readStrings.size() > 0) {
-						return readStrings.toArray(new String[readStrings.size()]);
-					}
-				} else {
-					lastValue.append((char)read);
-				}
-				read = reader.read();
-			}
-		}
-		// This is the end of the reader.  Add the current value we are building,
-		// and return the string array.
-		if(lastValue.length() > 0) {
-			readStrings.add(lastValue.toString());
-		}
-		
-		if(readStrings.size() == 0) {
-			// We have reached the end of the file, so return null here
-			return null;
-		} else {
-			return readStrings.toArray(new String[readStrings.size()]);
-		}
+		// Read a single character at a time, so that nothing past the end of this line is consumed from the reader
+		return new CsvReader(reader, 1).readLine();
 	}
 	
 	/**
@@ -62,6 +62,12 @@ public final class Utf8FileReader extends Reader {
 		CsvUtils.close(this.fileInputStream);
 	}
 
+	/** @see BufferedReader#read() */
+	@Override
+	public int read() throws IOException {
+		return this.bufferedReader.read();
+	}
+
 	/** @see BufferedReader#read(char[], int, int) */
 	@Override
 	public int read(char[] cbuf, int off, int len) throws IOException {
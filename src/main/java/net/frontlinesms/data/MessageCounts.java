@@ -0,0 +1,72 @@
+/**
+ *
+ */
+package net.frontlinesms.data;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.data.domain.FrontlineMessage.Type;
+
+/**
+ * The number of {@link FrontlineMessage}s, and the number of SMS parts they were sent or received in,
+ * for each {@link Type} of message.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class MessageCounts {
+//> INSTANCE PROPERTIES
+	/** Number of messages of each type */
+	private final Map<Type, Integer> messageCounts = new EnumMap<Type, Integer>(Type.class);
+	/** Number of SMS parts used by messages of each type */
+	private final Map<Type, Integer> smsPartCounts = new EnumMap<Type, Integer>(Type.class);
+
+//> ACCESSORS
+	/** @return the total number of messages */
+	public int getMessageCount() {
+		int total = 0;
+		for(int count : messageCounts.values()) total += count;
+		return total;
+	}
+
+	/**
+	 * @param type a message type, or {@link Type#ALL}
+	 * @return the number of messages of the supplied type
+	 */
+	public int getMessageCount(Type type) {
+		if(type == Type.ALL) return getMessageCount();
+		return get(messageCounts, type);
+	}
+
+	/**
+	 * @param type a message type, or {@link Type#ALL}
+	 * @return the number of SMS parts used by messages of the supplied type
+	 */
+	public int getSmsPartCount(Type type) {
+		if(type == Type.ALL) {
+			int total = 0;
+			for(int count : smsPartCounts.values()) total += count;
+			return total;
+		}
+		return get(smsPartCounts, type);
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Adds to the counts for a message type.
+	 * @param type the message type
+	 * @param messageCount number of messages to add
+	 * @param smsPartCount number of SMS parts to add
+	 */
+	public void add(Type type, int messageCount, int smsPartCount) {
+		messageCounts.put(type, get(messageCounts, type) + messageCount);
+		smsPartCounts.put(type, get(smsPartCounts, type) + smsPartCount);
+	}
+
+//> STATIC HELPER METHODS
+	/** @return the count for the supplied type, or zero if there is none */
+	private static int get(Map<Type, Integer> counts, Type type) {
+		Integer count = counts.get(type);
+		return count == null ? 0 : count;
+	}
+}
@@ -0,0 +1,780 @@
+/**
+ *
+ */
+package net.frontlinesms.data;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import net.frontlinesms.FrontlineUtils;
+
+/**
+ * {@link DataSource} which keeps a pool of open connections to another {@link DataSource}, so that
+ * a new physical connection does not need to be opened for every Hibernate session.
+ *
+ * Connections handed out by this pool are proxies; closing them returns the physical connection to
+ * the pool.  Idle connections are checked with {@link #validationQuery} before being reused if they
+ * have been idle for longer than {@link #validationInterval}.  Each physical connection also keeps
+ * a cache of up to {@link #statementCacheSize} {@link PreparedStatement}s, keyed on their SQL.
+ * Every statement handed out is also a proxy, and statements left open by a client are closed
+ * when its connection is returned.  Neither connections nor statements give clients access to the
+ * physical objects they wrap.
+ *
+ * If {@link #pooled} is <code>false</code>, or {@link #maxSize} is <code>0</code>, pooling is disabled
+ * and every call to {@link #getConnection()} opens a new connection to {@link #targetDataSource}.
+ *
+ * Pool and statement cache statistics are logged every {@link #STATISTICS_LOG_INTERVAL} borrows, and
+ * can be read with the metrics accessors.
+ *
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class PooledDataSource extends AbstractDataSource implements InitializingBean, DisposableBean {
+//> STATIC CONSTANTS
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(PooledDataSource.class);
+	/** The number of connections borrowed between each log of the pool's statistics */
+	private static final int STATISTICS_LOG_INTERVAL = 10000;
+
+//> CONFIGURATION PROPERTIES
+	/** The data source which physical connections are opened from */
+	private DataSource targetDataSource;
+	/** <code>false</code> if connections should not be pooled */
+	private boolean pooled = true;
+	/** The number of connections opened when the pool is started */
+	private int minSize = 1;
+	/** The maximum number of connections open at once.  <code>0</code> disables pooling. */
+	private int maxSize = 10;
+	/** The maximum time, in millis, to wait for a connection to become available before failing */
+	private long maxWait = 30000;
+	/** SQL run to check that an idle connection is still usable, or <code>null</code> to only check {@link Connection#isClosed()} */
+	private String validationQuery;
+	/** Connections which have been idle for longer than this, in millis, are validated before being reused */
+	private long validationInterval = 30000;
+	/** The maximum number of prepared statements cached per connection.  <code>0</code> disables statement caching. */
+	private int statementCacheSize = 50;
+
+//> INSTANCE PROPERTIES
+	/** Idle connections, most recently used first.  Access is synchronized on this. */
+	private final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+	/** The number of physical connections currently open, idle or in use.  Access is synchronized on this. */
+	private int openCount;
+	/** Set <code>true</code> once {@link #destroy()} has been called.  Access is synchronized on this. */
+	private boolean closed;
+
+	/** The number of physical connections which have been opened */
+	private final AtomicLong createdCount = new AtomicLong();
+	/** The number of connections which have been handed out */
+	private final AtomicLong borrowedCount = new AtomicLong();
+	/** The number of borrows which had to wait for a connection to be returned */
+	private final AtomicLong waitCount = new AtomicLong();
+	/** The number of borrows which gave up waiting after {@link #maxWait} */
+	private final AtomicLong timeoutCount = new AtomicLong();
+	/** The total time, in millis, spent waiting for connections */
+	private final AtomicLong totalWaitTime = new AtomicLong();
+	/** The number of idle connections discarded because they failed validation */
+	private final AtomicLong invalidCount = new AtomicLong();
+	/** The number of prepared statements served from a statement cache */
+	private final AtomicLong statementCacheHits = new AtomicLong();
+	/** The number of cacheable prepared statements which were not found in a statement cache */
+	private final AtomicLong statementCacheMisses = new AtomicLong();
+
+//> LIFECYCLE METHODS
+	/** Opens the initial {@link #minSize} connections. */
+	public void afterPropertiesSet() {
+		if(targetDataSource == null) throw new IllegalArgumentException("targetDataSource must be set.");
+		if(!isPooled()) return;
+		List<Connection> initial = new LinkedList<Connection>();
+		try {
+			for(int i=0; i<Math.min(minSize, maxSize); ++i) {
+				initial.add(getConnection());
+			}
+		} catch(SQLException ex) {
+			// Failure to connect will be reported when the connection is first used
+			LOG.warn("Failed to open initial database connections.", ex);
+		}
+		for(Connection c : initial) {
+			try { c.close(); } catch(SQLException ex) { /* returning to pool does not throw */ }
+		}
+	}
+
+	/** Closes all idle connections.  Connections which are in use are closed when they are returned. */
+	public void destroy() {
+		List<PooledConnection> toClose;
+		synchronized(this) {
+			closed = true;
+			toClose = new LinkedList<PooledConnection>(idle);
+			idle.clear();
+			notifyAll();
+		}
+		for(PooledConnection c : toClose) {
+			discard(c);
+		}
+		LOG.info("Connection pool closed: " + this);
+	}
+
+//> DATASOURCE METHODS
+	public Connection getConnection() throws SQLException {
+		if(!isPooled()) return targetDataSource.getConnection();
+
+		PooledConnection connection = borrow();
+		if(borrowedCount.incrementAndGet() % STATISTICS_LOG_INTERVAL == 0) {
+			LOG.info("Connection pool: " + this);
+		}
+		return connection.open();
+	}
+
+	/**
+	 * Opens a connection to {@link #targetDataSource} with the supplied credentials.  Pooled
+	 * connections all use the credentials configured on the target data source, so connections
+	 * for other credentials are not pooled.
+	 */
+	public Connection getConnection(String username, String password) throws SQLException {
+		return targetDataSource.getConnection(username, password);
+	}
+
+//> POOL METHODS
+	/**
+	 * Takes a valid idle connection from the pool, opens a new one if the pool is not full, or waits
+	 * for one to be returned.
+	 * @return a connection which is not in use by any other thread
+	 * @throws SQLException if no connection became available within {@link #maxWait}, or a new connection could not be opened
+	 */
+	private PooledConnection borrow() throws SQLException {
+		long startTime = System.currentTimeMillis();
+		boolean waited = false;
+		boolean waitRecorded = false;
+		while(true) {
+			PooledConnection candidate = null;
+			boolean create = false;
+			synchronized(this) {
+				if(closed) throw new SQLException("Connection pool has been closed.");
+				if(!idle.isEmpty()) {
+					candidate = idle.removeFirst();
+				} else if(openCount < maxSize) {
+					++openCount;
+					create = true;
+				} else {
+					long remaining = startTime + maxWait - System.currentTimeMillis();
+					if(remaining <= 0) {
+						timeoutCount.incrementAndGet();
+						throw new SQLException("Timed out after " + maxWait + "ms waiting for a database connection.  Pool status: " + this);
+					}
+					if(!waited) {
+						waited = true;
+						waitCount.incrementAndGet();
+					}
+					try {
+						wait(remaining);
+					} catch(InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a database connection.");
+					}
+					continue;
+				}
+			}
+			if(waited && !waitRecorded) {
+				waitRecorded = true;
+				totalWaitTime.addAndGet(System.currentTimeMillis() - startTime);
+			}
+
+			if(create) {
+				try {
+					Connection physical = targetDataSource.getConnection();
+					createdCount.incrementAndGet();
+					return new PooledConnection(physical);
+				} catch(SQLException ex) {
+					connectionClosed();
+					throw ex;
+				} catch(RuntimeException ex) {
+					connectionClosed();
+					throw ex;
+				}
+			}
+
+			if(isValid(candidate)) return candidate;
+			invalidCount.incrementAndGet();
+			discard(candidate);
+		}
+	}
+
+	/**
+	 * Returns a connection to the pool once its proxy has been closed.
+	 * @param connection the connection being returned
+	 */
+	private void release(PooledConnection connection) {
+		boolean reusable;
+		try {
+			reusable = connection.reset();
+		} catch(SQLException ex) {
+			LOG.warn("Failed to reset pooled connection; discarding it.", ex);
+			reusable = false;
+		}
+
+		if(reusable) {
+			synchronized(this) {
+				if(!closed) {
+					connection.lastUsed = System.currentTimeMillis();
+					idle.addFirst(connection);
+					notifyAll();
+					return;
+				}
+			}
+		}
+		discard(connection);
+	}
+
+	/**
+	 * Closes a physical connection and removes it from the pool's count of open connections.
+	 * @param connection the connection to close
+	 */
+	private void discard(PooledConnection connection) {
+		try {
+			connection.closePhysical();
+		} catch(SQLException ex) {
+			LOG.debug("Exception thrown while closing pooled connection.", ex);
+		}
+		connectionClosed();
+	}
+
+	/** Updates {@link #openCount} after a physical connection has been closed or failed to open. */
+	private synchronized void connectionClosed() {
+		--openCount;
+		notifyAll();
+	}
+
+	/**
+	 * Checks whether an idle connection can be reused.
+	 * @param connection an idle connection
+	 * @return <code>true</code> if the connection can be handed out
+	 */
+	private boolean isValid(PooledConnection connection) {
+		try {
+			if(connection.physical.isClosed()) return false;
+			if(validationQuery == null || validationQuery.length() == 0
+					|| System.currentTimeMillis() - connection.lastUsed < validationInterval) {
+				return true;
+			}
+			Statement statement = connection.physical.createStatement();
+			try {
+				statement.execute(validationQuery);
+			} finally {
+				statement.close();
+			}
+			return true;
+		} catch(SQLException ex) {
+			LOG.info("Pooled connection failed validation; discarding it.", ex);
+			return false;
+		}
+	}
+
+//> ACCESSORS
+	/** @param targetDataSource value for {@link #targetDataSource} */
+	public void setTargetDataSource(DataSource targetDataSource) {
+		this.targetDataSource = targetDataSource;
+	}
+	/** @param pooled value for {@link #pooled} */
+	public void setPooled(boolean pooled) {
+		this.pooled = pooled;
+	}
+	/** @return <code>true</code> if connections are pooled; <code>false</code> if a new connection is opened every time one is requested */
+	public boolean isPooled() {
+		return pooled && maxSize > 0;
+	}
+	/** @param minSize value for {@link #minSize} */
+	public void setMinSize(int minSize) {
+		this.minSize = minSize;
+	}
+	/** @param maxSize value for {@link #maxSize} */
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+	/** @param maxWait value for {@link #maxWait} */
+	public void setMaxWait(long maxWait) {
+		this.maxWait = maxWait;
+	}
+	/** @param validationQuery value for {@link #validationQuery} */
+	public void setValidationQuery(String validationQuery) {
+		this.validationQuery = validationQuery;
+	}
+	/** @param validationInterval value for {@link #validationInterval} */
+	public void setValidationInterval(long validationInterval) {
+		this.validationInterval = validationInterval;
+	}
+	/** @param statementCacheSize value for {@link #statementCacheSize} */
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+
+//> METRICS ACCESSORS
+	/** @return the number of physical connections currently open */
+	public synchronized int getOpenCount() {
+		return openCount;
+	}
+	/** @return the number of open connections which are not in use */
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+	/** @return the number of open connections which are in use */
+	public synchronized int getActiveCount() {
+		return openCount - idle.size();
+	}
+	/** @return the number of physical connections which have been opened */
+	public long getCreatedCount() {
+		return createdCount.get();
+	}
+	/** @return the number of connections which have been handed out */
+	public long getBorrowedCount() {
+		return borrowedCount.get();
+	}
+	/** @return the number of borrows which had to wait for a connection to be returned */
+	public long getWaitCount() {
+		return waitCount.get();
+	}
+	/** @return the number of borrows which timed out waiting for a connection */
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+	/** @return the mean time, in millis, spent waiting by borrows which had to wait */
+	public long getAverageWaitTime() {
+		long count = waitCount.get();
+		return count == 0 ? 0 : totalWaitTime.get() / count;
+	}
+	/** @return the number of idle connections discarded because they failed validation */
+	public long getInvalidCount() {
+		return invalidCount.get();
+	}
+	/** @return the number of prepared statements served from a statement cache */
+	public long getStatementCacheHits() {
+		return statementCacheHits.get();
+	}
+	/** @return the number of cacheable prepared statements which were not found in a statement cache */
+	public long getStatementCacheMisses() {
+		return statementCacheMisses.get();
+	}
+
+	@Override
+	public String toString() {
+		return "open=" + getOpenCount()
+				+ ", active=" + getActiveCount()
+				+ ", idle=" + getIdleCount()
+				+ ", created=" + getCreatedCount()
+				+ ", borrowed=" + getBorrowedCount()
+				+ ", waited=" + getWaitCount()
+				+ ", timedOut=" + getTimeoutCount()
+				+ ", avgWaitMs=" + getAverageWaitTime()
+				+ ", invalid=" + getInvalidCount()
+				+ ", statementCacheHits=" + getStatementCacheHits()
+				+ ", statementCacheMisses=" + getStatementCacheMisses();
+	}
+
+//> STATIC HELPER METHODS
+	/**
+	 * @param iface the interface to proxy
+	 * @param handler the handler for the proxy
+	 * @return a new proxy
+	 */
+	private static Object createProxy(Class<?> iface, InvocationHandler handler) {
+		return Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[] { iface }, handler);
+	}
+
+	/**
+	 * Implements <code>unwrap</code> for proxies handed out by the pool, which do not expose the
+	 * physical objects they wrap.
+	 * @param proxy the proxy being unwrapped
+	 * @param iface the interface requested
+	 * @return the proxy, if it implements the interface
+	 * @throws SQLException if the proxy does not implement the interface
+	 */
+	private static Object unwrap(Object proxy, Class<?> iface) throws SQLException {
+		if(iface.isInstance(proxy)) return proxy;
+		throw new SQLException("Pooled object does not wrap " + iface.getName());
+	}
+
+	/**
+	 * Invokes a method, unwrapping any exception it throws.
+	 * @param target the object to invoke the method on
+	 * @param method the method to invoke
+	 * @param args arguments to the method
+	 * @return the value returned by the method
+	 * @throws Throwable the exception thrown by the method
+	 */
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch(InvocationTargetException ex) {
+			throw ex.getTargetException();
+		}
+	}
+
+//> INNER CLASSES
+	/**
+	 * A physical connection owned by the pool, and its statement cache.
+	 */
+	private class PooledConnection {
+		/** The physical connection */
+		private final Connection physical;
+		/** Cached prepared statements, least recently used first */
+		private final LinkedHashMap<List<Object>, CachedStatement> statementCache;
+		/** The proxy currently handed out for this connection, or <code>null</code> if it is idle */
+		private ConnectionHandler currentHandler;
+		/** The time this connection was last returned to the pool, in millis */
+		private long lastUsed = System.currentTimeMillis();
+		/** The transaction isolation level the connection was opened with */
+		private final int defaultTransactionIsolation;
+		/** The read-only setting the connection was opened with */
+		private final boolean defaultReadOnly;
+
+		/**
+		 * @param physical value for {@link #physical}
+		 * @throws SQLException if the connection's default settings could not be read
+		 */
+		PooledConnection(Connection physical) throws SQLException {
+			this.physical = physical;
+			this.defaultTransactionIsolation = physical.getTransactionIsolation();
+			this.defaultReadOnly = physical.isReadOnly();
+			this.statementCache = new LinkedHashMap<List<Object>, CachedStatement>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<List<Object>, CachedStatement> eldest) {
+					if(size() <= statementCacheSize) return false;
+					eldest.getValue().evict();
+					return true;
+				}
+			};
+		}
+
+		/** @return a new proxy for this connection, to hand out to a client */
+		Connection open() {
+			currentHandler = new ConnectionHandler(this);
+			return (Connection) createProxy(Connection.class, currentHandler);
+		}
+
+		/**
+		 * Restores this connection to its default state after a client has finished with it.
+		 * @return <code>true</code> if the connection can be returned to the pool
+		 * @throws SQLException if there was a problem resetting the connection
+		 */
+		boolean reset() throws SQLException {
+			if(currentHandler != null) {
+				currentHandler.closeStatements();
+				currentHandler = null;
+			}
+			if(physical.isClosed()) return false;
+			if(!physical.getAutoCommit()) {
+				physical.rollback();
+				physical.setAutoCommit(true);
+			}
+			if(physical.getTransactionIsolation() != defaultTransactionIsolation) {
+				physical.setTransactionIsolation(defaultTransactionIsolation);
+			}
+			if(physical.isReadOnly() != defaultReadOnly) {
+				physical.setReadOnly(defaultReadOnly);
+			}
+			physical.clearWarnings();
+			return true;
+		}
+
+		/**
+		 * Closes the physical connection and all of its cached statements.
+		 * @throws SQLException if there was a problem closing the connection
+		 */
+		void closePhysical() throws SQLException {
+			for(CachedStatement cached : statementCache.values()) {
+				cached.evict();
+			}
+			statementCache.clear();
+			physical.close();
+		}
+
+		/**
+		 * Creates or prepares a statement, using the statement cache if possible.
+		 * @param handler the handler of the proxy connection the statement is being created for
+		 * @param connectionProxy the proxy connection the statement is being created for
+		 * @param method the <code>createStatement</code>, <code>prepareStatement</code> or <code>prepareCall</code> method being called
+		 * @param args the arguments to the method
+		 * @return a statement proxy to hand out to the client
+		 * @throws Throwable if the statement could not be created
+		 */
+		Object createStatement(ConnectionHandler handler, Object connectionProxy, Method method, Object[] args) throws Throwable {
+			StatementHandler statementHandler;
+			if(method.getName().equals("createStatement") || statementCacheSize <= 0 || !isCacheable(args)) {
+				statementHandler = new StatementHandler(handler, (Statement) invoke(physical, method, args), null, connectionProxy);
+			} else {
+				List<Object> key = new LinkedList<Object>();
+				key.add(method.getName());
+				key.addAll(Arrays.asList(args));
+				CachedStatement cached = statementCache.get(key);
+				if(cached != null && !cached.inUse) {
+					statementCacheHits.incrementAndGet();
+					cached.inUse = true;
+					statementHandler = new StatementHandler(handler, cached.statement, cached, connectionProxy);
+				} else {
+					statementCacheMisses.incrementAndGet();
+					PreparedStatement statement = (PreparedStatement) invoke(physical, method, args);
+					if(cached != null) {
+						// The cached statement is already in use, e.g. by an open result set, so don't replace it
+						statementHandler = new StatementHandler(handler, statement, null, connectionProxy);
+					} else {
+						cached = new CachedStatement(statement);
+						cached.inUse = true;
+						statementCache.put(key, cached);
+						statementHandler = new StatementHandler(handler, statement, cached, connectionProxy);
+					}
+				}
+			}
+			handler.statementOpened(statementHandler);
+			return createProxy(method.getReturnType(), statementHandler);
+		}
+
+		/**
+		 * @param args arguments to a <code>prepareStatement</code> or <code>prepareCall</code> method
+		 * @return <code>true</code> if the arguments can be used as a key in {@link #statementCache}
+		 */
+		private boolean isCacheable(Object[] args) {
+			if(args == null || args.length == 0) return false;
+			for(Object arg : args) {
+				if(!(arg instanceof String) && !(arg instanceof Integer)) return false;
+			}
+			return true;
+		}
+	}
+
+	/** A prepared statement held in a connection's statement cache. */
+	private static class CachedStatement {
+		/** The physical statement */
+		private final PreparedStatement statement;
+		/** <code>true</code> while the statement is handed out to a client */
+		private boolean inUse;
+		/** <code>true</code> once the statement has been removed from the cache */
+		private boolean evicted;
+
+		/** @param statement value for {@link #statement} */
+		CachedStatement(PreparedStatement statement) {
+			this.statement = statement;
+		}
+
+		/** Removes this statement from the cache, closing it if it is not in use. */
+		void evict() {
+			evicted = true;
+			if(!inUse) closeQuietly();
+		}
+
+		/** Returns this statement to the cache after the client has closed it. */
+		void release() {
+			inUse = false;
+			if(evicted) {
+				closeQuietly();
+			} else {
+				try {
+					statement.clearParameters();
+					statement.clearWarnings();
+				} catch(SQLException ex) {
+					LOG.debug("Failed to reset cached statement.", ex);
+				}
+			}
+		}
+
+		/** Closes the physical statement, ignoring any exceptions. */
+		private void closeQuietly() {
+			try {
+				statement.close();
+			} catch(SQLException ex) {
+				LOG.debug("Exception thrown while closing cached statement.", ex);
+			}
+		}
+	}
+
+	/**
+	 * Handler for connection proxies handed out by the pool.
+	 */
+	private class ConnectionHandler implements InvocationHandler {
+		/** The pooled connection this proxy is for */
+		private final PooledConnection connection;
+		/** Statements created through this proxy which have not been closed.  Access is synchronized on this. */
+		private final List<StatementHandler> openStatements = new LinkedList<StatementHandler>();
+		/** Set <code>true</code> once the client has closed this proxy */
+		private boolean closed;
+
+		/** @param connection value for {@link #connection} */
+		ConnectionHandler(PooledConnection connection) {
+			this.connection = connection;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if(name.equals("equals")) return proxy == args[0];
+			if(name.equals("hashCode")) return System.identityHashCode(proxy);
+			if(name.equals("toString")) return "Pooled connection: " + connection.physical;
+			if(name.equals("isClosed")) return closed;
+			if(name.equals("close")) {
+				if(!closed) {
+					closed = true;
+					release(connection);
+				}
+				return null;
+			}
+			if(name.equals("isWrapperFor")) return ((Class<?>) args[0]).isInstance(proxy);
+			if(name.equals("unwrap")) return unwrap(proxy, (Class<?>) args[0]);
+			if(closed) throw new SQLException("Connection has already been closed.");
+			if(name.equals("createStatement") || name.equals("prepareStatement") || name.equals("prepareCall")) {
+				return connection.createStatement(this, proxy, method, args);
+			}
+			Object value = PooledDataSource.invoke(connection.physical, method, args);
+			if(value instanceof DatabaseMetaData) {
+				return createProxy(DatabaseMetaData.class, new ChildHandler(value, proxy));
+			}
+			return value;
+		}
+
+		/** @param statement a statement which has been handed out to the client */
+		synchronized void statementOpened(StatementHandler statement) {
+			openStatements.add(statement);
+		}
+
+		/** @param statement a statement which the client has closed */
+		synchronized void statementClosed(StatementHandler statement) {
+			openStatements.remove(statement);
+		}
+
+		/** Closes any statements the client has left open. */
+		void closeStatements() {
+			List<StatementHandler> leftOpen;
+			synchronized(this) {
+				leftOpen = new LinkedList<StatementHandler>(openStatements);
+				openStatements.clear();
+			}
+			for(StatementHandler statement : leftOpen) {
+				statement.close();
+			}
+		}
+	}
+
+	/**
+	 * Handler for statement proxies.  Cached statements are returned to the cache when they are
+	 * closed; others are closed.
+	 */
+	private static class StatementHandler implements InvocationHandler {
+		/** The handler of the connection proxy which created this statement */
+		private final ConnectionHandler connectionHandler;
+		/** The physical statement */
+		private final Statement statement;
+		/** The cache entry for {@link #statement}, or <code>null</code> if it is not cached */
+		private final CachedStatement cached;
+		/** The connection proxy which created this statement */
+		private final Object connectionProxy;
+		/** Set <code>true</code> once the client has closed this proxy */
+		private boolean closed;
+
+		/**
+		 * @param connectionHandler value for {@link #connectionHandler}
+		 * @param statement value for {@link #statement}
+		 * @param cached value for {@link #cached}
+		 * @param connectionProxy value for {@link #connectionProxy}
+		 */
+		StatementHandler(ConnectionHandler connectionHandler, Statement statement, CachedStatement cached, Object connectionProxy) {
+			this.connectionHandler = connectionHandler;
+			this.statement = statement;
+			this.cached = cached;
+			this.connectionProxy = connectionProxy;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if(name.equals("equals")) return proxy == args[0];
+			if(name.equals("hashCode")) return System.identityHashCode(proxy);
+			if(name.equals("toString")) return "Pooled statement: " + statement;
+			if(name.equals("isClosed")) return closed;
+			if(name.equals("close")) {
+				connectionHandler.statementClosed(this);
+				close();
+				return null;
+			}
+			if(name.equals("isWrapperFor")) return ((Class<?>) args[0]).isInstance(proxy);
+			if(name.equals("unwrap")) return unwrap(proxy, (Class<?>) args[0]);
+			if(closed) throw new SQLException("Statement has already been closed.");
+			if(name.equals("getConnection")) return connectionProxy;
+			Object value = PooledDataSource.invoke(statement, method, args);
+			if(value instanceof ResultSet) {
+				return createProxy(ResultSet.class, new ChildHandler(value, proxy));
+			}
+			return value;
+		}
+
+		/** Closes the statement, or returns it to the statement cache. */
+		synchronized void close() {
+			if(closed) return;
+			closed = true;
+			if(cached == null) {
+				try {
+					statement.close();
+				} catch(SQLException ex) {
+					LOG.debug("Exception thrown while closing pooled statement.", ex);
+				}
+			} else {
+				closeResultSets();
+				cached.release();
+			}
+		}
+
+		/** Closes any result set left open on the statement, as closing the statement itself would. */
+		private void closeResultSets() {
+			try {
+				ResultSet resultSet = statement.getResultSet();
+				if(resultSet != null) resultSet.close();
+			} catch(SQLException ex) {
+				LOG.debug("Exception thrown while closing result set of cached statement.", ex);
+			}
+		}
+	}
+
+	/**
+	 * Handler for proxies of objects created by a pooled connection or statement, such as result
+	 * sets, which returns the parent proxy instead of the physical connection or statement.
+	 */
+	private static class ChildHandler implements InvocationHandler {
+		/** The physical object */
+		private final Object target;
+		/** The proxy of the connection or statement which created {@link #target} */
+		private final Object parentProxy;
+
+		/**
+		 * @param target value for {@link #target}
+		 * @param parentProxy value for {@link #parentProxy}
+		 */
+		ChildHandler(Object target, Object parentProxy) {
+			this.target = target;
+			this.parentProxy = parentProxy;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if(name.equals("equals")) return proxy == args[0];
+			if(name.equals("hashCode")) return System.identityHashCode(proxy);
+			if(name.equals("getStatement") || name.equals("getConnection")) return parentProxy;
+			if(name.equals("isWrapperFor")) return ((Class<?>) args[0]).isInstance(proxy);
+			if(name.equals("unwrap")) return unwrap(proxy, (Class<?>) args[0]);
+			return PooledDataSource.invoke(target, method, args);
+		}
+	}
+}
@@ -24,13 +24,12 @@ import java.util.Arrays;
 import javax.persistence.*;
 
 import org.hibernate.annotations.DiscriminatorFormula;
-import org.hibernate.annotations.Formula;
-import org.smslib.util.GsmAlphabet;
+import org.hibernate.annotations.Index;
 import org.smslib.util.HexUtils;
-import org.smslib.util.TpduUtils;
 
 import net.frontlinesms.FrontlineSMSConstants;
 import net.frontlinesms.data.EntityField;
+import net.frontlinesms.messaging.sms.SmsLength;
 import net.frontlinesms.ui.i18n.Internationalised;
 
 /**
@@ -40,6 +39,11 @@ import net.frontlinesms.ui.i18n.Internationalised;
 @Entity
 // This class is mapped to the database table called "message", as this class used to be called "Message"
 @Table(name="message")
+// Index supporting keyset pagination on (date, id) - see MessageDao#getMessagesAfter
+// Index supporting paging through the outbox by status - see MessageDao#getMessagesAfterId
+@org.hibernate.annotations.Table(appliesTo="message", indexes={
+		@Index(name="message_date_id", columnNames={"date", "id"}),
+		@Index(name="message_type_status_id", columnNames={"type", "status", "id"})})
 @DiscriminatorFormula("(CASE WHEN dtype IS NULL THEN 'FrontlineMessage' ELSE dtype END)")
 public class FrontlineMessage {
 	/** Discriminator column for this class.  This was only implemented when {@link FrontlineMultimediaMessage} was
@@ -97,23 +101,33 @@ public class FrontlineMessage {
 		}
 	}
 	
+	/** The priority with which outgoing messages are sent.  Messages of higher priority are sent before those of lower priority. */
+	public enum Priority {
+		/** Automatic replies to received messages, which the sender is waiting for */
+		AUTO_REPLY,
+		/** Received messages forwarded automatically to other contacts */
+		FORWARD,
+		/** All other outgoing messages, including bulk sends */
+		NORMAL;
+	}
+	
 	/** Number of times a failed message send is retried before status is set to STATUS_FAILED */
 	public static final int MAX_RETRIES = 2;
 	
 	/** The maximum number of parts in an SMS message.  TODO rename this SMS_PART_LIMIT */
 	public static final int SMS_LIMIT = 255;
-	/** Maximum number of characters that can be fit into a single 7-bit GSM SMS message. TODO this value should probably be fetched from {@link TpduUtils}. */
+	/** Maximum number of septets that can be fit into a single 7-bit GSM SMS message. */
 	public static final int SMS_LENGTH_LIMIT = 160;
-	/** Maximum number of characters that can be fit in one part of a multipart 7-bit GSM SMS message.  TODO this number is incorrect, I suspect.  The value should probably be fetched from {@link TpduUtils}. */
-	public static final int SMS_MULTIPART_LENGTH_LIMIT = 135;
-	/** Maximum number of characters that can be fit into a single UCS-2 SMS message. TODO this value should probably be fetched from {@link TpduUtils}. */
+	/** Maximum number of septets that can be fit in one part of a multipart 7-bit GSM SMS message: 140 octets, less 6 for the concatenation header. */
+	public static final int SMS_MULTIPART_LENGTH_LIMIT = 153;
+	/** Maximum number of UTF-16 characters that can be fit into a single UCS-2 SMS message. */
 	public static final int SMS_LENGTH_LIMIT_UCS2 = 70;
-	/** Maximum number of characters that can be fit in one part of a multipart UCS-2 SMS message.  TODO this number is incorrect, I suspect.  The value should probably be fetched from {@link TpduUtils}. */
-	public static final int SMS_MULTIPART_LENGTH_LIMIT_UCS2 = 60;
-	/** Maximum number of characters that can be fit into a single binary SMS message. TODO this value should probably be fetched from {@link TpduUtils}. */
+	/** Maximum number of UTF-16 characters that can be fit in one part of a multipart UCS-2 SMS message: 140 octets, less 6 for the concatenation header. */
+	public static final int SMS_MULTIPART_LENGTH_LIMIT_UCS2 = 67;
+	/** Maximum number of octets that can be fit into a single binary SMS message. */
 	public static final int SMS_LENGTH_LIMIT_BINARY = 140;
-	/** Maximum number of characters that can be fit in one part of a binary SMS message.  TODO this number is incorrect, I suspect.  The value should probably be fetched from {@link TpduUtils}. */
-	public static final int SMS_MULTIPART_LENGTH_LIMIT_BINARY = 120;
+	/** Maximum number of octets that can be fit in one part of a binary SMS message: 140 octets, less 6 for the concatenation header. */
+	public static final int SMS_MULTIPART_LENGTH_LIMIT_BINARY = 134;
 	
 	/** Maximum number of characters that can be fit into a 255-part GSM 7bit message */
 	public static final int SMS_MAX_CHARACTERS = 255 * SMS_MULTIPART_LENGTH_LIMIT;
@@ -131,7 +145,8 @@ public class FrontlineMessage {
 		RECIPIENT_MSISDN("recipientMsisdn"),
 		ENDPOINT_ID("endpointId"),
 		MESSAGE_CONTENT("textMessageContent"),
-		SMSC_REFERENCE("smscReference");
+		SMSC_REFERENCE("smscReference"),
+		SMS_PARTS_COUNT("smsPartsCount");
 		/** name of a field */
 		private final String fieldName;
 		/**
@@ -145,20 +160,24 @@ public class FrontlineMessage {
 	
 //> INSTANCE PROPERTIES
 	/** Unique id for this entity.  This is for hibernate usage. */
-	@Id @GeneratedValue(strategy=GenerationType.IDENTITY) @Column(unique=true,nullable=false,updatable=false) @SuppressWarnings("unused")
+	@Id @GeneratedValue(strategy=GenerationType.IDENTITY) @Column(unique=true,nullable=false,updatable=false)
 	private long id;
 	private Type type;
 	private int retriesRemaining;
 	private Status status;
+	/** The priority with which this message should be sent; <code>null</code> for messages saved before priorities were introduced */
+	private Priority priority;
 	private String recipientMsisdn;
-	@Formula("SELECT c.name FROM Contact c WHERE c.phoneNumber=recipientMsisdn")
+	/** Name of the {@link Contact} with phone number {@link #recipientMsisdn}.  This is not persisted; it is set by the DAO when the message is loaded. */
+	@Transient
 	private String recipientName;
 	private int recipientSmsPort;
 	private int smsPartsCount;
 	private long date;
 	private Integer smscReference;
 	private String senderMsisdn;
-	@Formula("SELECT c.name FROM Contact c WHERE c.phoneNumber=senderMsisdn")
+	/** Name of the {@link Contact} with phone number {@link #senderMsisdn}.  This is not persisted; it is set by the DAO when the message is loaded. */
+	@Transient
 	private String senderName;
 	/** Optional variable for recording the ID of the local endpoint which sent or received this message.  For 
 	 * failed outgoing messages, this should be the last device sending was attempted with.
@@ -184,6 +203,11 @@ public class FrontlineMessage {
 	}
 	
 //> ACCESSOR METHODS
+	/** @return the unique id of this message, or <code>0</code> if it has not been saved */
+	public long getId() {
+		return this.id;
+	}
+	
 	/**
 	 * Gets the type of this Message.  Should be one of the Message.TYPE_ constants.
 	 * @return
@@ -208,6 +232,16 @@ public class FrontlineMessage {
 	public void setStatus(Status messageStatus) {
 		this.status = messageStatus;
 	}
+	
+	/** @return the priority with which this message should be sent */
+	public Priority getPriority() {
+		return this.priority == null ? Priority.NORMAL : this.priority;
+	}
+	
+	/** @param priority new value for {@link #priority} */
+	public void setPriority(Priority priority) {
+		this.priority = priority;
+	}
 
 	/**
 	 * Gets the MSISDN (phone number) of the sender of this message.
@@ -226,6 +260,11 @@ public class FrontlineMessage {
 		return senderName;
 	}
 	
+	/** @param senderName new value for {@link #senderName} */
+	public void setSenderName(String senderName) {
+		this.senderName = senderName;
+	}
+	
 	/** @return friendly String representing sender of this message */
 	public String getSenderDisplayName() {
 		if(senderName!=null && senderName.length()>0) return senderName;
@@ -276,6 +315,11 @@ public class FrontlineMessage {
 		return recipientName;
 	}
 	
+	/** @param recipientName new value for {@link #recipientName} */
+	public void setRecipientName(String recipientName) {
+		this.recipientName = recipientName;
+	}
+	
 	/** @return friendly string representing recipient of this message */
 	public String getRecipientDisplayName() {
 		if(recipientName!=null && recipientName.length()>0) return recipientName;
@@ -367,21 +411,17 @@ public class FrontlineMessage {
 
 	/** @return the number of SMS parts that we'd expect this message to take */
 	private int getExpectedSmsCount() {
+		int expectedNumberOfSmsParts;
 		if(this.isBinaryMessage()) {
-			int octetCount = this.getBinaryContent().length;
-			if(octetCount <= SMS_LENGTH_LIMIT_BINARY) {
-				return 1;
-			} else {
-				return (int) Math.ceil(octetCount / (double)SMS_MULTIPART_LENGTH_LIMIT_BINARY);
-			}
+			expectedNumberOfSmsParts = SmsLength.forBinary(this.getBinaryContent().length).getPartCount();
 		} else {
-			int expectedNumberOfSmsParts = FrontlineMessage.getExpectedNumberOfSmsParts(this.getTextContent());
-			if(expectedNumberOfSmsParts == 0) {
-				// the method used above can return 0 in some cases.  An empty message will still cost money.
-				expectedNumberOfSmsParts = 1;
-			}
-			return expectedNumberOfSmsParts;
+			expectedNumberOfSmsParts = FrontlineMessage.getExpectedNumberOfSmsParts(this.getTextContent());
+		}
+		if(expectedNumberOfSmsParts == 0) {
+			// the methods used above return 0 for empty messages.  An empty message will still cost money.
+			expectedNumberOfSmsParts = 1;
 		}
+		return expectedNumberOfSmsParts;
 	}
 	
 //> STATIC FACTORY METHODS
@@ -595,42 +635,23 @@ public class FrontlineMessage {
 	 * @return the number of SMS parts that we'd expect the supplied message to use, or <code>0</code> if no supplied message has zero length.
 	 */
 	public static int getExpectedNumberOfSmsParts(String message) {
-		int messageLength = message.length();
-		
-		boolean areAllCharactersValidGSM = GsmAlphabet.areAllCharactersValidGSM(message);
-		int singleMessageCharacterLimit, multipartMessageCharacterLimit;
-		
-		if(areAllCharactersValidGSM) {
-			singleMessageCharacterLimit = FrontlineMessage.SMS_LENGTH_LIMIT;
-			multipartMessageCharacterLimit = FrontlineMessage.SMS_MULTIPART_LENGTH_LIMIT;
-		} else {
-			// It appears there are some unicode-only characters here.  We should therefore
-			// treat this message as if it will be sent as unicode.
-			singleMessageCharacterLimit = FrontlineMessage.SMS_LENGTH_LIMIT_UCS2;
-			multipartMessageCharacterLimit = FrontlineMessage.SMS_MULTIPART_LENGTH_LIMIT_UCS2;
-		}
-
-		if (messageLength > getTotalLengthAllowed(message)) {
-			return (int)Math.ceil((double)messageLength / (double)multipartMessageCharacterLimit);
-		} else {
-			if (messageLength <= singleMessageCharacterLimit) {
-				return messageLength == 0 ? 0 : 1;
-			} else {
-				return (int)Math.ceil(messageLength / (double)multipartMessageCharacterLimit);
-			}
-		}
+		return SmsLength.forText(message).getPartCount();
 	}
 
 	public void setDate(long date) {
 		this.date = date;
 	}
 
+	/**
+	 * @param message the text content of a message
+	 * @return the length, in the encoding the message would be sent in, of the longest message which can be sent in that encoding
+	 */
 	public static int getTotalLengthAllowed(String message) {
-		boolean areAllCharactersValidGSM = GsmAlphabet.areAllCharactersValidGSM(message);
-		if (areAllCharactersValidGSM) {
-			return FrontlineMessage.SMS_LENGTH_LIMIT + FrontlineMessage.SMS_MULTIPART_LENGTH_LIMIT * (FrontlineMessage.SMS_LIMIT - 1);
+		// Once a message is split, every part carries a concatenation header
+		if (SmsLength.forText(message).isGsm7()) {
+			return FrontlineMessage.SMS_MULTIPART_LENGTH_LIMIT * FrontlineMessage.SMS_LIMIT;
 		} else {
-			return FrontlineMessage.SMS_LENGTH_LIMIT_UCS2 + FrontlineMessage.SMS_MULTIPART_LENGTH_LIMIT_UCS2 * (FrontlineMessage.SMS_LIMIT - 1);
+			return FrontlineMessage.SMS_MULTIPART_LENGTH_LIMIT_UCS2 * FrontlineMessage.SMS_LIMIT;
 		}
 	}
 
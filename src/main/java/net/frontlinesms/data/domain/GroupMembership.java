@@ -36,6 +36,17 @@ public class GroupMembership {
 		this.contact = contact;
 	}
 
+//> ACCESSORS
+	/** @return the group the contact is a member of */
+	public Group getGroup() {
+		return group;
+	}
+	
+	/** @return the member of the group */
+	public Contact getContact() {
+		return contact;
+	}
+
 //> GENERATED CODE
 	@Override
 	public int hashCode() {
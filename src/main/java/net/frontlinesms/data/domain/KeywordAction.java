@@ -123,7 +123,7 @@ public class KeywordAction {
 	
 //> INSTANCE PROPERTIES
 	/** Unique id for this entity.  This is for hibernate usage. */
-	@Id @GeneratedValue(strategy=GenerationType.IDENTITY) @Column(unique=true,nullable=false,updatable=false) @SuppressWarnings("unused")
+	@Id @GeneratedValue(strategy=GenerationType.IDENTITY) @Column(unique=true,nullable=false,updatable=false)
 	private long id;
 	private Type type;
 	/** Keyword which this action is attached to */
@@ -136,7 +136,14 @@ public class KeywordAction {
 	@Column(length=FrontlineMessage.SMS_MAX_CHARACTERS)
 	private String commandString;
 	private int commandInteger;
+	/** How many times this action was executed.  This is only changed in the database by
+	 * the {@link KeywordActionDao}, so updating an action does not overwrite executions
+	 * which have not yet been written. */
+	@Column(updatable=false)
 	private int counter;
+	/** Set <code>true</code> once executions which have not yet been written to the database are included in {@link #counter} */
+	@Transient
+	private boolean counterCurrent;
 	private long startDate;
 	private long endDate;
 	private String emailRecipients;
@@ -313,6 +320,27 @@ public class KeywordAction {
 	 */
 	public void incrementCounter() {
 		++counter;
+		counterCurrent = true;
+	}
+	
+	/**
+	 * Adds executions which have not yet been written to the database to how many times this
+	 * action was executed.  They are only added once, so this is safe to call each time the
+	 * action is loaded.
+	 * This method should ONLY be called from the {@link KeywordActionDao}, due to consistency
+	 * issues.
+	 * @param unsavedIncrements the number of executions not yet written to the database
+	 */
+	public void mergeUnsavedIncrements(int unsavedIncrements) {
+		if(!counterCurrent) {
+			counter += unsavedIncrements;
+			counterCurrent = true;
+		}
+	}
+	
+	/** @return the unique id of this action */
+	public long getId() {
+		return id;
 	}
 	
 	/** @return the group related to this keyword action */
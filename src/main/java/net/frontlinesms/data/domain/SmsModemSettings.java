@@ -44,6 +44,10 @@ public class SmsModemSettings {
 	 * Has to be {@link Boolean} as was not present in previous versions so hibernate will attempt
 	 * to set it to null. */
 	private Boolean monitorCalls;
+	/** the maximum number of messages to send to the device at a time, or <code>null</code> to use the default.
+	 * Has to be {@link Integer} as was not present in previous versions so hibernate will attempt
+	 * to set it to null. */
+	private Integer bulkSendSize;
 	
 //> CONSTRUCTORS
 	/** Empty constructor for hibernate */
@@ -144,6 +148,14 @@ public class SmsModemSettings {
 	public void setMonitorCalls(boolean monitorCalls) {
 		this.monitorCalls = monitorCalls;
 	}
+	/** @return the maximum number of messages to send to the device at a time, or <code>0</code> if the device's default should be used */
+	public int getBulkSendSize() {
+		return bulkSendSize==null ? 0 : bulkSendSize;
+	}
+	/** @param bulkSendSize new value for {@link #bulkSendSize} */
+	public void setBulkSendSize(int bulkSendSize) {
+		this.bulkSendSize = bulkSendSize;
+	}
 	public void setSupportsReceive(Boolean supportsReceive) {
 		this.supportingReceive = (supportsReceive == null ? true : supportsReceive);
 	}
@@ -5,15 +5,26 @@ package net.frontlinesms.data.importexport;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import net.frontlinesms.csv.CsvImportReport;
 import net.frontlinesms.csv.CsvImporter;
 import net.frontlinesms.csv.CsvParseException;
+import net.frontlinesms.csv.CsvReader;
 import net.frontlinesms.csv.CsvRowFormat;
 import net.frontlinesms.csv.CsvUtils;
 import net.frontlinesms.data.DuplicateKeyException;
 import net.frontlinesms.data.domain.Contact;
 import net.frontlinesms.data.domain.Group;
+import net.frontlinesms.data.domain.GroupMembership;
 import net.frontlinesms.data.repository.ContactDao;
 import net.frontlinesms.data.repository.GroupDao;
 import net.frontlinesms.data.repository.GroupMembershipDao;
@@ -26,66 +37,223 @@ import net.frontlinesms.data.repository.GroupMembershipDao;
 public class ContactCsvImporter extends CsvImporter {
 	/** The delimiter to use between group names when they are exported. */
 	protected static final String GROUPS_DELIMITER = "\\\\"; 
+	/** The maximum number of lines loaded into {@link #getRawValues()} for previewing the import */
+	private static final int PREVIEW_ROW_COUNT = 1000;
+	/** The number of lines read from the import file and saved together */
+	static final int IMPORT_CHUNK_SIZE = 500;
 	
 //> INSTANCE PROPERTIES
 	
 //> CONSTRUCTORS
 	public ContactCsvImporter(File importFile) throws CsvParseException {
-		super(importFile);
+		super(importFile, PREVIEW_ROW_COUNT);
 	}
 
 //> IMPORT METHODS
 	/**
 	 * Import contacts from a CSV file.
-	 * @param importFile the file to import from
 	 * @param contactDao
+	 * @param groupMembershipDao
+	 * @param groupDao
+	 * @param rowFormat 
+	 * @return report of the import
+	 * @throws CsvParseException If there was a problem accessing the file, or with the format of the file
+	 */
+	public CsvImportReport importContacts(ContactDao contactDao, GroupMembershipDao groupMembershipDao, GroupDao groupDao, CsvRowFormat rowFormat) throws CsvParseException {
+		return importContacts(contactDao, groupMembershipDao, groupDao, rowFormat, new CsvImportReport());
+	}
+	
+	/**
+	 * Import contacts from a CSV file.  The file is read and saved in chunks of {@link #IMPORT_CHUNK_SIZE}
+	 * lines, and the supplied report is updated after each chunk.
+	 * @param contactDao
+	 * @param groupMembershipDao
+	 * @param groupDao
 	 * @param rowFormat 
-	 * @throws IOException If there was a problem accessing the file
-	 * @throws CsvParseException If there was a problem with the format of the file
+	 * @param report report to update as the import progresses
+	 * @return <code>report</code>
+	 * @throws CsvParseException If there was a problem accessing the file, or with the format of the file
 	 */
-	public CsvImportReport importContacts(ContactDao contactDao, GroupMembershipDao groupMembershipDao, GroupDao groupDao, CsvRowFormat rowFormat) {
+	public CsvImportReport importContacts(ContactDao contactDao, GroupMembershipDao groupMembershipDao, GroupDao groupDao, CsvRowFormat rowFormat, CsvImportReport report) throws CsvParseException {
 		log.trace("ENTER");
 		
-		for(String[] lineValues : this.getRawValues()) {
-			String name = rowFormat.getOptionalValue(lineValues, CsvUtils.MARKER_CONTACT_NAME);
-			String number = rowFormat.getOptionalValue(lineValues, CsvUtils.MARKER_CONTACT_PHONE);
-			String email = rowFormat.getOptionalValue(lineValues, CsvUtils.MARKER_CONTACT_EMAIL);
-			String notes = rowFormat.getOptionalValue(lineValues, CsvUtils.MARKER_CONTACT_NOTES);
-			String otherPhoneNumber = rowFormat.getOptionalValue(lineValues, CsvUtils.MARKER_CONTACT_OTHER_PHONE);
-			String groups = rowFormat.getOptionalValue(lineValues, CsvUtils.MARKER_CONTACT_GROUPS);
-			
-			String statusString = rowFormat.getOptionalValue(lineValues, CsvUtils.MARKER_CONTACT_STATUS).toLowerCase();
-			boolean active = !"false".equals(statusString) && !"dormant".equals(statusString);
-			
-			Contact c = new Contact(name, number, otherPhoneNumber, email, notes, active);						
-			try {
-				contactDao.saveContact(c);
-			} catch (DuplicateKeyException e) {
-				// FIXME should actually pass details of this back to the user.
-				log.debug("Contact already exist with this number [" + number + "]", e);
-				// If the contact already existed, let's reach the existing one to fill the groupMembership
-				c = contactDao.getFromMsisdn(number);
+		// Groups which have been created, or found to exist already, by their path
+		Map<String, Group> groups = new HashMap<String, Group>();
+		
+		CsvReader reader = null;
+		try {
+			reader = super.openValueReader();
+			List<String[]> chunk = new ArrayList<String[]>(IMPORT_CHUNK_SIZE);
+			String[] lineValues;
+			while((lineValues = reader.readLine()) != null) {
+				chunk.add(lineValues);
+				if(chunk.size() == IMPORT_CHUNK_SIZE) {
+					importChunk(contactDao, groupMembershipDao, groupDao, rowFormat, chunk, groups, report);
+					chunk.clear();
+				}
+			}
+			if(!chunk.isEmpty()) {
+				importChunk(contactDao, groupMembershipDao, groupDao, rowFormat, chunk, groups, report);
 			}
+			report.setSuccessful(true);
+		} catch(IOException ex) {
+			throw new CsvParseException(ex);
+		} finally {
+			if(reader != null) reader.close();
+		}
+		
+		log.trace("EXIT");
+		return report;
+	}
+	
+	/**
+	 * Import contacts from lines of the import file.  New contacts, and their group memberships, are
+	 * each saved in a single transaction.
+	 * @param contactDao
+	 * @param groupMembershipDao
+	 * @param groupDao
+	 * @param rowFormat
+	 * @param chunk the lines to import
+	 * @param groups cache of groups already created, by path
+	 * @param report report to update with the outcome of the import
+	 */
+	private void importChunk(ContactDao contactDao, GroupMembershipDao groupMembershipDao, GroupDao groupDao, CsvRowFormat rowFormat,
+			List<String[]> chunk, Map<String, Group> groups, CsvImportReport report) {
+		List<Contact> contacts = new ArrayList<Contact>(chunk.size());
+		for(String[] lineValues : chunk) {
+			contacts.add(createContact(rowFormat, lineValues));
+		}
+		
+		// Contacts which already exist are not saved again, but may still be added to new groups
+		List<String> phoneNumbers = new ArrayList<String>(contacts.size());
+		for(Contact c : contacts) {
+			phoneNumbers.add(c.getPhoneNumber());
+		}
+		Map<String, Contact> existingContacts = new HashMap<String, Contact>(contactDao.getFromMsisdns(phoneNumbers));
+		// New contacts, by phone number.  A number repeated within the file is only saved the first time.
+		Map<String, Contact> newContacts = new LinkedHashMap<String, Contact>();
+		for(Contact c : contacts) {
+			String number = c.getPhoneNumber();
+			if(existingContacts.containsKey(number)) {
+				log.debug("Contact already exist with this number [" + number + "]");
+			} else if(!newContacts.containsKey(number)) {
+				newContacts.put(number, c);
+			}
+		}
+		saveContacts(contactDao, newContacts, existingContacts);
+		
+		// We make the contacts join their groups.  Memberships of new contacts cannot exist yet,
+		// so they are saved together; memberships of existing contacts are checked individually.
+		Set<GroupMembership> newMemberships = new LinkedHashSet<GroupMembership>();
+		for(int i=0; i<contacts.size(); ++i) {
+			String number = contacts.get(i).getPhoneNumber();
+			Contact c = newContacts.get(number);
+			boolean isNew = c != null;
+			if(!isNew) c = existingContacts.get(number);
+			if(c == null) continue;
 			
-			// We make the contact joins its groups
-			String[] pathList = groups.split(GROUPS_DELIMITER);
-			for (String path : pathList) {
+			String groupPaths = rowFormat.getOptionalValue(chunk.get(i), CsvUtils.MARKER_CONTACT_GROUPS);
+			for (String path : groupPaths.split(GROUPS_DELIMITER)) {
 				if (path.length() == 0) continue;
 				
 				if (!path.startsWith(String.valueOf(Group.PATH_SEPARATOR))) {
 					path = Group.PATH_SEPARATOR + path;
 				}
 				
-				Group group = createGroups(groupDao, path);
-				groupMembershipDao.addMember(group, c);
+				Group group = getGroup(groupDao, groups, path);
+				if(isNew) {
+					newMemberships.add(new GroupMembership(group, c));
+				} else {
+					groupMembershipDao.addMember(group, c);
+				}
 			}
 		}
+		addMembers(groupMembershipDao, newMemberships);
 		
-		log.trace("EXIT");
-		return new CsvImportReport();
+		report.addRows(chunk.size(), newContacts.size(), chunk.size() - newContacts.size());
+	}
+	
+	/**
+	 * Saves new contacts in a single transaction.  If that fails, the contacts are saved one at a time,
+	 * and any which turn out to exist already are moved from <code>newContacts</code> to <code>existingContacts</code>.
+	 * @param contactDao
+	 * @param newContacts contacts to save, by phone number
+	 * @param existingContacts contacts which already exist, by phone number
+	 */
+	private void saveContacts(ContactDao contactDao, Map<String, Contact> newContacts, Map<String, Contact> existingContacts) {
+		if(newContacts.isEmpty()) return;
+		try {
+			contactDao.saveContacts(new ArrayList<Contact>(newContacts.values()));
+		} catch(RuntimeException ex) {
+			log.debug("Failed to save contacts together; saving them individually.", ex);
+			Iterator<Contact> iterator = newContacts.values().iterator();
+			while(iterator.hasNext()) {
+				Contact c = iterator.next();
+				try {
+					contactDao.saveContact(c);
+				} catch (DuplicateKeyException e) {
+					// FIXME should actually pass details of this back to the user.
+					log.debug("Contact already exist with this number [" + c.getPhoneNumber() + "]", e);
+					iterator.remove();
+					existingContacts.put(c.getPhoneNumber(), contactDao.getFromMsisdn(c.getPhoneNumber()));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Adds new group memberships in a single transaction.  If that fails, they are added one at a time.
+	 * @param groupMembershipDao
+	 * @param memberships
+	 */
+	private void addMembers(GroupMembershipDao groupMembershipDao, Collection<GroupMembership> memberships) {
+		if(memberships.isEmpty()) return;
+		try {
+			groupMembershipDao.addMembers(new ArrayList<GroupMembership>(memberships));
+		} catch(RuntimeException ex) {
+			log.debug("Failed to add group members together; adding them individually.", ex);
+			for(GroupMembership membership : memberships) {
+				groupMembershipDao.addMember(membership.getGroup(), membership.getContact());
+			}
+		}
+	}
+	
+	/**
+	 * Creates a contact from a line of the import file.
+	 * @param rowFormat
+	 * @param lineValues
+	 * @return a new, unsaved contact
+	 */
+	private static Contact createContact(CsvRowFormat rowFormat, String[] lineValues) {
+		String name = rowFormat.getOptionalValue(lineValues, CsvUtils.MARKER_CONTACT_NAME);
+		String number = rowFormat.getOptionalValue(lineValues, CsvUtils.MARKER_CONTACT_PHONE);
+		String email = rowFormat.getOptionalValue(lineValues, CsvUtils.MARKER_CONTACT_EMAIL);
+		String notes = rowFormat.getOptionalValue(lineValues, CsvUtils.MARKER_CONTACT_NOTES);
+		String otherPhoneNumber = rowFormat.getOptionalValue(lineValues, CsvUtils.MARKER_CONTACT_OTHER_PHONE);
+		
+		String statusString = rowFormat.getOptionalValue(lineValues, CsvUtils.MARKER_CONTACT_STATUS).toLowerCase();
+		boolean active = !"false".equals(statusString) && !"dormant".equals(statusString);
+		
+		return new Contact(name, number, otherPhoneNumber, email, notes, active);
 	}
 	
 //> STATIC HELPER METHODS
+	/**
+	 * Gets the group with the supplied path, creating it and its parents if this has not been done already.
+	 * @param groupDao
+	 * @param groups cache of groups already created, by path
+	 * @param path
+	 * @return the group with the supplied path
+	 */
+	private static Group getGroup(GroupDao groupDao, Map<String, Group> groups, String path) {
+		Group group = groups.get(path);
+		if(group == null) {
+			group = createGroups(groupDao, path);
+			groups.put(path, group);
+		}
+		return group;
+	}
+	
 	/**
 	 * Creates the group and all parent groups for a supplied path.
 	 * The behaviour of this method is undefined if a group is deleted externally while this method
@@ -19,7 +19,9 @@
  */
 package net.frontlinesms.data.repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import net.frontlinesms.data.DuplicateKeyException;
 import net.frontlinesms.data.Order;
@@ -51,6 +53,15 @@ public interface ContactDao {
 	 */
 	public List<Contact> getAllContactsSorted(int startIndex, int limit, Field sortBy, Order order);
 	
+	/**
+	 * Gets a page of contacts in order of ID, using keyset pagination.  Rather than skipping a number of
+	 * rows, this fetches the contacts which come after the last contact of the previous page.
+	 * @param previous the last contact of the previous page, or <code>null</code> to get the first page
+	 * @param limit max number of contacts to fetch
+	 * @return the page of contacts following <code>previous</code>
+	 */
+	public List<Contact> getContactsAfter(Contact previous, int limit);
+	
 	/**
 	 * Retrieves the contact with the specified msisdn, or returns NULL if none exists.
 	 * @param phoneNumber a phone number
@@ -58,6 +69,14 @@ public interface ContactDao {
 	 */
 	public Contact getFromMsisdn(String phoneNumber);
 	
+	/**
+	 * Retrieves the contacts with any of the specified msisdns.  This is equivalent to calling
+	 * {@link #getFromMsisdn(String)} for each phone number, but makes far fewer queries.
+	 * @param phoneNumbers phone numbers
+	 * @return map from phone number to the contact with that number; phone numbers which do not belong to a contact are not included
+	 */
+	public Map<String, Contact> getFromMsisdns(Collection<String> phoneNumbers);
+	
 	/**
 	 * Retrieves the contact with the specified name, or returns NULL if none exists.
 	 * @param name the name of a contact
@@ -84,19 +103,33 @@ public interface ContactDao {
 	public void deleteContact(Contact contact);
 	
 	/**
-	 * Saves a contact to the system
+	 * Saves a contact to the system.  The contact's phone number is converted to canonical form
+	 * if possible, so the same number is stored the same way however it was entered.
 	 * @param contact the contact to save
 	 * @throws DuplicateKeyException if the contact's phone number is already in use by another contact 
 	 */
 	public void saveContact(Contact contact) throws DuplicateKeyException;
 	
 	/**
-	 * Updates a contact's details in the data source
+	 * Saves a number of contacts to the system in a single transaction.  If any of the contacts
+	 * could not be saved, none of them are.  Phone numbers are converted as by {@link #saveContact(Contact)}.
+	 * @param contacts the contacts to save
+	 */
+	public void saveContacts(Collection<Contact> contacts);
+	
+	/**
+	 * Updates a contact's details in the data source.  The phone number is converted as by {@link #saveContact(Contact)}.
 	 * @param contact the contact whose details should be updated
 	 * @throws DuplicateKeyException if the contact's phone number is already in use by another contact
 	 */
 	public void updateContact(Contact contact) throws DuplicateKeyException;
 	
+	/**
+	 * Converts the phone numbers of contacts saved before numbers were stored in canonical form.
+	 * @return the number of contacts whose phone numbers were converted
+	 */
+	public int canonicalisePhoneNumbers();
+	
 	/**
 	 * @param contactNameFilter A contact's name, or any part of it 
 	 * @param start The first contact to return
@@ -110,4 +143,10 @@ public interface ContactDao {
 	 * @return count of all contacts whose names match the filter
 	 */
 	public int getContactsFilteredByNameCount(String contactNameFilter);
+	
+	/** @return the number of phone numbers currently cached for {@link #getFromMsisdn(String)} and {@link #getFromMsisdns(Collection)} */
+	public int getContactCacheSize();
+	
+	/** @return the proportion of phone number lookups answered from the cache, between <code>0</code> and <code>1</code> */
+	public double getContactCacheHitRate();
 }
@@ -3,11 +3,13 @@
  */
 package net.frontlinesms.data.repository;
 
+import java.util.Collection;
 import java.util.List;
 
 import net.frontlinesms.data.Order;
 import net.frontlinesms.data.domain.Contact;
 import net.frontlinesms.data.domain.Group;
+import net.frontlinesms.data.domain.GroupMembership;
 import net.frontlinesms.data.domain.Contact.Field;
 
 /**
@@ -23,7 +25,7 @@ public interface GroupMembershipDao {
 	/** @return count of all members of a group and its subgroups */
 	public int getMemberCount(Group group);
 	
-	/** @return all members of a group and its subgroup, paged. */
+	/** @return all members of a group and its subgroup, paged, in order of contact ID. */
 	public List<Contact> getMembers(Group group, int startIndex, int limit);
 
 	/** @return all groups this contact is a <b>direct</b> member of */
@@ -46,6 +48,13 @@ public interface GroupMembershipDao {
 	 * @return <code>true</code> if the contact was added to the group, <code>false</code> if he was already a member
 	 */
 	public boolean addMember(Group group, Contact contact);
+	
+	/**
+	 * Add a number of contacts to groups in a single transaction.  None of the memberships should
+	 * already exist; if any of them do, none of the memberships are added.
+	 * @param memberships the memberships to add
+	 */
+	public void addMembers(Collection<GroupMembership> memberships);
 
 	/**
 	 * Remove a contact from a group
@@ -80,6 +80,12 @@ public interface KeywordActionDao {
 	 * @param action
 	 */
 	public void incrementCounter(KeywordAction action);
+	
+	/**
+	 * Writes counter increments which have not yet been written to the database.
+	 * Increments are also written periodically, so this need only be called when they must be written immediately.
+	 */
+	public void flushCounters();
 
 	public void deleteForEmailAccount(EmailAccount email);
 }
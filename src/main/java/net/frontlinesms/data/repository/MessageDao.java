@@ -22,6 +22,7 @@ package net.frontlinesms.data.repository;
 import java.util.Collection;
 import java.util.List;
 
+import net.frontlinesms.data.MessageCounts;
 import net.frontlinesms.data.Order;
 import net.frontlinesms.data.domain.*;
 import net.frontlinesms.data.domain.FrontlineMessage.Field;
@@ -176,6 +177,31 @@ public interface MessageDao {
 	 */
 	public List<FrontlineMessage> getAllMessages(FrontlineMessage.Type type, Field field, Order order, Long start, Long end, int startIndex, int limit);
 	
+	/**
+	 * Gets a page of messages sorted by date, using keyset pagination.  Rather than skipping a number of
+	 * rows, this fetches the messages which come after the last message of the previous page, so fetching
+	 * a page costs the same however far through the results it is.
+	 * @param type the type of the message
+	 * @param order the order to sort by date in.  Messages with the same date are sorted by id, in the same direction.
+	 * @param start the start date for the messages, or <code>null</code> for no start date restriction
+	 * @param end the end date for the messages, or <code>null</code> for no end date restriction
+	 * @param previous the last message of the previous page, or <code>null</code> to get the first page
+	 * @param limit the maximum number of messages to get
+	 * @return the page of messages following <code>previous</code>
+	 */
+	public List<FrontlineMessage> getMessagesAfter(FrontlineMessage.Type type, Order order, Long start, Long end, FrontlineMessage previous, int limit);
+	
+	/**
+	 * Gets a page of the messages of a particular type which begin with the specified keyword, sorted by
+	 * date and then id, using keyset pagination as {@link #getMessagesAfter(FrontlineMessage.Type, Order, Long, Long, FrontlineMessage, int)} does.
+	 * @param messageType message type(s) to be retrieved, or {@link FrontlineMessage.Type#ALL} for all messages
+	 * @param keyword word messages should start with
+	 * @param previous the last message of the previous page, or <code>null</code> to get the first page
+	 * @param limit the maximum number of messages to get
+	 * @return the page of messages following <code>previous</code>
+	 */
+	public List<FrontlineMessage> getMessagesForKeywordAfter(FrontlineMessage.Type messageType, Keyword keyword, FrontlineMessage previous, int limit);
+	
 	/**
 	 * Gets the number of messages of a specific type from between the specified dates
 	 * @param type
@@ -193,6 +219,26 @@ public interface MessageDao {
 	 */
 	public Collection<FrontlineMessage> getMessages(FrontlineMessage.Type type, FrontlineMessage.Status... status);
 	
+	/**
+	 * Gets a page of messages with the supplied type and statuses, in order of id.  This allows a large
+	 * backlog of messages, such as the outbox, to be loaded a page at a time rather than all at once.
+	 * @param type the type of the messages
+	 * @param afterId only messages with an id greater than this are returned
+	 * @param maxId only messages with an id no greater than this are returned
+	 * @param limit the maximum number of messages to get
+	 * @param statuses the statuses of the messages
+	 * @return the page of messages following <code>afterId</code>
+	 */
+	public List<FrontlineMessage> getMessagesAfterId(FrontlineMessage.Type type, long afterId, long maxId, int limit, FrontlineMessage.Status... statuses);
+	
+	/**
+	 * Gets the greatest id of the messages with the supplied type and statuses.
+	 * @param type the type of the messages
+	 * @param statuses the statuses of the messages
+	 * @return the greatest id of the matching messages, or <code>0</code> if there are none
+	 */
+	public long getMaxMessageId(FrontlineMessage.Type type, FrontlineMessage.Status... statuses);
+	
 	/**
 	 * Gets the number of messagesthere are of the given type for the given keyword.
 	 * @param messageType
@@ -226,6 +272,35 @@ public interface MessageDao {
 	/** @return all messages sent or received within the specified dates */
 	public List<FrontlineMessage> getMessages(FrontlineMessage.Type messageType, Long messageHistoryStart, Long messageHistoryEnd);
 
+	/**
+	 * Counts messages, and the SMS parts they used, without loading them.
+	 * @param messageType
+	 * @param start the start date as a java timestamp, or <code>null</code> for no start date restriction
+	 * @param end the end date as a java timestamp, or <code>null</code> for no end date restriction
+	 * @return counts of messages sent or received within the specified dates
+	 */
+	public MessageCounts getMessageCounts(FrontlineMessage.Type messageType, Long start, Long end);
+
+	/**
+	 * Counts messages, and the SMS parts they used, without loading them.
+	 * @param messageType
+	 * @param phoneNumbers
+	 * @param start the start date as a java timestamp, or <code>null</code> for no start date restriction
+	 * @param end the end date as a java timestamp, or <code>null</code> for no end date restriction
+	 * @return counts of messages sent or received to/from the specified phone numbers within the specified dates
+	 */
+	public MessageCounts getMessageCounts(FrontlineMessage.Type messageType, List<String> phoneNumbers, Long start, Long end);
+
+	/**
+	 * Counts messages, and the SMS parts they used, without loading them.
+	 * @param messageType
+	 * @param keyword
+	 * @param start the start date as a java timestamp, or <code>null</code> for no start date restriction
+	 * @param end the end date as a java timestamp, or <code>null</code> for no end date restriction
+	 * @return counts of messages matching the specified keyword within the specified dates
+	 */
+	public MessageCounts getMessageCountsForKeyword(FrontlineMessage.Type messageType, Keyword keyword, Long start, Long end);
+
 	/**
 	 * Delete the supplied message to the data source.
 	 * @param message the message to be deleted
@@ -238,6 +313,13 @@ public interface MessageDao {
 	 */
 	public void saveMessage(FrontlineMessage message);
 
+	/**
+	 * Save the supplied messages to the data source in a single transaction.
+	 * Notifications of the saves are not sent until the transaction has been committed.
+	 * @param messages the messages to be saved
+	 */
+	public void saveMessages(Collection<? extends FrontlineMessage> messages);
+
 	/**
 	 * Update the supplied message in the data source.
 	 * @param message the message to be updated
@@ -3,6 +3,7 @@
  */
 package net.frontlinesms.data.repository.hibernate;
 
+import java.util.Collection;
 import java.util.List;
 
 import javax.persistence.Entity;
@@ -18,7 +19,10 @@ import net.frontlinesms.events.EventBus;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.HibernateException;
 import org.hibernate.NonUniqueObjectException;
+import org.hibernate.Query;
+import org.hibernate.Session;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Projections;
@@ -27,7 +31,10 @@ import org.hibernate.exception.ConstraintViolationException;
 import org.hibernate.transform.DistinctRootEntityResultTransformer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.orm.hibernate3.HibernateCallback;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * @author Alex
@@ -75,6 +82,41 @@ public abstract class BaseHibernateDao<E> extends HibernateDaoSupport {
 		eventBus.notifyObservers(new EntitySavedNotification<E>(entity));
 	}
 	
+	/**
+	 * Save a number of entities, without checking for exceptions thrown for duplicate keys or unique columns.
+	 * If this is called within a transaction, the {@link EntitySavedNotification}s are not sent until the
+	 * transaction has been committed.  The caller should normally be annotated {@link org.springframework.transaction.annotation.Transactional}
+	 * so that all entities are saved in one transaction, and their inserts can be batched.
+	 * @param entities entities to save
+	 */
+	protected void saveAllWithoutDuplicateHandling(final Collection<? extends E> entities) {
+		log.trace("Saving " + entities.size() + " entities.");
+		for(E entity : entities) {
+			this.getHibernateTemplate().save(entity);
+		}
+		log.trace("Entities saved.");
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					notifySaved(entities);
+				}
+			});
+		} else {
+			notifySaved(entities);
+		}
+	}
+	
+	/**
+	 * Sends an {@link EntitySavedNotification} for each of the supplied entities.
+	 * @param entities entities which have been saved
+	 */
+	private void notifySaved(Collection<? extends E> entities) {
+		for(E entity : entities) {
+			eventBus.notifyObservers(new EntitySavedNotification<E>(entity));
+		}
+	}
+	
 	/**
 	 * Saves an entity .
 	 * @param entity entity to save 
@@ -182,12 +224,34 @@ public abstract class BaseHibernateDao<E> extends HibernateDaoSupport {
 	 * @return a list of Es matching the supplied query
 	 */
 	protected List<E> getList(String hqlQuery, int startIndex, int limit, Object... values) {
-		List<E> list = getList(hqlQuery, values);
-		if(limit <= 0) {
-			return list.subList(startIndex, Integer.MAX_VALUE);
-		} else {
-			return list.subList(startIndex, Math.min(list.size(), startIndex + limit));
-		}
+		return getPagedList(hqlQuery, startIndex, limit, values);
+	}
+	
+	/**
+	 * Gets a page of results of the supplied HQL query.  The paging is done by the database, so
+	 * only the requested rows are loaded.
+	 * @param <T> type of the results
+	 * @param hqlQuery HQL query
+	 * @param startIndex the index of the first result object to be retrieved (numbered from 0)
+	 * @param limit the maximum number of result objects to retrieve (or <=0 for no limit)
+	 * @param values values to insert into the HQL query
+	 * @return a page of the results of the supplied query
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T> List<T> getPagedList(final String hqlQuery, final int startIndex, final int limit, final Object... values) {
+		return this.getHibernateTemplate().executeFind(new HibernateCallback() {
+			public Object doInHibernate(Session session) throws HibernateException {
+				Query query = session.createQuery(hqlQuery);
+				for(int i=0; i<values.length; ++i) {
+					query.setParameter(i, values[i]);
+				}
+				query.setFirstResult(startIndex);
+				if(limit > 0) {
+					query.setMaxResults(limit);
+				}
+				return query.list();
+			}
+		});
 	}
 	
 	/**
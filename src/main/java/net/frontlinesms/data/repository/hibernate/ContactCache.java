@@ -0,0 +1,296 @@
+/**
+ * 
+ */
+package net.frontlinesms.data.repository.hibernate;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.frontlinesms.FrontlineUtils;
+import net.frontlinesms.data.domain.Contact;
+import net.frontlinesms.ui.i18n.InternationalisationUtils;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Bounded cache of the {@link Contact} with each phone number, including phone numbers which have
+ * no contact.  When the cache is full, the least recently used phone number is discarded.
+ *
+ * Phone numbers are cached in canonical form (see {@link InternationalisationUtils#getCanonicalPhoneNumber(String)}),
+ * so the same number written in different ways shares one entry.  Numbers which cannot be
+ * converted to canonical form are cached as written.
+ *
+ * Entries must be invalidated whenever a contact is saved, updated or deleted.  The cache's size
+ * and hit rate are logged every {@link #STATISTICS_LOG_INTERVAL} lookups.
+ *
+ * This class is threadsafe.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+abstract class ContactCache {
+//> STATIC CONSTANTS
+	/** The number of lookups between each log of the cache's statistics */
+	private static final int STATISTICS_LOG_INTERVAL = 10000;
+
+//> INSTANCE PROPERTIES
+	/** Logging object */
+	private final Logger log = FrontlineUtils.getLogger(this.getClass());
+	/** The maximum number of phone numbers cached */
+	private final int capacity;
+	/** Cached contacts by canonical phone number, in order of least recent use.  Values are <code>null</code> for phone numbers with no contact. */
+	private final LinkedHashMap<String, Contact> contacts;
+	/** The keys of {@link #contacts} for each cached contact, by contact ID */
+	private final Map<Long, Set<String>> keysByContactId = new HashMap<Long, Set<String>>();
+	/** The keys of {@link #contacts} for phone numbers with no contact */
+	private final Set<String> missingKeys = new HashSet<String>();
+	/** Incremented every time entries are invalidated, so that a contact loaded from stale data is not cached. */
+	private int generation;
+	/** The number of lookups answered from the cache */
+	private long hitCount;
+	/** The number of lookups which had to load the contact */
+	private long missCount;
+
+//> CONSTRUCTORS
+	/** @param capacity value for {@link #capacity} */
+	ContactCache(final int capacity) {
+		this.capacity = capacity;
+		this.contacts = new LinkedHashMap<String, Contact>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Contact> eldest) {
+				if(size() > capacity) {
+					unindex(eldest.getKey(), eldest.getValue());
+					return true;
+				} else return false;
+			}
+		};
+	}
+
+//> ACCESSORS
+	/** @return {@link #capacity} */
+	int getCapacity() {
+		return capacity;
+	}
+
+	/** @return the number of phone numbers currently cached */
+	synchronized int size() {
+		return contacts.size();
+	}
+
+	/** @return {@link #hitCount} */
+	synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/** @return {@link #missCount} */
+	synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/** @return the proportion of lookups answered from the cache; <code>0</code> if there have been no lookups */
+	synchronized double getHitRate() {
+		long lookups = hitCount + missCount;
+		return lookups == 0 ? 0 : hitCount / (double) lookups;
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Gets the contact with a phone number, loading it with {@link #load(String)} if it is not cached.
+	 * @param phoneNumber the phone number
+	 * @return the contact with the phone number, or <code>null</code> if there is none
+	 */
+	Contact get(String phoneNumber) {
+		String key = getKey(phoneNumber);
+		int generation;
+		synchronized(this) {
+			if(contacts.containsKey(key)) {
+				recordLookups(1, 0);
+				return contacts.get(key);
+			}
+			recordLookups(0, 1);
+			generation = this.generation;
+		}
+		Contact contact = load(phoneNumber);
+		synchronized(this) {
+			// Only cache the contact if nothing has been invalidated while it was being loaded
+			if(generation == this.generation) {
+				put(key, contact);
+			}
+		}
+		return contact;
+	}
+
+	/**
+	 * Gets the contacts with a number of phone numbers, loading those which are not cached with a
+	 * single call to {@link #loadAll(Collection)}.
+	 * @param phoneNumbers the phone numbers.  <code>null</code> values are ignored.
+	 * @return the contact with each phone number, keyed on the number as supplied; phone numbers with no contact are not included
+	 */
+	Map<String, Contact> getAll(Collection<String> phoneNumbers) {
+		Map<String, Contact> found = new HashMap<String, Contact>();
+		Set<String> uncached = new LinkedHashSet<String>();
+		int generation;
+		synchronized(this) {
+			for(String phoneNumber : phoneNumbers) {
+				if(phoneNumber == null || found.containsKey(phoneNumber) || uncached.contains(phoneNumber)) continue;
+				String key = getKey(phoneNumber);
+				if(contacts.containsKey(key)) {
+					Contact contact = contacts.get(key);
+					if(contact != null) found.put(phoneNumber, contact);
+					recordLookups(1, 0);
+				} else {
+					uncached.add(phoneNumber);
+					recordLookups(0, 1);
+				}
+			}
+			generation = this.generation;
+		}
+		if(uncached.isEmpty()) return found;
+
+		Map<String, Contact> loaded = loadAll(uncached);
+		synchronized(this) {
+			if(generation == this.generation) {
+				for(String phoneNumber : uncached) {
+					put(getKey(phoneNumber), loaded.get(phoneNumber));
+				}
+			}
+		}
+		found.putAll(loaded);
+		return found;
+	}
+
+	/**
+	 * Discards cached entries which may be changed by a contact having been saved, updated or deleted.
+	 * @param contact the contact which has changed
+	 */
+	synchronized void invalidate(Contact contact) {
+		++generation;
+		if(contact.getPhoneNumber() != null) {
+			remove(getKey(contact.getPhoneNumber()));
+		}
+		// The contact's phone number may have changed, so remove any entry for it under its old number
+		Set<String> keys = keysByContactId.get(contact.getId());
+		if(keys != null) {
+			for(String key : keys.toArray(new String[keys.size()])) {
+				remove(key);
+			}
+		}
+		// Phone numbers with no contact may now belong to this one
+		for(String key : missingKeys.toArray(new String[missingKeys.size()])) {
+			remove(key);
+		}
+	}
+
+	/** Discards all cached entries. */
+	synchronized void clear() {
+		++generation;
+		contacts.clear();
+		keysByContactId.clear();
+		missingKeys.clear();
+	}
+
+	/**
+	 * Gets the key a phone number is cached under.
+	 * @param phoneNumber a phone number
+	 * @return the phone number in canonical form, or as supplied if it cannot be converted
+	 */
+	protected String getKey(String phoneNumber) {
+		String canonical = InternationalisationUtils.getCanonicalPhoneNumber(phoneNumber);
+		return canonical == null ? phoneNumber : canonical;
+	}
+
+	/**
+	 * Loads the contact with a phone number when it is not cached.
+	 * @param phoneNumber the phone number
+	 * @return the contact with the phone number, or <code>null</code> if there is none
+	 */
+	protected abstract Contact load(String phoneNumber);
+
+	/**
+	 * Loads the contacts with a number of phone numbers which are not cached.  Implementations should
+	 * override this to load the contacts with fewer queries than calling {@link #load(String)} for each.
+	 * @param phoneNumbers the phone numbers
+	 * @return the contact with each phone number, keyed on the number as supplied; phone numbers with no contact need not be included
+	 */
+	protected Map<String, Contact> loadAll(Collection<String> phoneNumbers) {
+		Map<String, Contact> loaded = new HashMap<String, Contact>();
+		for(String phoneNumber : phoneNumbers) {
+			Contact contact = load(phoneNumber);
+			if(contact != null) loaded.put(phoneNumber, contact);
+		}
+		return loaded;
+	}
+
+//> INDEX METHODS
+	/**
+	 * Caches the contact with a phone number.  Must be called while synchronized on this cache.
+	 * @param key the phone number, as returned by {@link #getKey(String)}
+	 * @param contact the contact with the phone number, or <code>null</code> if there is none
+	 */
+	private void put(String key, Contact contact) {
+		remove(key);
+		contacts.put(key, contact);
+		// The entry may have been discarded straight away if the capacity is zero
+		if(contacts.containsKey(key)) {
+			if(contact == null) {
+				missingKeys.add(key);
+			} else {
+				Set<String> keys = keysByContactId.get(contact.getId());
+				if(keys == null) keysByContactId.put(contact.getId(), keys = new HashSet<String>());
+				keys.add(key);
+			}
+		}
+	}
+
+	/**
+	 * Removes the entry for a phone number.  Must be called while synchronized on this cache.
+	 * @param key the phone number, as returned by {@link #getKey(String)}
+	 */
+	private void remove(String key) {
+		if(contacts.containsKey(key)) {
+			unindex(key, contacts.remove(key));
+		}
+	}
+
+	/**
+	 * Removes an entry of {@link #contacts} from {@link #keysByContactId} and {@link #missingKeys}.
+	 * @param key the key of the entry
+	 * @param contact the value of the entry
+	 */
+	private void unindex(String key, Contact contact) {
+		if(contact == null) {
+			missingKeys.remove(key);
+		} else {
+			Set<String> keys = keysByContactId.get(contact.getId());
+			if(keys != null) {
+				keys.remove(key);
+				if(keys.isEmpty()) keysByContactId.remove(contact.getId());
+			}
+		}
+	}
+
+	/**
+	 * Counts lookups, logging the cache's statistics every {@link #STATISTICS_LOG_INTERVAL} lookups.
+	 * Must be called while synchronized on this cache.
+	 * @param hits the number of lookups answered from the cache
+	 * @param misses the number of lookups which had to load the contact
+	 */
+	private void recordLookups(int hits, int misses) {
+		long before = hitCount + missCount;
+		hitCount += hits;
+		missCount += misses;
+		if(before / STATISTICS_LOG_INTERVAL != (hitCount + missCount) / STATISTICS_LOG_INTERVAL) {
+			log.info("Contact cache: " + this + ", hit rate=" + Math.round(getHitRate() * 100) + "%");
+		}
+	}
+
+	/** @see java.lang.Object#toString() */
+	@Override
+	public synchronized String toString() {
+		return "size=" + contacts.size() + "/" + capacity + ", hits=" + hitCount + ", misses=" + missCount;
+	}
+}
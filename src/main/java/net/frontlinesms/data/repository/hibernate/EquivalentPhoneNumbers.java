@@ -0,0 +1,73 @@
+/**
+ *
+ */
+package net.frontlinesms.data.repository.hibernate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.frontlinesms.ui.i18n.InternationalisationUtils;
+
+/**
+ * The different ways each of a set of phone numbers is likely to have been written, used to look up
+ * many numbers at once when the numbers stored on contacts may be written differently, e.g. in local
+ * rather than international format.
+ *
+ * All forms of the numbers are queried with {@link #getAllForms()}, and the results mapped back to the
+ * numbers which were looked up with {@link #resolve(Map)}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+class EquivalentPhoneNumbers {
+//> INSTANCE PROPERTIES
+	/** The forms of each phone number, in order of preference, keyed on the number as supplied */
+	private final Map<String, List<String>> formsByNumber = new LinkedHashMap<String, List<String>>();
+
+//> CONSTRUCTORS
+	/**
+	 * @param phoneNumbers the phone numbers to look up.  <code>null</code> values are ignored.
+	 */
+	EquivalentPhoneNumbers(Collection<String> phoneNumbers) {
+		for(String phoneNumber : phoneNumbers) {
+			if(phoneNumber != null && !formsByNumber.containsKey(phoneNumber)) {
+				formsByNumber.put(phoneNumber, InternationalisationUtils.getEquivalentPhoneNumbers(phoneNumber));
+			}
+		}
+	}
+
+//> ACCESSORS
+	/** @return every form of every phone number, without duplicates */
+	List<String> getAllForms() {
+		Set<String> allForms = new LinkedHashSet<String>();
+		for(List<String> forms : formsByNumber.values()) {
+			allForms.addAll(forms);
+		}
+		return new ArrayList<String>(allForms);
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Maps values found for stored phone numbers back to the phone numbers which were looked up.  Where
+	 * several stored numbers match a number, the one written most like it is preferred.
+	 * @param <V> the type of the values
+	 * @param valuesByStoredNumber values found, keyed on the phone number as stored
+	 * @return the values, keyed on the phone number as supplied; phone numbers with no value are not included
+	 */
+	<V> Map<String, V> resolve(Map<String, V> valuesByStoredNumber) {
+		Map<String, V> resolved = new HashMap<String, V>();
+		for(Map.Entry<String, List<String>> number : formsByNumber.entrySet()) {
+			for(String form : number.getValue()) {
+				if(valuesByStoredNumber.containsKey(form)) {
+					resolved.put(number.getKey(), valuesByStoredNumber.get(form));
+					break;
+				}
+			}
+		}
+		return resolved;
+	}
+}
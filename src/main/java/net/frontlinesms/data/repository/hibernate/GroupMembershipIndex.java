@@ -0,0 +1,249 @@
+/**
+ * 
+ */
+package net.frontlinesms.data.repository.hibernate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import net.frontlinesms.data.domain.Contact;
+import net.frontlinesms.data.domain.Group;
+import net.frontlinesms.data.domain.GroupMembership;
+
+/**
+ * In-memory index of the members of every group, including the members of its subgroups.  Each
+ * group's members are held in one map, so listing and counting them takes the same time however
+ * deep the group hierarchy is.  Members are listed in order of contact ID.
+ *
+ * The index is loaded in full the first time it is read after being created or cleared.  Changes
+ * to group membership must be applied with {@link #add(String, Contact)} and
+ * {@link #remove(String, Contact)} once they have been committed; anything else which may change
+ * group membership must {@link #clear()} the index.
+ *
+ * The root group is not indexed, as every contact is a member of it.
+ *
+ * This class is threadsafe.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+abstract class GroupMembershipIndex {
+//> INSTANCE PROPERTIES
+	/** The indexed contacts, by ID */
+	private final Map<Long, Contact> contacts = new HashMap<Long, Contact>();
+	/** For each group path, the IDs of the contacts which are members of the group itself */
+	private final Map<String, Set<Long>> directMembersByPath = new HashMap<String, Set<Long>>();
+	/** For each group path, the IDs of the group's members and the number of the group and its subgroups each is a member of */
+	private final Map<String, TreeMap<Long, Integer>> membersByPath = new HashMap<String, TreeMap<Long, Integer>>();
+	/** <code>true</code> if {@link #contacts} and {@link #membersByPath} hold every group membership */
+	private boolean loaded;
+
+//> ACCESSORS
+	/** @return <code>true</code> if the index is currently loaded */
+	synchronized boolean isLoaded() {
+		return loaded;
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * @param group a group other than the root group
+	 * @return the members of the group and its subgroups
+	 */
+	List<Contact> getMembers(Group group) {
+		return getMembers(group, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param group a group other than the root group
+	 * @param startIndex the index of the first member to return
+	 * @param limit the maximum number of members to return
+	 * @return a page of the members of the group and its subgroups
+	 */
+	synchronized List<Contact> getMembers(Group group, int startIndex, int limit) {
+		ensureLoaded();
+		TreeMap<Long, Integer> members = membersByPath.get(group.getPath());
+		List<Contact> page = new ArrayList<Contact>();
+		if(members != null && startIndex < members.size()) {
+			Iterator<Long> ids = members.keySet().iterator();
+			for(int i=0; i<startIndex; ++i) ids.next();
+			while(ids.hasNext() && page.size() < limit) {
+				page.add(contacts.get(ids.next()));
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * @param group a group other than the root group
+	 * @return the active members of the group and its subgroups
+	 */
+	synchronized List<Contact> getActiveMembers(Group group) {
+		ensureLoaded();
+		TreeMap<Long, Integer> members = membersByPath.get(group.getPath());
+		List<Contact> activeMembers = new ArrayList<Contact>();
+		if(members != null) {
+			for(Long id : members.keySet()) {
+				Contact contact = contacts.get(id);
+				if(contact.isActive()) activeMembers.add(contact);
+			}
+		}
+		return activeMembers;
+	}
+
+	/**
+	 * @param group a group other than the root group
+	 * @return the number of members of the group and its subgroups
+	 */
+	synchronized int getMemberCount(Group group) {
+		ensureLoaded();
+		TreeMap<Long, Integer> members = membersByPath.get(group.getPath());
+		return members == null ? 0 : members.size();
+	}
+
+	/**
+	 * @param group a group other than the root group
+	 * @param contact a contact
+	 * @return <code>true</code> if the contact is a member of the group or any of its subgroups
+	 */
+	synchronized boolean isMember(Group group, Contact contact) {
+		ensureLoaded();
+		TreeMap<Long, Integer> members = membersByPath.get(group.getPath());
+		return members != null && members.containsKey(contact.getId());
+	}
+
+	/**
+	 * Records a contact being added to a group.  This has no effect if the index is not loaded, or
+	 * if the membership was already loaded.
+	 * @param groupPath the path of the group
+	 * @param contact the new member of the group
+	 */
+	synchronized void add(String groupPath, Contact contact) {
+		if(loaded) {
+			addToIndex(groupPath, contact);
+		}
+	}
+
+	/**
+	 * Records a contact being removed from a group.  This has no effect if the index is not loaded, or
+	 * if the contact was not a member of the group when the index was loaded.
+	 * @param groupPath the path of the group
+	 * @param contact the former member of the group
+	 */
+	synchronized void remove(String groupPath, Contact contact) {
+		if(loaded) {
+			Set<Long> directMembers = directMembersByPath.get(groupPath);
+			if(directMembers == null || !directMembers.remove(contact.getId())) return;
+			for(String path=groupPath; path.length()>0; path=Group.getParentPath(path)) {
+				TreeMap<Long, Integer> members = membersByPath.get(path);
+				if(members == null) continue;
+				Integer count = members.get(contact.getId());
+				if(count == null) continue;
+				if(count > 1) members.put(contact.getId(), count - 1);
+				else members.remove(contact.getId());
+			}
+			if(!isMemberOfAnyGroup(contact.getId())) {
+				contacts.remove(contact.getId());
+			}
+		}
+	}
+
+	/**
+	 * Replaces the indexed copy of a contact which has been updated.
+	 * @param contact the updated contact
+	 */
+	synchronized void update(Contact contact) {
+		if(contacts.containsKey(contact.getId())) {
+			contacts.put(contact.getId(), contact);
+		}
+	}
+
+	/**
+	 * Removes a deleted contact from every group.
+	 * @param contact the deleted contact
+	 */
+	synchronized void removeContact(Contact contact) {
+		if(contacts.remove(contact.getId()) != null) {
+			for(Set<Long> directMembers : directMembersByPath.values()) {
+				directMembers.remove(contact.getId());
+			}
+			for(TreeMap<Long, Integer> members : membersByPath.values()) {
+				members.remove(contact.getId());
+			}
+		}
+	}
+
+	/** Discards the index, so that it is reloaded when it is next read. */
+	synchronized void clear() {
+		loaded = false;
+		contacts.clear();
+		directMembersByPath.clear();
+		membersByPath.clear();
+	}
+
+	/**
+	 * Loads every group membership.
+	 * @return all group memberships
+	 */
+	protected abstract Collection<GroupMembership> load();
+
+	/** @see java.lang.Object#toString() */
+	@Override
+	public synchronized String toString() {
+		return "loaded=" + loaded + ", contacts=" + contacts.size() + ", groups=" + membersByPath.size();
+	}
+
+//> INSTANCE HELPER METHODS
+	/**
+	 * Loads the index if it is not already loaded.  Must be called while synchronized on this index,
+	 * so changes committed while the index is loading are applied once it has loaded.  They may
+	 * already have been loaded, so applying them again must have no effect.
+	 */
+	private void ensureLoaded() {
+		if(!loaded) {
+			for(GroupMembership membership : load()) {
+				addToIndex(membership.getGroup().getPath(), membership.getContact());
+			}
+			loaded = true;
+		}
+	}
+
+	/**
+	 * Adds a contact to the members of a group and its ancestors, unless it is already a member.
+	 * @param groupPath the path of the group
+	 * @param contact the new member of the group
+	 */
+	private void addToIndex(String groupPath, Contact contact) {
+		Set<Long> directMembers = directMembersByPath.get(groupPath);
+		if(directMembers == null) {
+			directMembers = new HashSet<Long>();
+			directMembersByPath.put(groupPath, directMembers);
+		}
+		if(!directMembers.add(contact.getId())) return;
+		contacts.put(contact.getId(), contact);
+		for(String path=groupPath; path.length()>0; path=Group.getParentPath(path)) {
+			TreeMap<Long, Integer> members = membersByPath.get(path);
+			if(members == null) {
+				members = new TreeMap<Long, Integer>();
+				membersByPath.put(path, members);
+			}
+			Integer count = members.get(contact.getId());
+			members.put(contact.getId(), count == null ? 1 : count + 1);
+		}
+	}
+
+	/**
+	 * @param contactId the ID of a contact
+	 * @return <code>true</code> if the contact is still a member of a group
+	 */
+	private boolean isMemberOfAnyGroup(long contactId) {
+		for(TreeMap<Long, Integer> members : membersByPath.values()) {
+			if(members.containsKey(contactId)) return true;
+		}
+		return false;
+	}
+}
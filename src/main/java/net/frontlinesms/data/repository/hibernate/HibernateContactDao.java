@@ -1,38 +1,156 @@
 package net.frontlinesms.data.repository.hibernate;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import net.frontlinesms.data.DuplicateKeyException;
 import net.frontlinesms.data.Order;
 import net.frontlinesms.data.domain.Contact;
+import net.frontlinesms.data.domain.Group;
 import net.frontlinesms.data.domain.Contact.Field;
+import net.frontlinesms.data.events.DatabaseEntityNotification;
+import net.frontlinesms.data.events.EntityDeletedNotification;
+import net.frontlinesms.data.events.EntitySavedNotification;
+import net.frontlinesms.data.events.EntityUpdatedNotification;
 import net.frontlinesms.data.repository.ContactDao;
+import net.frontlinesms.events.EventObserver;
+import net.frontlinesms.events.FrontlineEventNotification;
+import net.frontlinesms.ui.i18n.InternationalisationUtils;
 
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Restrictions;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * Hibernate implementation of {@link ContactDao}.
+ * 
+ * Phone numbers are stored in canonical form where they can be converted to it (see
+ * {@link InternationalisationUtils#getCanonicalPhoneNumber(String)}).
+ * {@link #getFromMsisdn(String)} and {@link #getFromMsisdns(Collection)} match phone numbers however
+ * they are written, and are answered from a bounded {@link ContactCache}, whose entries are discarded
+ * whenever a change to a {@link Contact} is committed.  The cache is shared with
+ * {@link HibernateMessageDao}, which looks up the names of message senders and recipients here.  The cache is not used within a transaction, as the transaction may
+ * yet be rolled back.
  * @author Alex Anderson <alex@frontlinesms.com>
  * @author Morgan Belkadi <morgan@frontlinesms.com>
  */
-public class HibernateContactDao extends BaseHibernateDao<Contact> implements ContactDao {
+public class HibernateContactDao extends BaseHibernateDao<Contact> implements ContactDao, EventObserver {
+	/** The maximum number of forms of phone numbers looked up in a single query by {@link #getFromMsisdns(Collection)} */
+	private static final int MSISDN_QUERY_BATCH_SIZE = 100;
+	/** The maximum number of phone numbers cached by {@link #contactCache} */
+	private static final int CONTACT_CACHE_CAPACITY = 10000;
+	
+	/** Cache of contacts by phone number */
+	private final ContactCache contactCache = new ContactCache(CONTACT_CACHE_CAPACITY) {
+		@Override
+		protected Contact load(String phoneNumber) {
+			return queryFromMsisdn(phoneNumber);
+		}
+		@Override
+		protected Map<String, Contact> loadAll(Collection<String> phoneNumbers) {
+			return queryFromMsisdns(phoneNumbers);
+		}
+	};
+	
 	/** Create a new instance of this DAO. */
 		
 	public HibernateContactDao() {
 		super(Contact.class);
 	}
+	
+	/** Registers this DAO with the event bus so that changes to contacts invalidate {@link #contactCache}. */
+	@Override
+	protected void initDao() throws Exception {
+		super.initDao();
+		getEventBus().registerObserver(this, DatabaseEntityNotification.class);
+	}
 
 	/** @see ContactDao#saveContact(Contact) */
 	public void saveContact(Contact contact) throws DuplicateKeyException {
+		setCanonicalPhoneNumber(contact);
 		super.save(contact);
 	}
 	
+	/** @see ContactDao#saveContacts(Collection) */
+	@Transactional
+	public void saveContacts(Collection<Contact> contacts) {
+		for(Contact contact : contacts) {
+			setCanonicalPhoneNumber(contact);
+		}
+		super.saveAllWithoutDuplicateHandling(contacts);
+	}
+	
 	/** @see ContactDao#updateContact(Contact) */
 	public void updateContact(Contact contact) throws DuplicateKeyException {
+		setCanonicalPhoneNumber(contact);
 		super.update(contact);
 	}
+	
+	/**
+	 * Numbers already stored in canonical form by another contact are left as they are.
+	 * @see ContactDao#canonicalisePhoneNumbers()
+	 */
+	@Transactional
+	@SuppressWarnings("unchecked")
+	public int canonicalisePhoneNumbers() {
+		// Numbers in canonical form start with '+' and contain nothing but digits after it
+		List<Object[]> storedNumbers = getHibernateTemplate().find("SELECT c.id, c." + Field.PHONE_NUMBER.getFieldName()
+				+ " FROM Contact AS c WHERE c." + Field.PHONE_NUMBER.getFieldName() + " NOT LIKE '+%'"
+				+ " OR c." + Field.PHONE_NUMBER.getFieldName() + " LIKE '% %'"
+				+ " OR c." + Field.PHONE_NUMBER.getFieldName() + " LIKE '%-%'");
+		Map<String, Long> idsByCanonicalNumber = new LinkedHashMap<String, Long>();
+		for(Object[] storedNumber : storedNumbers) {
+			String canonical = InternationalisationUtils.getCanonicalPhoneNumber((String) storedNumber[1]);
+			if(canonical != null && !idsByCanonicalNumber.containsKey(canonical)) {
+				idsByCanonicalNumber.put(canonical, (Long) storedNumber[0]);
+			}
+		}
+		
+		List<String> canonicalNumbers = new ArrayList<String>(idsByCanonicalNumber.keySet());
+		for(int i=0; i<canonicalNumbers.size(); i+=MSISDN_QUERY_BATCH_SIZE) {
+			Map<String, Contact> existing = new HashMap<String, Contact>();
+			addFromMsisdns(canonicalNumbers.subList(i, Math.min(canonicalNumbers.size(), i + MSISDN_QUERY_BATCH_SIZE)), existing);
+			idsByCanonicalNumber.keySet().removeAll(existing.keySet());
+		}
+		
+		for(Map.Entry<String, Long> contact : idsByCanonicalNumber.entrySet()) {
+			getHibernateTemplate().bulkUpdate("UPDATE Contact SET " + Field.PHONE_NUMBER.getFieldName() + "=? WHERE id=?",
+					new Object[]{contact.getKey(), contact.getValue()});
+		}
+		if(!idsByCanonicalNumber.isEmpty()) {
+			// No notifications are sent for bulk updates
+			afterCommit(new Runnable() {
+				public void run() {
+					contactCache.clear();
+				}
+			});
+		}
+		return idsByCanonicalNumber.size();
+	}
+	
+	/**
+	 * Converts a contact's phone number to canonical form, so that a number is stored the same way
+	 * however it was entered.  Numbers which cannot be converted are stored as entered.
+	 * @param contact a contact about to be saved
+	 */
+	private static void setCanonicalPhoneNumber(Contact contact) {
+		String phoneNumber = contact.getPhoneNumber();
+		String canonical = phoneNumber == null ? null : InternationalisationUtils.getCanonicalPhoneNumber(phoneNumber);
+		if(canonical != null && !canonical.equals(phoneNumber)) {
+			try {
+				contact.setPhoneNumber(canonical);
+			} catch(DuplicateKeyException ex) {
+				// Contact.setPhoneNumber() does not check for duplicates; they are found when the contact is saved
+				throw new IllegalStateException(ex);
+			}
+		}
+	}
 
 	/** @see ContactDao#deleteContact(Contact) */
 	@Transactional
@@ -60,6 +178,16 @@ public class HibernateContactDao extends BaseHibernateDao<Contact> implements Co
 		return super.getList(criteria, startIndex, limit);
 	}
 
+	/** @see ContactDao#getContactsAfter(Contact, int) */
+	public List<Contact> getContactsAfter(Contact previous, int limit) {
+		DetachedCriteria criteria = super.getCriterion();
+		if(previous != null) {
+			criteria.add(Restrictions.gt("id", previous.getId()));
+		}
+		criteria.addOrder(org.hibernate.criterion.Order.asc("id"));
+		return super.getList(criteria, 0, limit);
+	}
+
 	/** @see ContactDao#getContactByName(String) */
 	public Contact getContactByName(String name) {
 		DetachedCriteria criteria = super.getCriterion();
@@ -90,9 +218,133 @@ public class HibernateContactDao extends BaseHibernateDao<Contact> implements Co
 
 	/** @see ContactDao#getFromMsisdn(String) */
 	public Contact getFromMsisdn(String phoneNumber) {
+		if(phoneNumber == null || TransactionSynchronizationManager.isSynchronizationActive()) {
+			return queryFromMsisdn(phoneNumber);
+		} else {
+			return contactCache.get(phoneNumber);
+		}
+	}
+	
+	/**
+	 * Fetches the contact with a phone number from the database.  A contact whose number is written
+	 * differently, e.g. in local rather than international format, is found if there is no contact
+	 * with the number exactly as supplied.
+	 * @param phoneNumber the phone number
+	 * @return the contact with the phone number, or <code>null</code> if there is none
+	 */
+	private Contact queryFromMsisdn(String phoneNumber) {
 		DetachedCriteria criteria = super.getCriterion();
-		criteria.add(Restrictions.eq(Field.PHONE_NUMBER.getFieldName(), phoneNumber));
-		return super.getUnique(criteria);
+		if(phoneNumber == null) {
+			criteria.add(Restrictions.eq(Field.PHONE_NUMBER.getFieldName(), phoneNumber));
+			return super.getUnique(criteria);
+		}
+		
+		List<String> equivalentNumbers = InternationalisationUtils.getEquivalentPhoneNumbers(phoneNumber);
+		criteria.add(Restrictions.in(Field.PHONE_NUMBER.getFieldName(), equivalentNumbers));
+		// Prefer the contact whose number is written most like the supplied number
+		Contact match = null;
+		int matchIndex = Integer.MAX_VALUE;
+		for(Contact contact : super.getList(criteria)) {
+			int index = equivalentNumbers.indexOf(contact.getPhoneNumber());
+			if(index < matchIndex) {
+				match = contact;
+				matchIndex = index;
+			}
+		}
+		return match;
+	}
+	
+	/** @see ContactDao#getContactCacheSize() */
+	public int getContactCacheSize() {
+		return contactCache.size();
+	}
+	
+	/** @see ContactDao#getContactCacheHitRate() */
+	public double getContactCacheHitRate() {
+		return contactCache.getHitRate();
+	}
+	
+	/** Invalidates {@link #contactCache} once the save, update or deletion of a {@link Contact} has been committed. */
+	public void notify(FrontlineEventNotification notification) {
+		if(notification instanceof EntitySavedNotification<?>
+				|| notification instanceof EntityUpdatedNotification<?>
+				|| notification instanceof EntityDeletedNotification<?>) {
+			final Object entity = ((DatabaseEntityNotification<?>) notification).getDatabaseEntity();
+			if(entity instanceof Contact) {
+				afterCommit(new Runnable() {
+					public void run() {
+						contactCache.invalidate((Contact) entity);
+					}
+				});
+			} else if(entity instanceof Group && notification instanceof EntityDeletedNotification<?>) {
+				// Deleting a group can delete its contacts without notifications for them
+				afterCommit(new Runnable() {
+					public void run() {
+						contactCache.clear();
+					}
+				});
+			}
+		}
+	}
+	
+	/**
+	 * Applies a change to {@link #contactCache} once the current transaction has been committed, or
+	 * immediately if there is no transaction.  Until then, other threads may still load and cache the
+	 * contact as it was before the change.
+	 * @param cacheChange the change to apply
+	 */
+	private void afterCommit(final Runnable cacheChange) {
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					cacheChange.run();
+				}
+			});
+		} else {
+			cacheChange.run();
+		}
+	}
+
+	/**
+	 * Contacts are matched however their numbers are written, and answered from the cache, as by {@link #getFromMsisdn(String)}.
+	 * @see ContactDao#getFromMsisdns(Collection)
+	 */
+	public Map<String, Contact> getFromMsisdns(Collection<String> phoneNumbers) {
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			return queryFromMsisdns(phoneNumbers);
+		} else {
+			return contactCache.getAll(phoneNumbers);
+		}
+	}
+	
+	/**
+	 * Fetches the contacts with any of the supplied phone numbers from the database, with one query
+	 * for every {@link #MSISDN_QUERY_BATCH_SIZE} forms of the numbers.
+	 * @param phoneNumbers phone numbers.  <code>null</code> values are ignored.
+	 * @return map from phone number, as supplied, to the contact with that number; phone numbers which do not belong to a contact are not included
+	 */
+	private Map<String, Contact> queryFromMsisdns(Collection<String> phoneNumbers) {
+		EquivalentPhoneNumbers equivalentNumbers = new EquivalentPhoneNumbers(phoneNumbers);
+		List<String> forms = equivalentNumbers.getAllForms();
+		Map<String, Contact> contacts = new HashMap<String, Contact>();
+		for(int i=0; i<forms.size(); i+=MSISDN_QUERY_BATCH_SIZE) {
+			addFromMsisdns(forms.subList(i, Math.min(forms.size(), i + MSISDN_QUERY_BATCH_SIZE)), contacts);
+		}
+		return equivalentNumbers.resolve(contacts);
+	}
+	
+	/**
+	 * Fetches the contacts with any of the supplied phone numbers with a single query.
+	 * @param phoneNumbers phone numbers
+	 * @param contacts map to add the contacts to, keyed on their phone numbers as stored
+	 */
+	private void addFromMsisdns(List<String> phoneNumbers, Map<String, Contact> contacts) {
+		DetachedCriteria criteria = super.getCriterion();
+		criteria.add(Restrictions.in(Field.PHONE_NUMBER.getFieldName(), phoneNumbers));
+		for(Contact contact : super.getList(criteria)) {
+			contacts.put(contact.getPhoneNumber(), contact);
+		}
 	}
 
 	/** @see ContactDao#getPageNumber(Contact, int) */
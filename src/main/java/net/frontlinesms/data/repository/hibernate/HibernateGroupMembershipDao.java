@@ -3,6 +3,7 @@
  */
 package net.frontlinesms.data.repository.hibernate;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.hibernate.criterion.DetachedCriteria;
@@ -10,6 +11,8 @@ import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import net.frontlinesms.data.DuplicateKeyException;
 import net.frontlinesms.data.Order;
@@ -17,33 +20,80 @@ import net.frontlinesms.data.domain.Contact;
 import net.frontlinesms.data.domain.Group;
 import net.frontlinesms.data.domain.GroupMembership;
 import net.frontlinesms.data.domain.Contact.Field;
+import net.frontlinesms.data.events.DatabaseEntityNotification;
+import net.frontlinesms.data.events.EntityDeletedNotification;
+import net.frontlinesms.data.events.EntityUpdatedNotification;
 import net.frontlinesms.data.repository.GroupMembershipDao;
+import net.frontlinesms.events.EventObserver;
+import net.frontlinesms.events.FrontlineEventNotification;
 
 /**
+ * Hibernate implementation of {@link GroupMembershipDao}.
+ * 
+ * Member lists, counts and membership checks for groups other than the root group are answered
+ * from a {@link GroupMembershipIndex}, so they do not depend on the depth of the group hierarchy.
+ * The index is updated once changes to membership are committed, and is not used within a
+ * transaction, as the transaction may have uncommitted changes.  Filtered and sorted member lists
+ * are still fetched from the database.
  * @author aga
  */
-public class HibernateGroupMembershipDao extends BaseHibernateDao<GroupMembership> implements GroupMembershipDao {
+public class HibernateGroupMembershipDao extends BaseHibernateDao<GroupMembership> implements GroupMembershipDao, EventObserver {
+//> INSTANCE PROPERTIES
+	/** Index of the members of each group */
+	private final GroupMembershipIndex membershipIndex = new GroupMembershipIndex() {
+		@Override
+		protected Collection<GroupMembership> load() {
+			return getList(GroupMembership.class, "SELECT mem FROM GroupMembership AS mem JOIN FETCH mem.group JOIN FETCH mem.contact");
+		}
+	};
 
 //> CONSTRUCTORS
 	HibernateGroupMembershipDao() {
 		super(GroupMembership.class);
 	}
 	
+	/** Registers this DAO with the event bus so that changes to contacts and groups are applied to {@link #membershipIndex}. */
+	@Override
+	protected void initDao() throws Exception {
+		super.initDao();
+		getEventBus().registerObserver(this, DatabaseEntityNotification.class);
+	}
+	
 //> DAO METHODS
 	/** @see GroupMembershipDao#addMember(Group, Contact) */
-	public boolean addMember(Group g, Contact contact) {
+	public boolean addMember(final Group g, final Contact contact) {
 		GroupMembership membership = new GroupMembership(g, contact);
 		try {
 			super.save(membership);
+			afterCommit(new Runnable() {
+				public void run() {
+					membershipIndex.add(g.getPath(), contact);
+				}
+			});
 			return true;
 		} catch (DuplicateKeyException e) {
 			return false;
 		}
 	}
+	
+	/** @see GroupMembershipDao#addMembers(Collection) */
+	@Transactional
+	public void addMembers(final Collection<GroupMembership> memberships) {
+		super.saveAllWithoutDuplicateHandling(memberships);
+		afterCommit(new Runnable() {
+			public void run() {
+				for(GroupMembership membership : memberships) {
+					membershipIndex.add(membership.getGroup().getPath(), membership.getContact());
+				}
+			}
+		});
+	}
 
 	/** @see GroupMembershipDao#getActiveMembers(Group) */
 	public List<Contact> getActiveMembers(Group group) {
-		if(group.isRoot()) {
+		if(isIndexed(group)) {
+			return membershipIndex.getActiveMembers(group);
+		} else if(group.isRoot()) {
 			String queryString = "SELECT DISTINCT c FROM Contact AS c WHERE c.active=TRUE";
 			return getList(Contact.class, queryString);
 		} else {
@@ -61,7 +111,9 @@ public class HibernateGroupMembershipDao extends BaseHibernateDao<GroupMembershi
 
 	/** @see GroupMembershipDao#getMemberCount(Group) */
 	public int getMemberCount(Group group) {
-		if(group.isRoot()) {
+		if(isIndexed(group)) {
+			return membershipIndex.getMemberCount(group);
+		} else if(group.isRoot()) {
 			DetachedCriteria crit = DetachedCriteria.forClass(Contact.class);
 			crit.setProjection(Projections.rowCount());
 			return DataAccessUtils.intResult(this.getHibernateTemplate().findByCriteria(crit));
@@ -75,7 +127,9 @@ public class HibernateGroupMembershipDao extends BaseHibernateDao<GroupMembershi
 
 	/** @see GroupMembershipDao#getMembers(Group) */
 	public List<Contact> getMembers(Group group) {
-		if(group.isRoot()) {
+		if(isIndexed(group)) {
+			return membershipIndex.getMembers(group);
+		} else if(group.isRoot()) {
 			return getList(Contact.class, DetachedCriteria.forClass(Contact.class));
 		} else {
 			String childPath = group.getPath() + Group.PATH_SEPARATOR + "%";
@@ -86,59 +140,23 @@ public class HibernateGroupMembershipDao extends BaseHibernateDao<GroupMembershi
 
 	/** @see GroupMembershipDao#getFilteredMembers(Group, String) */
 	public List<Contact> getFilteredMembers(final Group group, String contactFilterString, int startIndex, int limit) {
-		// TODO this is quite an ugly way of doing limits
-		List<Contact> filteredMembers = getFilteredMembers(group, contactFilterString);
-		int toIndex = Math.min(filteredMembers.size(), startIndex + limit);
-		return filteredMembers.subList(startIndex, toIndex);
+		return getFilteredMembersSorted(group, contactFilterString, null, null, startIndex, limit);
 	}
 	/** @see GroupMembershipDao#getFilteredMembers(Group, String) */
 	public List<Contact> getFilteredMembers(final Group group, String contactFilterString) {
-		contactFilterString = getMemberFilterLikeString(contactFilterString);
-		if(group.isRoot()) {
-			String queryString = "SELECT DISTINCT c FROM Contact AS c WHERE LOWER(c.name) LIKE LOWER(?) OR LOWER(c.phoneNumber) LIKE LOWER(?)";
-			return getList(Contact.class, queryString, contactFilterString, contactFilterString);
-		} else {
-			String queryString = "SELECT DISTINCT mem.contact FROM GroupMembership AS mem WHERE " +
-					"(mem.group=? OR mem.group.path LIKE ?)" +
-					" AND (LOWER(mem.contact.name) LIKE LOWER(?) OR LOWER(mem.contact.phoneNumber) LIKE LOWER(?))";
-			String childPath = group.getPath() + Group.PATH_SEPARATOR + "%";
-			return getList(Contact.class, queryString, group, childPath, contactFilterString, contactFilterString);
-		}
+		return getFilteredMembersSorted(group, contactFilterString, null, null);
 	}
 	
 	/** @see GroupMembershipDao#getFilteredMembersSorted(Group, String) */
 	public List<Contact> getFilteredMembersSorted(final Group group, String contactFilterString, Field sortBy, Order order, int startIndex, int limit) {
-		// TODO this is quite an ugly way of doing limits
-		List<Contact> filteredMembers = getFilteredMembersSorted(group, contactFilterString, sortBy, order);
-		int toIndex = Math.min(filteredMembers.size(), startIndex + limit);
-		return filteredMembers.subList(startIndex, toIndex);
+		return getPagedList(getFilteredMembersQuery(group, sortBy, order), startIndex, limit,
+				getFilteredMembersQueryValues(group, contactFilterString));
 	}
 	
 	/** @see GroupMembershipDao#getFilteredMembersSorted(Group, String) */
 	public List<Contact> getFilteredMembersSorted(final Group group, String contactFilterString, Field sortBy, Order order) {
-		contactFilterString = getMemberFilterLikeString(contactFilterString);
-		if (group.isRoot()) {
-			String queryString = "SELECT DISTINCT c FROM Contact AS c WHERE LOWER(c.name) LIKE LOWER(?) OR LOWER(c.phoneNumber) LIKE LOWER(?)";
-			if (sortBy != null) {
-				String strSortBy = sortBy.getFieldName();
-				if (sortBy.equals(Field.EMAIL_ADDRESS))
-					strSortBy += ", " + Field.NAME.getFieldName();
-				queryString += " ORDER BY " + strSortBy + " " + order.toHqlString();
-			}
-			return getList(Contact.class, queryString, contactFilterString, contactFilterString);
-		} else {
-			String queryString = "SELECT DISTINCT mem.contact FROM GroupMembership AS mem WHERE " +
-					"(mem.group=? OR mem.group.path LIKE ?)" +
-					" AND (LOWER(mem.contact.name) LIKE LOWER(?) OR LOWER(mem.contact.phoneNumber) LIKE LOWER(?))";
-			if (sortBy != null) {
-				String strSortBy = sortBy.getFieldName();
-				if (sortBy.equals(Field.EMAIL_ADDRESS))
-					strSortBy += ", mem.contact." + Field.NAME.getFieldName();
-				queryString += " ORDER BY mem.contact." + strSortBy + " " + order.toHqlString();
-			}
-			String childPath = group.getPath() + Group.PATH_SEPARATOR + "%";
-			return getList(Contact.class, queryString, group, childPath, contactFilterString, contactFilterString);
-		}
+		return getList(Contact.class, getFilteredMembersQuery(group, sortBy, order),
+				getFilteredMembersQueryValues(group, contactFilterString));
 	}
 	
 	/** @see GroupMembershipDao#getFilteredMemberCount(Group, String) */
@@ -157,14 +175,25 @@ public class HibernateGroupMembershipDao extends BaseHibernateDao<GroupMembershi
 	}
 
 	/** @see GroupMembershipDao#getMembers(Group, int, int) */
+	@SuppressWarnings("unchecked")
 	public List<Contact> getMembers(Group group, int startIndex, int limit) {
-		List<Contact> allMembers = getMembers(group);
-		return allMembers.subList(startIndex, Math.min(allMembers.size(), startIndex + limit));
+		if(isIndexed(group)) {
+			return membershipIndex.getMembers(group, startIndex, limit);
+		} else if(group.isRoot()) {
+			DetachedCriteria criteria = DetachedCriteria.forClass(Contact.class).addOrder(org.hibernate.criterion.Order.asc("id"));
+			return this.getHibernateTemplate().findByCriteria(criteria, startIndex, limit);
+		} else {
+			// Pages are ordered by contact ID, as they are by the membership index, so that they do not overlap or skip contacts
+			String childPath = group.getPath() + Group.PATH_SEPARATOR + "%";
+			String queryString = "SELECT DISTINCT mem.contact FROM GroupMembership AS mem WHERE mem.group=? OR mem.group.path LIKE ? ORDER BY mem.contact.id";
+			return getPagedList(queryString, startIndex, limit, group, childPath);
+		}
 	}
 
 	/** @see GroupMembershipDao#isMember(Group, Contact) */
 	public boolean isMember(Group group, Contact contact) {
 		if(group.isRoot()) return true;
+		if(isIndexed(group)) return membershipIndex.isMember(group, contact);
 		
 		String childPath = group.getPath() + Group.PATH_SEPARATOR + "%";
 		String queryString = "SELECT COUNT(*) FROM GroupMembership AS mem WHERE mem.contact=? AND (mem.group=? OR mem.group.path LIKE ?)";
@@ -173,17 +202,120 @@ public class HibernateGroupMembershipDao extends BaseHibernateDao<GroupMembershi
 
 	/** @see GroupMembershipDao#removeMember(Group, Contact) */
 	@Transactional
-	public boolean removeMember(Group group, Contact contact) {
+	public boolean removeMember(final Group group, final Contact contact) {
 		try {
 			DetachedCriteria crit = getMembershipCriteria(group, contact);
 			this.getHibernateTemplate().delete(DataAccessUtils.uniqueResult(this.getList(crit)));
+			afterCommit(new Runnable() {
+				public void run() {
+					membershipIndex.remove(group.getPath(), contact);
+				}
+			});
 			return true;
 		} catch(Exception ex) {
 			return false;
 		}
 	}
 
+//> EVENT OBSERVER METHODS
+	/** Applies changes to contacts and groups to {@link #membershipIndex} once they have been committed. */
+	public void notify(FrontlineEventNotification notification) {
+		if(notification instanceof EntityUpdatedNotification<?>
+				|| notification instanceof EntityDeletedNotification<?>) {
+			final Object entity = ((DatabaseEntityNotification<?>) notification).getDatabaseEntity();
+			final boolean deleted = notification instanceof EntityDeletedNotification<?>;
+			if(entity instanceof Contact) {
+				afterCommit(new Runnable() {
+					public void run() {
+						if(deleted) membershipIndex.removeContact((Contact) entity);
+						else membershipIndex.update((Contact) entity);
+					}
+				});
+			} else if(entity instanceof Group && deleted) {
+				// Deleting a group deletes the memberships of it and its subgroups, and possibly their contacts, in bulk
+				afterCommit(new Runnable() {
+					public void run() {
+						membershipIndex.clear();
+					}
+				});
+			}
+		}
+	}
+
 //> PRIVATE HELPER METHODS
+	/**
+	 * @param group a group
+	 * @return <code>true</code> if the members of the group should be fetched from {@link #membershipIndex}
+	 */
+	private boolean isIndexed(Group group) {
+		return !group.isRoot() && !TransactionSynchronizationManager.isSynchronizationActive();
+	}
+	
+	/**
+	 * Applies a change to {@link #membershipIndex} once the current transaction has been committed,
+	 * or immediately if there is no transaction.
+	 * @param indexChange the change to apply
+	 */
+	private void afterCommit(final Runnable indexChange) {
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					indexChange.run();
+				}
+			});
+		} else {
+			indexChange.run();
+		}
+	}
+	
+	/**
+	 * Builds the HQL query used by {@link #getFilteredMembersSorted(Group, String, Field, Order)}.
+	 * @param group the group to get members of
+	 * @param sortBy the field to sort by, or <code>null</code> if the results should not be sorted
+	 * @param order the direction to sort in
+	 * @return HQL query to get the filtered members of the group
+	 */
+	private String getFilteredMembersQuery(Group group, Field sortBy, Order order) {
+		if (group.isRoot()) {
+			String queryString = "SELECT DISTINCT c FROM Contact AS c WHERE LOWER(c.name) LIKE LOWER(?) OR LOWER(c.phoneNumber) LIKE LOWER(?)";
+			if (sortBy != null) {
+				String strSortBy = sortBy.getFieldName();
+				if (sortBy.equals(Field.EMAIL_ADDRESS))
+					strSortBy += ", " + Field.NAME.getFieldName();
+				queryString += " ORDER BY " + strSortBy + " " + order.toHqlString();
+			}
+			return queryString;
+		} else {
+			String queryString = "SELECT DISTINCT mem.contact FROM GroupMembership AS mem WHERE " +
+					"(mem.group=? OR mem.group.path LIKE ?)" +
+					" AND (LOWER(mem.contact.name) LIKE LOWER(?) OR LOWER(mem.contact.phoneNumber) LIKE LOWER(?))";
+			if (sortBy != null) {
+				String strSortBy = sortBy.getFieldName();
+				if (sortBy.equals(Field.EMAIL_ADDRESS))
+					strSortBy += ", mem.contact." + Field.NAME.getFieldName();
+				queryString += " ORDER BY mem.contact." + strSortBy + " " + order.toHqlString();
+			}
+			return queryString;
+		}
+	}
+	
+	/**
+	 * Gets the values to insert into the query built by {@link #getFilteredMembersQuery(Group, Field, Order)}.
+	 * @param group the group to get members of
+	 * @param contactFilterString the filter string from the UI
+	 * @return values to insert into the HQL query
+	 */
+	private Object[] getFilteredMembersQueryValues(Group group, String contactFilterString) {
+		contactFilterString = getMemberFilterLikeString(contactFilterString);
+		if(group.isRoot()) {
+			return new Object[]{contactFilterString, contactFilterString};
+		} else {
+			String childPath = group.getPath() + Group.PATH_SEPARATOR + "%";
+			return new Object[]{group, childPath, contactFilterString, contactFilterString};
+		}
+	}
+	
 	/** Convert the filterString passed from the UI to {@link #getFilteredMemberCount(Group, String)}
 	 * and {@link #getFilteredMembers(Group, String)} to the pattern for matching in the LIKE clause. */
 	private String getMemberFilterLikeString(String contactFilterString) {
@@ -5,10 +5,17 @@ package net.frontlinesms.data.repository.hibernate;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.apache.log4j.Logger;
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Restrictions;
 
+import net.frontlinesms.FrontlineUtils;
 import net.frontlinesms.data.domain.EmailAccount;
 import net.frontlinesms.data.domain.Keyword;
 import net.frontlinesms.data.domain.KeywordAction;
@@ -16,18 +23,42 @@ import net.frontlinesms.data.repository.KeywordActionDao;
 
 /**
  * Hibernate implementation of {@link KeywordActionDao}.
+ *
+ * Incrementing an action's counter happens for every message which triggers the action, so
+ * increments are collected in memory and written to the database every {@link #COUNTER_FLUSH_INTERVAL}
+ * milliseconds, and when the DAO is destroyed.  Actions loaded through this DAO include increments
+ * which have not yet been written.
  * @author Alex Anderson <alex@frontlinesms.com>
  * @author Morgan Belkadi <morgan@frontlinesms.com>
  */
 public class HibernateKeywordActionDao extends BaseHibernateDao<KeywordAction> implements KeywordActionDao {
+//> STATIC CONSTANTS
+	/** The time, in milliseconds, between writes of counter increments to the database */
+	static final long COUNTER_FLUSH_INTERVAL = 5000;
+	/** Query adding to the counter of a single action */
+	private static final String ADD_TO_COUNTER_QUERY = "UPDATE " + KeywordAction.TABLE_NAME + " as action" +
+			" SET " + KeywordAction.Field.COUNTER.getFieldName() + "=" + KeywordAction.Field.COUNTER.getFieldName() + "+?" +
+			" WHERE action.id=?";
+
+//> INSTANCE PROPERTIES
+	/** Logging object */
+	private final Logger log = FrontlineUtils.getLogger(this.getClass());
+	/** Counter increments which have not yet been written to the database, by action id */
+	private final ConcurrentMap<Long, StripedCounter> unsavedIncrements = new ConcurrentHashMap<Long, StripedCounter>();
+	/** Timer which writes {@link #unsavedIncrements} to the database; <code>null</code> until the first increment */
+	private Timer counterFlushTimer;
+
+//> CONSTRUCTORS
 	/** Create instance of this class */
 	public HibernateKeywordActionDao() {
 		super(KeywordAction.class);
 	}
 
+//> DAO METHODS
 	/** @see KeywordActionDao#deleteKeywordAction(KeywordAction) */
 	public void deleteKeywordAction(KeywordAction action) {
 		super.delete(action);
+		unsavedIncrements.remove(action.getId());
 	}
 
 	public void deleteForEmailAccount(EmailAccount emailAccount) {
@@ -38,7 +69,7 @@ public class HibernateKeywordActionDao extends BaseHibernateDao<KeywordAction> i
 	public Collection<KeywordAction> getReplyActions() {
 		DetachedCriteria criteria = super.getCriterion();
 		criteria.add(Restrictions.eq(KeywordAction.Field.TYPE.getFieldName(), KeywordAction.Type.REPLY));
-		return super.getList(criteria);
+		return mergeUnsavedIncrements(super.getList(criteria));
 	}
 
 	/** @see KeywordActionDao#saveKeywordAction(KeywordAction) */
@@ -56,14 +87,16 @@ public class HibernateKeywordActionDao extends BaseHibernateDao<KeywordAction> i
 		DetachedCriteria criteria = super.getCriterion();
 		criteria.add(Restrictions.eq(KeywordAction.Field.KEYWORD.getFieldName(), keyword));
 		criteria.add(Restrictions.eq(KeywordAction.Field.TYPE.getFieldName(), actionType));
-		return super.getUnique(criteria);
+		KeywordAction action = super.getUnique(criteria);
+		if(action != null) mergeUnsavedIncrements(action);
+		return action;
 	}
 	
 	/** @see net.frontlinesms.data.repository.KeywordActionDao#getActions(net.frontlinesms.data.domain.Keyword)*/
 	public List<KeywordAction> getActions(Keyword keyword) {
 		DetachedCriteria criteria = super.getCriterion();
 		criteria.add(Restrictions.eq(KeywordAction.Field.KEYWORD.getFieldName(), keyword));
-		return super.getList(criteria);
+		return mergeUnsavedIncrements(super.getList(criteria));
 	}
 	
 	/** @see net.frontlinesms.data.repository.KeywordActionDao#getCount()*/
@@ -73,11 +106,91 @@ public class HibernateKeywordActionDao extends BaseHibernateDao<KeywordAction> i
 	
 	/** @see net.frontlinesms.data.repository.KeywordActionDao#incrementCounter(KeywordAction)*/
 	public void incrementCounter(KeywordAction action) {
-		String incrementCounterQuery = "UPDATE " + KeywordAction.TABLE_NAME + " as action" +
-										" SET " + KeywordAction.Field.COUNTER + "=" + KeywordAction.Field.COUNTER + "+1" +
-										" WHERE action=?";
-		super.getHibernateTemplate().bulkUpdate(incrementCounterQuery, action);
+		mergeUnsavedIncrements(action);
+		getUnsavedIncrements(action.getId()).increment();
 		action.incrementCounter();
+		startCounterFlushTimer();
+	}
+	
+	/** @see net.frontlinesms.data.repository.KeywordActionDao#flushCounters() */
+	public void flushCounters() {
+		for(Map.Entry<Long, StripedCounter> entry : unsavedIncrements.entrySet()) {
+			StripedCounter counter = entry.getValue();
+			long increments = counter.sumThenReset();
+			if(increments > 0) {
+				try {
+					super.getHibernateTemplate().bulkUpdate(ADD_TO_COUNTER_QUERY, new Object[]{ (int) increments, entry.getKey() });
+				} catch(RuntimeException ex) {
+					// Keep the increments so they are written next time
+					counter.add(increments);
+					throw ex;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Writes any unsaved increments to the database and stops the flush timer.  This is called by Spring
+	 * when the DAO is destroyed.
+	 */
+	public synchronized void destroy() {
+		if(counterFlushTimer != null) {
+			counterFlushTimer.cancel();
+			counterFlushTimer = null;
+		}
+		flushCounters();
 	}
 
+//> INSTANCE HELPER METHODS
+	/**
+	 * Adds unsaved increments to the counters of actions loaded from the database.
+	 * @param actions the loaded actions
+	 * @return the supplied actions
+	 */
+	private List<KeywordAction> mergeUnsavedIncrements(List<KeywordAction> actions) {
+		for(KeywordAction action : actions) {
+			mergeUnsavedIncrements(action);
+		}
+		return actions;
+	}
+	
+	/**
+	 * Adds unsaved increments to the counter of an action loaded from the database.
+	 * @param action the loaded action
+	 */
+	private void mergeUnsavedIncrements(KeywordAction action) {
+		StripedCounter counter = unsavedIncrements.get(action.getId());
+		action.mergeUnsavedIncrements(counter == null ? 0 : (int) counter.sum());
+	}
+	
+	/**
+	 * @param actionId the id of an action
+	 * @return the unsaved increments for the action, created if necessary
+	 */
+	private StripedCounter getUnsavedIncrements(long actionId) {
+		StripedCounter counter = unsavedIncrements.get(actionId);
+		if(counter == null) {
+			StripedCounter newCounter = new StripedCounter();
+			counter = unsavedIncrements.putIfAbsent(actionId, newCounter);
+			if(counter == null) counter = newCounter;
+		}
+		return counter;
+	}
+	
+	/** Starts {@link #counterFlushTimer} if it is not already running. */
+	private synchronized void startCounterFlushTimer() {
+		if(counterFlushTimer == null) {
+			counterFlushTimer = new Timer("Keyword action counter flush", true);
+			counterFlushTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					try {
+						flushCounters();
+					} catch(RuntimeException ex) {
+						log.warn("Failed to write keyword action counters to the database.", ex);
+					}
+				}
+			}, COUNTER_FLUSH_INTERVAL, COUNTER_FLUSH_INTERVAL);
+		}
+	}
 }
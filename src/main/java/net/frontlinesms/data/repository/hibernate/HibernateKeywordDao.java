@@ -11,18 +11,39 @@ import org.hibernate.criterion.Restrictions;
 import net.frontlinesms.data.DuplicateKeyException;
 import net.frontlinesms.data.Order;
 import net.frontlinesms.data.domain.Keyword;
+import net.frontlinesms.data.events.DatabaseEntityNotification;
+import net.frontlinesms.data.events.EntityDeletedNotification;
+import net.frontlinesms.data.events.EntitySavedNotification;
+import net.frontlinesms.data.events.EntityUpdatedNotification;
 import net.frontlinesms.data.repository.KeywordDao;
+import net.frontlinesms.events.EventObserver;
+import net.frontlinesms.events.FrontlineEventNotification;
 
 /**
  * Hibernate implementation of {@link KeywordDao}.
+ * 
+ * Keyword matching is done against a cached {@link KeywordIndex}, which is discarded whenever
+ * a {@link Keyword} is saved, updated or deleted, and rebuilt the next time it is needed.
  * @author Alex
  */
-public class HibernateKeywordDao extends BaseHibernateDao<Keyword> implements KeywordDao {
+public class HibernateKeywordDao extends BaseHibernateDao<Keyword> implements KeywordDao, EventObserver {
+	/** Cached index of all keywords, or <code>null</code> if it needs to be rebuilt. */
+	private volatile KeywordIndex keywordIndex;
+	/** Incremented every time {@link #keywordIndex} is invalidated, so that an index built from stale data is not cached. */
+	private int keywordIndexGeneration;
+	
 	/** Create instance of this class */
 	public HibernateKeywordDao() {
 		super(Keyword.class);
 	}
 	
+	/** Registers this DAO with the event bus so that changes to keywords invalidate {@link #keywordIndex}. */
+	@Override
+	protected void initDao() throws Exception {
+		super.initDao();
+		getEventBus().registerObserver(this);
+	}
+	
 	/** @see KeywordDao#getKeyword(String) */
 	public Keyword getKeyword(String name) {
 		DetachedCriteria criteria = super.getCriterion();
@@ -53,24 +74,40 @@ public class HibernateKeywordDao extends BaseHibernateDao<Keyword> implements Ke
 
 	/** @see KeywordDao#getFromMessageText(String) */
 	public Keyword getFromMessageText(String messageText) {
-		List<Keyword> results = super.getAll();
-		if(results.size() == 0) return null;
-		Keyword longest = null;
-		for(Keyword k : results) {
-			if(k.matches(messageText)
-					&& (longest == null || longest.getKeyword().length() < k.getKeyword().length())) {
-				longest = k;
+		return getKeywordIndex().getFromMessageText(messageText);
+	}
+	
+	/** @return the cached {@link KeywordIndex}, building it first if necessary */
+	private KeywordIndex getKeywordIndex() {
+		KeywordIndex index = this.keywordIndex;
+		if(index == null) {
+			int generation;
+			synchronized(this) {
+				generation = this.keywordIndexGeneration;
+			}
+			index = new KeywordIndex(super.getAll());
+			synchronized(this) {
+				// Only cache the new index if no keywords have changed while it was being built
+				if(generation == this.keywordIndexGeneration) {
+					this.keywordIndex = index;
+				}
 			}
 		}
-		
-		if(longest == null) {
-			// If no keyword has been fetched, return the blank keyword
-			DetachedCriteria crit = super.getCriterion();
-			crit.add(Restrictions.eq(Keyword.Field.KEYWORD.getFieldName(), ""));
-			longest = super.getUnique(crit);
+		return index;
+	}
+	
+	/** Invalidates {@link #keywordIndex} when a {@link Keyword} is saved, updated or deleted. */
+	public void notify(FrontlineEventNotification notification) {
+		if(notification instanceof EntitySavedNotification<?>
+				|| notification instanceof EntityUpdatedNotification<?>
+				|| notification instanceof EntityDeletedNotification<?>) {
+			if(((DatabaseEntityNotification<?>) notification).getDatabaseEntity() instanceof Keyword) {
+				synchronized(this) {
+					++this.keywordIndexGeneration;
+					this.keywordIndex = null;
+				}
+			}
 		}
-		
-		return longest;
 	}
 
 	/** @see KeywordDao#getTotalKeywordCount() */
@@ -4,30 +4,48 @@
 package net.frontlinesms.data.repository.hibernate;
 
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.MatchMode;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.criterion.SimpleExpression;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
 
 import net.frontlinesms.data.EntityField;
+import net.frontlinesms.data.MessageCounts;
 import net.frontlinesms.data.Order;
+import net.frontlinesms.data.domain.Contact;
 import net.frontlinesms.data.domain.Email;
 import net.frontlinesms.data.domain.FrontlineMessage.Status;
 import net.frontlinesms.data.domain.Keyword;
 import net.frontlinesms.data.domain.FrontlineMessage;
 import net.frontlinesms.data.domain.FrontlineMessage.Field;
 import net.frontlinesms.data.domain.FrontlineMessage.Type;
+import net.frontlinesms.data.repository.ContactDao;
 import net.frontlinesms.data.repository.MessageDao;
 
 /**
  * Hibernate implementation of {@link MessageDao}.
+ * 
+ * The sender and recipient names of loaded messages are looked up with
+ * {@link ContactDao#getFromMsisdns(Collection)}, which answers from the contact DAO's cache and looks
+ * up the phone numbers missing from it with a single query per list of messages, rather than a
+ * subquery per message.
  * @author Alex
  */
 public class HibernateMessageDao extends BaseHibernateDao<FrontlineMessage> implements MessageDao {
+	/** DAO for looking up the contacts messages were sent from and to */
+	@Autowired
+	private ContactDao contactDao;
+	
 	/** Create instance of this class */
 	public HibernateMessageDao() {
 		super(FrontlineMessage.class);
@@ -52,7 +70,28 @@ public class HibernateMessageDao extends BaseHibernateDao<FrontlineMessage> impl
 		DetachedCriteria criteria = super.getSortCriterion(sortBy, order);
 		addTypeCriteria(criteria, messageType);
 		addDateCriteria(criteria, start, end);
-		return super.getList(criteria, startIndex, limit);
+		return getList(criteria, startIndex, limit);
+	}
+
+	/** @see MessageDao#getMessagesAfter(Type, Order, Long, Long, FrontlineMessage, int) */
+	public List<FrontlineMessage> getMessagesAfter(FrontlineMessage.Type messageType, Order order, Long start, Long end, FrontlineMessage previous, int limit) {
+		DetachedCriteria criteria = super.getCriterion();
+		addTypeCriteria(criteria, messageType);
+		addDateCriteria(criteria, start, end);
+		if(previous != null) {
+			String date = Field.DATE.getFieldName();
+			String id = Field.ID.getFieldName();
+			if(order == Order.ASCENDING) {
+				criteria.add(Restrictions.or(Restrictions.gt(date, previous.getDate()),
+						Restrictions.and(Restrictions.eq(date, previous.getDate()), Restrictions.gt(id, previous.getId()))));
+			} else {
+				criteria.add(Restrictions.or(Restrictions.lt(date, previous.getDate()),
+						Restrictions.and(Restrictions.eq(date, previous.getDate()), Restrictions.lt(id, previous.getId()))));
+			}
+		}
+		criteria.addOrder(order.getHibernateOrder(Field.DATE.getFieldName()));
+		criteria.addOrder(order.getHibernateOrder(Field.ID.getFieldName()));
+		return getList(criteria, 0, limit);
 	}
 
 	/** @see MessageDao#getMessageCount(int, FrontlineMessage.Status[]) */
@@ -73,19 +112,9 @@ public class HibernateMessageDao extends BaseHibernateDao<FrontlineMessage> impl
 
 	/** @see MessageDao#getMessageCount(int, Keyword, Long, Long) */
 	public int getMessageCount(FrontlineMessage.Type messageType, Keyword keyword, Long start, Long end) {
-		PartialQuery<FrontlineMessage> q = createQueryStringForKeyword(true, messageType, keyword);
+		PartialQuery<FrontlineMessage> q = createQueryStringForKeyword("count(*)", messageType, keyword);
 		
-		if (start != null) {
-			q.appendWhereOrAnd();
-			if (end != null) {
-				q.append("(message." + FrontlineMessage.Field.DATE.getFieldName() + ">=? AND message." + FrontlineMessage.Field.DATE.getFieldName() + "<=?)", start, end);
-			} else {
-				q.append("(message." + FrontlineMessage.Field.DATE.getFieldName() + ">=?)", start);	
-			}			
-		} else if (end != null) {
-			q.appendWhereOrAnd();
-			q.append("(message." + FrontlineMessage.Field.DATE.getFieldName() + "<=?)", end);
-		}
+		appendDateCriteria(q, start, end);
 		
 		return super.getCount(q.getQueryString(), q.getInsertValues());
 	}
@@ -105,7 +134,7 @@ public class HibernateMessageDao extends BaseHibernateDao<FrontlineMessage> impl
 		criteria.add(Restrictions.eq(Field.RECIPIENT_MSISDN.getFieldName(), targetMsisdnSuffix));
 		criteria.add(Restrictions.eq(Field.SMSC_REFERENCE.getFieldName(), smscReference));
 		criteria.add(Restrictions.eq(Field.STATUS.getFieldName(), Status.PENDING));
-		List<FrontlineMessage> results = super.getList(criteria);
+		List<FrontlineMessage> results = getList(criteria);
 		if(results.size() == 0) return null;
 		else return results.get(0);
 	}
@@ -132,6 +161,28 @@ public class HibernateMessageDao extends BaseHibernateDao<FrontlineMessage> impl
 		addStatusCriteria(criteria, statuses);
 		return getList(criteria);
 	}
+
+	/** @see MessageDao#getMessagesAfterId(Type, long, long, int, Status[]) */
+	public List<FrontlineMessage> getMessagesAfterId(FrontlineMessage.Type messageType, long afterId, long maxId, int limit, FrontlineMessage.Status... statuses) {
+		DetachedCriteria criteria = super.getCriterion();
+		addTypeCriteria(criteria, messageType);
+		addStatusCriteria(criteria, statuses);
+		criteria.add(Restrictions.gt(Field.ID.getFieldName(), afterId));
+		criteria.add(Restrictions.le(Field.ID.getFieldName(), maxId));
+		criteria.addOrder(Order.ASCENDING.getHibernateOrder(Field.ID.getFieldName()));
+		return getList(criteria, 0, limit);
+	}
+
+	/** @see MessageDao#getMaxMessageId(Type, Status[]) */
+	public long getMaxMessageId(FrontlineMessage.Type messageType, FrontlineMessage.Status... statuses) {
+		DetachedCriteria criteria = super.getCriterion();
+		addTypeCriteria(criteria, messageType);
+		addStatusCriteria(criteria, statuses);
+		criteria.setProjection(Projections.max(Field.ID.getFieldName()));
+		List<?> result = getHibernateTemplate().findByCriteria(criteria);
+		Object maxId = result.isEmpty() ? null : result.get(0);
+		return maxId == null ? 0 : ((Number) maxId).longValue();
+	}
 	
 	public int getMessageCount(FrontlineMessage.Type messageType, List<String> phoneNumbers,
 			Long messageHistoryStart, Long messageHistoryEnd) {
@@ -142,14 +193,14 @@ public class HibernateMessageDao extends BaseHibernateDao<FrontlineMessage> impl
 	public List<FrontlineMessage> getMessages(FrontlineMessage.Type messageType,
 			List<String> phoneNumbers, Long messageHistoryStart,
 			Long messageHistoryEnd) {
-		return super.getList(getCriteria(messageType, phoneNumbers,
+		return getList(getCriteria(messageType, phoneNumbers,
 				messageHistoryStart, messageHistoryEnd));
 	}
 	
 	public List<FrontlineMessage> getMessages(FrontlineMessage.Type messageType,
 			List<String> phoneNumbers, Long messageHistoryStart,
 			Long messageHistoryEnd, int startIndex, int limit) {
-		return super.getList(getCriteria(messageType, phoneNumbers,
+		return getList(getCriteria(messageType, phoneNumbers,
 				messageHistoryStart, messageHistoryEnd), startIndex, limit);
 	}
 
@@ -165,29 +216,32 @@ public class HibernateMessageDao extends BaseHibernateDao<FrontlineMessage> impl
 
 	/** @see MessageDao#getMessagesForKeyword(int, Keyword, Field, Order, Long, Long, int, int) */
 	public List<FrontlineMessage> getMessagesForKeyword(FrontlineMessage.Type messageType, Keyword keyword, Field sortBy, Order order, Long start, Long end, int startIndex, int limit) {
-		PartialQuery<FrontlineMessage> q = createQueryStringForKeyword(false, messageType, keyword);
+		PartialQuery<FrontlineMessage> q = createQueryStringForKeyword("message", messageType, keyword);
 		
-		if (start != null) {
-			q.appendWhereOrAnd();
-			if (end != null) {
-				q.append("(message." + FrontlineMessage.Field.DATE.getFieldName() + ">=? AND message." + FrontlineMessage.Field.DATE.getFieldName() + "<=?)", start, end);
-			} else {
-				q.append("(message." + FrontlineMessage.Field.DATE.getFieldName() + ">=?)", start);	
-			}			
-		} else if (end != null) {
-			q.appendWhereOrAnd();
-			q.append("(message." + FrontlineMessage.Field.DATE.getFieldName() + "<=?)", end);
-		}
+		appendDateCriteria(q, start, end);
 		
 		
 		q.addSorting(sortBy, order);
-		return super.getList(q.getQueryString(), startIndex, limit, q.getInsertValues());
+		return getList(q.getQueryString(), startIndex, limit, q.getInsertValues());
 	}
 
 	/** @see MessageDao#getMessagesForKeyword(int, Keyword) */
 	public List<FrontlineMessage> getMessagesForKeyword(FrontlineMessage.Type messageType, Keyword keyword) {
-		PartialQuery<FrontlineMessage> q = createQueryStringForKeyword(false, messageType, keyword);
-		return super.getList(q.getQueryString(), q.getInsertValues());
+		PartialQuery<FrontlineMessage> q = createQueryStringForKeyword("message", messageType, keyword);
+		return getList(q.getQueryString(), q.getInsertValues());
+	}
+
+	/** @see MessageDao#getMessagesForKeywordAfter(Type, Keyword, FrontlineMessage, int) */
+	public List<FrontlineMessage> getMessagesForKeywordAfter(FrontlineMessage.Type messageType, Keyword keyword, FrontlineMessage previous, int limit) {
+		PartialQuery<FrontlineMessage> q = createQueryStringForKeyword("message", messageType, keyword);
+		String date = "message." + Field.DATE.getFieldName();
+		String id = "message." + Field.ID.getFieldName();
+		if(previous != null) {
+			q.appendWhereOrAnd();
+			q.append("(" + date + ">? OR (" + date + "=? AND " + id + ">?))", previous.getDate(), previous.getDate(), previous.getId());
+		}
+		q.append("ORDER BY " + date + " ASC, " + id + " ASC");
+		return getList(q.getQueryString(), 0, limit, q.getInsertValues());
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -209,7 +263,7 @@ public class HibernateMessageDao extends BaseHibernateDao<FrontlineMessage> impl
 		addTypeCriteria(criteria, messageType);
 		addDateCriteria(criteria, start, end);
 		addPhoneNumberMatchCriteria(criteria, phoneNumber, true, true);
-		return super.getList(criteria, startIndex, limit);
+		return getList(criteria, startIndex, limit);
 	}
 
 	/** @see MessageDao#getMessagesForMsisdn(int, String, Field, Order, Long, Long) */
@@ -218,7 +272,7 @@ public class HibernateMessageDao extends BaseHibernateDao<FrontlineMessage> impl
 		addTypeCriteria(criteria, messageType);
 		addDateCriteria(criteria, start, end);
 		addPhoneNumberMatchCriteria(criteria, phoneNumber, true, true);
-		return super.getList(criteria);
+		return getList(criteria);
 	}
 
 	/** @see MessageDao#getMessagesForStati(int, FrontlineMessage.Status[], Field, Order, int, int) */
@@ -226,7 +280,7 @@ public class HibernateMessageDao extends BaseHibernateDao<FrontlineMessage> impl
 		DetachedCriteria criteria = super.getSortCriterion(sortBy, order);
 		addTypeCriteria(criteria, messageType);
 		addStatusCriteria(criteria, messageStatuses);
-		return super.getList(criteria, startIndex, limit);
+		return getList(criteria, startIndex, limit);
 	}
 
 	/** @see MessageDao#getSMSCount(Long, Long) */
@@ -256,25 +310,102 @@ public class HibernateMessageDao extends BaseHibernateDao<FrontlineMessage> impl
 		DetachedCriteria criteria = super.getCriterion();
 		addTypeCriteria(criteria, messageType);
 		addDateCriteria(criteria, messageHistoryStart, messageHistoryEnd);
-		return super.getList(criteria);
+		return getList(criteria);
 	}
 	
 	public List<FrontlineMessage> getMessagesForKeyword(FrontlineMessage.Type messageType, Keyword keyword, Long start, Long end) {
-		PartialQuery<FrontlineMessage> q = createQueryStringForKeyword(false, messageType, keyword);
+		PartialQuery<FrontlineMessage> q = createQueryStringForKeyword("message", messageType, keyword);
 		
-		if (start != null) {
-			q.appendWhereOrAnd();
-			if (end != null) {
-				q.append("(message." + FrontlineMessage.Field.DATE.getFieldName() + ">=? AND message." + FrontlineMessage.Field.DATE.getFieldName() + "<=?)", start, end);
-			} else {
-				q.append("(message." + FrontlineMessage.Field.DATE.getFieldName() + ">=?)", start);	
-			}			
-		} else if (end != null) {
-			q.appendWhereOrAnd();
-			q.append("(message." + FrontlineMessage.Field.DATE.getFieldName() + "<=?)", end);
+		appendDateCriteria(q, start, end);
+		
+		return getList(q.getQueryString(), q.getInsertValues());
+	}
+
+	/** @see MessageDao#getMessageCounts(Type, Long, Long) */
+	public MessageCounts getMessageCounts(Type messageType, Long start, Long end) {
+		DetachedCriteria criteria = super.getCriterion();
+		addTypeCriteria(criteria, messageType);
+		addDateCriteria(criteria, start, end);
+		MessageCounts counts = getMessageCounts(criteria);
+		
+		DetachedCriteria uncountedCriteria = super.getCriterion();
+		addTypeCriteria(uncountedCriteria, messageType);
+		addDateCriteria(uncountedCriteria, start, end);
+		addUncountedSmsPartsCounts(counts, uncountedCriteria);
+		return counts;
+	}
+	
+	/** @see MessageDao#getMessageCounts(Type, List, Long, Long) */
+	public MessageCounts getMessageCounts(Type messageType, List<String> phoneNumbers, Long start, Long end) {
+		MessageCounts counts = getMessageCounts(getCriteria(messageType, phoneNumbers, start, end));
+		addUncountedSmsPartsCounts(counts, getCriteria(messageType, phoneNumbers, start, end));
+		return counts;
+	}
+	
+	/** @see MessageDao#getMessageCountsForKeyword(Type, Keyword, Long, Long) */
+	@SuppressWarnings("unchecked")
+	public MessageCounts getMessageCountsForKeyword(Type messageType, Keyword keyword, Long start, Long end) {
+		String typeField = "message." + Field.TYPE.getFieldName();
+		String smsPartsCountField = "message." + Field.SMS_PARTS_COUNT.getFieldName();
+		PartialQuery<FrontlineMessage> q = createQueryStringForKeyword(typeField + ", count(*), sum(" + smsPartsCountField + ")", messageType, keyword);
+		appendDateCriteria(q, start, end);
+		q.append("GROUP BY " + typeField);
+		
+		MessageCounts counts = new MessageCounts();
+		for(Object[] row : (List<Object[]>) getHibernateTemplate().find(q.getQueryString(), q.getInsertValues())) {
+			addCounts(counts, row);
 		}
 		
-		return super.getList(q.getQueryString(), q.getInsertValues());
+		PartialQuery<FrontlineMessage> uncountedQuery = createQueryStringForKeyword("message", messageType, keyword);
+		appendDateCriteria(uncountedQuery, start, end);
+		uncountedQuery.appendWhereOrAnd();
+		uncountedQuery.append(smsPartsCountField + "=0");
+		for(FrontlineMessage m : (List<FrontlineMessage>) getHibernateTemplate().find(uncountedQuery.getQueryString(), uncountedQuery.getInsertValues())) {
+			counts.add(m.getType(), 0, m.getNumberOfSMS());
+		}
+		return counts;
+	}
+	
+	/**
+	 * Counts the messages, and their SMS parts, matching the supplied criteria with a single aggregate query.
+	 * @param criteria criteria for the messages to count.  This is modified by this method.
+	 * @return the message counts
+	 */
+	@SuppressWarnings("unchecked")
+	private MessageCounts getMessageCounts(DetachedCriteria criteria) {
+		criteria.setProjection(Projections.projectionList()
+				.add(Projections.groupProperty(Field.TYPE.getFieldName()))
+				.add(Projections.rowCount())
+				.add(Projections.sum(Field.SMS_PARTS_COUNT.getFieldName())));
+		MessageCounts counts = new MessageCounts();
+		for(Object[] row : (List<Object[]>) getHibernateTemplate().findByCriteria(criteria)) {
+			addCounts(counts, row);
+		}
+		return counts;
+	}
+	
+	/**
+	 * Messages saved before the number of SMS parts was recorded have an SMS parts count of zero.
+	 * These are loaded, and the number of SMS parts they would have used is added to the supplied counts.
+	 * @param counts counts to add SMS parts to
+	 * @param criteria criteria for the messages being counted.  This is modified by this method.
+	 */
+	@SuppressWarnings("unchecked")
+	private void addUncountedSmsPartsCounts(MessageCounts counts, DetachedCriteria criteria) {
+		criteria.add(Restrictions.eq(Field.SMS_PARTS_COUNT.getFieldName(), 0));
+		for(FrontlineMessage m : (List<FrontlineMessage>) getHibernateTemplate().findByCriteria(criteria)) {
+			counts.add(m.getType(), 0, m.getNumberOfSMS());
+		}
+	}
+	
+	/**
+	 * Adds a row of the results of an aggregate query to some counts.
+	 * @param counts
+	 * @param row the message type, message count and sum of SMS parts counts
+	 */
+	private static void addCounts(MessageCounts counts, Object[] row) {
+		Number smsPartsCount = (Number) row[2];
+		counts.add((Type) row[0], ((Number) row[1]).intValue(), smsPartsCount == null ? 0 : smsPartsCount.intValue());
 	}
 
 	/** @see MessageDao#saveMessage(FrontlineMessage) */
@@ -282,11 +413,72 @@ public class HibernateMessageDao extends BaseHibernateDao<FrontlineMessage> impl
 		super.saveWithoutDuplicateHandling(message);
 	}
 
+	/** @see MessageDao#saveMessages(Collection) */
+	@Transactional
+	public void saveMessages(Collection<? extends FrontlineMessage> messages) {
+		super.saveAllWithoutDuplicateHandling(messages);
+	}
+
 	/** @see MessageDao#updateMessage(FrontlineMessage) */
 	public void updateMessage(FrontlineMessage message) {
 		super.updateWithoutDuplicateHandling(message);
 	}
 	
+	/** Sets the contact names of the loaded messages. */
+	@Override
+	protected List<FrontlineMessage> getList(DetachedCriteria criteria) {
+		return setContactNames(super.getList(criteria));
+	}
+	
+	/** Sets the contact names of the loaded messages. */
+	@Override
+	protected List<FrontlineMessage> getList(DetachedCriteria criteria, int startIndex, int limit) {
+		return setContactNames(super.getList(criteria, startIndex, limit));
+	}
+	
+	/** Sets the contact names of the loaded messages. */
+	@Override
+	protected List<FrontlineMessage> getList(String hqlQuery, Object... values) {
+		return setContactNames(super.getList(hqlQuery, values));
+	}
+	
+	/** Sets the contact names of the loaded messages. */
+	@Override
+	protected List<FrontlineMessage> getList(String hqlQuery, int startIndex, int limit, Object... values) {
+		return setContactNames(super.getList(hqlQuery, startIndex, limit, values));
+	}
+	
+	/**
+	 * Sets the sender and recipient names of messages from the contacts with their phone numbers.
+	 * @param messages the messages to set the names of
+	 * @return the supplied messages
+	 */
+	private List<FrontlineMessage> setContactNames(List<FrontlineMessage> messages) {
+		if(messages.isEmpty()) return messages;
+		Set<String> phoneNumbers = new HashSet<String>();
+		for(FrontlineMessage message : messages) {
+			phoneNumbers.add(message.getSenderMsisdn());
+			phoneNumbers.add(message.getRecipientMsisdn());
+		}
+		
+		Map<String, Contact> contacts = contactDao.getFromMsisdns(phoneNumbers);
+		for(FrontlineMessage message : messages) {
+			message.setSenderName(getContactName(contacts, message.getSenderMsisdn()));
+			message.setRecipientName(getContactName(contacts, message.getRecipientMsisdn()));
+		}
+		return messages;
+	}
+	
+	/**
+	 * @param contacts contacts by phone number
+	 * @param phoneNumber a phone number, or <code>null</code>
+	 * @return the name of the contact with the phone number, or <code>null</code> if there is none
+	 */
+	private static String getContactName(Map<String, Contact> contacts, String phoneNumber) {
+		Contact contact = phoneNumber == null ? null : contacts.get(phoneNumber);
+		return contact == null ? null : contact.getName();
+	}
+	
 	/**
 	 * Augments the supplied criteria with that required to match a keyword.
 	 * @param criteria
@@ -393,15 +585,30 @@ public class HibernateMessageDao extends BaseHibernateDao<FrontlineMessage> impl
 	}
 	
 	/**
-	 * 
+	 * Augments the supplied query with that required to match a date range.
+	 * @param q 
+	 * @param start the start date, or <code>null</code> for no start date restriction
+	 * @param end the end date, or <code>null</code> for no end date restriction
 	 */
-	private PartialQuery<FrontlineMessage> createQueryStringForKeyword(boolean isCount, FrontlineMessage.Type messageType, Keyword keyword) {
+	private void appendDateCriteria(PartialQuery<FrontlineMessage> q, Long start, Long end) {
+		if (start != null) {
+			q.appendWhereOrAnd();
+			if (end != null) {
+				q.append("(message." + FrontlineMessage.Field.DATE.getFieldName() + ">=? AND message." + FrontlineMessage.Field.DATE.getFieldName() + "<=?)", start, end);
+			} else {
+				q.append("(message." + FrontlineMessage.Field.DATE.getFieldName() + ">=?)", start);	
+			}			
+		} else if (end != null) {
+			q.appendWhereOrAnd();
+			q.append("(message." + FrontlineMessage.Field.DATE.getFieldName() + "<=?)", end);
+		}
+	}
+	
+	/**
+	 * @param selectString the SELECT clause of the query, e.g. <code>message</code> or <code>count(*)</code>
+	 */
+	private PartialQuery<FrontlineMessage> createQueryStringForKeyword(String selectString, FrontlineMessage.Type messageType, Keyword keyword) {
 		PartialQuery<FrontlineMessage> q = new PartialQuery<FrontlineMessage>();
-		// Build a list of values to insert into the query string
-		String selectString = "message";
-		if (isCount)
-			selectString = "count(*)";
-		
 		q.append("SELECT " + selectString + " FROM " + FrontlineMessage.class.getName() + " message");
 		
 		if(messageType != FrontlineMessage.Type.ALL) {
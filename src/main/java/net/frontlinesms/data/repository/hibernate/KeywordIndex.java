@@ -0,0 +1,92 @@
+/**
+ *
+ */
+package net.frontlinesms.data.repository.hibernate;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.frontlinesms.data.domain.Keyword;
+
+/**
+ * Word-trie of {@link Keyword}s, used to find the longest keyword matching a message without
+ * scanning every keyword in the database.
+ *
+ * Each edge of the trie is a single word of a keyword.  The blank keyword, if present, lives at
+ * the root.  Matching follows the same rules as {@link Keyword#matches(String)}: the message is
+ * trimmed and upper-cased, and its words are separated by single spaces.
+ *
+ * Instances are built once and not modified afterwards, so they can be safely shared between threads.
+ * @author Alex
+ */
+class KeywordIndex {
+//> INSTANCE PROPERTIES
+	/** The root node of the trie, representing the blank keyword. */
+	private final Node root = new Node();
+
+//> CONSTRUCTORS
+	/**
+	 * Builds an index of the supplied keywords.
+	 * @param keywords all keywords to index
+	 */
+	KeywordIndex(Collection<Keyword> keywords) {
+		for(Keyword k : keywords) {
+			add(k);
+		}
+	}
+
+//> ACCESSORS
+	/**
+	 * Gets the longest keyword which matches the supplied message text.
+	 * @param messageText text of the message to match
+	 * @return the longest matching keyword, the blank keyword if no other keyword matches, or <code>null</code> if there is no blank keyword
+	 */
+	Keyword getFromMessageText(String messageText) {
+		Node node = root;
+		Keyword longest = root.keyword;
+		if(messageText != null) {
+			String text = messageText.trim().toUpperCase();
+			int wordStart = 0;
+			while(wordStart < text.length()) {
+				int wordEnd = text.indexOf(' ', wordStart);
+				if(wordEnd < 0) wordEnd = text.length();
+				node = node.children.get(text.substring(wordStart, wordEnd));
+				if(node == null) break;
+				if(node.keyword != null) longest = node.keyword;
+				wordStart = wordEnd + 1;
+			}
+		}
+		return longest;
+	}
+
+//> INDEX BUILDING METHODS
+	/**
+	 * Adds a keyword to the trie.
+	 * @param keyword the keyword to add
+	 */
+	private void add(Keyword keyword) {
+		Node node = root;
+		String keywordString = keyword.getKeyword();
+		if(keywordString.length() > 0) {
+			for(String word : keywordString.split(" ")) {
+				Node child = node.children.get(word);
+				if(child == null) {
+					child = new Node();
+					node.children.put(word, child);
+				}
+				node = child;
+			}
+		}
+		node.keyword = keyword;
+	}
+
+//> INNER CLASSES
+	/** A single node in the trie. */
+	private static final class Node {
+		/** Child nodes, keyed on the next word of the keyword. */
+		private final Map<String, Node> children = new HashMap<String, Node>();
+		/** The keyword which ends at this node, or <code>null</code> if none does. */
+		private Keyword keyword;
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ * 
+ */
+package net.frontlinesms.data.repository.hibernate;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter which can be incremented from many threads at once without them contending for the
+ * same value.  Each thread adds to one of several stripes, and the stripes are summed when the
+ * counter is read.
+ *
+ * This class is threadsafe.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+class StripedCounter {
+//> STATIC CONSTANTS
+	/** The number of stripes.  This must be a power of 2. */
+	private static final int STRIPE_COUNT = 8;
+	/** The distance between stripes in {@link #cells}, so that each stripe sits on its own cache line */
+	private static final int STRIDE = 8;
+
+//> INSTANCE PROPERTIES
+	/** The stripes of the counter, each {@link #STRIDE} cells apart */
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPE_COUNT * STRIDE);
+
+//> INSTANCE METHODS
+	/** Adds one to the counter. */
+	void increment() {
+		add(1);
+	}
+
+	/**
+	 * Adds to the counter.
+	 * @param delta the amount to add
+	 */
+	void add(long delta) {
+		cells.addAndGet(getStripe(), delta);
+	}
+
+	/** @return the current value of the counter */
+	long sum() {
+		long sum = 0;
+		for(int i=0; i<cells.length(); i+=STRIDE) {
+			sum += cells.get(i);
+		}
+		return sum;
+	}
+
+	/**
+	 * Resets the counter to zero.  Additions made while the counter is being reset are either
+	 * included in the returned value or left in the counter, never lost.
+	 * @return the value of the counter before it was reset
+	 */
+	long sumThenReset() {
+		long sum = 0;
+		for(int i=0; i<cells.length(); i+=STRIDE) {
+			sum += cells.getAndSet(i, 0);
+		}
+		return sum;
+	}
+
+//> STATIC HELPER METHODS
+	/** @return the index in {@link #cells} of the stripe the current thread adds to */
+	private static int getStripe() {
+		long threadId = Thread.currentThread().getId();
+		int hash = (int) (threadId ^ (threadId >>> 32));
+		hash ^= (hash >>> 16);
+		hash *= 0x45d9f3b;
+		hash ^= (hash >>> 16);
+		return (hash & (STRIPE_COUNT - 1)) * STRIDE;
+	}
+}
@@ -20,7 +20,23 @@ public interface EventBus {
 	public void registerObserver(EventObserver observer);
 	
 	/**
-	 * removes an observer from the observer's list
+	 * Adds an observer which is only passed notifications of a particular type.
+	 * @param observer the observer to add
+	 * @param notificationType the type of notification the observer is passed, including subclasses
+	 */
+	public void registerObserver(EventObserver observer, Class<? extends FrontlineEventNotification> notificationType);
+	
+	/**
+	 * Adds an observer which is only passed notifications of a particular type, and is passed them on a
+	 * separate thread from the one which sent them, so a slow observer does not hold up the sender.
+	 * Notifications about the same database entity are passed in the order they were sent.
+	 * @param observer the observer to add
+	 * @param notificationType the type of notification the observer is passed, including subclasses
+	 */
+	public void registerAsynchronousObserver(EventObserver observer, Class<? extends FrontlineEventNotification> notificationType);
+	
+	/**
+	 * removes an observer from the observer's list, however it was registered
 	 * @param observer the observer to remove
 	 */
 	public void unregisterObserver(EventObserver observer);
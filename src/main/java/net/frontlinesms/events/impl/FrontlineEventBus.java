@@ -1,7 +1,18 @@
 package net.frontlinesms.events.impl;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
+import org.apache.log4j.Logger;
+
+import net.frontlinesms.FrontlineUtils;
+import net.frontlinesms.data.events.DatabaseEntityNotification;
 import net.frontlinesms.events.EventBus;
 import net.frontlinesms.events.EventObserver;
 import net.frontlinesms.events.FrontlineEventNotification;
@@ -10,33 +21,195 @@ import net.frontlinesms.events.FrontlineEventNotification;
  * Implementation of the event bus.
  * This class uses CopyOnWriteArrayList, so it
  * is thread safe.
+ *
+ * The observers for each type of notification are looked up once and cached until an observer is
+ * registered or unregistered, so sending a notification does not check every observer.
+ *
+ * Asynchronous observers are passed notifications on one of {@link #LANE_COUNT} delivery threads.
+ * Notifications about entities of the same class, and other notifications of the same class, are
+ * always delivered on the same thread, so they are received in the order they were sent.
  * @author Dieterich Lawson <dieterich@medic.frontlinesms.com>
  * @author Alex Anderson <alex@frontlinesms.com>
  */
 public class FrontlineEventBus implements EventBus {
-	
+//> STATIC CONSTANTS
+	/** The number of threads asynchronous observers are notified on */
+	private static final int LANE_COUNT = 4;
+
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(FrontlineEventBus.class);
+
+//> INSTANCE PROPERTIES
 	/** the observers that receive event notifications */
-	private CopyOnWriteArrayList<EventObserver> observers;
-	
-	public FrontlineEventBus(){
-		observers = new CopyOnWriteArrayList<EventObserver>();
-	}
-	 
+	private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	/** Cache of the subscriptions matching each class of notification sent */
+	private final ConcurrentMap<Class<?>, Subscription[]> subscriptionIndex = new ConcurrentHashMap<Class<?>, Subscription[]>();
+	/** Threads which asynchronous observers are notified on; created when first needed */
+	private final ExecutorService[] lanes = new ExecutorService[LANE_COUNT];
+
+//> CONSTRUCTORS
+	public FrontlineEventBus(){}
+
+//> EVENT BUS METHODS
 	/** @see net.frontlinesms.events.EventBus#registerObserver(net.frontlinesms.events.EventObserver) */
 	public void registerObserver(EventObserver observer){
-		observers.addIfAbsent(observer);
+		register(new Subscription(observer, FrontlineEventNotification.class, false));
+	}
+
+	/** @see net.frontlinesms.events.EventBus#registerObserver(EventObserver, Class) */
+	public void registerObserver(EventObserver observer, Class<? extends FrontlineEventNotification> notificationType) {
+		register(new Subscription(observer, notificationType, false));
+	}
+
+	/** @see net.frontlinesms.events.EventBus#registerAsynchronousObserver(EventObserver, Class) */
+	public void registerAsynchronousObserver(EventObserver observer, Class<? extends FrontlineEventNotification> notificationType) {
+		register(new Subscription(observer, notificationType, true));
 	}
-	
 
 	/** @see net.frontlinesms.events.EventBus#unregisterObserver(net.frontlinesms.events.EventObserver) */
 	public void unregisterObserver(EventObserver observer){
-		observers.remove(observer);
+		List<Subscription> removed = new ArrayList<Subscription>();
+		for(Subscription subscription : subscriptions) {
+			if(subscription.observer == observer) {
+				removed.add(subscription);
+			}
+		}
+		subscriptions.removeAll(removed);
+		subscriptionIndex.clear();
+	}
+
+	/** @see net.frontlinesms.events.EventBus#notifyObservers(FrontlineEventNotification) */
+	public void notifyObservers(FrontlineEventNotification notification){
+		List<Subscription> asynchronous = null;
+		for(Subscription subscription : getSubscriptions(notification.getClass())) {
+			if(subscription.asynchronous) {
+				if(asynchronous == null) asynchronous = new ArrayList<Subscription>();
+				asynchronous.add(subscription);
+			} else {
+				subscription.observer.notify(notification);
+			}
+		}
+		if(asynchronous != null) {
+			getLane(notification).execute(new Delivery(notification, asynchronous));
+		}
+	}
+
+//> INSTANCE HELPER METHODS
+	/**
+	 * Adds a subscription, unless the same subscription already exists.
+	 * @param subscription the subscription to add
+	 */
+	private void register(Subscription subscription) {
+		if(subscriptions.addIfAbsent(subscription)) {
+			subscriptionIndex.clear();
+		}
+	}
+
+	/**
+	 * @param notificationClass the class of a notification
+	 * @return the subscriptions which should be passed notifications of the supplied class, in the order they were registered
+	 */
+	private Subscription[] getSubscriptions(Class<?> notificationClass) {
+		Subscription[] matching = subscriptionIndex.get(notificationClass);
+		if(matching == null) {
+			List<Subscription> matchingList = new ArrayList<Subscription>();
+			for(Subscription subscription : subscriptions) {
+				if(subscription.notificationType.isAssignableFrom(notificationClass)) {
+					matchingList.add(subscription);
+				}
+			}
+			matching = matchingList.toArray(new Subscription[matchingList.size()]);
+			subscriptionIndex.put(notificationClass, matching);
+		}
+		return matching;
+	}
+
+	/**
+	 * @param notification a notification to be delivered asynchronously
+	 * @return the thread the notification should be delivered on
+	 */
+	private synchronized ExecutorService getLane(FrontlineEventNotification notification) {
+		Class<?> orderingClass = notification.getClass();
+		if(notification instanceof DatabaseEntityNotification<?>) {
+			Object entity = ((DatabaseEntityNotification<?>) notification).getDatabaseEntity();
+			if(entity != null) orderingClass = entity.getClass();
+		}
+		int lane = (orderingClass.getName().hashCode() & Integer.MAX_VALUE) % LANE_COUNT;
+		if(lanes[lane] == null) {
+			lanes[lane] = Executors.newSingleThreadExecutor(new LaneThreadFactory(lane));
+		}
+		return lanes[lane];
+	}
+
+//> INNER CLASSES
+	/** An observer registered for a type of notification. */
+	private static final class Subscription {
+		/** The observer to notify */
+		private final EventObserver observer;
+		/** The type of notification the observer is passed */
+		private final Class<?> notificationType;
+		/** <code>true</code> if the observer is notified on a separate thread from the one which sent the notification */
+		private final boolean asynchronous;
+
+		Subscription(EventObserver observer, Class<?> notificationType, boolean asynchronous) {
+			this.observer = observer;
+			this.notificationType = notificationType;
+			this.asynchronous = asynchronous;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Subscription)) return false;
+			Subscription that = (Subscription) obj;
+			return this.observer == that.observer
+					&& this.notificationType == that.notificationType
+					&& this.asynchronous == that.asynchronous;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(observer) ^ notificationType.hashCode();
+		}
+	}
+
+	/** Task passing a notification to asynchronous observers. */
+	private class Delivery implements Runnable {
+		/** The notification to deliver */
+		private final FrontlineEventNotification notification;
+		/** The subscriptions to deliver the notification to */
+		private final List<Subscription> recipients;
+
+		Delivery(FrontlineEventNotification notification, List<Subscription> recipients) {
+			this.notification = notification;
+			this.recipients = recipients;
+		}
+
+		public void run() {
+			for(Subscription subscription : recipients) {
+				// Observers unregistered since the notification was sent are no longer interested in it
+				if(subscriptions.contains(subscription)) {
+					try {
+						subscription.observer.notify(notification);
+					} catch(Throwable t) {
+						LOG.warn("Error notifying observer [" + subscription.observer + "] of [" + notification + "]", t);
+					}
+				}
+			}
+		}
 	}
 
-	/** @see net.frontlinesms.events.EventBus#triggerEvent(net.frontlinesms.events.FrontlineEvent) */
-	public void notifyObservers(FrontlineEventNotification event){
-		for(EventObserver observer: observers){
-			observer.notify(event);
+	/** {@link ThreadFactory} creating the daemon threads asynchronous observers are notified on. */
+	private static class LaneThreadFactory implements ThreadFactory {
+		/** The name given to created threads */
+		private final String name;
+		/** @param lane the index of the lane the thread is for */
+		LaneThreadFactory(int lane) {
+			this.name = "FrontlineEventBus delivery " + lane;
+		}
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, name);
+			t.setDaemon(true);
+			return t;
 		}
 	}
 }
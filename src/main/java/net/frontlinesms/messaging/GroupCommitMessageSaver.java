@@ -0,0 +1,202 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.log4j.Logger;
+
+import net.frontlinesms.FrontlineUtils;
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.data.repository.MessageDao;
+
+/**
+ * Saves messages in batches, so that many messages saved by different threads at around the same time
+ * share a single database transaction.
+ *
+ * Calls to {@link #save(FrontlineMessage)} block until the message has been committed.  Messages are
+ * never held back waiting for others to join their batch: when this thread is idle, a message is
+ * committed as soon as it is saved.  Messages saved while a batch is being committed wait, and are all
+ * committed together in the next batch, so batches grow with the number of threads saving at once.  A
+ * batch holds at most {@link #maxBatchSize} messages.  If committing a batch fails, its messages are
+ * saved one at a time so that a single bad message does not cause the rest of the batch to fail.
+ *
+ * If this thread is not running, {@link #save(FrontlineMessage)} saves the message directly.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class GroupCommitMessageSaver extends Thread {
+//> STATIC CONSTANTS
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(GroupCommitMessageSaver.class);
+
+//> INSTANCE PROPERTIES
+	/** DAO used for saving messages */
+	private final MessageDao messageDao;
+	/** The maximum number of messages committed in one batch */
+	private final int maxBatchSize;
+	/** Messages waiting to be saved.  Access is synchronized on this list. */
+	private final LinkedList<PendingSave> pending = new LinkedList<PendingSave>();
+	/** Set <code>true</code> while this thread is processing saves. */
+	private volatile boolean running;
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new {@link GroupCommitMessageSaver}.
+	 * @param messageDao value for {@link #messageDao}
+	 * @param maxBatchSize value for {@link #maxBatchSize}.  As each thread calling {@link #save(FrontlineMessage)}
+	 * has one message in flight at a time, batches never grow larger than the number of those threads.
+	 */
+	public GroupCommitMessageSaver(MessageDao messageDao, int maxBatchSize) {
+		super("Group commit message saver");
+		this.messageDao = messageDao;
+		this.maxBatchSize = Math.max(1, maxBatchSize);
+		this.setDaemon(true);
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Saves a message, blocking until it has been committed.
+	 * @param message the message to save
+	 * @throws RuntimeException if the message could not be saved
+	 */
+	public void save(FrontlineMessage message) {
+		PendingSave save = new PendingSave(message);
+		synchronized(pending) {
+			if(!running) {
+				messageDao.saveMessage(message);
+				return;
+			}
+			pending.add(save);
+			pending.notifyAll();
+		}
+		save.await();
+	}
+
+	@Override
+	public void start() {
+		this.running = true;
+		super.start();
+	}
+
+	/** @return the number of messages waiting to be committed */
+	/* not private to allow unit testing */
+	int getPendingCount() {
+		synchronized(pending) {
+			return pending.size();
+		}
+	}
+
+	/** Stops this thread once all pending messages have been saved. */
+	public void stopRunning() {
+		synchronized(pending) {
+			this.running = false;
+			pending.notifyAll();
+		}
+	}
+
+	public void run() {
+		while(true) {
+			List<PendingSave> batch = takeBatch();
+			if(batch == null) break;
+			commit(batch);
+		}
+		LOG.trace("EXIT");
+	}
+
+	/**
+	 * Waits until there is at least one message to save, and removes up to {@link #maxBatchSize} pending
+	 * messages from {@link #pending}.
+	 * @return the next batch to commit, or <code>null</code> if this thread has been stopped and there are no more pending saves
+	 */
+	private List<PendingSave> takeBatch() {
+		synchronized(pending) {
+			while(pending.isEmpty()) {
+				if(!running) return null;
+				try {
+					pending.wait();
+				} catch(InterruptedException ex) {
+					LOG.warn("Interrupted while waiting for messages to save.", ex);
+				}
+			}
+			List<PendingSave> batch = new ArrayList<PendingSave>(Math.min(maxBatchSize, pending.size()));
+			while(!pending.isEmpty() && batch.size() < maxBatchSize) {
+				batch.add(pending.removeFirst());
+			}
+			return batch;
+		}
+	}
+
+	/**
+	 * Commits a batch of messages, and releases the threads waiting for them to be saved.
+	 * @param batch the messages to save
+	 */
+	private void commit(List<PendingSave> batch) {
+		List<FrontlineMessage> messages = new ArrayList<FrontlineMessage>(batch.size());
+		for(PendingSave save : batch) {
+			messages.add(save.message);
+		}
+		try {
+			messageDao.saveMessages(messages);
+			for(PendingSave save : batch) {
+				save.done(null);
+			}
+		} catch(RuntimeException batchFailure) {
+			LOG.warn("Failed to save batch of " + batch.size() + " messages.  Saving individually.", batchFailure);
+			for(PendingSave save : batch) {
+				try {
+					messageDao.saveMessage(save.message);
+					save.done(null);
+				} catch(RuntimeException ex) {
+					save.done(ex);
+				}
+			}
+		}
+	}
+
+//> INNER CLASSES
+	/** A message waiting to be saved, and the result of saving it. */
+	private static class PendingSave {
+		/** The message to save */
+		private final FrontlineMessage message;
+		/** Released once {@link #message} has been saved, or saving it has failed */
+		private final CountDownLatch latch = new CountDownLatch(1);
+		/** The exception thrown when saving {@link #message}, or <code>null</code> if it was saved successfully */
+		private RuntimeException failure;
+
+		/** @param message value for {@link #message} */
+		PendingSave(FrontlineMessage message) {
+			this.message = message;
+		}
+
+		/**
+		 * Records the result of saving {@link #message}, and releases the waiting thread.
+		 * @param failure value for {@link #failure}
+		 */
+		void done(RuntimeException failure) {
+			this.failure = failure;
+			latch.countDown();
+		}
+
+		/**
+		 * Waits until {@link #message} has been saved.
+		 * @throws RuntimeException if saving {@link #message} failed
+		 */
+		void await() {
+			boolean interrupted = false;
+			while(true) {
+				try {
+					latch.await();
+					break;
+				} catch(InterruptedException ex) {
+					interrupted = true;
+				}
+			}
+			if(interrupted) Thread.currentThread().interrupt();
+			if(failure != null) throw failure;
+		}
+	}
+}
@@ -25,8 +25,11 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+import net.frontlinesms.AppProperties;
 import net.frontlinesms.EmailServerHandler;
 import net.frontlinesms.FrontlineSMS;
 import net.frontlinesms.FrontlineSMSConstants;
@@ -35,6 +38,7 @@ import net.frontlinesms.XMLReader;
 import net.frontlinesms.data.domain.*;
 import net.frontlinesms.data.domain.KeywordAction.ExternalCommandResponseActionType;
 import net.frontlinesms.data.domain.KeywordAction.ExternalCommandResponseType;
+import net.frontlinesms.data.domain.FrontlineMessage.Priority;
 import net.frontlinesms.data.domain.FrontlineMessage.Status;
 import net.frontlinesms.data.repository.*;
 import net.frontlinesms.data.*;
@@ -54,18 +58,37 @@ import org.smslib.sms.SmsMessageEncoding;
 
 /**
  * Processor of incoming messages for {@link FrontlineSMS}.
+ * 
+ * Messages are processed by a pool of {@link PartitionWorker}s.  Each message is assigned to a worker by
+ * the MSISDN of its sender, so messages from the same sender are always processed in the order they were
+ * queued, while messages from different senders are processed in parallel.
+ * 
+ * Each worker has a bounded queue.  When a worker's queue is full, {@link #queue(SmsService, CIncomingMessage)}
+ * blocks until there is space, pushing back on the service which received the message rather than
+ * buffering an unlimited number of messages in memory.
+ * 
+ * If processing a message fails, it is retried by the same worker after a short delay, up to
+ * {@link #maxAttempts} times.  Only messages from senders assigned to that worker are held up while it waits.
  * @author Alex
  */
 public class IncomingMessageProcessor extends Thread {
-	/** Time, in millis, thread should sleep for after message processing failed. */
-	private static final int THREAD_SLEEP_AFTER_PROCESSING_FAILED = 5000;
+	/** Time, in millis, a worker should wait before the first retry of a message whose processing failed.  This doubles for each subsequent retry. */
+	private static final int RETRY_DELAY_AFTER_PROCESSING_FAILED = 250;
+	/** Time, in millis, to wait for space in a full worker queue before checking whether this processor has been stopped. */
+	private static final int QUEUE_FULL_CHECK_INTERVAL = 1000;
 
 	private static final Logger LOG = FrontlineUtils.getLogger(IncomingMessageProcessor.class);
 	
-	/** Set hi when the thread should terminate. */
-	private boolean keepAlive;
-	/** Queue of messages to process. */
-	private final BlockingQueue<IncomingMessageProcessorQueueItem> incomingMessageQueue = new LinkedBlockingQueue<IncomingMessageProcessorQueueItem>();
+	/** Cleared when the thread should terminate. */
+	private volatile boolean keepAlive = true;
+	/** Workers which process the queued messages, each with their own queue. */
+	private final PartitionWorker[] workers;
+	/** Maximum number of times processing of a single message will be attempted. */
+	private final int maxAttempts;
+	/** Saves incoming messages, batching saves made by different workers at the same time into one transaction. */
+	private final GroupCommitMessageSaver messageSaver;
+	/** Executor which runs keyword actions triggered by incoming messages. */
+	private final KeywordActionExecutor actionExecutor = new KeywordActionExecutor();
 	
 //> DATA ACCESS OBJECTS
 	private final FrontlineSMS frontline;
@@ -77,14 +100,27 @@ public class IncomingMessageProcessor extends Thread {
 	private final MessageDao messageDao;
 	private EmailDao emailDao;
 
-	private UIListener uiListener;
+	private volatile UIListener uiListener;
 	/** Set of listeners for incoming message events. */
-	private Set<IncomingMessageListener> incomingMessageListeners = new HashSet<IncomingMessageListener>();
+	private Set<IncomingMessageListener> incomingMessageListeners = new CopyOnWriteArraySet<IncomingMessageListener>();
 	
 	private final EmailServerHandler emailServerHandler;
 
-	/** Create a new {@link IncomingMessageProcessor}, and initialise properties. */
+	/** Create a new {@link IncomingMessageProcessor}, configured from {@link AppProperties}. */
 	public IncomingMessageProcessor(FrontlineSMS frontline) {
+		this(frontline, AppProperties.getInstance().getIncomingProcessorThreads(),
+				AppProperties.getInstance().getIncomingProcessorQueueCapacity(),
+				AppProperties.getInstance().getIncomingProcessorAttempts());
+	}
+	
+	/**
+	 * Create a new {@link IncomingMessageProcessor}, and initialise properties.
+	 * @param frontline the {@link FrontlineSMS} instance this is processing messages for
+	 * @param workerCount number of threads to process messages on
+	 * @param queueCapacity maximum number of messages which can be queued for each worker thread
+	 * @param maxAttempts maximum number of times processing of a single message will be attempted
+	 */
+	public IncomingMessageProcessor(FrontlineSMS frontline, int workerCount, int queueCapacity, int maxAttempts) {
 		super("Incoming message processor");
 		this.frontline = frontline;
 		this.contactDao = frontline.getContactDao();
@@ -95,6 +131,13 @@ public class IncomingMessageProcessor extends Thread {
 		this.messageDao = frontline.getMessageDao();
 		this.emailDao = frontline.getEmailDao();
 		this.emailServerHandler = frontline.getEmailServerHandler();
+		
+		this.messageSaver = new GroupCommitMessageSaver(this.messageDao, workerCount);
+		this.maxAttempts = maxAttempts;
+		this.workers = new PartitionWorker[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			this.workers[i] = new PartitionWorker(i, queueCapacity);
+		}
 	}
 	
 	public void setUiListener(UIListener uiListener) {
@@ -104,60 +147,125 @@ public class IncomingMessageProcessor extends Thread {
 	
 	public void queue(SmsService receiver, CIncomingMessage incomingMessage) {
 		LOG.trace("Adding message to queue: " + receiver.hashCode() + ":" + incomingMessage.hashCode());
-		incomingMessageQueue.add(new IncomingMessageDetails(receiver, incomingMessage));
+		queue(new IncomingMessageDetails(receiver, incomingMessage));
 	}
 	
 	public void queue(MmsMessage mms) {
 		LOG.trace("Adding MMS to queue:" + mms.hashCode());
-		incomingMessageQueue.add(new IncomingMms(mms));
+		queue(new IncomingMms(mms));
+	}
+	
+	/**
+	 * Adds an item to the queue of the worker responsible for its sender, blocking if that queue is full.
+	 * If this processor is stopped, or the calling thread is interrupted, while waiting for space the
+	 * item is dropped.
+	 * @param queueItem the item to queue
+	 */
+	private void queue(IncomingMessageProcessorQueueItem queueItem) {
+		String partitionKey = queueItem.getPartitionKey();
+		int partition = ((partitionKey == null ? 0 : partitionKey.hashCode()) & Integer.MAX_VALUE) % workers.length;
+		BlockingQueue<IncomingMessageProcessorQueueItem> workerQueue = workers[partition].queue;
+		if(!workerQueue.offer(queueItem)) {
+			LOG.warn("Incoming message queue " + partition + " is full.  Waiting for space.");
+			try {
+				while(!workerQueue.offer(queueItem, QUEUE_FULL_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+					if(!keepAlive) {
+						LOG.warn("Incoming message processor stopped while waiting to queue message.  Message dropped: " + queueItem);
+						return;
+					}
+				}
+			} catch(InterruptedException ex) {
+				// Restore the interrupt so that the caller can see it and stop
+				Thread.currentThread().interrupt();
+				LOG.warn("Interrupted while waiting to queue message.  Message dropped: " + queueItem, ex);
+			}
+		}
+	}
+	
+	/** @return the total number of messages currently waiting to be processed */
+	public int getQueuedMessageCount() {
+		int count = 0;
+		for(PartitionWorker worker : workers) {
+			count += worker.queue.size();
+		}
+		return count;
+	}
+	
+	/** @return the executor which runs keyword actions triggered by incoming messages */
+	public KeywordActionExecutor getActionExecutor() {
+		return actionExecutor;
 	}
 	
 	public void die() {
 		keepAlive = false;
-		incomingMessageQueue.add(new IncomingMessageProcessorQueueKiller());
+		for(PartitionWorker worker : workers) {
+			if(!worker.queue.offer(new IncomingMessageProcessorQueueKiller())) {
+				worker.interrupt();
+			}
+		}
+		actionExecutor.shutdown();
 	}
 	
+	/** Starts the workers, and waits until they have all terminated. */
 	public void run() {
 		this.keepAlive = true;
-		while(keepAlive) {
-			IncomingMessageProcessorQueueItem queueItem = null;
-			LOG.trace("Getting incoming message from queue.");
+		messageSaver.start();
+		for(PartitionWorker worker : workers) {
+			worker.start();
+		}
+		for(PartitionWorker worker : workers) {
 			try {
-				queueItem = incomingMessageQueue.take();
+				worker.join();
 			} catch(InterruptedException ex) {
 				LOG.warn("Thread interrupted.", ex);
 			}
-		
-			if (queueItem == null) {
-				// we may have popped out when queue was notified, which means job may be null
-				LOG.trace("There were no messages in the queue.");
-				continue;
-			} else {
-				if(queueItem instanceof IncomingMessageProcessorQueueKiller) {
-					// We have been given a "poisoned" item so must terminate this thread
-					keepAlive = false;
-				} else {
-					try {
-						// We've got a new message, so process it.
-						processIncomingMessageDetails(queueItem);
-					} catch(Throwable t) {
-						// Do not requeue failed messages, as it's likely to cause ongoing issues.
-						// Instead, just mark it as failed.
-						LOG.warn("Error processing message: " + queueItem, t);
-						FrontlineUtils.sleep_ignoreInterrupts(THREAD_SLEEP_AFTER_PROCESSING_FAILED);
-					}
-				} 
-			}
 		}
+		messageSaver.stopRunning();
 		LOG.trace("EXIT");
 	}
 	
+	/**
+	 * Processes a queued item, retrying up to {@link #maxAttempts} times if processing fails.
+	 * @param queueItem the item to process
+	 */
+	private void processWithRetries(IncomingMessageProcessorQueueItem queueItem) {
+		long retryDelay = RETRY_DELAY_AFTER_PROCESSING_FAILED;
+		for(int attempt=1; keepAlive; ++attempt) {
+			try {
+				processIncomingMessageDetails(queueItem);
+				return;
+			} catch(Throwable t) {
+				if(attempt >= maxAttempts) {
+					// Give up on this message, as retrying indefinitely is likely to cause ongoing issues.
+					LOG.warn("Error processing message.  Abandoning after " + attempt + " attempts: " + queueItem, t);
+					return;
+				}
+				LOG.warn("Error processing message.  Will retry in " + retryDelay + "ms: " + queueItem, t);
+				FrontlineUtils.sleep_ignoreInterrupts(retryDelay);
+				retryDelay <<= 1;
+			}
+		}
+		LOG.warn("Incoming message processor stopped.  Abandoning message: " + queueItem);
+	}
+	
+	/**
+	 * Processes a queued item.  Progress is recorded on the queue item, so if processing is retried
+	 * after a failure the message will not be persisted, or its keyword actions triggered, twice.
+	 * @param queueItem the item to process
+	 */
 	private void processIncomingMessageDetails(IncomingMessageProcessorQueueItem queueItem) {
 		if (queueItem instanceof IncomingMms) {
-			// Creates the FrontlineMultimediaMessage
-			FrontlineMultimediaMessage mms = MmsUtils.create(((IncomingMms) queueItem).getMessage());
-			this.messageDao.saveMessage(mms);
-			handleMessage(mms);
+			FrontlineMessage mms = queueItem.getPersistedMessage();
+			if(mms == null) {
+				// Creates the FrontlineMultimediaMessage
+				mms = MmsUtils.create(((IncomingMms) queueItem).getMessage());
+				messageSaver.save(mms);
+				queueItem.setPersistedMessage(mms);
+			}
+			if(!queueItem.isActionsHandled()) {
+				handleMessage(mms, queueItem.getHandledActionIds());
+				queueItem.setActionsHandled();
+			}
 		} else if (queueItem instanceof IncomingMessageDetails) {
 			IncomingMessageDetails incomingMessageDetails = (IncomingMessageDetails) queueItem;
 			CIncomingMessage incomingMessage = incomingMessageDetails.getMessage();
@@ -172,32 +280,39 @@ public class IncomingMessageProcessor extends Thread {
 				handleStatusReport(incomingMessage);
 			} else {
 				// This is an incoming message, so process accordingly
-				FrontlineMessage incoming;
-				if (incomingMessage.getMessageEncoding() == SmsMessageEncoding.GSM_7BIT || incomingMessage.getMessageEncoding() == SmsMessageEncoding.UCS2) {
-					if(LOG.isDebugEnabled()) LOG.debug("Incoming text message [" + incomingMessage.getText() + "]");
-					if (receiver instanceof SmsModem){
-						SmsModem smsModem = (SmsModem) receiver;
-						incoming = FrontlineMessage.createIncomingMessage(incomingMessage.getDate(), incomingSenderMsisdn, 
-								receiver.getMsisdn(), incomingMessage.getText(), smsModem.getImsiNumber(), smsModem.getSerial());
+				FrontlineMessage incoming = queueItem.getPersistedMessage();
+				boolean isText = incomingMessage.getMessageEncoding() == SmsMessageEncoding.GSM_7BIT || incomingMessage.getMessageEncoding() == SmsMessageEncoding.UCS2;
+				if (incoming == null) {
+					if (isText) {
+						if(LOG.isDebugEnabled()) LOG.debug("Incoming text message [" + incomingMessage.getText() + "]");
+						if (receiver instanceof SmsModem){
+							SmsModem smsModem = (SmsModem) receiver;
+							incoming = FrontlineMessage.createIncomingMessage(incomingMessage.getDate(), incomingSenderMsisdn, 
+									receiver.getMsisdn(), incomingMessage.getText(), smsModem.getImsiNumber(), smsModem.getSerial());
+						} else {
+							incoming = FrontlineMessage.createIncomingMessage(incomingMessage.getDate(), incomingSenderMsisdn, receiver.getMsisdn(), incomingMessage.getText());
+						}
 					} else {
-						incoming = FrontlineMessage.createIncomingMessage(incomingMessage.getDate(), incomingSenderMsisdn, receiver.getMsisdn(), incomingMessage.getText());
+						if(LOG.isDebugEnabled()) LOG.debug("Incoming binary message: " + incomingMessage.getBinary().length + "b");
+						
+						// Save the binary message
+						if (receiver instanceof SmsModem){
+							SmsModem smsModem = (SmsModem) receiver;
+							incoming = FrontlineMessage.createBinaryIncomingMessage(incomingMessage.getDate(), incomingSenderMsisdn, 
+									receiver.getMsisdn(), -1, incomingMessage.getBinary(), smsModem.getImsiNumber(), smsModem.getSerial());}
+						else {
+							incoming = FrontlineMessage.createBinaryIncomingMessage(incomingMessage.getDate(), incomingSenderMsisdn, receiver.getMsisdn(), -1, incomingMessage.getBinary());	
+						}
 					}
-
-					messageDao.saveMessage(incoming);
-					handleMessage(incoming);
-				} else {
-					if(LOG.isDebugEnabled()) LOG.debug("Incoming binary message: " + incomingMessage.getBinary().length + "b");
-					
-					// Save the binary message
-					if (receiver instanceof SmsModem){
-						SmsModem smsModem = (SmsModem) receiver;
-						incoming = FrontlineMessage.createBinaryIncomingMessage(incomingMessage.getDate(), incomingSenderMsisdn, 
-								receiver.getMsisdn(), -1, incomingMessage.getBinary(), smsModem.getImsiNumber(), smsModem.getSerial());}
-					else {
-						incoming = FrontlineMessage.createBinaryIncomingMessage(incomingMessage.getDate(), incomingSenderMsisdn, receiver.getMsisdn(), -1, incomingMessage.getBinary());	
+					messageSaver.save(incoming);
+					queueItem.setPersistedMessage(incoming);
+				}
+				
+				if (!queueItem.isActionsHandled()) {
+					if (isText) {
+						handleMessage(incoming, queueItem.getHandledActionIds());
 					}
-					
-					messageDao.saveMessage(incoming);
+					queueItem.setActionsHandled();
 				}
 	
 				for(IncomingMessageListener listener : this.incomingMessageListeners) {
@@ -248,6 +363,18 @@ public class IncomingMessageProcessor extends Thread {
 	 */
 	/* not private to allow unit testing */
 	void handleMessage(final FrontlineMessage message) {
+		handleMessage(message, new HashSet<Long>());
+	}
+	
+	/**
+	 * Processes keyword actions for a text message, skipping any which have already been handled.
+	 * @param message
+	 * @param handledActionIds IDs of the actions already handled for this message.  The ID of each
+	 * action is added once it has been handled, so if this method fails part way through it can be
+	 * called again without handling any action twice.
+	 */
+	/* not private to allow unit testing */
+	void handleMessage(final FrontlineMessage message, Set<Long> handledActionIds) {
 		Keyword keyword;
 		
 		if (message instanceof FrontlineMultimediaMessage) {
@@ -268,14 +395,16 @@ public class IncomingMessageProcessor extends Thread {
 				//If we found a contact, he/she needs to be allowed to execute the action.
 				if (contact == null || contact.isActive()) {
 					final long triggerTime = message.getDate();
-					for (KeywordAction action : actions) {
-						if (action.isAlive(triggerTime)) {
-							try {
-								handleIncomingMessageAction_post(action, message);
-							} catch(Exception ex) {
-								LOG.warn("Exception thrown while executing action.", ex);
-							}
+					for (final KeywordAction action : actions) {
+						if (!handledActionIds.contains(action.getId()) && action.isAlive(triggerTime)) {
+							actionExecutor.execute(action.getType(), message.getSenderMsisdn(), new Runnable() {
+								public void run() {
+									// Exceptions are logged and counted by the executor
+									handleIncomingMessageAction_post(action, message);
+								}
+							});
 						}
+						handledActionIds.add(action.getId());
 					}
 				}
 			}
@@ -302,7 +431,7 @@ public class IncomingMessageProcessor extends Thread {
 				LOG.debug("Message to forward [" + forwardedMessageText + "]");
 				for (Contact contact : this.groupMembershipDao.getActiveMembers(action.getGroup())) {
 					LOG.debug("Sending to [" + contact.getName() + "]");
-					frontline.sendTextMessage(contact.getPhoneNumber(), KeywordAction.KeywordUtils.personaliseMessage(contact, forwardedMessageText));
+					frontline.sendTextMessage(contact.getPhoneNumber(), KeywordAction.KeywordUtils.personaliseMessage(contact, forwardedMessageText), Priority.FORWARD);
 				}
 				break;
 			case JOIN: {
@@ -352,7 +481,7 @@ public class IncomingMessageProcessor extends Thread {
 				LOG.debug("It is an auto-reply action!");
 				String reply = KeywordAction.KeywordUtils.getReplyText(action, contactDao.getFromMsisdn(incomingSenderMsisdn), incomingSenderMsisdn, incomingMessageText, null);
 				LOG.debug("Sending [" + reply + "] to [" + incomingSenderMsisdn + "]");
-				frontline.sendTextMessage(incomingSenderMsisdn, reply);
+				frontline.sendTextMessage(incomingSenderMsisdn, reply, Priority.AUTO_REPLY);
 				// TODO should the message be tied to the action somehow?
 				break;
 			case EXTERNAL_CMD:
@@ -501,7 +630,7 @@ public class IncomingMessageProcessor extends Thread {
 				|| responseActionType == KeywordAction.ExternalCommandResponseActionType.REPLY_AND_FORWARD) {
 			//Auto reply
 			LOG.debug("Sending to [" + incomingSenderMsisdn + "] as an auto-reply.");
-			frontline.sendTextMessage(incomingSenderMsisdn, message);
+			frontline.sendTextMessage(incomingSenderMsisdn, message, Priority.AUTO_REPLY);
 		}
 		if (responseActionType == KeywordAction.ExternalCommandResponseActionType.FORWARD 
 				|| responseActionType == KeywordAction.ExternalCommandResponseActionType.REPLY_AND_FORWARD) {
@@ -516,7 +645,7 @@ public class IncomingMessageProcessor extends Thread {
 						//so we don't send the message again.
 						LOG.debug("Sending to contact [" + contact.getName() + "]");
 					}
-					frontline.sendTextMessage(contact.getPhoneNumber(), message);
+					frontline.sendTextMessage(contact.getPhoneNumber(), message, Priority.FORWARD);
 				}
 			}
 		}
@@ -538,16 +667,100 @@ public class IncomingMessageProcessor extends Thread {
 	public void removeIncomingMessageListener(IncomingMessageListener incomingMessageListener) {
 		this.incomingMessageListeners.remove(incomingMessageListener);
 	}
+	
+//> INNER CLASSES
+	/**
+	 * Worker thread which processes the messages queued for one partition of senders.
+	 * @author Alex
+	 */
+	private class PartitionWorker extends Thread {
+		/** Queue of messages to process. */
+		private final BlockingQueue<IncomingMessageProcessorQueueItem> queue;
+		
+		/**
+		 * @param partition the index of the partition this worker processes
+		 * @param queueCapacity maximum number of messages which can be queued for this worker
+		 */
+		PartitionWorker(int partition, int queueCapacity) {
+			super("Incoming message processor " + partition);
+			this.queue = new LinkedBlockingQueue<IncomingMessageProcessorQueueItem>(queueCapacity);
+		}
+		
+		public void run() {
+			while(keepAlive) {
+				IncomingMessageProcessorQueueItem queueItem = null;
+				LOG.trace("Getting incoming message from queue.");
+				try {
+					queueItem = queue.take();
+				} catch(InterruptedException ex) {
+					LOG.warn("Thread interrupted.", ex);
+				}
+			
+				if (queueItem == null) {
+					// we may have popped out when queue was notified, which means job may be null
+					LOG.trace("There were no messages in the queue.");
+				} else if(queueItem instanceof IncomingMessageProcessorQueueKiller) {
+					// We have been given a "poisoned" item so must terminate this thread
+					break;
+				} else {
+					// We've got a new message, so process it.
+					processWithRetries(queueItem);
+				}
+			}
+			for(IncomingMessageProcessorQueueItem abandoned : queue) {
+				if(!(abandoned instanceof IncomingMessageProcessorQueueKiller)) {
+					LOG.warn("Incoming message processor stopped.  Abandoning message: " + abandoned);
+				}
+			}
+			LOG.trace("EXIT");
+		}
+	}
 }
 
-/** Empty interface implemented by items which are put in the {@link IncomingMessageProcessor}'s queue. */
-interface IncomingMessageProcessorQueueItem {}
+/**
+ * Superclass for items which are put in the {@link IncomingMessageProcessor}'s queue.  It records how
+ * far processing of the item has got, so that a retry can carry on where a failed attempt left off.
+ */
+abstract class IncomingMessageProcessorQueueItem {
+	/** The message persisted for this item, or <code>null</code> if none has been persisted yet. */
+	private FrontlineMessage persistedMessage;
+	/** <code>true</code> once keyword actions have been handled for this item. */
+	private boolean actionsHandled;
+	/** IDs of the keyword actions which have been handled for this item. */
+	private final Set<Long> handledActionIds = new HashSet<Long>();
+	
+	/** @return the key used to assign this item to a worker, e.g. the MSISDN of the message sender */
+	abstract String getPartitionKey();
+	
+	/** @return {@link #persistedMessage} */
+	FrontlineMessage getPersistedMessage() {
+		return persistedMessage;
+	}
+	/** @param persistedMessage new value for {@link #persistedMessage} */
+	void setPersistedMessage(FrontlineMessage persistedMessage) {
+		this.persistedMessage = persistedMessage;
+	}
+	
+	/** @return {@link #actionsHandled} */
+	boolean isActionsHandled() {
+		return actionsHandled;
+	}
+	/** Sets {@link #actionsHandled} */
+	void setActionsHandled() {
+		this.actionsHandled = true;
+	}
+	
+	/** @return {@link #handledActionIds} */
+	Set<Long> getHandledActionIds() {
+		return handledActionIds;
+	}
+}
 
 /**
  * Queue item which contains details of an incoming message.
  * @author Alex
  */
-class IncomingMessageDetails implements IncomingMessageProcessorQueueItem {
+class IncomingMessageDetails extends IncomingMessageProcessorQueueItem {
 	/** the message received */
 	private final CIncomingMessage message;
 	/** the device the message was received on */
@@ -570,6 +783,11 @@ class IncomingMessageDetails implements IncomingMessageProcessorQueueItem {
 	public SmsService getReceiver() {
 		return receiver;
 	}
+	/** @return the MSISDN of the message's originator */
+	@Override
+	String getPartitionKey() {
+		return message.getOriginator();
+	}
 	
 	@Override
 	public String toString() {
@@ -597,7 +815,7 @@ class IncomingMessageDetails implements IncomingMessageProcessorQueueItem {
  * Queue item which contains an MMS
  * @author Morgan Belkadi <morgan@frontlinesms.com>
  */
-class IncomingMms implements IncomingMessageProcessorQueueItem {
+class IncomingMms extends IncomingMessageProcessorQueueItem {
 	/** the message received */
 	private final MmsMessage message;
 //> CONSTRUCTOR
@@ -613,6 +831,11 @@ class IncomingMms implements IncomingMessageProcessorQueueItem {
 	public MmsMessage getMessage() {
 		return message;
 	}
+	/** @return the sender of the message */
+	@Override
+	String getPartitionKey() {
+		return message.getSender();
+	}
 	
 	@Override
 	public String toString() {
@@ -629,4 +852,9 @@ class IncomingMms implements IncomingMessageProcessorQueueItem {
  * Queuing an instance of this class will kill the {@link IncomingMessageProcessor}.
  * @author Alex
  */
-class IncomingMessageProcessorQueueKiller implements IncomingMessageProcessorQueueItem {}
+class IncomingMessageProcessorQueueKiller extends IncomingMessageProcessorQueueItem {
+	@Override
+	String getPartitionKey() {
+		return null;
+	}
+}
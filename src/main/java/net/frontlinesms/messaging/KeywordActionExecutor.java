@@ -0,0 +1,473 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import net.frontlinesms.AppProperties;
+import net.frontlinesms.FrontlineUtils;
+import net.frontlinesms.data.domain.KeywordAction;
+
+/**
+ * Executes {@link KeywordAction}s for the {@link IncomingMessageProcessor}.
+ *
+ * Actions which may block for a long time are run on a separate, bounded thread pool for each
+ * {@link ActionPool}, so that e.g. a slow HTTP request cannot hold up group joins or keyword
+ * matching for other messages.  Each action is cancelled if it runs for longer than its pool's
+ * timeout.  Cheap actions, such as auto-replies, are run directly on the calling thread.
+ *
+ * Each thread of a pool has its own queue, and actions are assigned to a thread by a partition key,
+ * e.g. the sender of the triggering message.  Actions with the same key are therefore run one at a
+ * time, in the order they were executed, so e.g. a JOIN followed by a LEAVE from the same sender
+ * can never be applied in reverse.  When a thread's queue is full, the caller waits for space
+ * rather than running the action itself, which would overtake the actions already queued.
+ *
+ * Pool sizes, queue capacities and timeouts are read from {@link AppProperties} by default.
+ *
+ * Exceptions thrown by actions are logged and counted here, so actions should not catch them.
+ *
+ * Queue depth and latency are recorded for each {@link KeywordAction.Type}, and can be read with
+ * {@link #getStatistics(KeywordAction.Type)}.
+ *
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class KeywordActionExecutor {
+//> STATIC CONSTANTS
+	/** Logging object */
+	private static final Logger LOG = FrontlineUtils.getLogger(KeywordActionExecutor.class);
+	/** Time, in millis, to wait for space in a full queue before checking whether the pool has been shut down. */
+	private static final long QUEUE_FULL_CHECK_INTERVAL = 1000;
+
+	/**
+	 * The thread pools which actions are run on.
+	 */
+	public enum ActionPool {
+		/** Actions which are run directly on the calling thread */
+		INLINE(0, 0, 0),
+		/** Forwarding of messages to groups */
+		FORWARD(2, 1000, 60),
+		/** Joining and leaving groups */
+		GROUP(1, 1000, 30),
+		/** Sending e-mails */
+		EMAIL(1, 1000, 60),
+		/** HTTP requests and external programs */
+		EXTERNAL(4, 200, 120);
+
+		/** The settings used for this pool when none are configured */
+		private final PoolSettings defaultSettings;
+
+		/**
+		 * @param threadCount default number of threads in this pool
+		 * @param queueCapacity default maximum number of actions which can be waiting for each thread in this pool
+		 * @param timeoutSeconds default time, in seconds, an action may run for before it is cancelled
+		 */
+		ActionPool(int threadCount, int queueCapacity, int timeoutSeconds) {
+			this.defaultSettings = new PoolSettings(threadCount, queueCapacity, timeoutSeconds);
+		}
+
+		/** @return {@link #defaultSettings} */
+		public PoolSettings getDefaultSettings() {
+			return defaultSettings;
+		}
+
+		/** @return the settings for this pool configured in {@link AppProperties}, falling back to {@link #defaultSettings} */
+		public PoolSettings getConfiguredSettings() {
+			if(this == INLINE) return defaultSettings;
+			AppProperties properties = AppProperties.getInstance();
+			String poolKey = name().toLowerCase();
+			return new PoolSettings(
+					properties.getKeywordActionThreads(poolKey, defaultSettings.threadCount),
+					properties.getKeywordActionQueueCapacity(poolKey, defaultSettings.queueCapacity),
+					properties.getKeywordActionTimeout(poolKey, defaultSettings.timeoutSeconds));
+		}
+
+		/**
+		 * @param type a type of keyword action
+		 * @return the pool which actions of the supplied type are run on
+		 */
+		public static ActionPool forType(KeywordAction.Type type) {
+			switch(type) {
+				case FORWARD: return FORWARD;
+				case JOIN: case LEAVE: return GROUP;
+				case EMAIL: return EMAIL;
+				case EXTERNAL_CMD: return EXTERNAL;
+				default: return INLINE;
+			}
+		}
+	}
+
+//> INSTANCE PROPERTIES
+	/** Settings for each {@link ActionPool} */
+	private final Map<ActionPool, PoolSettings> settings;
+	/** Single-threaded executors for each non-inline {@link ActionPool}, one per thread of the pool */
+	private final Map<ActionPool, ThreadPoolExecutor[]> executors = new EnumMap<ActionPool, ThreadPoolExecutor[]>(ActionPool.class);
+	/** Scheduler used to cancel actions which exceed their timeout */
+	private final ScheduledExecutorService timeoutScheduler;
+	/** Statistics for each {@link KeywordAction.Type} */
+	private final Map<KeywordAction.Type, ActionStatistics> statistics = new EnumMap<KeywordAction.Type, ActionStatistics>(KeywordAction.Type.class);
+
+//> CONSTRUCTORS
+	/** Create a new {@link KeywordActionExecutor}, configured from {@link AppProperties}, and start its thread pools. */
+	public KeywordActionExecutor() {
+		this(getConfiguredSettings());
+	}
+
+	/**
+	 * Create a new {@link KeywordActionExecutor} and start its thread pools.
+	 * @param settings settings for each {@link ActionPool}.  Pools with no settings use {@link ActionPool#getDefaultSettings()}.
+	 */
+	public KeywordActionExecutor(Map<ActionPool, PoolSettings> settings) {
+		this.settings = new EnumMap<ActionPool, PoolSettings>(ActionPool.class);
+		for(ActionPool pool : ActionPool.values()) {
+			PoolSettings poolSettings = settings.get(pool);
+			if(poolSettings == null) poolSettings = pool.getDefaultSettings();
+			this.settings.put(pool, poolSettings);
+			if(pool != ActionPool.INLINE) {
+				ThreadPoolExecutor[] poolExecutors = new ThreadPoolExecutor[poolSettings.threadCount];
+				for(int i = 0; i < poolExecutors.length; i++) {
+					poolExecutors[i] = new ThreadPoolExecutor(1, 1,
+							0, TimeUnit.MILLISECONDS,
+							new ArrayBlockingQueue<Runnable>(poolSettings.queueCapacity),
+							new NamedThreadFactory("Keyword action executor: " + pool.name() + " " + i),
+							new WaitWhenFullOrCancelPolicy());
+				}
+				executors.put(pool, poolExecutors);
+			}
+		}
+		this.timeoutScheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Keyword action timeout"));
+		for(KeywordAction.Type type : KeywordAction.Type.values()) {
+			statistics.put(type, new ActionStatistics());
+		}
+	}
+
+//> ACCESSORS
+	/**
+	 * @param type a type of keyword action
+	 * @return statistics for actions of the supplied type
+	 */
+	public ActionStatistics getStatistics(KeywordAction.Type type) {
+		return statistics.get(type);
+	}
+
+	/**
+	 * @param pool a thread pool
+	 * @return the settings the pool was created with
+	 */
+	public PoolSettings getSettings(ActionPool pool) {
+		return settings.get(pool);
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Executes an action on the pool for its type.  Actions of the same pool with the same partition
+	 * key are run in the order they are executed.
+	 * @param type the type of the action being executed
+	 * @param partitionKey the key used to assign the action to a thread, e.g. the MSISDN of the message sender
+	 * @param action the action to execute
+	 */
+	public void execute(KeywordAction.Type type, String partitionKey, Runnable action) {
+		ActionPool pool = ActionPool.forType(type);
+		ActionTask task = new ActionTask(type, settings.get(pool), action);
+		statistics.get(type).queued();
+		if(pool == ActionPool.INLINE) {
+			task.run();
+		} else {
+			ThreadPoolExecutor[] poolExecutors = executors.get(pool);
+			int partition = ((partitionKey == null ? 0 : partitionKey.hashCode()) & Integer.MAX_VALUE) % poolExecutors.length;
+			poolExecutors[partition].execute(task);
+		}
+	}
+
+	/** Cancels all queued and running actions, and stops the thread pools. */
+	public void shutdown() {
+		for(ThreadPoolExecutor[] poolExecutors : executors.values()) {
+			for(ThreadPoolExecutor executor : poolExecutors) {
+				for(Runnable queued : executor.shutdownNow()) {
+					((ActionTask) queued).cancel(false);
+				}
+			}
+		}
+		timeoutScheduler.shutdownNow();
+	}
+
+//> STATIC HELPER METHODS
+	/** @return the settings for each {@link ActionPool} configured in {@link AppProperties} */
+	private static Map<ActionPool, PoolSettings> getConfiguredSettings() {
+		Map<ActionPool, PoolSettings> settings = new EnumMap<ActionPool, PoolSettings>(ActionPool.class);
+		for(ActionPool pool : ActionPool.values()) {
+			settings.put(pool, pool.getConfiguredSettings());
+		}
+		return settings;
+	}
+
+//> INNER CLASSES
+	/**
+	 * Wrapper for an action which cancels it if it exceeds its timeout, and records its statistics.
+	 */
+	private class ActionTask extends FutureTask<Void> {
+		/** The type of the action */
+		private final KeywordAction.Type type;
+		/** The settings of the pool this action is running on */
+		private final PoolSettings pool;
+		/** The time this task was created, in millis */
+		private final long queuedTime = System.currentTimeMillis();
+		/** Set once this task has been taken from the queue, to run or because it was cancelled */
+		private final AtomicBoolean dequeued = new AtomicBoolean();
+
+		/**
+		 * @param type value for {@link #type}
+		 * @param pool value for {@link #pool}
+		 * @param action the action to run
+		 */
+		ActionTask(KeywordAction.Type type, PoolSettings pool, Runnable action) {
+			super(action, null);
+			this.type = type;
+			this.pool = pool;
+		}
+
+		@Override
+		public void run() {
+			long startTime = System.currentTimeMillis();
+			dequeue();
+			ScheduledFuture<?> timeout = null;
+			if(pool.timeoutSeconds > 0) {
+				timeout = timeoutScheduler.schedule(new Runnable() {
+					public void run() {
+						if(cancel(true)) {
+							LOG.warn("Keyword action of type " + type + " timed out after " + pool.timeoutSeconds + "s.");
+							statistics.get(type).timedOut();
+						}
+					}
+				}, pool.timeoutSeconds, TimeUnit.SECONDS);
+			}
+			try {
+				super.run();
+			} finally {
+				if(timeout != null) timeout.cancel(false);
+				long endTime = System.currentTimeMillis();
+				statistics.get(type).completed(startTime - queuedTime, endTime - startTime);
+			}
+		}
+
+		@Override
+		protected void done() {
+			// A task cancelled before it started will never run, so must leave the queue here
+			dequeue();
+			if(!isCancelled()) {
+				try {
+					get();
+				} catch(CancellationException ex) {
+					// Cancelled by timeout or shutdown - already logged
+				} catch(Exception ex) {
+					LOG.warn("Exception thrown while executing action.", ex.getCause());
+					statistics.get(type).failed();
+				}
+			}
+		}
+
+		/** Records that this task has left the queue, unless that has already been recorded. */
+		private void dequeue() {
+			if(dequeued.compareAndSet(false, true)) {
+				statistics.get(type).dequeued();
+			}
+		}
+	}
+
+	/**
+	 * Handler for actions which a pool cannot accept.  If the pool's queue is full, the caller waits
+	 * for space, slowing down the caller rather than discarding the action or running it ahead of
+	 * those already queued.  If the pool has been shut down, or the caller is interrupted while
+	 * waiting, the action is cancelled.
+	 */
+	private static class WaitWhenFullOrCancelPolicy implements RejectedExecutionHandler {
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			ActionTask task = (ActionTask) r;
+			if(!executor.isShutdown()) {
+				LOG.warn("Keyword action queue is full.  Waiting for space.");
+				try {
+					while(!executor.isShutdown()) {
+						if(executor.getQueue().offer(task, QUEUE_FULL_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+							// The pool may have been shut down, and its queue emptied, while we were waiting
+							if(executor.isShutdown() && executor.remove(task)) {
+								task.cancel(false);
+							}
+							return;
+						}
+					}
+				} catch(InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			task.cancel(false);
+		}
+	}
+
+	/**
+	 * Thread count, queue capacity and timeout of an {@link ActionPool}.
+	 */
+	public static class PoolSettings {
+		/** The number of threads in the pool */
+		private final int threadCount;
+		/** The maximum number of actions which can be waiting for each thread in the pool */
+		private final int queueCapacity;
+		/** The time, in seconds, an action may run for before it is cancelled; <code>0</code> for no timeout */
+		private final int timeoutSeconds;
+
+		/**
+		 * @param threadCount value for {@link #threadCount}
+		 * @param queueCapacity value for {@link #queueCapacity}
+		 * @param timeoutSeconds value for {@link #timeoutSeconds}
+		 */
+		public PoolSettings(int threadCount, int queueCapacity, int timeoutSeconds) {
+			this.threadCount = threadCount;
+			this.queueCapacity = queueCapacity;
+			this.timeoutSeconds = timeoutSeconds;
+		}
+
+		/** @return {@link #threadCount} */
+		public int getThreadCount() {
+			return threadCount;
+		}
+		/** @return {@link #queueCapacity} */
+		public int getQueueCapacity() {
+			return queueCapacity;
+		}
+		/** @return {@link #timeoutSeconds} */
+		public int getTimeoutSeconds() {
+			return timeoutSeconds;
+		}
+
+		@Override
+		public String toString() {
+			return "threads=" + threadCount + ", queueCapacity=" + queueCapacity + ", timeoutSeconds=" + timeoutSeconds;
+		}
+	}
+
+	/**
+	 * Queue depth and latency statistics for a type of {@link KeywordAction}.
+	 * All times are in milliseconds.
+	 */
+	public static class ActionStatistics {
+		/** Number of actions queued but not yet started or cancelled */
+		private final AtomicInteger queueDepth = new AtomicInteger();
+		/** Number of actions which have finished running, successfully or not */
+		private final AtomicLong completedCount = new AtomicLong();
+		/** Number of actions which threw an exception */
+		private final AtomicLong failedCount = new AtomicLong();
+		/** Number of actions which were cancelled for exceeding their timeout */
+		private final AtomicLong timedOutCount = new AtomicLong();
+		/** Total time completed actions spent waiting in the queue */
+		private final AtomicLong totalQueueTime = new AtomicLong();
+		/** Total time completed actions spent running */
+		private final AtomicLong totalRunTime = new AtomicLong();
+		/** Longest time a completed action spent running */
+		private final AtomicLong maxRunTime = new AtomicLong();
+
+		/** Records that an action has been queued */
+		void queued() {
+			queueDepth.incrementAndGet();
+		}
+
+		/** Records that an action has been taken from the queue, either to start running or because it was cancelled */
+		void dequeued() {
+			queueDepth.decrementAndGet();
+		}
+
+		/**
+		 * Records that an action has finished running.
+		 * @param queueTime time the action spent waiting to start
+		 * @param runTime time the action spent running
+		 */
+		void completed(long queueTime, long runTime) {
+			completedCount.incrementAndGet();
+			totalQueueTime.addAndGet(queueTime);
+			totalRunTime.addAndGet(runTime);
+			long max;
+			while(runTime > (max = maxRunTime.get()) && !maxRunTime.compareAndSet(max, runTime)) {}
+		}
+
+		/** Records that an action threw an exception */
+		void failed() {
+			failedCount.incrementAndGet();
+		}
+
+		/** Records that an action was cancelled for exceeding its timeout */
+		void timedOut() {
+			timedOutCount.incrementAndGet();
+		}
+
+		/** @return number of actions queued but not yet started or cancelled */
+		public int getQueueDepth() {
+			return queueDepth.get();
+		}
+		/** @return number of actions which have finished running */
+		public long getCompletedCount() {
+			return completedCount.get();
+		}
+		/** @return number of actions which threw an exception */
+		public long getFailedCount() {
+			return failedCount.get();
+		}
+		/** @return number of actions which were cancelled for exceeding their timeout */
+		public long getTimedOutCount() {
+			return timedOutCount.get();
+		}
+		/** @return mean time completed actions spent waiting in the queue */
+		public long getAverageQueueTime() {
+			long count = completedCount.get();
+			return count == 0 ? 0 : totalQueueTime.get() / count;
+		}
+		/** @return mean time completed actions spent running */
+		public long getAverageRunTime() {
+			long count = completedCount.get();
+			return count == 0 ? 0 : totalRunTime.get() / count;
+		}
+		/** @return longest time a completed action spent running */
+		public long getMaxRunTime() {
+			return maxRunTime.get();
+		}
+
+		@Override
+		public String toString() {
+			return "queued=" + getQueueDepth()
+					+ ", completed=" + getCompletedCount()
+					+ ", failed=" + getFailedCount()
+					+ ", timedOut=" + getTimedOutCount()
+					+ ", avgQueueMs=" + getAverageQueueTime()
+					+ ", avgRunMs=" + getAverageRunTime()
+					+ ", maxRunMs=" + getMaxRunTime();
+		}
+	}
+
+	/** {@link ThreadFactory} creating daemon threads with a fixed name. */
+	private static class NamedThreadFactory implements ThreadFactory {
+		/** The name given to created threads */
+		private final String name;
+		/** @param name value for {@link #name} */
+		NamedThreadFactory(String name) {
+			this.name = name;
+		}
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, name);
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -21,7 +21,16 @@ package net.frontlinesms.messaging.mms;
 
 import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.frontlinesms.AppProperties;
 import net.frontlinesms.FrontlineUtils;
@@ -48,13 +57,24 @@ import org.apache.log4j.Logger;
  * 
  * Incoming messages are immediately removed from accounts with a POP protocol
  * 
+ * Accounts are polled concurrently, on up to {@link AppProperties#getMmsPollingThreads()} threads, so a slow
+ * server does not delay the others.  An account is not polled again until its previous poll has finished.
+ * Received messages are passed on as soon as each account has been polled, and are converted and saved by
+ * the incoming message processor rather than on the polling threads.
+ * 
  * @author Morgan Belkadi <morgan@frontlinesms.com>
  */
 public class MmsServiceManager extends Thread  {
 	/** Set of {@link MmsEmailService} */
 	private final Set<MmsService> mmsEmailServices = new CopyOnWriteArraySet<MmsService>();
 	/** Flag indicating that the thread should continue running. */
-	private boolean running;
+	private volatile boolean running;
+	/** Released when the thread should stop waiting for the next poll */
+	private final Semaphore wakeSignal = new Semaphore(0);
+	/** Services which are currently being polled, so they are not polled again before finishing */
+	private final ConcurrentMap<MmsService, Boolean> polling = new ConcurrentHashMap<MmsService, Boolean>();
+	/** Executor which polls the services; <code>null</code> when the thread is not running */
+	private ExecutorService pollExecutor;
 	private EventBus eventBus;
 	private EmailAccountDao emailAccountDao;
 
@@ -108,11 +128,13 @@ public class MmsServiceManager extends Thread  {
 	public void run() {
 		LOG.trace("ENTER");
 		running = true;
+		pollExecutor = Executors.newFixedThreadPool(AppProperties.getInstance().getMmsPollingThreads(), new PollThreadFactory());
 		while (running) {
 			processMmsEmailReceiving();
 
-			FrontlineUtils.sleep_ignoreInterrupts(AppProperties.getInstance().getMmsPollingFrequency());
+			awaitNextPoll(AppProperties.getInstance().getMmsPollingFrequency());
 		}
+		pollExecutor.shutdownNow();
 		LOG.trace("EXIT");
 	}
 
@@ -121,39 +143,75 @@ public class MmsServiceManager extends Thread  {
 	 */
 	public void stopRunning() {
 		this.running = false;
+		wakeSignal.release();
 	}
 	
 	/**
-	 * Processes the retrieving of e-mails.
-	 * Automatically sets the status of the {@link MmsEmailService} depending on its state
+	 * Starts polling each connected {@link MmsEmailService} which is not still being polled.
 	 */
 	private void processMmsEmailReceiving() {
-		for (MmsService mmsService : this.mmsEmailServices) {
-			if (mmsService.isConnected()) {
-				MmsEmailService mmsEmailService = (MmsEmailService)mmsService;
+		for (final MmsService mmsService : this.mmsEmailServices) {
+			if (mmsService.isConnected() && polling.putIfAbsent(mmsService, Boolean.TRUE) == null) {
 				try {
-					mmsEmailService.setStatus(MmsEmailServiceStatus.FETCHING, this.eventBus);
-					Collection<MmsMessage> mmsMessages = mmsEmailService.receive();
-					
-					for (MmsMessage mmsMessage : mmsMessages) {
-						if (this.eventBus != null) {
-							// Let's notify the observers that a new MMS has arrived
-							this.eventBus.notifyObservers(new MmsReceivedNotification(mmsMessage));
+					pollExecutor.execute(new Runnable() {
+						public void run() {
+							try {
+								processMmsEmailReceiving((MmsEmailService) mmsService);
+							} finally {
+								polling.remove(mmsService);
+							}
 						}
-					}
-					mmsEmailService.setStatus(MmsEmailServiceStatus.READY, this.eventBus);
-					
-					/** Last check update */
-					// First, check if the service has not been removed
-					if (this.mmsEmailServices.contains(mmsEmailService)) {
-						mmsEmailService.updateLastCheck(this.emailAccountDao);
-					}
-				} catch (MmsReceiveException e) {
-					mmsEmailService.setStatus(MmsEmailServiceStatus.FAILED_TO_CONNECT, this.eventBus);
+					});
+				} catch (RejectedExecutionException e) {
+					// The executor has been shut down
+					polling.remove(mmsService);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Processes the retrieving of e-mails from a single service.
+	 * Automatically sets the status of the {@link MmsEmailService} depending on its state
+	 * @param mmsEmailService the service to retrieve e-mails from
+	 */
+	private void processMmsEmailReceiving(MmsEmailService mmsEmailService) {
+		try {
+			mmsEmailService.setStatus(MmsEmailServiceStatus.FETCHING, this.eventBus);
+			Collection<MmsMessage> mmsMessages = mmsEmailService.receive();
+			
+			for (MmsMessage mmsMessage : mmsMessages) {
+				if (this.eventBus != null) {
+					// Let's notify the observers that a new MMS has arrived
+					this.eventBus.notifyObservers(new MmsReceivedNotification(mmsMessage));
 				}
 			}
+			mmsEmailService.setStatus(MmsEmailServiceStatus.READY, this.eventBus);
+			
+			/** Last check update */
+			// First, check if the service has not been removed
+			if (this.mmsEmailServices.contains(mmsEmailService)) {
+				mmsEmailService.updateLastCheck(this.emailAccountDao);
+			}
+		} catch (MmsReceiveException e) {
+			mmsEmailService.setStatus(MmsEmailServiceStatus.FAILED_TO_CONNECT, this.eventBus);
+		} catch (RuntimeException e) {
+			LOG.warn("Error polling MMS account [" + mmsEmailService.getServiceIdentification() + "]", e);
 		}
 	}
+	
+	/**
+	 * Waits until the next poll is due, or {@link #stopRunning()} is called.
+	 * @param timeout the maximum time to wait, in millis
+	 */
+	private void awaitNextPoll(long timeout) {
+		try {
+			wakeSignal.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			// Interrupted - just carry on with the next poll
+		}
+		wakeSignal.drainPermits();
+	}
 
 	public void clearMmsEmailReceivers() {
 		this.mmsEmailServices.clear();
@@ -205,4 +263,15 @@ public class MmsServiceManager extends Thread  {
 
 		return total;
 	}
+	
+	/** {@link ThreadFactory} creating the daemon threads which poll {@link MmsService}s. */
+	private static class PollThreadFactory implements ThreadFactory {
+		/** The number of threads created so far */
+		private final AtomicInteger count = new AtomicInteger();
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "MmsServiceManager poll " + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
 }
\ No newline at end of file
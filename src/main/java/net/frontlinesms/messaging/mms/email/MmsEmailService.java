@@ -21,7 +21,7 @@ import net.frontlinesms.mms.email.receive.EmailMmsReceiver;
 public class MmsEmailService implements MmsService {
 	private EmailMmsReceiver mmsEmailReceiver;
 	private EmailAccount emailAccount;
-	private MmsServiceStatus status = MmsEmailServiceStatus.READY;
+	private volatile MmsServiceStatus status = MmsEmailServiceStatus.READY;
 
 	public MmsEmailService (EmailAccount emailAccount) {
 		this.setEmailAccount(emailAccount);
@@ -141,4 +141,15 @@ public class DummySmsService implements SmsService {
 		return null;
 	}
 
+	/** @see net.frontlinesms.messaging.sms.SmsService#getOutboxSize() */
+	public int getOutboxSize() {
+		/* do nothing */
+		return 0;
+	}
+
+	/** @see net.frontlinesms.messaging.sms.SmsService#getSendCapacityPerMinute() */
+	public double getSendCapacityPerMinute() {
+		/* do nothing */
+		return 0;
+	}
 }
@@ -0,0 +1,72 @@
+/**
+ * 
+ */
+package net.frontlinesms.messaging.sms;
+
+import java.util.Collections;
+import java.util.List;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.data.domain.FrontlineMessage.Status;
+import net.frontlinesms.data.domain.FrontlineMessage.Type;
+import net.frontlinesms.data.repository.MessageDao;
+
+/**
+ * Messages which were waiting to be sent when FrontlineSMS was last shut down.  Rather than all being
+ * loaded at startup, these are loaded from the database a page at a time, in the order they were created,
+ * as the messages already loaded are sent.
+ *
+ * This class is not threadsafe.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+class OutboxBacklog {
+//> STATIC CONSTANTS
+	/** Statuses of messages which are waiting to be sent */
+	private static final Status[] OUTBOX_STATUSES = { Status.OUTBOX, Status.PENDING };
+
+//> INSTANCE PROPERTIES
+	/** DAO the messages are loaded from */
+	private final MessageDao messageDao;
+	/** The greatest id of any message in the backlog.  Messages created after the backlog was
+	 * measured are queued when they are created, so must not be loaded again. */
+	private final long maxId;
+	/** The id of the last message loaded */
+	private long lastId;
+	/** Set <code>true</code> once all messages in the backlog have been loaded */
+	private boolean exhausted;
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new {@link OutboxBacklog} containing all messages currently waiting to be sent.
+	 * @param messageDao value for {@link #messageDao}
+	 */
+	OutboxBacklog(MessageDao messageDao) {
+		this.messageDao = messageDao;
+		this.maxId = messageDao.getMaxMessageId(Type.OUTBOUND, OUTBOX_STATUSES);
+		this.exhausted = this.maxId == 0;
+	}
+
+//> ACCESSORS
+	/** @return {@link #exhausted} */
+	boolean isExhausted() {
+		return exhausted;
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Loads the next page of messages from the backlog.
+	 * @param limit the maximum number of messages to load
+	 * @return the next messages in the backlog; empty if the backlog is exhausted
+	 */
+	List<FrontlineMessage> nextPage(int limit) {
+		if(exhausted) return Collections.emptyList();
+		List<FrontlineMessage> page = messageDao.getMessagesAfterId(Type.OUTBOUND, lastId, maxId, limit, OUTBOX_STATUSES);
+		if(page.size() < limit) {
+			exhausted = true;
+		}
+		if(!page.isEmpty()) {
+			lastId = page.get(page.size() - 1).getId();
+		}
+		return page;
+	}
+}
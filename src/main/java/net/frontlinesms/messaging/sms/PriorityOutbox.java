@@ -0,0 +1,118 @@
+/**
+ * 
+ */
+package net.frontlinesms.messaging.sms;
+
+import java.util.AbstractQueue;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.data.domain.FrontlineMessage.Priority;
+
+/**
+ * Queue of outgoing messages waiting to be sent.  Messages are taken from the queue in order of
+ * {@link FrontlineMessage#getPriority()}, so an auto-reply is not left waiting behind a large bulk
+ * send.  Messages of the same priority are taken in the order they were added.
+ *
+ * Unlike {@link ConcurrentLinkedQueue}, {@link #size()} takes constant time.
+ *
+ * This class is threadsafe.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class PriorityOutbox extends AbstractQueue<FrontlineMessage> {
+//> INSTANCE PROPERTIES
+	/** A queue for each priority, iterated in order of decreasing priority */
+	private final Map<Priority, ConcurrentLinkedQueue<FrontlineMessage>> queues = new EnumMap<Priority, ConcurrentLinkedQueue<FrontlineMessage>>(Priority.class);
+	/** The number of messages in the queue */
+	private final AtomicInteger size = new AtomicInteger();
+
+//> CONSTRUCTORS
+	/** Create a new, empty {@link PriorityOutbox}. */
+	public PriorityOutbox() {
+		for(Priority priority : Priority.values()) {
+			queues.put(priority, new ConcurrentLinkedQueue<FrontlineMessage>());
+		}
+	}
+
+//> QUEUE METHODS
+	/** @see java.util.Queue#offer(Object) */
+	public boolean offer(FrontlineMessage message) {
+		queues.get(message.getPriority()).add(message);
+		size.incrementAndGet();
+		return true;
+	}
+
+	/** @see java.util.Queue#poll() */
+	public FrontlineMessage poll() {
+		for(ConcurrentLinkedQueue<FrontlineMessage> queue : queues.values()) {
+			FrontlineMessage message = queue.poll();
+			if(message != null) {
+				size.decrementAndGet();
+				return message;
+			}
+		}
+		return null;
+	}
+
+	/** @see java.util.Queue#peek() */
+	public FrontlineMessage peek() {
+		for(ConcurrentLinkedQueue<FrontlineMessage> queue : queues.values()) {
+			FrontlineMessage message = queue.peek();
+			if(message != null) return message;
+		}
+		return null;
+	}
+
+	/** @see java.util.Collection#remove(Object) */
+	@Override
+	public boolean remove(Object o) {
+		for(ConcurrentLinkedQueue<FrontlineMessage> queue : queues.values()) {
+			if(queue.remove(o)) {
+				size.decrementAndGet();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** @see java.util.Collection#size() */
+	@Override
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Gets a weakly consistent iterator over the messages in the queue, in the order they will be taken.
+	 * @see java.util.Collection#iterator()
+	 */
+	@Override
+	public Iterator<FrontlineMessage> iterator() {
+		final Iterator<ConcurrentLinkedQueue<FrontlineMessage>> queueIterator = queues.values().iterator();
+		return new Iterator<FrontlineMessage>() {
+			/** Iterator over the queue currently being iterated */
+			private Iterator<FrontlineMessage> current = queueIterator.next().iterator();
+
+			public boolean hasNext() {
+				while(!current.hasNext() && queueIterator.hasNext()) {
+					current = queueIterator.next().iterator();
+				}
+				return current.hasNext();
+			}
+
+			public FrontlineMessage next() {
+				if(!hasNext()) throw new NoSuchElementException();
+				return current.next();
+			}
+
+			public void remove() {
+				current.remove();
+				size.decrementAndGet();
+			}
+		};
+	}
+}
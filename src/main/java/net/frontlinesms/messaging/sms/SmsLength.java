@@ -0,0 +1,181 @@
+/**
+ * 
+ */
+package net.frontlinesms.messaging.sms;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+
+import org.smslib.v3.helper.GSMAlphabet;
+
+/**
+ * The encoding an SMS message will be sent with, its length in that encoding, and the number of
+ * SMS parts it will be split into.
+ *
+ * Text is measured in a single pass.  A part of a multipart message loses 6 octets to the
+ * concatenation header, and characters which take two units (GSM extension table characters and
+ * UTF-16 surrogate pairs) are never split between parts, so the part count is exact.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public final class SmsLength {
+//> STATIC CONSTANTS
+	/** The maximum number of parts in a multipart SMS message */
+	public static final int MAX_PARTS = FrontlineMessage.SMS_LIMIT;
+
+	/** Encodings an SMS message can be sent with */
+	public enum Encoding {
+		/** The GSM 7-bit default alphabet, measured in septets */
+		GSM7(FrontlineMessage.SMS_LENGTH_LIMIT, FrontlineMessage.SMS_MULTIPART_LENGTH_LIMIT),
+		/** UCS-2, measured in UTF-16 code units */
+		UCS2(FrontlineMessage.SMS_LENGTH_LIMIT_UCS2, FrontlineMessage.SMS_MULTIPART_LENGTH_LIMIT_UCS2),
+		/** Binary data, measured in octets */
+		BINARY(FrontlineMessage.SMS_LENGTH_LIMIT_BINARY, FrontlineMessage.SMS_MULTIPART_LENGTH_LIMIT_BINARY);
+
+		/** The length that fits in a single SMS part */
+		private final int singlePartLimit;
+		/** The length that fits in one part of a multipart message */
+		private final int multipartLimit;
+
+		/**
+		 * @param singlePartLimit value for {@link #singlePartLimit}
+		 * @param multipartLimit value for {@link #multipartLimit}
+		 */
+		private Encoding(int singlePartLimit, int multipartLimit) {
+			this.singlePartLimit = singlePartLimit;
+			this.multipartLimit = multipartLimit;
+		}
+
+		/** @return {@link #singlePartLimit} */
+		public int getSinglePartLimit() {
+			return singlePartLimit;
+		}
+
+		/** @return {@link #multipartLimit} */
+		public int getMultipartLimit() {
+			return multipartLimit;
+		}
+	}
+
+//> INSTANCE PROPERTIES
+	/** The encoding the message will be sent with */
+	private final Encoding encoding;
+	/** The length of the message in {@link #encoding} */
+	private final int length;
+	/** The number of SMS parts the message will be sent in; <code>0</code> if the message is empty */
+	private final int partCount;
+	/** The length which can be added to the message before it needs another SMS part */
+	private final int remaining;
+
+//> CONSTRUCTORS
+	/**
+	 * @param encoding value for {@link #encoding}
+	 * @param length value for {@link #length}
+	 * @param partCount value for {@link #partCount}
+	 * @param remaining value for {@link #remaining}
+	 */
+	private SmsLength(Encoding encoding, int length, int partCount, int remaining) {
+		this.encoding = encoding;
+		this.length = length;
+		this.partCount = partCount;
+		this.remaining = remaining;
+	}
+
+//> ACCESSORS
+	/** @return {@link #encoding} */
+	public Encoding getEncoding() {
+		return encoding;
+	}
+
+	/** @return <code>true</code> if the message can be sent in the GSM 7-bit default alphabet */
+	public boolean isGsm7() {
+		return encoding == Encoding.GSM7;
+	}
+
+	/** @return {@link #length} */
+	public int getLength() {
+		return length;
+	}
+
+	/** @return {@link #partCount} */
+	public int getPartCount() {
+		return partCount;
+	}
+
+	/** @return {@link #remaining} */
+	public int getRemaining() {
+		return remaining;
+	}
+
+	/** @return <code>true</code> if the message is short enough to be sent */
+	public boolean isWithinPartLimit() {
+		return partCount <= MAX_PARTS;
+	}
+
+//> STATIC FACTORIES
+	/**
+	 * Measures a text message.  The message is sent as {@link Encoding#GSM7} if every character is in
+	 * the GSM default alphabet or its extension table, and as {@link Encoding#UCS2} otherwise.
+	 * @param text the text of the message
+	 * @return the length of the message
+	 */
+	public static SmsLength forText(String text) {
+		boolean gsm7 = true;
+		// Length and number of full multipart parts in each encoding, and the fill of the last part
+		int septets = 0, gsmParts = 0, gsmFill = 0;
+		int units = text.length(), ucs2Parts = 0, ucs2Fill = 0;
+		for(int i=0; i<units; ++i) {
+			char c = text.charAt(i);
+
+			if(gsm7) {
+				int width = GSMAlphabet.septetCount(c);
+				if(width == 0) {
+					gsm7 = false;
+				} else {
+					septets += width;
+					if(gsmFill + width > Encoding.GSM7.multipartLimit) {
+						++gsmParts;
+						gsmFill = 0;
+					}
+					gsmFill += width;
+				}
+			}
+
+			int width = Character.isHighSurrogate(c) && i+1 < units && Character.isLowSurrogate(text.charAt(i+1)) ? 2 : 1;
+			if(ucs2Fill + width > Encoding.UCS2.multipartLimit) {
+				++ucs2Parts;
+				ucs2Fill = 0;
+			}
+			ucs2Fill += width;
+			if(width == 2) ++i;
+		}
+
+		if(gsm7) return create(Encoding.GSM7, septets, gsmParts, gsmFill);
+		else return create(Encoding.UCS2, units, ucs2Parts, ucs2Fill);
+	}
+
+	/**
+	 * Measures a binary message.
+	 * @param octetCount the number of octets in the message
+	 * @return the length of the message
+	 */
+	public static SmsLength forBinary(int octetCount) {
+		int multipartLimit = Encoding.BINARY.multipartLimit;
+		int lastFill = octetCount % multipartLimit;
+		if(lastFill == 0 && octetCount > 0) lastFill = multipartLimit;
+		return create(Encoding.BINARY, octetCount, (octetCount - lastFill) / multipartLimit, lastFill);
+	}
+
+	/**
+	 * @param encoding the encoding of the message
+	 * @param length the length of the message
+	 * @param fullParts the number of full parts before the last part, if the message is sent as multipart
+	 * @param lastFill the length of the last part, if the message is sent as multipart
+	 * @return the length of the message
+	 */
+	private static SmsLength create(Encoding encoding, int length, int fullParts, int lastFill) {
+		if(length <= encoding.singlePartLimit) {
+			return new SmsLength(encoding, length, length == 0 ? 0 : 1, encoding.singlePartLimit - length);
+		} else {
+			return new SmsLength(encoding, length, fullParts + 1, encoding.multipartLimit - lastFill);
+		}
+	}
+}
@@ -46,4 +46,13 @@ public interface SmsService extends FrontlineMessagingService {
 	 * FIXME this method is unnecessary as all handsets support UCS-2 so far!
 	 */
 	public boolean isUcs2SendingSupported();
+
+	/** Gets the number of messages waiting in this device's outbox to be sent. */
+	public int getOutboxSize();
+	
+	/**
+	 * Gets an estimate of the number of messages this device can send per minute while it is busy,
+	 * based on how long recent sends have taken where possible.
+	 */
+	public double getSendCapacityPerMinute();
 }
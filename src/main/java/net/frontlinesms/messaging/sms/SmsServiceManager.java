@@ -24,16 +24,22 @@ import java.util.concurrent.*;
 
 import serial.*;
 
+import net.frontlinesms.AppProperties;
 import net.frontlinesms.CommUtils;
 import net.frontlinesms.FrontlineUtils;
 import net.frontlinesms.data.domain.FrontlineMessage;
 import net.frontlinesms.data.domain.FrontlineMessage.Status;
 import net.frontlinesms.data.domain.PersistableSettings;
+import net.frontlinesms.data.repository.MessageDao;
 import net.frontlinesms.events.EventBus;
 import net.frontlinesms.events.EventObserver;
 import net.frontlinesms.events.FrontlineEventNotification;
 import net.frontlinesms.listener.SmsListener;
 import net.frontlinesms.messaging.CommProperties;
+import net.frontlinesms.messaging.sms.dispatch.CostAwareDispatchStrategy;
+import net.frontlinesms.messaging.sms.dispatch.LeastQueuedDispatchStrategy;
+import net.frontlinesms.messaging.sms.dispatch.SmsDispatchStrategy;
+import net.frontlinesms.messaging.sms.dispatch.ThroughputWeightedDispatchStrategy;
 import net.frontlinesms.messaging.sms.events.*;
 import net.frontlinesms.messaging.sms.internet.SmsInternetService;
 import net.frontlinesms.messaging.sms.modem.SmsModem;
@@ -42,7 +48,6 @@ import net.frontlinesms.messaging.sms.modem.SmsModemStatus;
 import org.apache.log4j.Logger;
 import org.smslib.CIncomingMessage;
 import org.smslib.handler.CATHandler;
-import org.smslib.util.GsmAlphabet;
 
 /**
  * SmsHandler should be run as a separate thread.
@@ -81,11 +86,15 @@ import org.smslib.util.GsmAlphabet;
  */
 public class SmsServiceManager extends Thread implements SmsListener, EventObserver  {
 	/** List of GSM 7bit text messages queued to be sent. */
-	private final ConcurrentLinkedQueue<FrontlineMessage> gsm7bitOutbox = new ConcurrentLinkedQueue<FrontlineMessage>();
+	private final PriorityOutbox gsm7bitOutbox = new PriorityOutbox();
 	/** List of UCS2 text messages queued to be sent. */
-	private final ConcurrentLinkedQueue<FrontlineMessage> ucs2Outbox = new ConcurrentLinkedQueue<FrontlineMessage>();
+	private final PriorityOutbox ucs2Outbox = new PriorityOutbox();
 	/** List of binary messages queued to be sent. */
-	private final ConcurrentLinkedQueue<FrontlineMessage> binOutbox = new ConcurrentLinkedQueue<FrontlineMessage>();
+	private final PriorityOutbox binOutbox = new PriorityOutbox();
+	/** Messages left in the outbox when FrontlineSMS was last shut down which have not been loaded yet, or <code>null</code> if there are none */
+	private volatile OutboxBacklog outboxBacklog;
+	/** IDs of messages loaded from {@link #outboxBacklog} which have not yet been sent or failed */
+	private final Set<Long> restoredMessageIds = Collections.synchronizedSet(new HashSet<Long>());
 	/** List of phone handlers that this manager is currently looking after. */
 	private final ConcurrentMap<String, SmsModem> phoneHandlers = new ConcurrentHashMap<String, SmsModem>();
 	/** List of SMS internet services, the map key being the database ID of their settings */
@@ -96,7 +105,7 @@ public class SmsServiceManager extends Thread implements SmsListener, EventObser
 	/** Listener for application events */
 	private final EventBus eventBus;
 	/** Flag indicating that the thread should continue running. */
-	private boolean running;	
+	private volatile boolean running;	
 	/** If set TRUE, then thread will automatically try to connect to newly-detected devices. */ 
 	private boolean autoConnectToNewPhones;
 	private boolean refreshPhoneList;
@@ -108,10 +117,18 @@ public class SmsServiceManager extends Thread implements SmsListener, EventObser
 	 */
 	private final HashSet<String> connectedSerials = new HashSet<String>();
 	private String[] portIgnoreList;
-	/** Counter used for choosing which SMS device to send messages with next.
-	 * TODO we should use different counters for different types of messages, and also
-	 * for SMS internet services vs. phones. */
-	private int globalDispatchCounter;
+	/** Strategy used for choosing which SMS device to send each message with */
+	private volatile SmsDispatchStrategy dispatchStrategy;
+	/**
+	 * Permits released when there may be messages to dispatch or receive, waking {@link #run()}.
+	 * @see #signalWork()
+	 */
+	private final Semaphore workSignal = new Semaphore(0);
+
+	/** Time, in milliseconds, that {@link #run()} waits to be signalled before checking the outboxes and inboxes anyway. */
+	private static final long FALLBACK_RUN_INTERVAL = 1000;
+	/** The maximum number of messages from {@link #outboxBacklog} waiting to be sent at any time */
+	private static final int OUTBOX_RESTORE_WINDOW = 1000;
 
 	private static Logger LOG = FrontlineUtils.getLogger(SmsServiceManager.class);
 
@@ -129,6 +146,27 @@ public class SmsServiceManager extends Thread implements SmsListener, EventObser
 		// Load the COMM properties file, and extract the IGNORE list from
 		// it - this is a list of COM ports that should be ignored.		
 		this.portIgnoreList = CommProperties.getInstance().getIgnoreList();
+		
+		this.dispatchStrategy = createDispatchStrategy(AppProperties.getInstance());
+	}
+	
+	/**
+	 * Creates the {@link SmsDispatchStrategy} configured in the application properties.
+	 * @param properties the application properties
+	 * @return the strategy named by {@link AppProperties#getSmsDispatchStrategy()}, or a {@link ThroughputWeightedDispatchStrategy} if that is not recognised
+	 */
+	private static SmsDispatchStrategy createDispatchStrategy(AppProperties properties) {
+		String strategy = properties.getSmsDispatchStrategy();
+		if(AppProperties.SMS_DISPATCH_LEAST_QUEUED.equals(strategy)) {
+			return new LeastQueuedDispatchStrategy();
+		} else if(AppProperties.SMS_DISPATCH_COST.equals(strategy)) {
+			return new CostAwareDispatchStrategy(properties.getSmsDispatchCosts(), properties.getSmsDispatchMaxDelay() * 1000L);
+		} else {
+			if(!AppProperties.SMS_DISPATCH_THROUGHPUT.equals(strategy)) {
+				LOG.warn("Unrecognised SMS dispatch strategy [" + strategy + "].  Using [" + AppProperties.SMS_DISPATCH_THROUGHPUT + "].");
+			}
+			return new ThroughputWeightedDispatchStrategy();
+		}
 	}
 
 //> INTERNAL/THREAD HANDLING METHODS
@@ -136,15 +174,35 @@ public class SmsServiceManager extends Thread implements SmsListener, EventObser
 		LOG.trace("ENTER");
 		running = true;
 		while (running) {
-			// Sleep for a second to ensure lists are not constantly being reshuffled.  Processing dispatch
-			// and received messages is not really time-critical, otherwise it might be worth sleeping for
-			// less time.
-			FrontlineUtils.sleep_ignoreInterrupts(1000);
+			// Wait until there is something to do.  Services which change state without us being
+			// notified are still picked up after FALLBACK_RUN_INTERVAL.
+			awaitWork();
 			
-			doRun();
+			if(running) doRun();
 		}
 		LOG.trace("EXIT");
 	}
+	
+	/**
+	 * Wait for {@link #signalWork()} to be called, or for {@link #FALLBACK_RUN_INTERVAL} to pass.
+	 * THREAD: SmsDeviceManager
+	 */
+	private void awaitWork() {
+		try {
+			workSignal.tryAcquire(FALLBACK_RUN_INTERVAL, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException ex) {
+			// Carry on; the caller will check if we should still be running
+		}
+		// Signals received up to now will all be handled by the next run
+		workSignal.drainPermits();
+	}
+	
+	/** Wake {@link #run()}, as there may be messages to dispatch or receive. */
+	private void signalWork() {
+		if(workSignal.availablePermits() == 0) {
+			workSignal.release();
+		}
+	}
 
 	/**
 	 * Run the looped behaviour from {@link #run()} once.
@@ -157,7 +215,10 @@ public class SmsServiceManager extends Thread implements SmsListener, EventObser
 			// N.B. why is this not using the value from autoConnectToNewPhones? 
 			listComPortsAndOwners(autoConnectToNewPhones);
 			refreshPhoneList = false;
+			// Messages were not dispatched or received this time, so make sure we run again promptly
+			signalWork();
 		} else {
+			restoreFromBacklog();
 			dispatchSms(MessageType.GSM7BIT_TEXT);
 			dispatchSms(MessageType.UCS2_TEXT);
 			dispatchSms(MessageType.BINARY);
@@ -178,6 +239,7 @@ public class SmsServiceManager extends Thread implements SmsListener, EventObser
 	public void refreshPhoneList(boolean autoConnectToNewPhones) {
 		this.autoConnectToNewPhones = autoConnectToNewPhones;
 		refreshPhoneList = true;
+		signalWork();
 	}
 
 	/**
@@ -245,15 +307,68 @@ public class SmsServiceManager extends Thread implements SmsListener, EventObser
 		default: throw new IllegalStateException();
 		}
 		
+		signalWork();
+		
 		if (smsListener != null) smsListener.outgoingMessageEvent(null, outgoingMessage);
 		LOG.trace("EXIT");
 	}
 
+	/**
+	 * Queues the messages which were waiting to be sent when FrontlineSMS was last shut down.  Messages are
+	 * loaded from the database gradually, no more than {@link #OUTBOX_RESTORE_WINDOW} at a time, so a
+	 * large outbox does not have to be held in memory.  Messages created after this method is called
+	 * are not included.
+	 * @param messageDao DAO to load the messages from
+	 */
+	public void restoreOutbox(MessageDao messageDao) {
+		OutboxBacklog backlog = new OutboxBacklog(messageDao);
+		if(!backlog.isExhausted()) {
+			this.outboxBacklog = backlog;
+			signalWork();
+		}
+	}
+	
+	/**
+	 * Queues the next page of messages from {@link #outboxBacklog}, if enough of those already
+	 * loaded have been sent.
+	 * THREAD: SmsDeviceManager
+	 */
+	private void restoreFromBacklog() {
+		OutboxBacklog backlog = this.outboxBacklog;
+		if(backlog == null) return;
+		
+		int space = OUTBOX_RESTORE_WINDOW - restoredMessageIds.size();
+		// Load messages in reasonably large pages, rather than a few at a time
+		if(space >= OUTBOX_RESTORE_WINDOW / 2) {
+			List<FrontlineMessage> page = backlog.nextPage(space);
+			LOG.debug("Restoring " + page.size() + " messages to the outbox.");
+			for(FrontlineMessage m : page) {
+				restoredMessageIds.add(m.getId());
+				sendSMS(m);
+			}
+			if(backlog.isExhausted()) {
+				this.outboxBacklog = null;
+			}
+		}
+	}
+	
+	/**
+	 * Stops tracking a message loaded from {@link #outboxBacklog} once it is no longer waiting to be sent,
+	 * making space for more messages to be loaded.
+	 * @param message
+	 */
+	private void releaseRestoredMessage(FrontlineMessage message) {
+		if(restoredMessageIds.remove(message.getId())) {
+			signalWork();
+		}
+	}
+
 	/**
 	 * Remove the supplied message from outbox.
 	 * @param deleted
 	 */
 	public void removeFromOutbox(FrontlineMessage deleted) {
+		releaseRestoredMessage(deleted);
 		if(gsm7bitOutbox.remove(deleted)) {
 			if(LOG.isDebugEnabled()) LOG.debug("Message [" + deleted + "] removed from gsm7bitOutbox. Size is [" + gsm7bitOutbox.size() + "]");
 		} else if(ucs2Outbox.remove(deleted)) {
@@ -284,10 +399,17 @@ public class SmsServiceManager extends Thread implements SmsListener, EventObser
 		}
 		
 		this.eventBus.unregisterObserver(this);
+		signalWork();
 	}
 
 //> EVENT HANDLING METHODS
 	public void notify(FrontlineEventNotification notification) {
+		if(notification instanceof SmsModemInboxNotification
+				|| notification instanceof SmsServiceStatusNotification<?, ?>) {
+			// Messages may have been received, or a service may have become available for sending
+			signalWork();
+		}
+		
 		if(notification instanceof SmsModemStatusNotification) {
 			SmsModemStatus deviceStatus = ((SmsModemStatusNotification) notification).getStatus();
 			LOG.debug("Event [" + deviceStatus + "]");
@@ -331,6 +453,9 @@ public class SmsServiceManager extends Thread implements SmsListener, EventObser
 				sendSMS(msg);
 			}
 		}
+		if (msg.getStatus() != Status.OUTBOX && msg.getStatus() != Status.PENDING) {
+			releaseRestoredMessage(msg);
+		}
 	}
 
 	public boolean hasPhoneConnected(String port) {
@@ -633,33 +758,36 @@ public class SmsServiceManager extends Thread implements SmsListener, EventObser
 
 //> SMS DISPATCH METHODS
 	
+	/** @return {@link #dispatchStrategy} */
+	public SmsDispatchStrategy getDispatchStrategy() {
+		return dispatchStrategy;
+	}
+
+	/** @param dispatchStrategy new value for {@link #dispatchStrategy} */
+	public void setDispatchStrategy(SmsDispatchStrategy dispatchStrategy) {
+		this.dispatchStrategy = dispatchStrategy;
+	}
+
 	/**
 	 * @param messageType The type of messages which should be dispatched.
 	 * The right list is chosen using this type.
 	 * THREAD: SmsDeviceManager
 	 */
 	private void dispatchSms(MessageType messageType) {
-		ConcurrentLinkedQueue<FrontlineMessage> outboxFromType = getOutboxFromType(messageType);
+		PriorityOutbox outboxFromType = getOutboxFromType(messageType);
 		List<FrontlineMessage> messages = removeAll(outboxFromType);
 		if(messages.size() > 0) {
-			// Try dispatching to SmsInternetServices
-			List<SmsInternetService> internetServices = getSmsInternetServicesForSending(messageType);
-			int serviceCount = internetServices.size();
-			if(serviceCount > 0) {
-				// We have some SMS Internet services to send with.  These are assumed to be higher priority
-				// than Sms Modems, so send all messages with the internet services.
-				dispatchSms(internetServices, messages);
+			// Share the messages between all SMS Internet Services and SmsModems which can send them
+			List<SmsService> senders = new ArrayList<SmsService>();
+			senders.addAll(getSmsInternetServicesForSending(messageType));
+			senders.addAll(getSmsModemsForSending(messageType));
+			if(senders.size() > 0) {
+				dispatchSms(senders, messages);
 			} else {
-				// There are no available SMS Internet Services, so dispatch to SmsModems
-				List<SmsModem> sendingModems = getSmsModemsForSending(messageType);
-				if(sendingModems.size() > 0) {
-					dispatchSms(sendingModems, messages);
-				} else {
-					// The messages cannot be sent
-					// We put them back in their outbox 
-					outboxFromType.addAll(messages);
-				}
-			}		
+				// The messages cannot be sent
+				// We put them back in their outbox 
+				outboxFromType.addAll(messages);
+			}
 		}
 	}
 	
@@ -668,7 +796,7 @@ public class SmsServiceManager extends Thread implements SmsListener, EventObser
 	 * @param messageType The {@link MessageType}
 	 * @return The outbox corresponding to the {@link MessageType}
 	 */
-	private ConcurrentLinkedQueue<FrontlineMessage> getOutboxFromType(MessageType messageType) {
+	private PriorityOutbox getOutboxFromType(MessageType messageType) {
 		switch (messageType) {
 			case BINARY:
 				return binOutbox;
@@ -681,15 +809,16 @@ public class SmsServiceManager extends Thread implements SmsListener, EventObser
 	}
 
 	/**
-	 * Dispatch some SMS {@link FrontlineMessage}s to some {@link SmsService}s. 
+	 * Dispatch some SMS {@link FrontlineMessage}s to some {@link SmsService}s, choosing the device
+	 * for each message with {@link #dispatchStrategy}.
 	 * @param devices
 	 * @param messages
 	 * THREAD: SmsDeviceManager
 	 */
 	private void dispatchSms(List<? extends SmsService> devices, List<FrontlineMessage> messages) {
-		int deviceCount = devices.size();
+		SmsDispatchStrategy dispatchStrategy = this.dispatchStrategy;
 		for(FrontlineMessage m : messages) {
-			SmsService device = devices.get(++globalDispatchCounter % deviceCount);
+			SmsService device = dispatchStrategy.choose(devices, m);
 			// Presumably the device will complain somehow if it is no longer connected
 			// etc.  TODO we should actually check what happens!
 			device.sendSMS(m);
@@ -697,8 +826,8 @@ public class SmsServiceManager extends Thread implements SmsListener, EventObser
 		}
 	}
 
-	/** Removes and returns all messages currently available in a list. */
-	private List<FrontlineMessage> removeAll(ConcurrentLinkedQueue<FrontlineMessage> outbox) {
+	/** Removes and returns all messages currently available in a list, highest priority first. */
+	private List<FrontlineMessage> removeAll(PriorityOutbox outbox) {
 		LinkedList<FrontlineMessage> retrieved = new LinkedList<FrontlineMessage>();
 		FrontlineMessage m;
 		while((m=outbox.poll())!=null) retrieved.add(m);
@@ -792,7 +921,7 @@ enum MessageType {
 	public static MessageType get(FrontlineMessage message) {
 		if(message.isBinaryMessage()) {
 			return BINARY;
-		} else if(GsmAlphabet.areAllCharactersValidGSM(message.getTextContent())) {
+		} else if(SmsLength.forText(message.getTextContent()).isGsm7()) {
 			return GSM7BIT_TEXT;
 		} else {
 			return UCS2_TEXT;
@@ -0,0 +1,120 @@
+/**
+ * 
+ */
+package net.frontlinesms.messaging.sms.dispatch;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.messaging.sms.SmsService;
+import net.frontlinesms.messaging.sms.internet.SmsInternetService;
+import net.frontlinesms.messaging.sms.modem.SmsModem;
+
+/**
+ * {@link SmsDispatchStrategy} which sends each message with the cheapest service that is expected to
+ * send it within {@link #maxDelay}.  More expensive services are only used once the cheaper ones are
+ * backed up.  If every service is backed up, the message goes to whichever will send it soonest.
+ * 
+ * Costs are looked up by service key: {@link #COST_KEY_MODEM}, '.' and a modem's serial number, or
+ * {@link #COST_KEY_INTERNET_SERVICE}, '.' and an internet service's identifier.  Services without a
+ * cost of their own use the cost under {@link #COST_KEY_MODEM} or {@link #COST_KEY_INTERNET_SERVICE}
+ * alone, or <code>0</code> if that is not set either.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class CostAwareDispatchStrategy implements SmsDispatchStrategy {
+//> STATIC CONSTANTS
+	/** Key for the cost of sending with modems */
+	public static final String COST_KEY_MODEM = "modem";
+	/** Key for the cost of sending with {@link SmsInternetService}s */
+	public static final String COST_KEY_INTERNET_SERVICE = "internet";
+
+//> INSTANCE PROPERTIES
+	/** The cost of sending a message with each service, and each type of service, keyed as described in the class comment */
+	private final Map<String, Double> costs;
+	/** The longest time, in minutes, a message should wait for a cheaper service */
+	private final double maxDelay;
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new {@link CostAwareDispatchStrategy} which only distinguishes modems from internet services.
+	 * @param modemCost the cost of sending a message with a modem
+	 * @param internetServiceCost the cost of sending a message with an {@link SmsInternetService}
+	 * @param maxDelayMillis the longest time, in milliseconds, a message should wait for a cheaper service
+	 */
+	public CostAwareDispatchStrategy(double modemCost, double internetServiceCost, long maxDelayMillis) {
+		this(createCosts(modemCost, internetServiceCost), maxDelayMillis);
+	}
+
+	/**
+	 * Create a new {@link CostAwareDispatchStrategy}.
+	 * @param costs value for {@link #costs}
+	 * @param maxDelayMillis the longest time, in milliseconds, a message should wait for a cheaper service
+	 */
+	public CostAwareDispatchStrategy(Map<String, Double> costs, long maxDelayMillis) {
+		this.costs = new HashMap<String, Double>(costs);
+		this.maxDelay = maxDelayMillis / 60000.0;
+	}
+
+//> INSTANCE METHODS
+	/** @see SmsDispatchStrategy#choose(List, FrontlineMessage) */
+	public SmsService choose(List<? extends SmsService> services, FrontlineMessage message) {
+		SmsService cheapest = null;
+		double cheapestCost = 0;
+		double cheapestDelay = 0;
+		SmsService soonest = null;
+		double soonestDelay = 0;
+		for(SmsService service : services) {
+			double delay = ThroughputWeightedDispatchStrategy.getExpectedDelay(service);
+			if(soonest == null || delay < soonestDelay) {
+				soonest = service;
+				soonestDelay = delay;
+			}
+			if(delay <= maxDelay) {
+				double cost = getCost(service);
+				if(cheapest == null || cost < cheapestCost
+						|| (cost == cheapestCost && delay < cheapestDelay)) {
+					cheapest = service;
+					cheapestCost = cost;
+					cheapestDelay = delay;
+				}
+			}
+		}
+		return cheapest != null ? cheapest : soonest;
+	}
+
+	/**
+	 * @param service a service
+	 * @return the cost of sending a message with the service
+	 */
+	protected double getCost(SmsService service) {
+		String typeKey = service instanceof SmsInternetService ? COST_KEY_INTERNET_SERVICE : COST_KEY_MODEM;
+		Double cost = costs.get(typeKey + "." + getServiceId(service));
+		if(cost == null) cost = costs.get(typeKey);
+		return cost == null ? 0 : cost;
+	}
+
+//> STATIC HELPER METHODS
+	/**
+	 * @param service a service
+	 * @return the serial number of a modem, or the identifier of an internet service
+	 */
+	private static String getServiceId(SmsService service) {
+		if(service instanceof SmsModem) return ((SmsModem) service).getSerial();
+		if(service instanceof SmsInternetService) return ((SmsInternetService) service).getIdentifier();
+		return null;
+	}
+
+	/**
+	 * @param modemCost the cost of sending a message with a modem
+	 * @param internetServiceCost the cost of sending a message with an {@link SmsInternetService}
+	 * @return costs for {@link #costs} which only distinguish modems from internet services
+	 */
+	private static Map<String, Double> createCosts(double modemCost, double internetServiceCost) {
+		Map<String, Double> costs = new HashMap<String, Double>();
+		costs.put(COST_KEY_MODEM, modemCost);
+		costs.put(COST_KEY_INTERNET_SERVICE, internetServiceCost);
+		return costs;
+	}
+}
@@ -0,0 +1,20 @@
+/**
+ * 
+ */
+package net.frontlinesms.messaging.sms.dispatch;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.messaging.sms.SmsService;
+
+/**
+ * {@link SmsDispatchStrategy} which sends each message with the service which has the fewest
+ * messages waiting in its outbox.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class LeastQueuedDispatchStrategy extends ScoredDispatchStrategy {
+	/** @see ScoredDispatchStrategy#score(SmsService, FrontlineMessage) */
+	@Override
+	protected double score(SmsService service, FrontlineMessage message) {
+		return service.getOutboxSize();
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * 
+ */
+package net.frontlinesms.messaging.sms.dispatch;
+
+import java.util.List;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.messaging.sms.SmsService;
+
+/**
+ * {@link SmsDispatchStrategy} which sends each message with the service which has the lowest score.
+ * Ties are broken in turn, so equally loaded services share messages evenly.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public abstract class ScoredDispatchStrategy implements SmsDispatchStrategy {
+//> INSTANCE PROPERTIES
+	/** The index of the service to consider first next time, so that ties are not always won by the same service */
+	private int offset;
+
+//> INSTANCE METHODS
+	/** @see SmsDispatchStrategy#choose(List, FrontlineMessage) */
+	public SmsService choose(List<? extends SmsService> services, FrontlineMessage message) {
+		int serviceCount = services.size();
+		offset = (offset + 1) % serviceCount;
+		SmsService best = null;
+		double bestScore = 0;
+		for(int i=0; i<serviceCount; ++i) {
+			SmsService service = services.get((offset + i) % serviceCount);
+			double score = score(service, message);
+			if(best == null || score < bestScore) {
+				best = service;
+				bestScore = score;
+			}
+		}
+		return best;
+	}
+
+//> ABSTRACT METHODS
+	/**
+	 * @param service a service which could send the message
+	 * @param message the message to send
+	 * @return the score of the service for sending the message; lower is better
+	 */
+	protected abstract double score(SmsService service, FrontlineMessage message);
+}
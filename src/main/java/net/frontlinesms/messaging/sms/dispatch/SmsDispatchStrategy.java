@@ -0,0 +1,29 @@
+/**
+ * 
+ */
+package net.frontlinesms.messaging.sms.dispatch;
+
+import java.util.List;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.messaging.sms.SmsService;
+
+/**
+ * Strategy used by {@link net.frontlinesms.messaging.sms.SmsServiceManager} to choose which
+ * {@link SmsService} should send each outgoing message.
+ * 
+ * Messages are dispatched one at a time, and each is added to the chosen service's outbox before
+ * the next is dispatched, so {@link SmsService#getOutboxSize()} reflects earlier choices.
+ * 
+ * THREAD: implementations are only called from the SmsServiceManager thread, so need not be threadsafe.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public interface SmsDispatchStrategy {
+	/**
+	 * Chooses the service which should send a message.
+	 * @param services the services available to send the message.  This will never be empty.
+	 * @param message the message to send
+	 * @return one of the supplied services
+	 */
+	public SmsService choose(List<? extends SmsService> services, FrontlineMessage message);
+}
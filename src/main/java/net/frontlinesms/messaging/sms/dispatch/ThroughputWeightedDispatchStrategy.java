@@ -0,0 +1,32 @@
+/**
+ * 
+ */
+package net.frontlinesms.messaging.sms.dispatch;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.messaging.sms.SmsService;
+
+/**
+ * {@link SmsDispatchStrategy} which sends each message with the service expected to send it soonest,
+ * judged by the length of each service's outbox and how quickly it has been sending.  Faster services
+ * are given proportionally more messages, so a mix of modems and internet services are all kept busy.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class ThroughputWeightedDispatchStrategy extends ScoredDispatchStrategy {
+	/** @see ScoredDispatchStrategy#score(SmsService, FrontlineMessage) */
+	@Override
+	protected double score(SmsService service, FrontlineMessage message) {
+		return getExpectedDelay(service);
+	}
+
+//> STATIC HELPER METHODS
+	/**
+	 * @param service a service
+	 * @return the time, in minutes, the service is expected to take to send everything in its outbox and one more message
+	 */
+	static double getExpectedDelay(SmsService service) {
+		double capacity = service.getSendCapacityPerMinute();
+		if(capacity <= 0) return Double.MAX_VALUE;
+		return (service.getOutboxSize() + 1) / capacity;
+	}
+}
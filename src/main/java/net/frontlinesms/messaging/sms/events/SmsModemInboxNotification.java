@@ -0,0 +1,26 @@
+/**
+ * 
+ */
+package net.frontlinesms.messaging.sms.events;
+
+import net.frontlinesms.events.FrontlineEventNotification;
+import net.frontlinesms.messaging.sms.modem.SmsModem;
+
+/**
+ * Notification that an {@link SmsModem} has received messages, which are waiting to be collected
+ * with {@link SmsModem#nextIncomingMessage()}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SmsModemInboxNotification implements FrontlineEventNotification {
+	/** The modem which has received messages */
+	private final SmsModem modem;
+	
+	public SmsModemInboxNotification(SmsModem modem) {
+		this.modem = modem;
+	}
+	
+	/** @return {@link #modem} */
+	public SmsModem getModem() {
+		return modem;
+	}
+}
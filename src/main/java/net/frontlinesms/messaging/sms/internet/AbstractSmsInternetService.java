@@ -19,15 +19,24 @@
  */
 package net.frontlinesms.messaging.sms.internet;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import net.frontlinesms.FrontlineUtils;
 import net.frontlinesms.data.domain.*;
 import net.frontlinesms.data.domain.FrontlineMessage.Status;
 import net.frontlinesms.events.EventBus;
 import net.frontlinesms.listener.SmsListener;
+import net.frontlinesms.messaging.sms.PriorityOutbox;
 import net.frontlinesms.messaging.sms.events.SmsInternetServiceStatusNotification;
 import net.frontlinesms.serviceconfig.ConfigurableService;
+import net.frontlinesms.serviceconfig.ConfigurableServiceProperties;
 
 import org.apache.log4j.Logger;
 
@@ -48,12 +57,18 @@ public abstract class AbstractSmsInternetService implements SmsInternetService {
 	protected static final String PROPERTY_USE_FOR_RECEIVING = "common.use.for.receiving";
 	/** Separator used while displaying the name in the UI */
 	protected static final String UI_NAME_SEPARATOR = "@";
+	/** Time, in milliseconds, between attempts to receive messages */
+	private static final long RECEIVE_INTERVAL = 5000;
+	/** Estimate of the number of messages a single request slot can send per minute, used until sends have been measured */
+	private static final double DEFAULT_SEND_CAPACITY_PER_MINUTE = 60;
+	/** The weight given to the latest send when updating {@link #recentSendTimePerMessage} */
+	private static final double RECENT_WEIGHT = 0.2;
 	
 //> INSTANCE PROPERTIES
 	/** The active thread running this service */
-	private SmsInternetServiceThread thread;
-	/** Queue of SMS messages waiting to be sent with this service */
-	protected ConcurrentLinkedQueue<FrontlineMessage> outbox = new ConcurrentLinkedQueue<FrontlineMessage>();
+	private volatile SmsInternetServiceThread thread;
+	/** Queue of SMS messages waiting to be sent with this service, taken in order of priority */
+	protected final PriorityOutbox outbox = new PriorityOutbox();
 	/** The SmsListener to which this phone handler should report SMS Message events. */
 	protected SmsListener smsListener;
 	protected EventBus eventBus;
@@ -63,14 +78,50 @@ public abstract class AbstractSmsInternetService implements SmsInternetService {
 	private SmsInternetServiceStatus status = SmsInternetServiceStatus.DORMANT;
 	/** Extra info relating to the current status. */
 	private String statusDetail;
+	/** Signal used to wake {@link #thread} when there may be messages to send */
+	private final Semaphore workSignal = new Semaphore(0);
+	/** Moving average of the time, in milliseconds, recent requests have taken per message sent, or <code>0</code> if nothing has been sent yet */
+	private double recentSendTimePerMessage;
 
 //> ACCESSOR METHODS
 	
 	/** @return This internet service outbox. */
-	public ConcurrentLinkedQueue<FrontlineMessage> getOutbox() {
+	public PriorityOutbox getOutbox() {
 		return outbox;
 	}
 	
+	/** @see net.frontlinesms.messaging.sms.SmsService#getOutboxSize() */
+	public int getOutboxSize() {
+		return outbox.size();
+	}
+	
+	/**
+	 * Estimates capacity from the time recent requests have taken, assuming as many requests are
+	 * made at once as the service currently allows.
+	 * @see net.frontlinesms.messaging.sms.SmsService#getSendCapacityPerMinute()
+	 */
+	public double getSendCapacityPerMinute() {
+		SmsInternetServiceThread thread = this.thread;
+		int concurrentSends = thread == null ? 1 : thread.sendWindow.getSize();
+		double timePerMessage;
+		synchronized (this) {
+			timePerMessage = recentSendTimePerMessage;
+		}
+		double perSlot = timePerMessage > 0 ? 60000 / timePerMessage : DEFAULT_SEND_CAPACITY_PER_MINUTE;
+		return perSlot * concurrentSends;
+	}
+	
+	/**
+	 * Updates {@link #recentSendTimePerMessage} after a request has completed.
+	 * @param messageCount the number of messages sent in the request
+	 * @param duration the time, in milliseconds, the request took
+	 */
+	private synchronized void recordSendTime(int messageCount, long duration) {
+		double timePerMessage = Math.max(1, duration) / (double) messageCount;
+		recentSendTimePerMessage = recentSendTimePerMessage <= 0 ? timePerMessage
+				: (1 - RECENT_WEIGHT) * recentSendTimePerMessage + RECENT_WEIGHT * timePerMessage;
+	}
+	
 	/** @return the settings attached to this {@link SmsInternetService} instance. */
 	public PersistableSettings getSettings() {
 		return settings;
@@ -127,6 +178,17 @@ public abstract class AbstractSmsInternetService implements SmsInternetService {
 	 */
 	public void sendSMS(FrontlineMessage outgoingMessage) {
 		LOG.trace("ENTER");
+		addToOutbox(outgoingMessage);
+		LOG.debug("Message added to outbox. Size is [" + outbox.size() + "]");
+		signalWork();
+		LOG.trace("EXIT");
+	}
+	
+	/**
+	 * Marks the supplied message as pending and adds it to {@link #outbox}.
+	 * @param outgoingMessage
+	 */
+	private void addToOutbox(FrontlineMessage outgoingMessage) {
 		outgoingMessage.setStatus(Status.PENDING);
 		outgoingMessage.setSenderMsisdn(getMsisdn());
 		
@@ -134,8 +196,6 @@ public abstract class AbstractSmsInternetService implements SmsInternetService {
 		if (smsListener != null) {
 			smsListener.outgoingMessageEvent(this, outgoingMessage);
 		}
-		LOG.debug("Message added to outbox. Size is [" + outbox.size() + "]");
-		LOG.trace("EXIT");
 	}
 	
 	/**
@@ -163,6 +223,7 @@ public abstract class AbstractSmsInternetService implements SmsInternetService {
 		LOG.trace("ENTER");
 		setStatus(SmsInternetServiceStatus.DISCONNECTED, null);
 		this.thread.running = false;
+		signalWork();
 		LOG.trace("EXIT");
 	}
 	
@@ -204,14 +265,85 @@ public abstract class AbstractSmsInternetService implements SmsInternetService {
 	public void stopService() {
 		deinit();
 		if(this.thread != null) this.thread.running = false;
+		signalWork();
+	}
+	
+	/** Wakes {@link #thread} if it is waiting for work. */
+	private void signalWork() {
+		if(workSignal.availablePermits() == 0) {
+			workSignal.release();
+		}
+	}
+	
+	/**
+	 * Waits until {@link #signalWork()} is called, or the timeout elapses.
+	 * @param timeout maximum time to wait, in milliseconds
+	 */
+	private void awaitWork(long timeout) {
+		try {
+			workSignal.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException ex) {
+			// Interruptions are ignored, as with the fixed sleeps this replaces
+		}
+		workSignal.drainPermits();
+	}
+	
+	/**
+	 * Checks whether two messages can be sent to the provider in a single request.
+	 * @param first
+	 * @param other
+	 * @return <code>true</code> if both messages are text messages with the same content, sent to the default port
+	 */
+	static boolean isBatchable(FrontlineMessage first, FrontlineMessage other) {
+		return !first.isBinaryMessage() && !other.isBinaryMessage()
+				&& first.getRecipientSmsPort() == 0 && other.getRecipientSmsPort() == 0
+				&& first.getTextContent().equals(other.getTextContent());
+	}
+	
+	/** @return the {@link ConfigurableServiceProperties} declared on this service's class, or <code>null</code> if there are none */
+	private ConfigurableServiceProperties getServiceProperties() {
+		return getClass().getAnnotation(ConfigurableServiceProperties.class);
 	}
 	
+	/**
+	 * Thread which dispatches messages from {@link #outbox} and receives messages for this service.
+	 * 
+	 * Messages are sent by a pool of up to {@link ConfigurableServiceProperties#maxConcurrentSends()} worker
+	 * threads.  The number sent at once is limited by an {@link AdaptiveSendWindow}, which backs off when
+	 * sends fail, and the rate at which messages are sent is limited to
+	 * {@link ConfigurableServiceProperties#maxSendsPerSecond()} if that is set.  Consecutive messages with
+	 * the same text are sent together, up to {@link ConfigurableServiceProperties#maxBatchSize()} at a time.
+	 */
 	private class SmsInternetServiceThread extends Thread {
 		/** Indicates whether this {@link SmsInternetServiceThread} is running. */ 
-		protected boolean running;
+		protected volatile boolean running;
+		/** Limits the number of messages being sent at once */
+		private final AdaptiveSendWindow sendWindow;
+		/** Limits the rate at which messages are sent, or <code>null</code> if the rate is not limited */
+		private final SendRateLimiter rateLimiter;
+		/** The maximum number of messages to send in a single request */
+		private final int maxBatchSize;
+		/** Executes sends */
+		private final ExecutorService sendExecutor;
 		
 		SmsInternetServiceThread(AbstractSmsInternetService owner) {
 			super(owner.getClass().getSimpleName() + " :: " + owner.getIdentifier());
+			
+			ConfigurableServiceProperties properties = owner.getServiceProperties();
+			int maxConcurrentSends = properties == null ? 1 : Math.max(1, properties.maxConcurrentSends());
+			int maxSendsPerSecond = properties == null ? 0 : properties.maxSendsPerSecond();
+			this.sendWindow = new AdaptiveSendWindow(maxConcurrentSends);
+			this.rateLimiter = maxSendsPerSecond > 0 ? new SendRateLimiter(maxSendsPerSecond) : null;
+			this.maxBatchSize = properties == null ? 1 : Math.max(1, properties.maxBatchSize());
+			
+			final String senderName = getName() + " :: sender";
+			this.sendExecutor = Executors.newFixedThreadPool(maxConcurrentSends, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread sender = new Thread(r, senderName);
+					sender.setDaemon(true);
+					return sender;
+				}
+			});
 		}
 		
 		/**
@@ -220,39 +352,131 @@ public abstract class AbstractSmsInternetService implements SmsInternetService {
 		public void run() {
 			LOG.trace("ENTER");
 			running = true;
+			long lastReceiveTime = 0;
 			while (running) {
-				boolean sleep = true;
+				long waitTime = RECEIVE_INTERVAL;
 				if (isConnected() && isUseForSending()) {
-					FrontlineMessage m = outbox.poll();
-					if (m != null) {
-						LOG.debug("Sending message [" + m.toString() + "]");
-						long startTime = System.currentTimeMillis();
-						sendSmsDirect(m);
-						LOG.debug("Send messages took [" + (System.currentTimeMillis() - startTime) + "]");
-						sleep = false;
-					}
+					waitTime = dispatchMessages();
 				}
 				if (running && isConnected() && isUseForReceiving()) {
-					LOG.debug("Receiving messages...");
-					try {
-						long startTime = System.currentTimeMillis();
-						receiveSms();
-						LOG.debug("Receiving messages took " + (System.currentTimeMillis() - startTime) + "ms");
-					} catch (SmsInternetServiceReceiveException e) {
-						LOG.error("Failed to receive messages.", e);
-						// Should this really be a status?
-						setStatus(SmsInternetServiceStatus.RECEIVING_FAILED, null);
+					long timeUntilReceive = lastReceiveTime + RECEIVE_INTERVAL - System.currentTimeMillis();
+					if (timeUntilReceive > 0) {
+						waitTime = Math.min(waitTime, timeUntilReceive);
+					} else {
+						LOG.debug("Receiving messages...");
+						try {
+							long startTime = System.currentTimeMillis();
+							receiveSms();
+							LOG.debug("Receiving messages took " + (System.currentTimeMillis() - startTime) + "ms");
+						} catch (SmsInternetServiceReceiveException e) {
+							LOG.error("Failed to receive messages.", e);
+							// Should this really be a status?
+							setStatus(SmsInternetServiceStatus.RECEIVING_FAILED, null);
+						}
+						lastReceiveTime = System.currentTimeMillis();
 					}
 				}
 				// TODO verify delivery reports?
-				// If this thread is still running, we should have a little snooze
+				// If this thread is still running, wait until there is more to do
 				if (running) {
-					if (sleep) FrontlineUtils.sleep_ignoreInterrupts(5000); /* 5 seconds */
-					else FrontlineUtils.sleep_ignoreInterrupts(100); /* 0.1 seconds */
+					awaitWork(waitTime);
 				}
 			}
+			// Allow sends already in progress to complete
+			sendExecutor.shutdown();
 			LOG.trace("EXIT");
 		}
+		
+		/**
+		 * Starts sending as many messages from {@link #outbox} as {@link #sendWindow} and {@link #rateLimiter} allow.
+		 * @return the maximum time, in milliseconds, to wait before trying to dispatch messages again
+		 */
+		private long dispatchMessages() {
+			while (running && !outbox.isEmpty()) {
+				// The thread is signalled when a send completes, so there is no need to poll for space in the window
+				if (!sendWindow.tryAcquire()) return RECEIVE_INTERVAL;
+				// Each message in a batch counts towards the rate limit, so the batch is limited to the tokens available
+				int allowed = maxBatchSize;
+				if (rateLimiter != null) {
+					allowed = rateLimiter.tryAcquire(maxBatchSize);
+					if (allowed == 0) {
+						sendWindow.cancel();
+						return rateLimiter.getWaitTime();
+					}
+				}
+				
+				FrontlineMessage m = outbox.poll();
+				if (m == null) {
+					if (rateLimiter != null) rateLimiter.release(allowed);
+					sendWindow.cancel();
+					break;
+				}
+				final List<FrontlineMessage> batch = pollBatch(m, allowed);
+				if (rateLimiter != null) rateLimiter.release(allowed - batch.size());
+				try {
+					sendExecutor.execute(new Runnable() {
+						public void run() {
+							send(batch);
+						}
+					});
+				} catch (RejectedExecutionException ex) {
+					// The service is stopping, so leave the messages for the next time it starts
+					outbox.addAll(batch);
+					if (rateLimiter != null) rateLimiter.release(batch.size());
+					sendWindow.cancel();
+					break;
+				}
+			}
+			return RECEIVE_INTERVAL;
+		}
+		
+		/**
+		 * Removes messages which can be sent in the same request as the supplied message from the head of
+		 * {@link #outbox}.
+		 * @param first a message already removed from the outbox
+		 * @param maxSize the maximum number of messages to send together
+		 * @return the messages to send together, starting with <code>first</code>
+		 */
+		private List<FrontlineMessage> pollBatch(FrontlineMessage first, int maxSize) {
+			List<FrontlineMessage> batch = new ArrayList<FrontlineMessage>();
+			batch.add(first);
+			FrontlineMessage next;
+			while (batch.size() < maxSize && (next = outbox.peek()) != null && isBatchable(first, next)) {
+				// A higher priority message may have been added since the peek, so remove exactly the message we peeked at
+				if (!outbox.remove(next)) break;
+				batch.add(next);
+			}
+			return batch;
+		}
+		
+		/**
+		 * Sends a batch of messages, and releases the place it occupied in {@link #sendWindow}.
+		 * @param batch the messages to send
+		 */
+		private void send(List<FrontlineMessage> batch) {
+			boolean success = false;
+			try {
+				LOG.debug("Sending " + batch.size() + " message(s), starting with [" + batch.get(0) + "]");
+				long startTime = System.currentTimeMillis();
+				if (batch.size() == 1) {
+					sendSmsDirect(batch.get(0));
+				} else {
+					sendSmsBatchDirect(batch);
+				}
+				long duration = System.currentTimeMillis() - startTime;
+				LOG.debug("Send messages took [" + duration + "]");
+				recordSendTime(batch.size(), duration);
+				success = true;
+				for (FrontlineMessage m : batch) {
+					if (m.getStatus() == Status.FAILED) success = false;
+				}
+			} catch (RuntimeException ex) {
+				LOG.warn("Unexpected problem sending messages starting with [" + batch.get(0) + "]", ex);
+			} finally {
+				sendWindow.release(success);
+				signalWork();
+			}
+		}
 	}
 
 //> ABSTRACT METHODS
@@ -271,6 +495,18 @@ public abstract class AbstractSmsInternetService implements SmsInternetService {
 	 */
 	protected abstract void sendSmsDirect(FrontlineMessage message);
 	
+	/**
+	 * Send several messages with the same text using this phone handler.  Services which can send
+	 * a message to many recipients in one request should override this; by default, the messages
+	 * are sent one at a time with {@link #sendSmsDirect(FrontlineMessage)}.
+	 * @param messages The messages to be sent.  These will all have passed {@link #isBatchable(FrontlineMessage, FrontlineMessage)}.
+	 */
+	protected void sendSmsBatchDirect(List<FrontlineMessage> messages) {
+		for(FrontlineMessage message : messages) {
+			sendSmsDirect(message);
+		}
+	}
+	
 	/**
 	 * Attempt to receive SMS messages from this service.
 	 * @throws SmsInternetServiceReceiveException If there was a problem receiving SMS
@@ -0,0 +1,81 @@
+/**
+ * 
+ */
+package net.frontlinesms.messaging.sms.internet;
+
+/**
+ * Limits the number of messages an {@link SmsInternetService} is sending at the same time.
+ *
+ * The size of the window adapts to the outcome of each send: it grows by one after a full window of
+ * messages has been sent successfully, up to {@link #maxSize}, and is halved each time a send fails.
+ * This backs off quickly when a service is struggling, and recovers gradually when it is healthy.
+ *
+ * This class is threadsafe.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+class AdaptiveSendWindow {
+//> INSTANCE PROPERTIES
+	/** The maximum size of the window */
+	private final int maxSize;
+	/** The current size of the window; never less than 1 or greater than {@link #maxSize} */
+	private int size;
+	/** The number of sends currently in progress */
+	private int inFlight;
+	/** The number of successful sends since the window last changed size */
+	private int successCount;
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new window, initially of its maximum size.
+	 * @param maxSize value for {@link #maxSize}
+	 */
+	AdaptiveSendWindow(int maxSize) {
+		if(maxSize < 1) throw new IllegalArgumentException("Window size must be at least 1, but was " + maxSize);
+		this.maxSize = maxSize;
+		this.size = maxSize;
+	}
+
+//> ACCESSORS
+	/** @return {@link #size} */
+	synchronized int getSize() {
+		return size;
+	}
+
+	/** @return {@link #inFlight} */
+	synchronized int getInFlight() {
+		return inFlight;
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Attempts to reserve a place in the window for a send.
+	 * @return <code>true</code> if a place was reserved, and the send may start; <code>false</code> if the window is full
+	 */
+	synchronized boolean tryAcquire() {
+		if(inFlight >= size) return false;
+		++inFlight;
+		return true;
+	}
+
+	/** Releases a place reserved with {@link #tryAcquire()} without a send having been attempted. */
+	synchronized void cancel() {
+		--inFlight;
+	}
+
+	/**
+	 * Releases a place reserved with {@link #tryAcquire()} once a send has finished.
+	 * @param success <code>true</code> if the message was sent successfully
+	 */
+	synchronized void release(boolean success) {
+		--inFlight;
+		if(success) {
+			if(++successCount >= size && size < maxSize) {
+				++size;
+				successCount = 0;
+			}
+		} else {
+			size = Math.max(1, size / 2);
+			successCount = 0;
+		}
+	}
+}
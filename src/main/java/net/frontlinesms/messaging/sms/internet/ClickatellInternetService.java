@@ -19,6 +19,9 @@
  */
 package net.frontlinesms.messaging.sms.internet;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import net.frontlinesms.*;
 import net.frontlinesms.data.domain.FrontlineMessage;
 import net.frontlinesms.data.domain.FrontlineMessage.Status;
@@ -39,7 +42,7 @@ import org.smslib.v3.http.ClickatellHTTPGateway;
  * @author Carlos Eduardo Endler Genz
  * @date 26/01/2009
  */
-@ConfigurableServiceProperties(name = "Clickatell", icon = "/icons/sms_http.png")
+@ConfigurableServiceProperties(name = "Clickatell", icon = "/icons/sms_http.png", maxConcurrentSends = 4, maxSendsPerSecond = 20, maxBatchSize = 100)
 public class ClickatellInternetService extends AbstractSmsInternetService {
 	/** Prefix attached to every property name. */
 	private static final String PROPERTY_PREFIX = "smsdevice.internet.clickatell.";
@@ -83,6 +86,72 @@ public class ClickatellInternetService extends AbstractSmsInternetService {
 		LOG.debug("Version: " + Library.getLibraryVersion());
 
 		LOG.debug("Sending [" + message.getTextContent() + "] to [" + message.getRecipientMsisdn() + "]");
+		OutboundMessage oMessage = createOutboundMessage(message);
+		try {
+			// Sent through the gateway rather than the service, as the service only sends one message at a time
+			gateway.sendMessage(oMessage);
+			updateStatus(message, oMessage);
+			if (oMessage.getFailureCause() == FailureCauses.NO_CREDIT) {
+				reportCreditLow();
+			}
+		} catch(Exception ex) {
+			message.setStatus(Status.FAILED);
+			LOG.debug("Failed to send message [" + message + "]", ex);
+			LOG.info("Failed to send message");
+		} finally {
+			if (smsListener != null) {
+				smsListener.outgoingMessageEvent(this, message);
+			}
+		}
+	}
+
+	/**
+	 * Send several messages with the same text in a single request to Clickatell.
+	 * @param messages The messages to be sent.
+	 */
+	@Override
+	protected void sendSmsBatchDirect(List<FrontlineMessage> messages) {
+		LOG.trace("ENTER");
+		LOG.debug("Sending [" + messages.get(0).getTextContent() + "] to " + messages.size() + " recipients");
+		List<OutboundMessage> oMessages = new ArrayList<OutboundMessage>(messages.size());
+		for(FrontlineMessage message : messages) {
+			oMessages.add(createOutboundMessage(message));
+		}
+		try {
+			gateway.sendBulkMessage(oMessages);
+			boolean noCredit = false;
+			for (int i = 0; i < messages.size(); i++) {
+				OutboundMessage oMessage = oMessages.get(i);
+				updateStatus(messages.get(i), oMessage);
+				if (oMessage.getFailureCause() == FailureCauses.NO_CREDIT) {
+					noCredit = true;
+				}
+			}
+			if (noCredit) {
+				reportCreditLow();
+			}
+		} catch(Exception ex) {
+			for(FrontlineMessage message : messages) {
+				if (message.getStatus() != Status.SENT) message.setStatus(Status.FAILED);
+			}
+			LOG.debug("Failed to send messages starting with [" + messages.get(0) + "]", ex);
+			LOG.info("Failed to send messages");
+		} finally {
+			if (smsListener != null) {
+				for(FrontlineMessage message : messages) {
+					smsListener.outgoingMessageEvent(this, message);
+				}
+			}
+		}
+		LOG.trace("EXIT");
+	}
+
+	/**
+	 * Creates the {@link OutboundMessage} used to send a message through {@link #service}.
+	 * @param message the message to be sent
+	 * @return a new {@link OutboundMessage}
+	 */
+	private OutboundMessage createOutboundMessage(FrontlineMessage message) {
 		OutboundMessage oMessage;
 
 		// FIXME if we are sending a binary message, we should create one of those here instead
@@ -99,32 +168,35 @@ public class ClickatellInternetService extends AbstractSmsInternetService {
 		if (fromMsisdn != null && !fromMsisdn.equals("")) {
 			oMessage.setFrom(fromMsisdn);
 		}
-		try {
-			service.sendMessage(oMessage);
-			if (oMessage.getMessageStatus() == MessageStatuses.SENT) {
-				message.setStatus(Status.SENT);
-				LOG.debug("Message [" + message + "] was sent!");
-			} else {
-				//message not sent
-				//failed to send
-				if (oMessage.getFailureCause() == FailureCauses.NO_CREDIT) {
-					setStatus(SmsInternetServiceStatus.LOW_CREDIT, Float.toString(gateway.queryBalance()));
-					creditLow();
-				}
-				message.setStatus(Status.FAILED);
-				LOG.debug("Message [" + message + "] was not sent.  Cause: [" + oMessage.getFailureCause() + "]");
-			}
-		} catch(Exception ex) {
+		return oMessage;
+	}
+
+	/**
+	 * Updates the status of a message after an attempt to send it.
+	 * @param message the message which was sent
+	 * @param oMessage the {@link OutboundMessage} the message was sent as
+	 */
+	private void updateStatus(FrontlineMessage message, OutboundMessage oMessage) {
+		if (oMessage.getMessageStatus() == MessageStatuses.SENT) {
+			message.setStatus(Status.SENT);
+			LOG.debug("Message [" + message + "] was sent!");
+		} else {
+			//message not sent
+			//failed to send
 			message.setStatus(Status.FAILED);
-			LOG.debug("Failed to send message [" + message + "]", ex);
-			LOG.info("Failed to send message");
-		} finally {
-			if (smsListener != null) {
-				smsListener.outgoingMessageEvent(this, message);
-			}
+			LOG.debug("Message [" + message + "] was not sent.  Cause: [" + oMessage.getFailureCause() + "]");
 		}
 	}
 
+	/**
+	 * Reports the remaining credit and stops the service, after a message failed to send for lack of credit.
+	 * @throws Exception if there was a problem checking the balance of the account
+	 */
+	private void reportCreditLow() throws Exception {
+		setStatus(SmsInternetServiceStatus.LOW_CREDIT, Float.toString(gateway.queryBalance()));
+		creditLow();
+	}
+
 	/**
 	 * Starts the service. Normally we initialise the gateway.
 	 */
@@ -46,7 +46,7 @@ import IntelliSoftware.SMSGateway.SDK.IntelliSMSJavaSDK.*;
  * @author Carlos Eduardo Endler Genz
  * @date 31/01/2009
  */
-@ConfigurableServiceProperties(name = "IntelliSms", icon = "/icons/sms_http.png") 
+@ConfigurableServiceProperties(name = "IntelliSms", icon = "/icons/sms_http.png", maxConcurrentSends = 4, maxSendsPerSecond = 10, maxBatchSize = 50)
 public class IntelliSmsInternetService extends AbstractSmsInternetService implements EmailReceiveProcessor {
 	
 //> STATIC CONSTANTS
@@ -85,7 +85,8 @@ public class IntelliSmsInternetService extends AbstractSmsInternetService implem
 	private static Logger LOG = FrontlineUtils.getLogger(IntelliSmsInternetService.class);
 
 //> INSTANCE PROPERTIES
-	private IntelliSMS intelliSMS;
+	/** The gateway messages are sent through.  Messages may be sent on several threads at once, so this is volatile. */
+	private volatile IntelliSMS intelliSMS;
 	private boolean connected;
 
 	/**
@@ -164,7 +165,7 @@ public class IntelliSmsInternetService extends AbstractSmsInternetService implem
 	 * Send an SMS message using this phone handler.
 	 * @param message The message to be sent.
 	 */
-	protected synchronized void sendSmsDirect(FrontlineMessage message) {
+	protected void sendSmsDirect(FrontlineMessage message) {
 		LOG.trace("ENTER");
 		LOG.debug("Sending [" + message.getTextContent() + "] to [" + message.getRecipientMsisdn() + "]");
 		try {
@@ -195,29 +196,120 @@ public class IntelliSmsInternetService extends AbstractSmsInternetService implem
 			message.setStatus(Status.FAILED);
 			LOG.debug("Failed to send message [" + message + "]: " + e.getResultCode(), e);
 			LOG.info("Failed to send message: " + e.getResultCode());
-			
-			if(ResultCodes.InsufficientCredit.equals(e.getResultCode())) {
-				int remainingCredit;
-				try {
-					remainingCredit = getRemainingCredit();
-				} catch (IntelliSMSException e1) {
-					remainingCredit = -1;
-				}
-				
-				this.stopService();
-				setStatus(SmsInternetServiceStatus.LOW_CREDIT, Integer.toString(remainingCredit));
+			handleSendFailure(e);
+		} finally {
+			if (smsListener != null) {
+				smsListener.outgoingMessageEvent(this, message);
+			}
+		}
+		LOG.trace("EXIT");
+	}
+
+	/**
+	 * Send several text messages with the same content in a single request to IntelliSMS.
+	 * @param messages The messages to be sent.
+	 */
+	@Override
+	protected void sendSmsBatchDirect(List<FrontlineMessage> messages) {
+		LOG.trace("ENTER");
+		String textContent = messages.get(0).getTextContent();
+		LOG.debug("Sending [" + textContent + "] to " + messages.size() + " recipients");
+		String[] recipients = new String[messages.size()];
+		for (int i = 0; i < recipients.length; i++) {
+			recipients[i] = messages.get(i).getRecipientMsisdn();
+		}
+		try {
+			SendStatusCollection results;
+			if(GsmAlphabet.areAllCharactersValidGSM(textContent)) {
+				results = intelliSMS.SendMessage(recipients, textContent, getMsisdn());
 			} else {
-				this.stopService();
-				this.setStatus(SmsInternetServiceStatus.DISCONNECTED, e.getResultCode() + ": " + e.getMessage());
+				results = intelliSMS.SendUnicodeMessage(recipients, textContent, getMsisdn());
+			}
+			
+			if (updateStatuses(messages, results)) {
+				setStatus(SmsInternetServiceStatus.LOW_CREDIT, Integer.toString(getRemainingCredit()));
 			}
+		} catch (IntelliSMSException e) {
+			for(FrontlineMessage message : messages) {
+				if (message.getStatus() != Status.SENT) message.setStatus(Status.FAILED);
+			}
+			LOG.debug("Failed to send messages starting with [" + messages.get(0) + "]: " + e.getResultCode(), e);
+			LOG.info("Failed to send messages: " + e.getResultCode());
+			handleSendFailure(e);
 		} finally {
 			if (smsListener != null) {
-				smsListener.outgoingMessageEvent(this, message);
+				for(FrontlineMessage message : messages) {
+					smsListener.outgoingMessageEvent(this, message);
+				}
 			}
 		}
 		LOG.trace("EXIT");
 	}
 
+	/**
+	 * Stops the service after a request to send messages failed, and reports why.
+	 * @param e the reason the request failed
+	 */
+	private void handleSendFailure(IntelliSMSException e) {
+		if(ResultCodes.InsufficientCredit.equals(e.getResultCode())) {
+			int remainingCredit;
+			try {
+				remainingCredit = getRemainingCredit();
+			} catch (IntelliSMSException e1) {
+				remainingCredit = -1;
+			}
+			
+			this.stopService();
+			setStatus(SmsInternetServiceStatus.LOW_CREDIT, Integer.toString(remainingCredit));
+		} else {
+			this.stopService();
+			this.setStatus(SmsInternetServiceStatus.DISCONNECTED, e.getResultCode() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Sets the status of each message sent in a single request from the status IntelliSMS reported for
+	 * its recipient.  Messages whose recipient has no status reported are marked as failed.
+	 * @param messages the messages which were sent
+	 * @param results the status reported for each recipient
+	 * @return <code>true</code> if any message was not sent because of insufficient credit
+	 */
+	/* not private to allow unit testing */
+	static boolean updateStatuses(List<FrontlineMessage> messages, Iterable<SendStatus> results) {
+		Map<String, ResultCodes> codes = new HashMap<String, ResultCodes>();
+		for(SendStatus result : results) {
+			if(result.To != null) codes.put(getDigits(result.To), result.ResultCode);
+		}
+		boolean insufficientCredit = false;
+		for(FrontlineMessage message : messages) {
+			ResultCodes code = codes.get(getDigits(message.getRecipientMsisdn()));
+			if (code == ResultCodes.OK) {
+				message.setStatus(Status.SENT);
+				LOG.debug("Message [" + message + "] was sent!");
+			} else {
+				if (code == ResultCodes.InsufficientCredit) insufficientCredit = true;
+				message.setStatus(Status.FAILED);
+				LOG.debug("Message [" + message + "] was not sent.  Cause: [" + code + "]");
+			}
+		}
+		return insufficientCredit;
+	}
+
+	/**
+	 * Strips everything but digits from a phone number, so numbers reported by IntelliSMS can be matched
+	 * with the numbers they were sent to, whether or not they are written with a leading '+'.
+	 * @param msisdn a phone number
+	 * @return the digits in the phone number
+	 */
+	private static String getDigits(String msisdn) {
+		StringBuilder digits = new StringBuilder(msisdn.length());
+		for(int i=0; i<msisdn.length(); ++i) {
+			char c = msisdn.charAt(i);
+			if(c >= '0' && c <= '9') digits.append(c);
+		}
+		return digits.toString();
+	}
+
 	private ResultCodes sendBinarySms(FrontlineMessage message) throws IntelliSMSException {
 		LOG.trace("ENTER");
 		byte[][] messagePayloads = TpduUtils.getPayloads(message.getBinaryContent(), DEFAULT_SOURCE_PORT, message.getRecipientSmsPort());
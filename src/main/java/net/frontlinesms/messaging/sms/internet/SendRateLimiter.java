@@ -0,0 +1,82 @@
+/**
+ * 
+ */
+package net.frontlinesms.messaging.sms.internet;
+
+/**
+ * Token bucket limiting the rate at which an {@link SmsInternetService} sends messages.
+ *
+ * Tokens are added to the bucket at a steady rate, up to one second's worth, and each message sent
+ * takes one token.  This allows short bursts while keeping the average rate within the service's limit.
+ *
+ * This class is threadsafe.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+class SendRateLimiter {
+//> INSTANCE PROPERTIES
+	/** The number of tokens added to the bucket each millisecond */
+	private final double tokensPerMilli;
+	/** The maximum number of tokens the bucket can hold */
+	private final double capacity;
+	/** The number of tokens currently in the bucket */
+	private double tokens;
+	/** The time, in milliseconds, at which tokens were last added to the bucket */
+	private long lastRefillTime;
+
+//> CONSTRUCTORS
+	/**
+	 * Create a new, full, rate limiter.
+	 * @param sendsPerSecond the maximum average number of messages sent per second
+	 */
+	SendRateLimiter(int sendsPerSecond) {
+		if(sendsPerSecond < 1) throw new IllegalArgumentException("Send rate must be at least 1 per second, but was " + sendsPerSecond);
+		this.tokensPerMilli = sendsPerSecond / 1000.0;
+		this.capacity = sendsPerSecond;
+		this.tokens = capacity;
+		this.lastRefillTime = System.currentTimeMillis();
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Attempts to take tokens for sending up to a number of messages.  One token is taken for each
+	 * message, so a request sending several messages at once takes several tokens.
+	 * @param max the maximum number of tokens to take
+	 * @return the number of tokens taken, from <code>0</code> up to <code>max</code>
+	 */
+	synchronized int tryAcquire(int max) {
+		refill(System.currentTimeMillis());
+		int taken = Math.min(max, (int) tokens);
+		tokens -= taken;
+		return taken;
+	}
+
+	/**
+	 * Returns unused tokens to the bucket.
+	 * @param count the number of tokens to return
+	 */
+	synchronized void release(int count) {
+		tokens = Math.min(capacity, tokens + count);
+	}
+
+	/** @return <code>0</code> if a token is available, or the number of milliseconds until a token will be available */
+	synchronized long getWaitTime() {
+		refill(System.currentTimeMillis());
+		if(tokens >= 1) {
+			return 0;
+		} else {
+			return Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerMilli));
+		}
+	}
+
+	/**
+	 * Adds the tokens accumulated since {@link #lastRefillTime} to the bucket.
+	 * @param now the current time in milliseconds
+	 */
+	private void refill(long now) {
+		long elapsed = now - lastRefillTime;
+		if(elapsed > 0) {
+			tokens = Math.min(capacity, tokens + elapsed * tokensPerMilli);
+			lastRefillTime = now;
+		}
+	}
+}
@@ -2,6 +2,6 @@ package net.frontlinesms.messaging.sms.internet;
 
 import net.frontlinesms.serviceconfig.ConfigurableServiceProperties;
 
-@ConfigurableServiceProperties(name="The Hive Projects", icon = "/icons/hive_projects_logo.png")
+@ConfigurableServiceProperties(name="The Hive Projects", icon = "/icons/hive_projects_logo.png", maxConcurrentSends = 4, maxSendsPerSecond = 20, maxBatchSize = 100)
 public class TheHiveProjectsInternetService extends ClickatellInternetService {
 }
@@ -22,7 +22,9 @@ package net.frontlinesms.messaging.sms.modem;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
 
 import serial.*;
 
@@ -32,7 +34,9 @@ import net.frontlinesms.data.domain.FrontlineMessage.Status;
 import net.frontlinesms.events.EventBus;
 import net.frontlinesms.listener.SmsListener;
 import net.frontlinesms.messaging.CatHandlerAliasMatcher;
+import net.frontlinesms.messaging.sms.PriorityOutbox;
 import net.frontlinesms.messaging.sms.SmsService;
+import net.frontlinesms.messaging.sms.events.SmsModemInboxNotification;
 import net.frontlinesms.messaging.sms.events.SmsModemStatusNotification;
 
 import org.apache.log4j.Logger;
@@ -50,7 +54,20 @@ import org.smslib.service.MessageClass;
 public class SmsModem extends Thread implements SmsService, ICallListener {
 	
 //> CONSTANTS
-	private static final int SMS_BULK_LIMIT = 10;
+	/** The default maximum number of messages sent to the device on each pass of {@link #run()} */
+	public static final int DEFAULT_BULK_SEND_SIZE = 10;
+	/** The shortest time, in millis, to wait between passes of {@link #run()}.  While messages are still waiting
+	 * to be sent after a pass, the wait is halved on each pass until it reaches this value. */
+	static final int MIN_POLL_INTERVAL = 100;
+	/** The time, in millis, to wait between passes of {@link #run()} after the device has sent or received messages.
+	 * It was changed from 100ms to 500ms in an attempt to improve modem stability, so it is only undercut while
+	 * there is a backlog of messages to send.  This is also the shortest time between checks for received messages. */
+	static final int ACTIVE_POLL_INTERVAL = 500;
+	/** The longest time, in millis, to wait between passes of {@link #run()}.  While the device is idle, the wait
+	 * is doubled on each pass until it reaches this value. */
+	static final int MAX_POLL_INTERVAL = 5000;
+	/** Estimate of the number of messages a device can send per minute, used until its sends have been measured */
+	private static final double DEFAULT_SEND_CAPACITY_PER_MINUTE = 10;
 
 	/** The time, in millis, that this phone handler must have been unresponsive for before it is deemed TIMED OUT
 	 * As far as I know there is no basis for the time chosen for this timeout. */
@@ -80,7 +97,16 @@ public class SmsModem extends Thread implements SmsService, ICallListener {
 	private long timeOfLastResponseFromPhone;
 
 	private final ConcurrentLinkedQueue<CIncomingMessage> inbox = new ConcurrentLinkedQueue<CIncomingMessage>();
-	private final ConcurrentLinkedQueue<FrontlineMessage> outbox = new ConcurrentLinkedQueue<FrontlineMessage>();
+	/** Messages waiting to be sent by this modem, taken in order of priority */
+	private final PriorityOutbox outbox = new PriorityOutbox();
+	/** Released when a message is added to {@link #outbox}, to wake {@link #run()} from an idle wait */
+	private final Semaphore workSignal = new Semaphore(0);
+	/** The time, in millis, {@link #run()} will wait before its next pass */
+	private volatile int pollInterval = ACTIVE_POLL_INTERVAL;
+	/** The maximum number of messages sent to the device on each pass of {@link #run()} */
+	private volatile int bulkSendSize = DEFAULT_BULK_SEND_SIZE;
+	/** Throughput metrics for this device */
+	private final SmsModemMetrics metrics = new SmsModemMetrics();
 	/** The SmsListener to which this phone handler should report SMS Message events. */
 	private final SmsListener smsListener;
 	private final EventBus eventBus;
@@ -506,8 +532,10 @@ public class SmsModem extends Thread implements SmsService, ICallListener {
 		
 		if(autoDetect) running = _doDetection();
 		else running = true;
+		long lastReceiveCheck = 0;
 		while (running) {
 			boolean noActivity = true;
+			boolean backlog = false;
 
 			resetWatchdog();
 
@@ -518,12 +546,15 @@ public class SmsModem extends Thread implements SmsService, ICallListener {
 
 			if(smsLibConnected) {
 				try {
-					//check for incoming messages
-					if (useForReceiving) {
+					//check for incoming messages.  While there is a backlog to send, passes are more frequent
+					// than the phone is likely to receive messages, so we don't check on every pass.
+					if (useForReceiving && System.currentTimeMillis() - lastReceiveCheck >= ACTIVE_POLL_INTERVAL) {
 						long startTime = System.currentTimeMillis();
+						lastReceiveCheck = startTime;
 						LOG.debug("Checking for received messages...");
 						int newMessages = checkForMessages();
 						if(newMessages > 0) noActivity = false;
+						metrics.recordReceived(newMessages);
 						LOG.debug("Check for messages took [" + (System.currentTimeMillis() - startTime) + "]");
 					}
 					// If there are any messages waiting to be sent, send them now.
@@ -535,13 +566,15 @@ public class SmsModem extends Thread implements SmsService, ICallListener {
 						//create SMS list
 						LinkedList<FrontlineMessage> messageList = new LinkedList<FrontlineMessage>();
 						FrontlineMessage m;
-						while(messageList.size() < SMS_BULK_LIMIT
+						while(messageList.size() < bulkSendSize
 								&& (m = outbox.poll()) != null) {
 							messageList.add(m);
 						}
 						if(messageList.size() > 0) {
 							LOG.debug("Sending bulk of [" + messageList.size() + "] message(s)");
 							sendSmsListDirect(messageList);
+							noActivity = false;
+							backlog = !outbox.isEmpty();
 						}
 						LOG.debug("Send messages took [" + (System.currentTimeMillis() - startTime) + "]");
 						resetWatchdog();
@@ -582,26 +615,42 @@ public class SmsModem extends Thread implements SmsService, ICallListener {
 			//  - waste a lot of processor cycles on PC
 			//  - waste phone battery
 			//  - be unnecessary as phones are unlikely to be able to receive messages quicker than ~every 3s
+			// While the phone is busy we poll it often, and more often still while messages are waiting
+			// to be sent; once it goes quiet we back off, but a message being queued for sending will
+			// wake us early.
 			if(running) {
+				pollInterval = getNextPollInterval(pollInterval, !noActivity, backlog);
 				if (noActivity) {
 					try {
-						if(smsLibConnected) cService.keepGsmLinkOpen();
-						FrontlineUtils.sleep_ignoreInterrupts(5000); /* 5 seconds */
+						if(smsLibConnected && pollInterval == MAX_POLL_INTERVAL) cService.keepGsmLinkOpen();
+						awaitWork(pollInterval);
 					} catch (Throwable t) {
 						LOG.debug("", t);
 						tryToConnect = false;
 						disconnect(true);
 					}
 				} else {
-					// Changed this from 100ms to 500ms in an attempt to improve modem stability.  There was no explanation
-					// for the original duration.
-					FrontlineUtils.sleep_ignoreInterrupts(500);
+					FrontlineUtils.sleep_ignoreInterrupts(pollInterval);
 				}
 			}
 		}
 		LOG.trace("EXIT");
 	}
 
+	/**
+	 * Calculates how long {@link #run()} should wait before its next pass.
+	 * @param pollInterval the time, in millis, waited before the last pass
+	 * @param active <code>true</code> if messages were sent or received on the last pass
+	 * @param backlog <code>true</code> if messages were still waiting to be sent after the last pass
+	 * @return the time, in millis, to wait before the next pass
+	 */
+	/* not private to allow unit testing */
+	static int getNextPollInterval(int pollInterval, boolean active, boolean backlog) {
+		if(backlog) return Math.max(Math.min(pollInterval, ACTIVE_POLL_INTERVAL) / 2, MIN_POLL_INTERVAL);
+		if(active) return ACTIVE_POLL_INTERVAL;
+		return Math.min(Math.max(pollInterval, ACTIVE_POLL_INTERVAL) * 2, MAX_POLL_INTERVAL);
+	}
+
 	private final void setManufacturer(String manufacturer) {
 		LOG.debug("Manufacturer before translation [" + manufacturer + "]");
 		this.manufacturer = CatHandlerAliasMatcher.getInstance().translateManufacturer(manufacturer);
@@ -771,25 +820,32 @@ public class SmsModem extends Thread implements SmsService, ICallListener {
 		resetWatchdog();
 
 		LOG.debug("[" + messageList.size() + "] message(s) received.");
+		boolean inboxUpdated = false;
 		for(CIncomingMessage msg : messageList) {
 			resetWatchdog();
 			log(msg);
 			setId(msg);
 
-			addToInboxIfAppropriate(msg);
+			inboxUpdated |= addToInboxIfAppropriate(msg);
 			deleteIfAppropriate(msg);
 			resetWatchdog();
 		}
+		if(inboxUpdated) {
+			eventBus.notifyObservers(new SmsModemInboxNotification(this));
+		}
 
 		LOG.trace("EXIT");
 		return messageList.size();
 	}
 
-	private void addToInboxIfAppropriate(CIncomingMessage msg) {
+	/** @return <code>true</code> if the message was added to {@link #inbox} */
+	private boolean addToInboxIfAppropriate(CIncomingMessage msg) {
 		if (useDeliveryReports
 				|| msg.getType() != CIncomingMessage.MessageType.StatusReport) {
 			inbox.add(msg);
+			return true;
 		}
+		return false;
 	}
 
 	private void deleteIfAppropriate(CIncomingMessage msg) throws NotConnectedException, IOException {
@@ -801,6 +857,26 @@ public class SmsModem extends Thread implements SmsService, ICallListener {
 		}
 	}
 
+	/** Wakes {@link #run()} if it is waiting for work. */
+	private void signalWork() {
+		if(workSignal.availablePermits() == 0) {
+			workSignal.release();
+		}
+	}
+
+	/**
+	 * Waits until {@link #signalWork()} is called, or the timeout expires.
+	 * @param timeout the maximum time to wait, in millis
+	 */
+	private void awaitWork(long timeout) {
+		try {
+			workSignal.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException ex) {
+			// Interrupted - just carry on with the next pass
+		}
+		workSignal.drainPermits();
+	}
+
 	private void setId(CIncomingMessage msg) {
 		if (msisdn != null && msisdn.length() != 0) {
 			msg.setId(msisdn);
@@ -828,6 +904,7 @@ public class SmsModem extends Thread implements SmsService, ICallListener {
 		outbox.add(outgoingMessage);
 		smsListener.outgoingMessageEvent(this, outgoingMessage);
 		LOG.debug("Message added to outbox. Size is [" + outbox.size() + "]");
+		signalWork();
 
 		LOG.trace("EXIT");
 	}
@@ -849,6 +926,37 @@ public class SmsModem extends Thread implements SmsService, ICallListener {
 		return monitorCalls;
 	}
 	
+	/** @return {@link #bulkSendSize} */
+	public int getBulkSendSize() {
+		return bulkSendSize;
+	}
+
+	/** @param bulkSendSize new value for {@link #bulkSendSize}; {@link #DEFAULT_BULK_SEND_SIZE} is used if this is not positive */
+	public void setBulkSendSize(int bulkSendSize) {
+		this.bulkSendSize = bulkSendSize > 0 ? bulkSendSize : DEFAULT_BULK_SEND_SIZE;
+	}
+
+	/** @return {@link #pollInterval} */
+	public int getPollInterval() {
+		return pollInterval;
+	}
+
+	/** @return {@link #metrics} */
+	public SmsModemMetrics getMetrics() {
+		return metrics;
+	}
+
+	/** @see SmsService#getOutboxSize() */
+	public int getOutboxSize() {
+		return outbox.size();
+	}
+
+	/** @see SmsService#getSendCapacityPerMinute() */
+	public double getSendCapacityPerMinute() {
+		double measured = metrics.getSendCapacityPerMinute();
+		return measured > 0 ? measured : DEFAULT_SEND_CAPACITY_PER_MINUTE;
+	}
+
 	public void setMonitorCalls(boolean monitorCalls) {
 		this.monitorCalls = monitorCalls;
 		if(monitorCalls) {
@@ -991,6 +1099,7 @@ public class SmsModem extends Thread implements SmsService, ICallListener {
 	 */
 	private void sendSmsListDirect(List<FrontlineMessage> smsMessages) throws IOException {
 		LOG.trace("ENTER");
+		long startTime = System.currentTimeMillis();
 
 		try {
 			cService.keepGsmLinkOpen();
@@ -1030,11 +1139,18 @@ public class SmsModem extends Thread implements SmsService, ICallListener {
 				}
 			}
 		} finally {
+			int sent = 0;
+			int failed = 0;
 			for (FrontlineMessage m : smsMessages) {
 				if (m.getStatus() == Status.PENDING) {
 					outbox.add(m);
+				} else if (m.getStatus() == Status.SENT) {
+					++sent;
+				} else if (m.getStatus() == Status.FAILED) {
+					++failed;
 				}
 			}
+			metrics.recordSend(sent, failed, System.currentTimeMillis() - startTime);
 		}
 		LOG.trace("EXIT");
 	}
@@ -0,0 +1,114 @@
+/**
+ * 
+ */
+package net.frontlinesms.messaging.sms.modem;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput metrics for a single {@link SmsModem}, so the performance of each modem can be compared.
+ *
+ * Counts are updated by the modem's own thread, and may be read from any thread.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SmsModemMetrics {
+//> STATIC CONSTANTS
+	/** The weight given to the latest send when updating {@link #recentSendTimePerMessage} */
+	private static final double RECENT_WEIGHT = 0.2;
+
+//> INSTANCE PROPERTIES
+	/** The time, in milliseconds, at which these metrics started being collected */
+	private final long startTime = System.currentTimeMillis();
+	/** The number of messages sent successfully */
+	private final AtomicLong sentCount = new AtomicLong();
+	/** The number of messages which failed to send */
+	private final AtomicLong failedCount = new AtomicLong();
+	/** The number of messages received */
+	private final AtomicLong receivedCount = new AtomicLong();
+	/** The total time, in milliseconds, spent sending messages */
+	private final AtomicLong sendTime = new AtomicLong();
+	/** Moving average of the time, in milliseconds, recent sends have taken per message, or <code>0</code> if nothing has been sent yet */
+	private volatile double recentSendTimePerMessage;
+
+//> ACCESSORS
+	/** @return the number of messages sent successfully */
+	public long getSentCount() {
+		return sentCount.get();
+	}
+
+	/** @return the number of messages which failed to send */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/** @return the number of messages received */
+	public long getReceivedCount() {
+		return receivedCount.get();
+	}
+
+	/** @return the total time, in milliseconds, spent sending messages */
+	public long getSendTime() {
+		return sendTime.get();
+	}
+
+	/** @return the average number of messages sent per minute since these metrics started being collected */
+	public double getSentPerMinute() {
+		return perMinute(getSentCount(), System.currentTimeMillis() - startTime);
+	}
+
+	/** @return the average number of messages received per minute since these metrics started being collected */
+	public double getReceivedPerMinute() {
+		return perMinute(getReceivedCount(), System.currentTimeMillis() - startTime);
+	}
+
+	/** @return the number of messages the modem can send per minute while it is busy sending, judged by the time recent sends have taken; <code>0</code> if nothing has been sent yet */
+	public double getSendCapacityPerMinute() {
+		double timePerMessage = recentSendTimePerMessage;
+		return timePerMessage <= 0 ? 0 : 60000 / timePerMessage;
+	}
+
+//> INSTANCE METHODS
+	/**
+	 * Records an attempt to send some messages.
+	 * @param sent the number of messages sent successfully
+	 * @param failed the number of messages which failed to send
+	 * @param duration the time, in milliseconds, the attempt took
+	 */
+	void recordSend(int sent, int failed, long duration) {
+		sentCount.addAndGet(sent);
+		failedCount.addAndGet(failed);
+		sendTime.addAndGet(duration);
+		int count = sent + failed;
+		if(count > 0) {
+			double timePerMessage = Math.max(1, duration) / (double) count;
+			double previous = recentSendTimePerMessage;
+			recentSendTimePerMessage = previous <= 0 ? timePerMessage
+					: (1 - RECENT_WEIGHT) * previous + RECENT_WEIGHT * timePerMessage;
+		}
+	}
+
+	/**
+	 * Records messages being received.
+	 * @param received the number of messages received
+	 */
+	void recordReceived(int received) {
+		receivedCount.addAndGet(received);
+	}
+
+	/** @see java.lang.Object#toString() */
+	@Override
+	public String toString() {
+		return "sent=" + getSentCount() + ", failed=" + getFailedCount() + ", received=" + getReceivedCount()
+				+ ", sentPerMinute=" + getSentPerMinute() + ", sendCapacityPerMinute=" + getSendCapacityPerMinute();
+	}
+
+//> STATIC HELPER METHODS
+	/**
+	 * @param count a number of messages
+	 * @param millis a period of time, in milliseconds
+	 * @return the number of messages per minute, or <code>0</code> if the period is empty
+	 */
+	private static double perMinute(long count, long millis) {
+		return millis <= 0 ? 0 : count * 60000.0 / millis;
+	}
+}
@@ -32,4 +32,10 @@ import java.lang.annotation.*;
 public @interface ConfigurableServiceProperties {
 	public String name();
 	public String icon();
+	/** The maximum number of messages the service may be sending at the same time.  Only relevant to services which send messages. */
+	public int maxConcurrentSends() default 1;
+	/** The maximum number of messages per second the service may send, or <code>0</code> if the rate should not be limited.  Only relevant to services which send messages. */
+	public int maxSendsPerSecond() default 0;
+	/** The maximum number of recipients the service can send the same message to in a single request.  Only relevant to services which send messages. */
+	public int maxBatchSize() default 1;
 }
@@ -18,6 +18,9 @@ import net.frontlinesms.resources.ResourceUtils;
  * @author aga
  */
 public class DatabaseSettings {
+//> STATIC CONSTANTS
+	/** Property key (boolean): <code>true</code> if database connections should be pooled */
+	public static final String PROPERTY_POOL_ENABLED = "pool.enabled";
 	
 //> INSTANCE PROPERTIES
 	/** The parent directory in which the settings file is found */
@@ -67,6 +70,16 @@ public class DatabaseSettings {
 		return this.properties.get(propertyKey);
 	}
 	
+	/** @return <code>true</code> if database connections should be pooled; defaults to <code>true</code> */
+	public boolean isPooled() {
+		return !Boolean.FALSE.toString().equalsIgnoreCase(this.properties.get(PROPERTY_POOL_ENABLED));
+	}
+	
+	/** @param pooled <code>true</code> if database connections should be pooled */
+	public void setPooled(boolean pooled) {
+		this.properties.set(PROPERTY_POOL_ENABLED, Boolean.toString(pooled));
+	}
+	
 //> INSTANCE METHODS
 	/** Loads the properties from external file if they are not already initialised. */
 	public synchronized void loadProperties() {
@@ -143,6 +156,10 @@ class DatabaseSettingsPropertySet extends FilePropertySet {
 		DatabaseSettingsPropertySet props = new DatabaseSettingsPropertySet(parentDirectory, databaseXmlFile);
 		LinkedHashMap<String, String> propertyMap = new LinkedHashMap<String, String>();
 		FilePropertySet.loadPropertyMap(propertyMap, props.getFile());
+		// Settings files created by older versions do not offer the choice of pooling connections
+		if(!propertyMap.containsKey(DatabaseSettings.PROPERTY_POOL_ENABLED)) {
+			propertyMap.put(DatabaseSettings.PROPERTY_POOL_ENABLED, Boolean.TRUE.toString());
+		}
 		props.setProperties(propertyMap);
 		return props;
 	}
@@ -187,8 +187,9 @@ public class UiGeneratorController extends FrontlineUI implements EmailListener,
 	public UiGeneratorController(FrontlineSMS frontlineController, boolean detectPhones) throws Throwable {
 		this.frontlineController = frontlineController;
 		this.eventBus = this.frontlineController.getEventBus();
-		// We prepare listening events for device connection
-		eventBus.registerObserver(this);
+		// We prepare listening events for device connection.  These are handled off the sending thread,
+		// so updating the UI does not hold up message processing.
+		eventBus.registerAsynchronousObserver(this, FrontlineEventNotification.class);
 
 		this.iconMap = new IconMap("META-INF/frontlinesms/icons.properties");
 		
@@ -54,7 +54,7 @@ public abstract class BaseTabHandler implements ThinletUiEventHandler, EventObse
 	/** Initialise this component, including its tab. */
 	public void init() {
 		this.tabComponent = initialiseTab();
-		if(isEventObserver) eventBus.registerObserver(this);
+		if(isEventObserver) eventBus.registerAsynchronousObserver(this, FrontlineEventNotification.class);
 	}
 	
 	/**
@@ -19,6 +19,8 @@ import net.frontlinesms.ui.i18n.InternationalisationUtils;
 public class ContactExportDialogHandler extends ExportDialogHandler<Contact> {
 	/** I18n Text Key: TODO document */
 	private static final String MESSAGE_EXPORTING_SELECTED_CONTACTS = "message.exporting.selected.contacts";
+	/** I18n Text Key: "Exported %0 of %1 contacts..." */
+	private static final String MESSAGE_EXPORTING_CONTACTS_PROGRESS = "message.exporting.progress.contacts";
 	
 	public ContactExportDialogHandler(UiGeneratorController ui) {
 		super(Contact.class, ui);
@@ -34,10 +36,25 @@ public class ContactExportDialogHandler extends ExportDialogHandler<Contact> {
 		return UI_FILE_OPTIONS_PANEL_CONTACT;
 	}
 	
+	/**
+	 * Export all contacts using settings set in {@link #wizardDialog}.  The contacts are streamed from
+	 * the database rather than all being loaded at once.
+	 * @param dataPath The file to export the contacts to
+	 * @throws IOException 
+	 */
 	@Override
 	public void doSpecialExport(String dataPath) throws IOException {
 		log.debug("Exporting all contacts..");
-		exportContacts(this.contactDao.getAllContacts(), dataPath);
+		CsvRowFormat rowFormat = getRowFormatForContact();
+		if (!rowFormat.hasMarkers()) {
+			uiController.alert(InternationalisationUtils.getI18nString(MESSAGE_NO_FIELD_SELECTED));
+			log.trace("EXIT");
+			return;
+		}
+		log.debug("Row Format [" + rowFormat + "]");
+		CsvExporter.exportAllContacts(new File(dataPath), contactDao, groupMembershipDao, rowFormat, createProgressListener(MESSAGE_EXPORTING_CONTACTS_PROGRESS));
+		uiController.setStatus(InternationalisationUtils.getI18nString(MESSAGE_EXPORT_TASK_SUCCESSFUL));
+		this.uiController.infoMessage(InternationalisationUtils.getI18nString(MESSAGE_EXPORT_TASK_SUCCESSFUL));
 	}
 
 	@Override
@@ -7,12 +7,15 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
 
 import net.frontlinesms.FrontlineSMSConstants;
 import net.frontlinesms.csv.*;
 import net.frontlinesms.data.importexport.ContactCsvImporter;
 import net.frontlinesms.ui.Icon;
 import net.frontlinesms.ui.UiGeneratorController;
+import net.frontlinesms.ui.events.FrontlineUiUpdateJob;
 import net.frontlinesms.ui.i18n.InternationalisationUtils;
 
 /**
@@ -23,6 +26,10 @@ public class ContactImportDialogHandler extends ImportDialogHandler {
 	private static final String MESSAGE_IMPORTING_SELECTED_CONTACTS = "message.importing.contacts.groups";
 	/** i18n Text Key: "Active" */
 	private static final String I18N_COMMON_ACTIVE = "common.active";
+	/** I18n Text Key: "Imported %0 contacts (%1 new)..." */
+	private static final String MESSAGE_IMPORTING_PROGRESS_CONTACTS = "message.importing.progress.contacts";
+	/** Time, in milliseconds, between each update of the import's progress in the status bar */
+	private static final long PROGRESS_POLL_INTERVAL = 500;
 	
 //> INSTANCE PROPERTIES
 	private ContactCsvImporter importer;
@@ -53,13 +60,39 @@ public class ContactImportDialogHandler extends ImportDialogHandler {
 	}
 
 	@Override
-	protected void doSpecialImport(String dataPath) {
+	protected void doSpecialImport(String dataPath) throws CsvParseException {
 		CsvRowFormat rowFormat = getRowFormatForContact();
-		this.importer.importContacts(this.contactDao, this.groupMembershipDao, this.groupDao, rowFormat);
+		final CsvImportReport report = new CsvImportReport();
+		Timer progressTimer = new Timer("Contact import progress", true);
+		progressTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				new FrontlineUiUpdateJob() {
+					public void run() {
+						showProgress(report);
+					}
+				}.execute();
+			}
+		}, PROGRESS_POLL_INTERVAL, PROGRESS_POLL_INTERVAL);
+		try {
+			this.importer.importContacts(this.contactDao, this.groupMembershipDao, this.groupDao, rowFormat, report);
+		} finally {
+			progressTimer.cancel();
+		}
+		log.info("Imported " + report.getRowCount() + " contacts: " + report.getCreatedCount() + " created, " + report.getExistingCount() + " already existed.");
 		this.uiController.refreshContactsTab();
 		this.uiController.infoMessage(InternationalisationUtils.getI18nString(I18N_IMPORT_SUCCESSFUL));
 	}
 	
+	/**
+	 * Shows the progress of a contact import in the status bar.
+	 * @param report report of the import, which is updated as the import progresses
+	 */
+	private void showProgress(CsvImportReport report) {
+		this.uiController.setStatus(InternationalisationUtils.getI18nString(MESSAGE_IMPORTING_PROGRESS_CONTACTS,
+				Integer.toString(report.getRowCount()), Integer.toString(report.getCreatedCount())));
+	}
+	
 	@Override
 	protected void appendPreviewHeaderItems(Object header) {
 		int columnCount = 0;
@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 
+import net.frontlinesms.csv.CsvExportProgressListener;
 import net.frontlinesms.csv.CsvExporter;
 import net.frontlinesms.data.domain.Contact;
 import net.frontlinesms.data.domain.FrontlineMessage;
@@ -32,6 +33,8 @@ public abstract class ExportDialogHandler<T> extends ImportExportDialogHandler {
 	protected static final String MESSAGE_NO_FIELD_SELECTED = "message.no.field.selected";
 	/** I18n Text Key: TODO document */
 	protected static final String MESSAGE_EXPORT_TASK_SUCCESSFUL = "message.export.successful";
+	/** I18n Text Key: "Exported %0 of %1 messages..." */
+	protected static final String MESSAGE_EXPORTING_PROGRESS = "message.exporting.progress";
 	
 //> INSTANCE PROPERTIES
 	private Class<T> exportClass;
@@ -128,6 +131,20 @@ public abstract class ExportDialogHandler<T> extends ImportExportDialogHandler {
 		// FIXME If possible, remove this empty method!
 	}
 
+	/**
+	 * Creates a listener which shows the progress of an export in the status bar.
+	 * @param progressI18nKey i18n key of the status text, which takes the number of rows exported and the total number of rows
+	 * @return a new progress listener
+	 */
+	protected CsvExportProgressListener createProgressListener(final String progressI18nKey) {
+		return new CsvExportProgressListener() {
+			public void exportProgress(int exportedCount, int totalCount) {
+				uiController.setStatus(InternationalisationUtils.getI18nString(progressI18nKey,
+						Integer.toString(exportedCount), Integer.toString(totalCount)));
+			}
+		};
+	}
+
 	protected abstract void doSpecialExport(String dataPath) throws IOException;
 	protected abstract void doSpecialExport(String dataPath, List<T> selected) throws IOException;
 	
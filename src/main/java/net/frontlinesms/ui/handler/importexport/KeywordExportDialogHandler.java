@@ -78,7 +78,7 @@ public class KeywordExportDialogHandler extends ExportDialogHandler<Keyword> {
 			return;
 		}
 		log.debug("Row Format [" + rowFormat + "]");
-		CsvExporter.exportKeywords(new File(dataPath), keywords, rowFormat, this.contactDao, this.messageDao, messageType);
+		CsvExporter.exportKeywords(new File(dataPath), keywords, rowFormat, this.contactDao, this.messageDao, messageType, createProgressListener(MESSAGE_EXPORTING_PROGRESS));
 		uiController.setStatus(InternationalisationUtils.getI18nString(MESSAGE_EXPORT_TASK_SUCCESSFUL));
 		this.uiController.infoMessage(InternationalisationUtils.getI18nString(MESSAGE_EXPORT_TASK_SUCCESSFUL));
 	}
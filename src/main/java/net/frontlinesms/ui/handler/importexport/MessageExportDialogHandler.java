@@ -34,15 +34,31 @@ public class MessageExportDialogHandler extends ExportDialogHandler<FrontlineMes
 		return UI_FILE_OPTIONS_PANEL_MESSAGE;
 	}
 	
+	/**
+	 * Export all {@link FrontlineMessage}s using settings set in {@link #wizardDialog}.  The messages are
+	 * streamed from the database rather than all being loaded at once.
+	 * @param dataPath The file to export the messages to
+	 * @throws IOException 
+	 */
 	@Override
 	public void doSpecialExport(String dataPath) throws IOException {
-		doSpecialExport(dataPath, messageDao.getAllMessages());
+		CsvRowFormat rowFormat = getRowFormatForMessage();
+		if (!rowFormat.hasMarkers()) {
+			uiController.alert(InternationalisationUtils.getI18nString(MESSAGE_NO_FIELD_SELECTED));
+			log.trace("EXIT");
+			return;
+		}
+		if(log.isDebugEnabled()) log.debug("Row Format: " + rowFormat);
+		CsvExporter.exportAllMessages(new File(dataPath), messageDao, rowFormat, contactDao, createProgressListener(MESSAGE_EXPORTING_PROGRESS));
+		uiController.setStatus(InternationalisationUtils.getI18nString(MESSAGE_EXPORT_TASK_SUCCESSFUL));
+		this.uiController.infoMessage(InternationalisationUtils.getI18nString(MESSAGE_EXPORT_TASK_SUCCESSFUL));
 	}
 
 	/**
-	 * Export the supplied {@link FrontlineMessage}s using settings set in {@link #wizardDialog}.
+	 * Export the supplied {@link FrontlineMessage}s using settings set in {@link #wizardDialog}.  The
+	 * selected messages are already loaded, so they are written in chunks without being fetched again.
 	 * @param messages The messages to export
-	 * @param dataPath The file to export the contacts to
+	 * @param dataPath The file to export the messages to
 	 * @throws IOException 
 	 */
 	@Override
@@ -54,7 +70,7 @@ public class MessageExportDialogHandler extends ExportDialogHandler<FrontlineMes
 			return;
 		}
 		if(log.isDebugEnabled()) log.debug("Row Format: " + rowFormat);
-		CsvExporter.exportMessages(new File(dataPath), messages, rowFormat, contactDao);
+		CsvExporter.exportMessages(new File(dataPath), messages, rowFormat, contactDao, createProgressListener(MESSAGE_EXPORTING_PROGRESS));
 		uiController.setStatus(InternationalisationUtils.getI18nString(MESSAGE_EXPORT_TASK_SUCCESSFUL));
 		this.uiController.infoMessage(InternationalisationUtils.getI18nString(MESSAGE_EXPORT_TASK_SUCCESSFUL));
 	}
@@ -26,10 +26,14 @@ import static net.frontlinesms.ui.UiGeneratorControllerConstants.TAB_MESSAGE_HIS
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
@@ -39,6 +43,7 @@ import thinlet.ThinletText;
 import net.frontlinesms.AppProperties;
 import net.frontlinesms.FrontlineSMSConstants;
 import net.frontlinesms.FrontlineUtils;
+import net.frontlinesms.data.MessageCounts;
 import net.frontlinesms.data.Order;
 import net.frontlinesms.data.domain.Contact;
 import net.frontlinesms.data.domain.FrontlineMultimediaMessage;
@@ -91,6 +96,8 @@ public class MessageHistoryTabHandler extends BaseTabHandler implements PagedCom
 	private static final String COMPONENT_CONTACT_PANEL = "pnContactList";
 	private static final String COMPONENT_KEYWORD_LIST = "lsKeywords";
 	private static final String COMPONENT_KEYWORD_PANEL = "pnKeywordList";
+	/** Time, in milliseconds, that message events are collected for before the message list is updated with them */
+	private static final long MESSAGE_UPDATE_INTERVAL = 250;
 	
 //> INSTANCE PROPERTIES
 	/** Logger */
@@ -143,6 +150,14 @@ public class MessageHistoryTabHandler extends BaseTabHandler implements PagedCom
 	private Contact selectedContact;
 	private Keyword selectedKeyword;
 	
+	/** Rows of {@link #messageListComponent}, by the id of the message they display.  Entries may be stale,
+	 * so must be checked with {@link #getMessageRow(FrontlineMessage)}. */
+	private final Map<Long, Object> messageRowsById = new ConcurrentHashMap<Long, Object>();
+	/** Messages created or updated since {@link #messageListComponent} was last updated, by id */
+	private final Map<Long, FrontlineMessage> pendingMessageUpdates = new LinkedHashMap<Long, FrontlineMessage>();
+	/** Timer scheduling updates of {@link #messageListComponent}; created when first needed */
+	private Timer messageUpdateTimer;
+	
 //> CONSTRUCTORS
 	/**
 	 * @param ui value for {@link #ui}
@@ -320,9 +335,11 @@ public class MessageHistoryTabHandler extends BaseTabHandler implements PagedCom
 		
 		List<FrontlineMessage> messages = getListMessages(startIndex, limit);
 		Object[] messageRows = new Object[messages.size()];
+		messageRowsById.clear();
 		for (int i = 0; i < messages.size(); i++) {
 			FrontlineMessage m = messages.get(i);
 			messageRows[i] = getRow(m);
+			messageRowsById.put(m.getId(), messageRows[i]);
 		}
 		
 		return new PagedListDetails(totalNumberOfMessages, messageRows);
@@ -343,39 +360,34 @@ public class MessageHistoryTabHandler extends BaseTabHandler implements PagedCom
 			final FrontlineMessage.Type messageType = getSelectedMessageType();
 			int selectedIndex = ui.getSelectedIndex(filterList);
 			
-			Collection<FrontlineMessage> messageList;
+			MessageCounts counts;
 			
 			if (selectedIndex == 0) {
-				messageList = messageDao.getMessages(messageType, messageHistoryStart, messageHistoryEnd);
+				counts = messageDao.getMessageCounts(messageType, messageHistoryStart, messageHistoryEnd);
 			} else {
 				if(filterClass == Contact.class) {
 					Contact c = ui.getContact(selectedItem);
-					messageList = messageDao.getMessages(messageType, Arrays.asList(new String[] { c.getPhoneNumber() }), messageHistoryStart, messageHistoryEnd);
+					counts = messageDao.getMessageCounts(messageType, Arrays.asList(new String[] { c.getPhoneNumber() }), messageHistoryStart, messageHistoryEnd);
 				} else if(filterClass == Group.class) {
 					// A Group was selected
 					Group selectedGroup = ui.getGroup(selectedItem);
 					List<String> phoneNumbers = getPhoneNumbers(selectedGroup);
 					if (phoneNumbers.isEmpty()) {
-						messageList = Collections.emptyList();
+						counts = new MessageCounts();
 					} else {
-						messageList = messageDao.getMessages(messageType, phoneNumbers, messageHistoryStart, messageHistoryEnd);
+						counts = messageDao.getMessageCounts(messageType, phoneNumbers, messageHistoryStart, messageHistoryEnd);
 					}
 				} else /* (filterClass == Keyword.class) */ {
 					// Keyword Selected
 					Keyword k = ui.getKeyword(selectedItem);
-					messageList = messageDao.getMessagesForKeyword(messageType, k, messageHistoryStart, messageHistoryEnd);
+					counts = messageDao.getMessageCountsForKeyword(messageType, k, messageHistoryStart, messageHistoryEnd);
 				}
 			}
 			
-			for (FrontlineMessage message : messageList) {
-				if (message.getType().equals(Type.OUTBOUND)) {
-					numberOfSMSPartsSent += message.getNumberOfSMS();
-				} else {
-					numberOfSMSPartsReceived += message.getNumberOfSMS();
-				}
-			}
+			numberOfSMSPartsSent = counts.getSmsPartCount(Type.OUTBOUND);
+			numberOfSMSPartsReceived = counts.getSmsPartCount(Type.ALL) - numberOfSMSPartsSent;
 			
-			return messageList.size();
+			return counts.getMessageCount();
 		}
 	}
 	
@@ -628,36 +640,16 @@ public class MessageHistoryTabHandler extends BaseTabHandler implements PagedCom
 	 * Event triggered when an outgoing message is created or updated.
 	 * @param message The message involved in the event
 	 */
-	public synchronized void outgoingMessageEvent(final FrontlineMessage message) {
-		LOG.debug("Refreshing message list");
-		
-		
-		
-		// If the message is already in the list, we just need to update its row
-		for (int i = 0; i < ui.getItems(messageListComponent).length; i++) {
-			FrontlineMessage e = ui.getMessage(ui.getItem(messageListComponent, i));
-			if (e.equals(message)) {
-				final int index = i;
-				new FrontlineUiUpdateJob() {
-					public void run() {
-						ui.remove(ui.getItem(messageListComponent, index));
-						ui.add(messageListComponent, getRow(message), index);
-					}
-				}.execute();
-				return;
-			}
-		}
-		
-		// If the message is not already in the list, add it if relevant
-		addMessageToList(message);
+	public void outgoingMessageEvent(FrontlineMessage message) {
+		queueMessageUpdate(message);
 	}
 	
 	/**
 	 * Event triggered when an incoming message arrives.
 	 * @param message The message involved in the event
 	 */
-	public synchronized void incomingMessageEvent(FrontlineMessage message) {
-		addMessageToList(message);
+	public void incomingMessageEvent(FrontlineMessage message) {
+		queueMessageUpdate(message);
 	}
 	
 	public void messagesTab_removeMessages() {
@@ -842,18 +834,69 @@ public class MessageHistoryTabHandler extends BaseTabHandler implements PagedCom
 	}
 
 	/**
-	 * Adds a message to the list we are currently viewing, if it is relevant.
-	 * We just add the message to the top of the list, as things will get rather complicated otherwise
-	 * @param message the message to add
+	 * Queues a created or updated message to be shown in the list we are currently viewing, if it is
+	 * already shown or relevant.  Messages are queued for {@link #MESSAGE_UPDATE_INTERVAL} and then
+	 * applied to the list together, so a burst of messages does not flood the UI thread.
+	 * @param message the message to show
+	 */
+	private void queueMessageUpdate(FrontlineMessage message) {
+		if (!messageRowsById.containsKey(message.getId()) && !isRelevantToList(message)) {
+			return;
+		}
+		synchronized (pendingMessageUpdates) {
+			boolean updateScheduled = !pendingMessageUpdates.isEmpty();
+			// Only the latest version of each message needs to be shown
+			pendingMessageUpdates.remove(message.getId());
+			pendingMessageUpdates.put(message.getId(), message);
+			if (!updateScheduled) {
+				if (messageUpdateTimer == null) {
+					messageUpdateTimer = new Timer("Message history update", true);
+				}
+				messageUpdateTimer.schedule(new TimerTask() {
+					@Override
+					public void run() {
+						new FrontlineUiUpdateJob() {
+							public void run() {
+								applyMessageUpdates();
+							}
+						}.execute();
+					}
+				}, MESSAGE_UPDATE_INTERVAL);
+			}
+		}
+	}
+	
+	/** Updates the message list with the messages queued by {@link #queueMessageUpdate(FrontlineMessage)}. */
+	private void applyMessageUpdates() {
+		List<FrontlineMessage> updates;
+		synchronized (pendingMessageUpdates) {
+			updates = new ArrayList<FrontlineMessage>(pendingMessageUpdates.values());
+			pendingMessageUpdates.clear();
+		}
+		LOG.debug("Refreshing message list with [" + updates.size() + "] messages");
+		
+		boolean added = false;
+		for (FrontlineMessage message : updates) {
+			added |= addMessage(message);
+		}
+		if (added) {
+			updateMessageHistoryCost();
+		}
+	}
+	
+	/**
+	 * Checks if a message should be added to the list we are currently viewing.
+	 * @param message the message to check
+	 * @return <code>true</code> if the message matches the selected filter
 	 */
-	private void addMessageToList(final FrontlineMessage message) {
+	private boolean isRelevantToList(FrontlineMessage message) {
 		LOG.trace("ENTER");
 		LOG.debug("Message [" + message + "]");
+		boolean toAdd = false;
 		Object sel = ui.getSelectedItem(contactListComponent); // TODO doesn't seem to do anything for keyword list
 		boolean sent = ui.isSelected(showSentMessagesComponent);
 		boolean received = ui.isSelected(showReceivedMessagesComponent);
 		if (sel != null && ((sent && message.getType() == Type.OUTBOUND) || (received && message.getType() == Type.RECEIVED))) {
-			boolean toAdd = false;
 			if (ui.getSelectedIndex(contactListComponent) == 0) {
 				toAdd = true;
 			} else {
@@ -889,48 +932,67 @@ public class MessageHistoryTabHandler extends BaseTabHandler implements PagedCom
 					toAdd = selected.equals(keyword);
 				}
 			}
-			if (toAdd) {
-				LOG.debug("Time to try to add this message to list...");
-				new FrontlineUiUpdateJob() {
-					public void run() {
-						addMessage(message);
-					}
-				}.execute();
-			}
 		}
 		LOG.trace("EXIT");
+		return toAdd;
 	}
 	
-	private void addMessage(FrontlineMessage message) {
-		// if this message is already in the list, perhaps with a different status, we should just
-		// update the current row rather than adding a new one
-		Object[] messageItems = ui.getItems(messageListComponent);
-		boolean replaced = false;
-		for (int rowIndex = 0; rowIndex < messageItems.length; rowIndex++) {
-			Object currentRowComponent = messageItems[rowIndex];
-			if(message.equals(ui.getAttachedObject(currentRowComponent))) {
-				// replace or update the row in the message table
-				ui.add(messageListComponent, getRow(message), rowIndex);
-				ui.remove(currentRowComponent);
-				replaced = true;
-				break;
-			}
+	/**
+	 * Shows a message in the message list.  If the message is already in the list, perhaps with a
+	 * different status, its row is updated rather than a new one added.
+	 * @param message the message to show
+	 * @return <code>true</code> if a new row was added to the list
+	 */
+	private boolean addMessage(FrontlineMessage message) {
+		Object currentRowComponent = getMessageRow(message);
+		if(currentRowComponent != null) {
+			// update the row in the message table
+			updateRow(currentRowComponent, message);
+			return false;
 		}
 		
-		if(!replaced) {
-			if (ui.getItems(messageListComponent).length < this.messagePagingHandler.getMaxItemsPerPage()) {
-				LOG.debug("There's space! Adding...");
-				ui.add(messageListComponent, getRow(message));
-				ui.setEnabled(messageListComponent, true);
-				if (message.getType() == Type.OUTBOUND) {
-					numberOfSMSPartsSent += message.getNumberOfSMS();
-				} else {
-					numberOfSMSPartsReceived += message.getNumberOfSMS();
-				}
-				
-				updateMessageHistoryCost();
+		if (ui.getItems(messageListComponent).length < this.messagePagingHandler.getMaxItemsPerPage()) {
+			LOG.debug("There's space! Adding...");
+			Object row = getRow(message);
+			ui.add(messageListComponent, row);
+			messageRowsById.put(message.getId(), row);
+			ui.setEnabled(messageListComponent, true);
+			if (message.getType() == Type.OUTBOUND) {
+				numberOfSMSPartsSent += message.getNumberOfSMS();
+			} else {
+				numberOfSMSPartsReceived += message.getNumberOfSMS();
 			}
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * @param message a message
+	 * @return the row of {@link #messageListComponent} displaying the message, or <code>null</code> if it is not displayed
+	 */
+	private Object getMessageRow(FrontlineMessage message) {
+		Object row = messageRowsById.get(message.getId());
+		if(row != null && Thinlet.get(row, ":parent") != messageListComponent) {
+			// The row has been removed from the list since it was indexed
+			messageRowsById.remove(message.getId());
+			row = null;
+		}
+		return row;
+	}
+	
+	/**
+	 * Updates the cells of an existing message row in place, so the row keeps its position and selection.
+	 * @param row the row displaying the message
+	 * @param message the updated message
+	 */
+	private void updateRow(Object row, FrontlineMessage message) {
+		Object[] cells = ui.getItems(row);
+		Object[] updatedCells = ui.getItems(getRow(message));
+		for (int i = 0; i < cells.length && i < updatedCells.length; i++) {
+			ui.setText(cells[i], ui.getText(updatedCells[i]));
 		}
+		ui.setAttachedObject(row, message);
 	}
 
 	/**
@@ -26,6 +26,7 @@ import net.frontlinesms.FrontlineUtils;
 import net.frontlinesms.data.domain.Contact;
 import net.frontlinesms.data.domain.FrontlineMessage;
 import net.frontlinesms.data.domain.Group;
+import net.frontlinesms.messaging.sms.SmsLength;
 import net.frontlinesms.ui.Icon;
 import net.frontlinesms.ui.ThinletUiEventHandler;
 import net.frontlinesms.ui.UiGeneratorController;
@@ -37,7 +38,6 @@ import net.frontlinesms.ui.handler.keyword.BaseActionDialog;
 import net.frontlinesms.ui.i18n.InternationalisationUtils;
 
 import org.apache.log4j.Logger;
-import org.smslib.util.GsmAlphabet;
 
 import thinlet.Thinlet;
 
@@ -249,13 +249,12 @@ public class MessagePanelHandler implements ThinletUiEventHandler, SingleGroupSe
 	 * @param message the new text value for the message body
 	 */
 	public void updateMessageDetails(Object recipients, String message) {
-		int messageLength = message.length();
+		// Measure the message once, in the encoding it will be sent with
+		SmsLength smsLength = SmsLength.forText(message);
 		
 		Object sendButton = find(COMPONENT_BT_SEND);
-		boolean areAllCharactersValidGSM = GsmAlphabet.areAllCharactersValidGSM(message);
-		int totalLengthAllowed = FrontlineMessage.getTotalLengthAllowed(message);
 		
-		boolean shouldEnableSendButton = (messageLength > 0 && (!shouldCheckMaxMessageLength || messageLength <= totalLengthAllowed));
+		boolean shouldEnableSendButton = (smsLength.getLength() > 0 && (!shouldCheckMaxMessageLength || smsLength.isWithinPartLimit()));
 		if (shouldDisplayRecipientField) {
 			if (recipients instanceof Group) {
 				shouldEnableSendButton &= this.numberToSend > 0;
@@ -268,25 +267,13 @@ public class MessagePanelHandler implements ThinletUiEventHandler, SingleGroupSe
 		if (sendButton != null)
 			uiController.setEnabled(sendButton, shouldEnableSendButton);
 		
-		int singleMessageCharacterLimit;
-		int multipartMessageCharacterLimit;
-		if(areAllCharactersValidGSM) {
-			singleMessageCharacterLimit = FrontlineMessage.SMS_LENGTH_LIMIT;
-			multipartMessageCharacterLimit = FrontlineMessage.SMS_MULTIPART_LENGTH_LIMIT;
-		} else {
-			// It appears there are some unicode-only characters here.  We should therefore
-			// treat this message as if it will be sent as unicode.
-			singleMessageCharacterLimit = FrontlineMessage.SMS_LENGTH_LIMIT_UCS2;
-			multipartMessageCharacterLimit = FrontlineMessage.SMS_MULTIPART_LENGTH_LIMIT_UCS2;
-		}
-		
 		Object tfMessage = find(COMPONENT_TF_MESSAGE);
 		Object lbTooManyMessages = find(COMPONENT_LB_TOO_MANY_MESSAGES);
-		final int numberOfMsgs = FrontlineMessage.getExpectedNumberOfSmsParts(message);
+		final int numberOfMsgs = smsLength.getPartCount();
 		
 		double costEstimate;
 		int remaining;		
-		if (shouldCheckMaxMessageLength && messageLength > totalLengthAllowed) {
+		if (shouldCheckMaxMessageLength && !smsLength.isWithinPartLimit()) {
 			remaining = 0;
 			costEstimate = 0;
 			
@@ -298,14 +285,8 @@ public class MessagePanelHandler implements ThinletUiEventHandler, SingleGroupSe
 				uiController.setColor(tfMessage, "foreground", Color.BLACK);
 			}
 			
-			if (messageLength <= singleMessageCharacterLimit) {
-				remaining = (messageLength % singleMessageCharacterLimit) == 0 ? 0
-						: singleMessageCharacterLimit - (messageLength % singleMessageCharacterLimit);	
-			} else {
-				int charCount = messageLength - singleMessageCharacterLimit;
-				remaining = (charCount % multipartMessageCharacterLimit) == 0 ? 0
-						: multipartMessageCharacterLimit - ((charCount % multipartMessageCharacterLimit));
-			}
+			// Remaining characters in the current SMS part.  GSM extension characters count twice.
+			remaining = smsLength.getRemaining();
 			
 			costEstimate = numberOfMsgs * this.getCostPerSms() * this.numberToSend;
 		}
@@ -53,6 +53,8 @@ public class DeviceSettingsDialogHandler implements ThinletUiEventHandler {
 	private static final String COMPONENT_SMSC_NUMBER = "tfSmscNumber";
 	/** UI Component name: textfield containing the PIN */
 	private static final String COMPONENT_SIM_PIN = "tfPin";
+	/** UI Component name: textfield containing the number of messages sent to the device at a time */
+	private static final String COMPONENT_BULK_SEND_SIZE = "tfBulkSendSize";
 
 //> INSTANCE PROPERTIES
 	/** I18n Text Key: TODO */
@@ -87,6 +89,7 @@ public class DeviceSettingsDialogHandler implements ThinletUiEventHandler {
 		if(smscNumber != null) this.ui.setText(this.find(COMPONENT_SMSC_NUMBER), smscNumber);
 		String simPin = this.device.getSimPin();
 		if(simPin != null) this.ui.setText(this.find(COMPONENT_SIM_PIN), simPin);
+		this.ui.setText(this.find(COMPONENT_BULK_SEND_SIZE), Integer.toString(this.device.getBulkSendSize()));
 		
 		if(!isNewPhone) {
 			boolean useForSending = device.isUseForSending();
@@ -172,6 +175,7 @@ public class DeviceSettingsDialogHandler implements ThinletUiEventHandler {
 		}
 		String smscNumber = ui.getText(find(COMPONENT_SMSC_NUMBER));
 		String simPin = ui.getText(find(COMPONENT_SIM_PIN));
+		int bulkSendSize = parseBulkSendSize(ui.getText(find(COMPONENT_BULK_SEND_SIZE)));
 		
 		device.setUseForSending(useForSending);
 		device.setUseDeliveryReports(useDeliveryReports);
@@ -185,6 +189,7 @@ public class DeviceSettingsDialogHandler implements ThinletUiEventHandler {
 			readOnlyUnread = false;
 		}
 		device.setMonitorCalls(monitorCalls);
+		device.setBulkSendSize(bulkSendSize);
 		
 		SmsModemSettingsDao smsModemSettingsDao = ui.getFrontlineController().getSmsModemSettingsDao();
 		SmsModemSettings settings = smsModemSettingsDao.getSmsModemSettings(serial);
@@ -206,6 +211,7 @@ public class DeviceSettingsDialogHandler implements ThinletUiEventHandler {
 		settings.setMonitorCalls(monitorCalls);
 		settings.setSmscNumber(smscNumber);
 		settings.setSimPin(simPin);
+		settings.setBulkSendSize(bulkSendSize);
 		
 		if(newSettings) {
 			smsModemSettingsDao.saveSmsModemSettings(settings);
@@ -228,6 +234,9 @@ public class DeviceSettingsDialogHandler implements ThinletUiEventHandler {
 	/** Used by the {@link SettingsDeviceSectionHandler} */
 	public void pinChanged(String pin) {}
 	
+	/** Used by the {@link SettingsDeviceSectionHandler} */
+	public void bulkSendSizeChanged(String bulkSendSize) {}
+	
 	/** TODO someone please rename this method */
 	public void phoneManagerDetailsUse(Object radioButton) {
 		Object pnPhoneSettings = find(COMPONENT_PN_PHONE_SETTINGS);
@@ -261,6 +270,19 @@ public class DeviceSettingsDialogHandler implements ThinletUiEventHandler {
 		return ui.find(this.dialogComponent, componentName);
 	}
 	
+	/**
+	 * @param text the bulk send size entered by the user
+	 * @return the bulk send size, or <code>0</code> if none was entered, so that the default is used
+	 */
+	private static int parseBulkSendSize(String text) {
+		if(text == null) return 0;
+		try {
+			return Integer.parseInt(text.trim());
+		} catch(NumberFormatException ex) {
+			return 0;
+		}
+	}
+	
 //> DEBUG METHODS
 	public void debug_ussd() {
 		try {
@@ -476,6 +476,7 @@ public class PhoneTabHandler extends BaseTabHandler {
 							}
 							
 							activeService.setMonitorCalls(settings.monitorCalls());
+							activeService.setBulkSendSize(settings.getBulkSendSize());
 						}
 		
 						eventBus.notifyObservers(new HomeTabEventNotification(HomeTabEventNotification.Type.PHONE_CONNECTED, InternationalisationUtils.getI18nString(COMMON_PHONE_CONNECTED) + ": " + activeService.getModel()));
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import net.frontlinesms.AppProperties;
+import net.frontlinesms.data.PooledDataSource;
 import net.frontlinesms.settings.BaseSectionHandler;
 import net.frontlinesms.settings.DatabaseSettings;
 import net.frontlinesms.settings.FrontlineValidationMessage;
@@ -26,9 +27,13 @@ public class SettingsDatabaseSectionHandler extends BaseSectionHandler implement
 	private static final String COMPONENT_SETTINGS_SELECTION = "cbConfigFile";
 	/** The panel containing individual settings controls */
 	private static final String COMPONENT_PN_DATABASE_SETTINGS = "pnSettings";
+	/** The label showing the statistics of the connection pool in use */
+	private static final String COMPONENT_LB_POOL_STATISTICS = "lbPoolStatistics";
 	/** The constant property key for database passwords */
 	private static final String PASSWORD_PROPERTY_KEY = "password";
 	private static final String I18N_MESSAGE_DATABASE_SETTINGS_CHANGED = "message.database.settings.changed";
+	private static final String I18N_DATABASE_POOL_STATISTICS = "common.database.pool.statistics";
+	private static final String I18N_DATABASE_POOL_DISABLED = "common.database.pool.disabled";
 	
 	private static final String SECTION_ITEM_DATABASE_CONFIG_PATH = "GENERAL_DATABASE_CONFIG_PATH";
 	private static final String SECTION_ITEM_DATABASE_CONFIG = "GENERAL_DATABASE_CONFIG_";
@@ -65,6 +70,7 @@ public class SettingsDatabaseSectionHandler extends BaseSectionHandler implement
 		
 		// populate settings panel
 		refreshSettingsPanel();
+		refreshPoolStatistics();
 	}
 	
 	public void deinit() {}
@@ -90,6 +96,9 @@ public class SettingsDatabaseSectionHandler extends BaseSectionHandler implement
 			Object field;
 			if (key.equals(PASSWORD_PROPERTY_KEY)) {
 				field = this.ui.createPasswordfield(key, value);
+			} else if (key.equals(DatabaseSettings.PROPERTY_POOL_ENABLED)) {
+				value = Boolean.toString(this.selectedSettings.isPooled());
+				field = this.ui.createCheckbox(key, "", this.selectedSettings.isPooled());
 			} else {
 				field = this.ui.createTextfield(key, value);
 			}
@@ -135,7 +144,7 @@ public class SettingsDatabaseSectionHandler extends BaseSectionHandler implement
 	 */
 	public void configFieldChanged(Object databaseConfigField) {
 		if (selectedSettings.getFilePath().equals(this.originalValues.get(SECTION_ITEM_DATABASE_CONFIG_PATH))) {
-			this.settingChanged(SECTION_ITEM_DATABASE_CONFIG + this.ui.getAttachedObject(databaseConfigField, String.class), this.ui.getText(databaseConfigField));
+			this.settingChanged(SECTION_ITEM_DATABASE_CONFIG + this.ui.getAttachedObject(databaseConfigField, String.class), getFieldValue(databaseConfigField));
 		}
 	}
 
@@ -184,16 +193,38 @@ public class SettingsDatabaseSectionHandler extends BaseSectionHandler implement
 		
 		ArrayList<Setting> settings = new ArrayList<Setting>();
 		for (int settingIndex=1; settingIndex<settingsComponents.length; settingIndex+=2) {
-			// This code assumes that all settings are in TEXTFIELDS; this may change in the future.
-			Object tf = settingsComponents[settingIndex];
-			String key = this.ui.getName(tf);
-			String value = this.ui.getText(tf);
-			settings.add(new Setting(key, value));
+			Object field = settingsComponents[settingIndex];
+			String key = this.ui.getName(field);
+			settings.add(new Setting(key, getFieldValue(field)));
 		}
 		
 		return settings;
 	}
 	
+	/**
+	 * @param field a component created by {@link #refreshSettingsPanel()} for a setting
+	 * @return the value of the setting displayed in the component
+	 */
+	private String getFieldValue(Object field) {
+		if (DatabaseSettings.PROPERTY_POOL_ENABLED.equals(this.ui.getName(field))) {
+			// Connection pooling is chosen with a checkbox rather than a textfield
+			return Boolean.toString(this.ui.isSelected(field));
+		} else return this.ui.getText(field);
+	}
+	
+	/** Shows the statistics of the connection pool of the database currently in use. */
+	private void refreshPoolStatistics() {
+		Object label = find(COMPONENT_LB_POOL_STATISTICS);
+		if (label != null) {
+			PooledDataSource pool = this.ui.getFrontlineController().getPooledDataSource();
+			if (pool != null && pool.isPooled()) {
+				this.ui.setText(label, InternationalisationUtils.getI18nString(I18N_DATABASE_POOL_STATISTICS, pool.toString()));
+			} else {
+				this.ui.setText(label, InternationalisationUtils.getI18nString(I18N_DATABASE_POOL_DISABLED));
+			}
+		}
+	}
+	
 	/**
 	 * Show this panel as a dialog.  The dialog will be removed by default by the removeDialog method.
 	 * @param titleI18nKey
@@ -17,6 +17,7 @@ public class SettingsDeviceSectionHandler extends BaseSectionHandler implements
 	
 	private static final String UI_COMPONENT_TF_SMSC_NUMBER = "tfSmscNumber";
 	private static final String UI_COMPONENT_TF_SIM_PIN = "tfPin";
+	private static final String UI_COMPONENT_TF_BULK_SEND_SIZE = "tfBulkSendSize";
 	private static final String UI_COMPONENT_PHONE_SENDING = "cbSending";
 	private static final String UI_COMPONENT_PHONE_RECEIVING = "cbReceiving";
 	private static final String UI_COMPONENT_PHONE_DELETE = "cbDeleteMsgs";
@@ -29,6 +30,7 @@ public class SettingsDeviceSectionHandler extends BaseSectionHandler implements
 	
 	private static final String SECTION_ITEM_DEVICE_SMSC_NUMBER = "SERVICES_DEVICES_SMSC_NUMBER";
 	private static final String SECTION_ITEM_DEVICE_SIM_PIN = "SERVICES_DEVICES_PIN";
+	private static final String SECTION_ITEM_DEVICE_BULK_SEND_SIZE = "SERVICES_DEVICES_BULK_SEND_SIZE";
 	private static final String SECTION_ITEM_DEVICE_SETTINGS = "SERVICES_DEVICES_SETTINGS";
 	private static final String SECTION_ITEM_DEVICE_USE = "SERVICES_DEVICES_USE";
 	private static final String SECTION_ITEM_DEVICE_USE_FOR_SENDING = "SERVICES_DEVICES_USE_FOR_SENDING";
@@ -79,6 +81,8 @@ public class SettingsDeviceSectionHandler extends BaseSectionHandler implements
 		
 		String smscNumber = this.getDeviceSettings().getSmscNumber();
 		String simPin = this.getDeviceSettings().getSimPin();
+		int savedBulkSendSize = this.getDeviceSettings().getBulkSendSize();
+		String bulkSendSize = savedBulkSendSize > 0 ? Integer.toString(savedBulkSendSize) : "";
 		
 		if(useForSending || useForReceiving) {
 			this.ui.setSelected(this.find(UI_COMPONENT_PHONE_SENDING), useForSending);
@@ -111,10 +115,12 @@ public class SettingsDeviceSectionHandler extends BaseSectionHandler implements
 		
 		this.ui.setText(find(UI_COMPONENT_TF_SMSC_NUMBER), smscNumber);
 		this.ui.setText(find(UI_COMPONENT_TF_SIM_PIN), simPin);
+		this.ui.setText(find(UI_COMPONENT_TF_BULK_SEND_SIZE), bulkSendSize);
 		
 		// Save the original values for this device
 		this.saveAndMarkUnchanged(SECTION_ITEM_DEVICE_SMSC_NUMBER, smscNumber);
 		this.saveAndMarkUnchanged(SECTION_ITEM_DEVICE_SIM_PIN, simPin);
+		this.saveAndMarkUnchanged(SECTION_ITEM_DEVICE_BULK_SEND_SIZE, bulkSendSize);
 		this.saveAndMarkUnchanged(SECTION_ITEM_DEVICE_SETTINGS, this.getDeviceSettings());
 		this.saveAndMarkUnchanged(SECTION_ITEM_DEVICE_USE, useForReceiving || useForSending || monitorCalls);
 		this.saveAndMarkUnchanged(SECTION_ITEM_DEVICE_USE_FOR_SENDING, useForSending);
@@ -174,6 +180,10 @@ public class SettingsDeviceSectionHandler extends BaseSectionHandler implements
 		settingChanged(SECTION_ITEM_DEVICE_SIM_PIN, simPin);
 	}
 	
+	public void bulkSendSizeChanged(String bulkSendSize) {
+		settingChanged(SECTION_ITEM_DEVICE_BULK_SEND_SIZE, bulkSendSize);
+	}
+	
 	public void showHelpPage(String page) {
 		this.ui.showHelpPage(page);
 	}
@@ -210,6 +220,7 @@ public class SettingsDeviceSectionHandler extends BaseSectionHandler implements
 		
 		this.getDeviceSettings().setSmscNumber(this.ui.getText(find(UI_COMPONENT_TF_SMSC_NUMBER)));
 		this.getDeviceSettings().setSimPin(this.ui.getText(find(UI_COMPONENT_TF_SIM_PIN)));
+		this.getDeviceSettings().setBulkSendSize(parseBulkSendSize(this.ui.getText(find(UI_COMPONENT_TF_BULK_SEND_SIZE))));
 		
 		this.smsModemSettingsDao.updateSmsModemSettings(this.getDeviceSettings());
 	}
@@ -222,6 +233,19 @@ public class SettingsDeviceSectionHandler extends BaseSectionHandler implements
 		return InternationalisationUtils.getI18nString(I18N_SETTINGS_MENU_DEVICES);
 	}
 
+	/**
+	 * @param text the bulk send size entered by the user
+	 * @return the bulk send size, or <code>0</code> if none was entered, so that the default is used
+	 */
+	private static int parseBulkSendSize(String text) {
+		if(text == null) return 0;
+		try {
+			return Integer.parseInt(text.trim());
+		} catch(NumberFormatException ex) {
+			return 0;
+		}
+	}
+
 	public void setDeviceSettings(SmsModemSettings deviceSettings) {
 		this.deviceSettings = deviceSettings;
 	}
@@ -1,10 +1,17 @@
 package net.frontlinesms.ui.i18n;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * International area codes
  * This has been taken from http://countrycode.org/, using the following regexp
  * Find: .*(([A-Z]{2}) / [A-Z]*  ([0-9 ]*[0-9]+)).*
  * Replace: \2\(\"\3\"),
+ * 
+ * Calling codes are indexed in a prefix trie, so the code an international number starts with is
+ * found by walking its digits once.  Phone numbers are compared in their canonical form (see
+ * {@link #toCanonicalForm(String, String)}), "+" followed by the calling code and subscriber number.
  * @author Morgan Belkadi <morgan@frontlinesms.com>
  */
 public enum CountryCallingCode {
@@ -239,6 +246,11 @@ public enum CountryCallingCode {
 	KG("996"),
 	UZ("998");
 	
+//> STATIC CONSTANTS
+	/** Root of the prefix trie of all calling codes */
+	private static final PrefixNode PREFIX_TRIE = createPrefixTrie();
+
+//> INSTANCE PROPERTIES
 	private final String countryCode;
 	/**
 	 * Trunk code for calling internally, or <code>null</code> if unknown.  Value <code>0</code>
@@ -266,10 +278,11 @@ public enum CountryCallingCode {
 	
 //> INSTANCE METHODS
 	public boolean isValidLocalNumber(String phoneNumber) {
-		return phoneNumber.matches(
-				(trunkCode==null?"":trunkCode) +
-				"[\\d]" + 
-				(length==null?"+":"{"+length+"}"));
+		String trunk = trunkCode==null ? "" : trunkCode;
+		if(!phoneNumber.startsWith(trunk)) return false;
+		int digitCount = phoneNumber.length() - trunk.length();
+		if(length==null ? digitCount==0 : digitCount!=length) return false;
+		return isDigits(phoneNumber, trunk.length());
 	}
 	
 //> STATIC METHODS
@@ -277,11 +290,21 @@ public enum CountryCallingCode {
 	 * @param 2-letter country ISO country code
 	 */
 	static String getCountryCode(String country) {
-		if (country == null || country.length()==0) {	
-			return "";
-		} else {
-			CountryCallingCode code = valueOf(country.toUpperCase());
-			return code == null ? "" : code.getCountryCode();
+		CountryCallingCode code = getFromCountry(country);
+		return code == null ? "" : code.getCountryCode();
+	}
+	
+	/**
+	 * @param country 2-letter ISO country code
+	 * @return the calling code of the country, or <code>null</code> if the country is not set or has no calling code here
+	 */
+	public static CountryCallingCode getFromCountry(String country) {
+		if(country == null || country.length() == 0) return null;
+		try {
+			return valueOf(country.toUpperCase());
+		} catch(IllegalArgumentException ex) {
+			// Not every country offered to the user has a calling code declared
+			return null;
 		}
 	}
 	
@@ -290,12 +313,10 @@ public enum CountryCallingCode {
 	 * @param phoneNumber A non-formatted phone number
 	 */
 	public static String format(String phoneNumber, String countryCode) {
-		// Remove the (0) sometimes present is certain numbers.
+		// Remove every character which is not a digit, and the (0) sometimes present in certain numbers.
 		// This 0 MUST NOT be present in the international formatted number
-		String formattedNumber = phoneNumber.replace("(0)", "");
-		
-		// Remove every character which is not a digit
-		formattedNumber = formattedNumber.replaceAll("\\D", "");
+		String formattedNumber = getDigits(phoneNumber);
+		String callingCode = getCountryCode(countryCode);
 		
 		if (phoneNumber.startsWith("+")) {
 			// If the original number was prefixed by ++,
@@ -305,7 +326,7 @@ public enum CountryCallingCode {
 			// If the number was prefixed by the (valid) 00(code) format,
 			// we transform it to the + sign
 			return "+" + formattedNumber.substring(2);
-		} else if (formattedNumber.startsWith(getCountryCode(countryCode))) {
+		} else if (callingCode.length() > 0 && formattedNumber.startsWith(callingCode)) {
 			// If the number was prefixed by the current country code,
 			// we just put a + sign back in front of it.
 			return "+" + formattedNumber;
@@ -315,10 +336,51 @@ public enum CountryCallingCode {
 			formattedNumber = formattedNumber.substring(1);
 		}
 		
-		// NB: even if a + sign had been specified, it's been removed by the replaceAll function
+		// NB: even if a + sign had been specified, it's been removed with the other non-digits
 		// We have to put one back.
 		// We also try to prefix the number with the current country code
-		return "+" + getCountryCode(countryCode) + formattedNumber;
+		return "+" + callingCode + formattedNumber;
+	}
+	
+	/**
+	 * Converts a phone number to its canonical form, so that the same number written in different
+	 * ways can be matched.  For example, "+254712345678", "00254712345678" and, for a user in Kenya,
+	 * "254712345678" and "0712345678" all have the canonical form "+254712345678".
+	 * @param phoneNumber a phone number
+	 * @param country 2-letter ISO country code of the country local numbers are in
+	 * @return the number in international format, or <code>null</code> if it cannot be converted: it
+	 * contains no digits, or it is not in international format and the country has no known calling code
+	 */
+	public static String toCanonicalForm(String phoneNumber, String country) {
+		String digits = getDigits(phoneNumber);
+		if(digits.length() == 0) return null;
+		if(getFromCountry(country) == null && !phoneNumber.startsWith("+") && !digits.startsWith("00")) return null;
+		return format(phoneNumber, country);
+	}
+	
+	/**
+	 * Gets the different ways a phone number is likely to have been written: as supplied, in
+	 * canonical form, in canonical form without the leading '+', and as a local number if it is in
+	 * the supplied country.  If the country has no known calling code, numbers which are not in
+	 * international format cannot be converted, so only the number as supplied is returned for them.
+	 * @param phoneNumber a phone number
+	 * @param country 2-letter ISO country code of the country local numbers are in
+	 * @return the forms of the phone number, without duplicates, starting with the supplied number
+	 */
+	public static List<String> getEquivalentForms(String phoneNumber, String country) {
+		List<String> forms = new ArrayList<String>(4);
+		forms.add(phoneNumber);
+		CountryCallingCode local = getFromCountry(country);
+		String canonical = toCanonicalForm(phoneNumber, country);
+		if(canonical != null) {
+			addIfAbsent(forms, canonical);
+			addIfAbsent(forms, canonical.substring(1));
+			if(local != null && canonical.startsWith(local.countryCode, 1)) {
+				String trunk = local.trunkCode==null ? "0" : local.trunkCode;
+				addIfAbsent(forms, trunk + canonical.substring(1 + local.countryCode.length()));
+			}
+		}
+		return forms;
 	}
 
 	/**
@@ -326,24 +388,96 @@ public enum CountryCallingCode {
 	 * @return <code>true</code> if the number is in a proper international format, <code>false</code> otherwise.
 	 */
 	public static boolean isInInternationalFormat(String msisdn) {
-		return msisdn.matches("\\+\\d+");
+		return msisdn.length() > 1 && msisdn.charAt(0) == '+' && isDigits(msisdn, 1);
 	}
 	
 	public static boolean isValidInternationalNumber(String msisdn) {
-		if(msisdn == null || msisdn.length()==0 || !isInInternationalFormat(msisdn)) return false;
-		msisdn = msisdn.substring(1);
-		for(CountryCallingCode c : values()) {
-			String code = c.getCountryCode();
-			if(msisdn.startsWith(code)) {
-				return c.length==null || msisdn.length()==c.length+code.length();
+		if(msisdn == null || !isInInternationalFormat(msisdn)) return false;
+		CountryCallingCode c = getFromInternationalNumber(msisdn);
+		return c != null && (c.length==null || msisdn.length()==1+c.countryCode.length()+c.length);
+	}
+	
+	/**
+	 * Gets the calling code an international number starts with.  Where calling codes overlap, as
+	 * they do for the countries sharing code 1, the first declared is used.
+	 * @param msisdn a phone number in international format
+	 * @return the calling code the number starts with, or <code>null</code> if none matches
+	 */
+	public static CountryCallingCode getFromInternationalNumber(String msisdn) {
+		CountryCallingCode match = null;
+		PrefixNode node = PREFIX_TRIE;
+		for(int i = msisdn.startsWith("+") ? 1 : 0; i<msisdn.length(); ++i) {
+			int digit = msisdn.charAt(i) - '0';
+			if(digit < 0 || digit > 9) break;
+			node = node.children[digit];
+			if(node == null) break;
+			if(node.code != null && (match == null || node.code.ordinal() < match.ordinal())) {
+				match = node.code;
 			}
 		}
-		return false;
+		return match;
 	}
 
 	public static boolean isValidLocalNumber(String phoneNumber, String userCountry) {
-		CountryCallingCode ccc = valueOf(userCountry.toUpperCase());
+		CountryCallingCode ccc = getFromCountry(userCountry);
 		if(ccc == null) return false;
 		else return ccc.isValidLocalNumber(phoneNumber);
 	}
+
+//> STATIC HELPER METHODS
+	/** @return the prefix trie of all calling codes, each node holding the first declared code ending there */
+	private static PrefixNode createPrefixTrie() {
+		PrefixNode root = new PrefixNode();
+		for(CountryCallingCode c : values()) {
+			PrefixNode node = root;
+			for(int i=0; i<c.countryCode.length(); ++i) {
+				int digit = c.countryCode.charAt(i) - '0';
+				if(node.children[digit] == null) node.children[digit] = new PrefixNode();
+				node = node.children[digit];
+			}
+			if(node.code == null) node.code = c;
+		}
+		return root;
+	}
+	
+	/**
+	 * @param phoneNumber a phone number
+	 * @return the digits of the phone number, excluding any "(0)"
+	 */
+	private static String getDigits(String phoneNumber) {
+		StringBuilder digits = new StringBuilder(phoneNumber.length());
+		for(int i=0; i<phoneNumber.length(); ++i) {
+			char c = phoneNumber.charAt(i);
+			if(c >= '0' && c <= '9') digits.append(c);
+			else if(phoneNumber.startsWith("(0)", i)) i += 2;
+		}
+		return digits.toString();
+	}
+	
+	/**
+	 * @param s a string
+	 * @param start the index to check from
+	 * @return <code>true</code> if every character of the string from the start index is an ASCII digit
+	 */
+	private static boolean isDigits(String s, int start) {
+		for(int i=start; i<s.length(); ++i) {
+			char c = s.charAt(i);
+			if(c < '0' || c > '9') return false;
+		}
+		return true;
+	}
+	
+	/** Adds a value to a list if it is not already in it. */
+	private static void addIfAbsent(List<String> list, String value) {
+		if(!list.contains(value)) list.add(value);
+	}
+
+//> INNER CLASSES
+	/** Node of the calling code prefix trie, reached by the digits of a calling code prefix. */
+	private static final class PrefixNode {
+		/** Child nodes, indexed by the next digit */
+		private final PrefixNode[] children = new PrefixNode[10];
+		/** The calling code made of the digits leading to this node, or <code>null</code> if there is none */
+		private CountryCallingCode code;
+	}
 }
@@ -602,4 +602,20 @@ public class InternationalisationUtils {
 	public static String getInternationalPhoneNumber(String phoneNumber) {
 		return CountryCallingCode.format(phoneNumber, AppProperties.getInstance().getUserCountry());
 	}
+	
+	/**
+	 * Gets the canonical form of the supplied phone number, using the user's country for local numbers.
+	 * @see CountryCallingCode#toCanonicalForm(String, String)
+	 */
+	public static String getCanonicalPhoneNumber(String phoneNumber) {
+		return CountryCallingCode.toCanonicalForm(phoneNumber, AppProperties.getInstance().getUserCountry());
+	}
+	
+	/**
+	 * Gets the different ways the supplied phone number is likely to have been written, using the user's country for local numbers.
+	 * @see CountryCallingCode#getEquivalentForms(String, String)
+	 */
+	public static List<String> getEquivalentPhoneNumbers(String phoneNumber) {
+		return CountryCallingCode.getEquivalentForms(phoneNumber, AppProperties.getInstance().getUserCountry());
+	}
 }
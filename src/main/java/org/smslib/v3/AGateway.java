@@ -321,7 +321,7 @@ public abstract class AGateway
 		return statistics.inbound;
 	}
 
-	public void incInboundMessageCount()
+	public synchronized void incInboundMessageCount()
 	{
 		statistics.inbound++;
 	}
@@ -336,7 +336,7 @@ public abstract class AGateway
 		return statistics.outbound;
 	}
 
-	public void incOutboundMessageCount()
+	public synchronized void incOutboundMessageCount()
 	{
 		statistics.outbound++;
 	}
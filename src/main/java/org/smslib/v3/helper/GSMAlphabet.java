@@ -256,20 +256,86 @@ public class GSMAlphabet
 			'\u00E0', // LATIN SMALL LETTER A WITH GRAVE
 	};
 
+	/** Marks a value in {@link #charToSeptet} as an extension table character, sent as an escape followed by the septet */
+	private static final int EXTENDED = 0x100;
+
+	/** Marks a value in {@link #charToSeptet} as a character which is not in the alphabet, but is sent as a similar-looking one */
+	private static final int REMAPPED = 0x200;
+
+	/** Value in {@link #charToSeptet} for characters which cannot be sent */
+	private static final short UNMAPPED = -1;
+
+	/** The septet used for a standard or extension table character after {@link #ESCAPE} */
+	private static final int SEPTET_MASK = 0x7f;
+
+	/** Septet introducing an extension table character */
+	private static final int ESCAPE = 0x1b;
+
+	/**
+	 * The septet each character in the Basic Multilingual Plane is sent as, combined with {@link #EXTENDED}
+	 * or {@link #REMAPPED}, or {@link #UNMAPPED} if it cannot be sent.  Indexed by character, so each lookup
+	 * takes constant time.
+	 */
+	private static final short[] charToSeptet = new short[Character.MAX_VALUE + 1];
+
+	/** The character each extension table septet represents, or <code>0</code> if there is none */
+	private static final char[] extSeptetToChar = new char[SEPTET_MASK + 1];
+
+	static
+	{
+		java.util.Arrays.fill(charToSeptet, UNMAPPED);
+		for (int i = 0; i < grcAlphabetRemapping.length; i++)
+		{
+			int septet = indexOf(stdAlphabet, grcAlphabetRemapping[i][1]);
+			if (septet != -1) charToSeptet[grcAlphabetRemapping[i][0]] = (short) (septet | REMAPPED);
+		}
+		// Standard characters take precedence over Greek lookalikes
+		for (int i = 0; i < stdAlphabet.length; i++)
+			charToSeptet[stdAlphabet[i]] = (short) i;
+		// Extension characters take precedence over everything
+		for (int i = 0; i < extAlphabet.length; i++)
+		{
+			int septet = Integer.parseInt(extBytes[i].substring(2, 4), 16);
+			charToSeptet[extAlphabet[i]] = (short) (septet | EXTENDED);
+			extSeptetToChar[septet] = extAlphabet[i];
+		}
+	}
+
+	private static int indexOf(char[] alphabet, char ch)
+	{
+		for (int i = 0; i < alphabet.length; i++)
+			if (alphabet[i] == ch) return i;
+		return -1;
+	}
+
+	/**
+	 * Gets the number of septets a character takes when sent exactly in the default alphabet.
+	 * Characters which would only be sent as a lookalike, and the escape character itself, are not
+	 * counted as being in the alphabet.
+	 * @param ch the character
+	 * @return 1 for a standard character, 2 for an extension table character, or 0 if the character
+	 * cannot be sent exactly
+	 */
+	public static int septetCount(char ch)
+	{
+		int septet = charToSeptet[ch];
+		if (septet == UNMAPPED || (septet & REMAPPED) != 0 || septet == ESCAPE) return 0;
+		return (septet & EXTENDED) != 0 ? 2 : 1;
+	}
+
 	public static String bytesToString(byte[] bytes)
 	{
 		StringBuffer text;
-		String extChar;
-		int i, j;
+		int i;
 
-		text = new StringBuffer();
+		text = new StringBuffer(bytes.length);
 		for (i = 0; i < bytes.length; i++)
 		{
-			if (bytes[i] == 0x1b)
+			if (bytes[i] == ESCAPE)
 			{
-				extChar = "1b" + Integer.toHexString(bytes[++i]);
-				for (j = 0; j < extBytes.length; j++)
-					if (extBytes[j].equalsIgnoreCase(extChar)) text.append(extAlphabet[j]);
+				if (++i == bytes.length) break;
+				char ch = extSeptetToChar[bytes[i] & SEPTET_MASK];
+				if (ch != 0) text.append(ch);
 			}
 			else text.append(stdAlphabet[bytes[i]]);
 		}
@@ -278,65 +344,25 @@ public class GSMAlphabet
 
 	public static int stringToBytes(String text, byte[] bytes)
 	{
-		int i, j, k, index;
-		char ch;
+		int i, k, septet;
 		k = 0;
 		for (i = 0; i < text.length(); i++)
 		{
-			ch = text.charAt(i);
-			index = -1;
-			for (j = 0; j < extAlphabet.length; j++)
-				if (extAlphabet[j] == ch)
-				{
-					index = j;
-					break;
-				}
-			if (index != -1) // An extended char...
+			septet = charToSeptet[text.charAt(i)];
+			if (septet == UNMAPPED)
+			// Unknown char replacement...
+			{
+				bytes[k++] = (byte) ' ';
+			}
+			else if ((septet & EXTENDED) != 0) // An extended char...
 			{
-				bytes[k] = (byte) Integer.parseInt(extBytes[index].substring(0, 2), 16);
-				k++;
-				bytes[k] = (byte) Integer.parseInt(extBytes[index].substring(2, 4), 16);
-				k++;
+				bytes[k++] = (byte) ESCAPE;
+				bytes[k++] = (byte) (septet & SEPTET_MASK);
 			}
 			else
-			// Maybe a standard char...
+			// A standard char, or a Greek char sent as its lookalike...
 			{
-				index = -1;
-				for (j = 0; j < stdAlphabet.length; j++)
-					if (stdAlphabet[j] == ch)
-					{
-						index = j;
-						bytes[k] = (byte) j;
-						k++;
-						break;
-					}
-				if (index == -1) // Maybe a Greek Char...
-				{
-					for (j = 0; j < grcAlphabetRemapping.length; j++)
-						if (grcAlphabetRemapping[j][0] == ch)
-						{
-							index = j;
-							ch = grcAlphabetRemapping[j][1];
-							break;
-						}
-					if (index != -1)
-					{
-						for (j = 0; j < stdAlphabet.length; j++)
-							if (stdAlphabet[j] == ch)
-							{
-								index = j;
-								bytes[k] = (byte) j;
-								k++;
-								break;
-							}
-					}
-					else
-					// Unknown char replacement...
-					{
-						bytes[k] = (byte) ' ';
-						k++;
-					}
-				}
+				bytes[k++] = (byte) (septet & SEPTET_MASK);
 			}
 		}
 		return k;
@@ -25,8 +25,11 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.smslib.v3.AGateway;
 import org.smslib.v3.DeliveryStatuses;
@@ -49,12 +52,17 @@ public class ClickatellHTTPGateway extends HTTPGateway
 {
 	private String apiId, username, password;
 
-	private String sessionId;
+	private volatile String sessionId;
 
 	private KeepAlive keepAlive;
 
 	private boolean secure;
 
+	/**
+	 * Serialises session management (authentication and keep-alive pings) and delivery queries, which
+	 * share state. Sends and other queries are independent HTTP requests and are not serialised, so that
+	 * several messages can be sent at once.
+	 */
 	Object SYNC_Commander;
 
 	private String HTTP = "http://";
@@ -141,10 +149,7 @@ public class ClickatellHTTPGateway extends HTTPGateway
 		if (sessionId == null) throw new GatewayException("Internal Clickatell Gateway error.");
 		url = new URL((secure ? HTTPS : HTTP) + URL_BALANCE);
 		request.add(new HttpHeader("session_id", sessionId, false));
-		synchronized (SYNC_Commander)
-		{
-			response = HttpPost(url, request);
-		}
+		response = HttpPost(url, request);
 		if (((String) response.get(0)).indexOf("Credit:") == 0) return Float.parseFloat(((String) response.get(0)).substring(((String) response.get(0)).indexOf(':') + 1));
 		else return -1;
 	}
@@ -159,10 +164,7 @@ public class ClickatellHTTPGateway extends HTTPGateway
 		url = new URL((secure ? HTTPS : HTTP) + URL_COVERAGE);
 		request.add(new HttpHeader("session_id", sessionId, false));
 		request.add(new HttpHeader("msisdn", msg.getRecipient().substring(1), false));
-		synchronized (SYNC_Commander)
-		{
-			response = HttpPost(url, request);
-		}
+		response = HttpPost(url, request);
 		if (((String) response.get(0)).indexOf("OK") == 0) return true;
 		else return false;
 	}
@@ -266,8 +268,43 @@ public class ClickatellHTTPGateway extends HTTPGateway
 		else return true;
 	}
 
-	@SuppressWarnings("unchecked")
 	public boolean sendMessage(OutboundMessage msg) throws TimeoutException, GatewayException, IOException, InterruptedException
+	{
+		return sendMessage(msg, Collections.singletonList(msg));
+	}
+
+	/**
+	 * Sends the content of the first message in the list to the recipients of
+	 * all of the messages in the list, using a single request. The messages
+	 * should differ only in their recipients. The status of each message is
+	 * set from the part of the response relating to its recipient.
+	 * 
+	 * @param msgList
+	 *            A list of OutboundMessage objects with the same content.
+	 * @return The number of messages sent.
+	 */
+	@SuppressWarnings("unchecked")
+	public int sendBulkMessage(List msgList) throws TimeoutException, GatewayException, IOException, InterruptedException
+	{
+		if (msgList.isEmpty()) return 0;
+		sendMessage((OutboundMessage) msgList.get(0), msgList);
+		int cnt = 0;
+		for (int i = 0; i < msgList.size(); i++)
+			if (((OutboundMessage) msgList.get(i)).getMessageStatus() == MessageStatuses.SENT) cnt++;
+		return cnt;
+	}
+
+	/**
+	 * Sends the content of a message to one or more recipients.
+	 * 
+	 * @param msg
+	 *            The message whose content is sent.
+	 * @param recipients
+	 *            OutboundMessage objects for each recipient; may include msg.
+	 * @return True if the message was sent to at least one recipient.
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean sendMessage(OutboundMessage msg, List recipients) throws TimeoutException, GatewayException, IOException, InterruptedException
 	{
 		URL url;
 		List request = new ArrayList();
@@ -290,7 +327,13 @@ public class ClickatellHTTPGateway extends HTTPGateway
 				return false;
 			}
 			request.add(new HttpHeader("session_id", sessionId, false));
-			request.add(new HttpHeader("to", msg.getRecipient().substring(1), false));
+			StringBuilder to = new StringBuilder();
+			for (int i = 0; i < recipients.size(); i++)
+			{
+				if (i != 0) to.append(',');
+				to.append(((OutboundMessage) recipients.get(i)).getRecipient().substring(1));
+			}
+			request.add(new HttpHeader("to", to.toString(), false));
 			request.add(new HttpHeader("concat", "3", false));
 			
 			String from = msg.getFrom();
@@ -335,7 +378,8 @@ public class ClickatellHTTPGateway extends HTTPGateway
 				if (msg.getStatusReport()) requestFeatures += 8192;
 				request.add(new HttpHeader("req_feat", "" + requestFeatures, false));
 			}
-			ok = sendRequest(msg, url, request, ok);
+			if (recipients.size() == 1) ok = sendRequest(msg, url, request, ok);
+			else ok = sendBulkRequest(recipients, url, request);
 		}
 		catch (MalformedURLException e)
 		{
@@ -360,22 +404,89 @@ public class ClickatellHTTPGateway extends HTTPGateway
 	private boolean sendRequest(OutboundMessage msg, URL url, List request,
 			boolean ok) throws IOException {
 		List response;
-		synchronized (SYNC_Commander)
+		response = HttpPost(url, request);
+		return handleResponse(msg, (String) response.get(0));
+	}
+
+	/**
+	 * Sends a request addressed to several recipients, and sets the status of
+	 * each recipient's message from the response line for its number.
+	 * 
+	 * @param recipients
+	 *            OutboundMessage objects for each recipient of the request.
+	 * @return True if the message was sent to at least one recipient.
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean sendBulkRequest(List recipients, URL url, List request) throws IOException
+	{
+		List response;
+		response = HttpPost(url, request);
+		return handleBulkResponse(recipients, response);
+	}
+
+	/**
+	 * Sets the status of each recipient's message from the lines of a sendmsg
+	 * response to a request addressed to several recipients. Lines of the form
+	 * "ID: ... To: ..." and "ERR: ... To: ..." apply to the recipient named;
+	 * any other line applies to every recipient.
+	 * 
+	 * @param recipients
+	 *            OutboundMessage objects for each recipient of the request.
+	 * @param response
+	 *            The lines of the response.
+	 * @return True if the message was sent to at least one recipient.
+	 */
+	/* not private to allow unit testing */
+	@SuppressWarnings("unchecked")
+	boolean handleBulkResponse(List recipients, List response)
+	{
+		Map byNumber = new HashMap();
+		for (int i = 0; i < recipients.size(); i++)
 		{
-			response = HttpPost(url, request);
+			OutboundMessage msg = (OutboundMessage) recipients.get(i);
+			byNumber.put(msg.getRecipient().substring(1), msg);
 		}
-		if (((String) response.get(0)).indexOf("ID:") == 0)
+		boolean ok = false;
+		for (int i = 0; i < response.size(); i++)
+		{
+			String line = (String) response.get(i);
+			int toIndex = line.indexOf(" To: ");
+			if (toIndex == -1)
+			{
+				// The response does not relate to a single recipient, so applies to all of them
+				for (int j = 0; j < recipients.size(); j++)
+					ok |= handleResponse((OutboundMessage) recipients.get(j), line);
+			}
+			else
+			{
+				OutboundMessage msg = (OutboundMessage) byNumber.get(line.substring(toIndex + 5).trim());
+				if (msg != null) ok |= handleResponse(msg, line.substring(0, toIndex));
+			}
+		}
+		return ok;
+	}
+
+	/**
+	 * Sets the status of a message from a line of a sendmsg response.
+	 * 
+	 * @return True if the response shows that the message was sent.
+	 */
+	private boolean handleResponse(OutboundMessage msg, String response)
+	{
+		boolean ok = false;
+		if (response.indexOf("ID:") == 0)
 		{
-			msg.setRefNo(((String) response.get(0)).substring(4));
+			msg.setRefNo(response.substring(4));
 			msg.setDispatchDate(new Date());
 			msg.setGatewayId(gtwId);
 			msg.setMessageStatus(MessageStatuses.SENT);
 			incOutboundMessageCount();
 			ok = true;
 		}
-		else if (((String) response.get(0)).indexOf("ERR:") == 0)
+		else if (response.indexOf("ERR:") == 0)
 		{
-			switch (Integer.parseInt(((String) response.get(0)).substring(5, 8)))
+			switch (Integer.parseInt(response.substring(5, 8)))
 			{
 				case 1:
 				case 2:
@@ -0,0 +1,149 @@
+/**
+ *
+ */
+package net.frontlinesms;
+
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+import net.frontlinesms.data.domain.Email;
+import net.frontlinesms.data.domain.EmailAccount;
+import net.frontlinesms.email.EmailUtils;
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link EmailSender}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class EmailSenderTest extends BaseTestCase {
+	/** Maximum time, in millis, to wait for e-mails to be sent.  This is much less than the time an idle sender waits for work. */
+	private static final long WAIT_TIMEOUT = 5000;
+
+	/** The account e-mails are sent from */
+	private EmailAccount account;
+	/** The sender under test */
+	private TestEmailSender sender;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		account = new EmailAccount("test@frontlinesms.net", "frontlinesms.net", 25, "secretpassword", false, false, EmailUtils.SMTP);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		if(sender != null) sender.stopRunning();
+	}
+
+	/** The connection to the server should be kept open and re-used for later e-mails. */
+	public void testConnectionKeptOpenBetweenEmails() throws Exception {
+		Transport transport = createTransport();
+		startSender(transport);
+
+		Email first = sendEmail();
+		awaitStatus(first, Email.Status.SENT);
+		Email second = sendEmail();
+		awaitStatus(second, Email.Status.SENT);
+
+		assertEquals(1, sender.connectCount);
+		verify(transport, times(2)).sendMessage(any(Message.class), any(Address[].class));
+		verify(transport, never()).close();
+	}
+
+	/** If the server has dropped the connection, it should be re-opened and the e-mail sent again. */
+	public void testDroppedConnectionReopened() throws Exception {
+		Transport dropped = createTransport();
+		when(dropped.isConnected()).thenReturn(false);
+		doThrow(new MessagingException("Thrown to test dropped connection.")).when(dropped).sendMessage(any(Message.class), any(Address[].class));
+		Transport reopened = createTransport();
+		startSender(dropped, reopened);
+
+		Email email = sendEmail();
+		awaitStatus(email, Email.Status.SENT);
+
+		assertEquals(2, sender.connectCount);
+		verify(reopened).sendMessage(any(Message.class), any(Address[].class));
+	}
+
+	/** E-mails waiting to retry after failing to connect should be sent without another e-mail being queued. */
+	public void testRetriedEmailSentAfterFailedConnection() throws Exception {
+		startSender(null, createTransport());
+
+		Email email = sendEmail();
+		awaitStatus(email, Email.Status.SENT);
+
+		assertEquals(2, sender.connectCount);
+	}
+
+//> HELPER METHODS
+	/**
+	 * Creates and starts {@link #sender}.
+	 * @param connections the connections to the server, in the order they will be opened; <code>null</code> for a failed connection
+	 */
+	private void startSender(Transport... connections) {
+		sender = new TestEmailSender(account, Arrays.asList(connections));
+		sender.SLEEP_TIME = 10;
+		sender.start();
+	}
+
+	/** @return a mock connection to the server */
+	private static Transport createTransport() {
+		Transport transport = mock(Transport.class);
+		when(transport.isConnected()).thenReturn(true);
+		return transport;
+	}
+
+	/** @return an e-mail which has been passed to {@link #sender} */
+	private Email sendEmail() {
+		Email email = new Email(account, "someone@frontlinesms.net", "subject", "content");
+		sender.sendEmail(email);
+		return email;
+	}
+
+	/**
+	 * Waits for an e-mail to reach a status, failing if it takes longer than {@link #WAIT_TIMEOUT}.
+	 * @param email the e-mail
+	 * @param status the status to wait for
+	 */
+	private static void awaitStatus(Email email, Email.Status status) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+		while(email.getStatus() != status) {
+			if(System.currentTimeMillis() > deadline) fail("E-mail status was [" + email.getStatus() + "], expected [" + status + "]");
+			Thread.sleep(10);
+		}
+	}
+}
+
+/**
+ * {@link EmailSender} which opens mock connections rather than connecting to a server.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+class TestEmailSender extends EmailSender {
+	/** The connections to open, in order; <code>null</code> entries fail to connect */
+	private final List<Transport> connections;
+	/** The number of times a connection has been opened */
+	volatile int connectCount;
+
+	TestEmailSender(EmailAccount account, List<Transport> connections) {
+		super(account, null);
+		this.connections = new ArrayList<Transport>(connections);
+	}
+
+	@Override
+	Transport connect(Session session) throws MessagingException {
+		Transport connection = connections.get(Math.min(connectCount, connections.size() - 1));
+		++connectCount;
+		if(connection == null) throw new MessagingException("Thrown to test failed connection.");
+		return connection;
+	}
+}
@@ -0,0 +1,190 @@
+/**
+ *
+ */
+package net.frontlinesms.data;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link PooledDataSource}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class PooledDataSourceTest extends BaseTestCase {
+	/** The pool under test */
+	private PooledDataSource pool;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		DriverManagerDataSource target = new DriverManagerDataSource();
+		target.setDriverClassName("org.h2.Driver");
+		target.setUrl("jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1");
+
+		pool = new PooledDataSource();
+		pool.setTargetDataSource(target);
+		pool.setMinSize(1);
+		pool.setMaxSize(2);
+		pool.setMaxWait(100);
+		pool.setValidationQuery("SELECT 1");
+		pool.afterPropertiesSet();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		pool.destroy();
+		super.tearDown();
+	}
+
+	public void testConnectionsAreReused() throws SQLException {
+		assertEquals(1, pool.getCreatedCount());
+
+		Connection c1 = pool.getConnection();
+		assertEquals(1, pool.getActiveCount());
+		c1.close();
+		assertTrue(c1.isClosed());
+		assertEquals(0, pool.getActiveCount());
+		assertEquals(1, pool.getIdleCount());
+
+		Connection c2 = pool.getConnection();
+		c2.close();
+		assertEquals(1, pool.getCreatedCount());
+	}
+
+	public void testPoolLimit() throws SQLException {
+		Connection c1 = pool.getConnection();
+		Connection c2 = pool.getConnection();
+		assertEquals(2, pool.getOpenCount());
+		try {
+			pool.getConnection();
+			fail("Connection should not have been available from a full pool.");
+		} catch(SQLException ex) { /* expected */ }
+		assertEquals(1, pool.getTimeoutCount());
+
+		c1.close();
+		pool.getConnection().close();
+		c2.close();
+		assertEquals(2, pool.getOpenCount());
+	}
+
+	public void testStatementCache() throws SQLException {
+		Connection c = pool.getConnection();
+		PreparedStatement s1 = c.prepareStatement("SELECT 1");
+		s1.executeQuery().close();
+		s1.close();
+		assertEquals(0, pool.getStatementCacheHits());
+		assertEquals(1, pool.getStatementCacheMisses());
+
+		PreparedStatement s2 = c.prepareStatement("SELECT 1");
+		// While s2 is open, the same SQL cannot share its cached statement
+		PreparedStatement s3 = c.prepareStatement("SELECT 1");
+		assertEquals(1, pool.getStatementCacheHits());
+		assertEquals(2, pool.getStatementCacheMisses());
+		s3.close();
+		s2.close();
+		c.close();
+	}
+
+	public void testUncommittedWorkIsRolledBack() throws SQLException {
+		Connection c = pool.getConnection();
+		c.createStatement().execute("CREATE TABLE IF NOT EXISTS pool_test(id INT)");
+		c.setAutoCommit(false);
+		c.createStatement().execute("INSERT INTO pool_test VALUES(1)");
+		c.close();
+
+		c = pool.getConnection();
+		assertTrue(c.getAutoCommit());
+		ResultSet rs = c.createStatement().executeQuery("SELECT COUNT(*) FROM pool_test");
+		rs.next();
+		assertEquals(0, rs.getInt(1));
+		rs.close();
+		c.close();
+	}
+
+	public void testStatementsLeftOpenAreClosed() throws SQLException {
+		Connection c = pool.getConnection();
+		Statement statement = c.createStatement();
+		PreparedStatement cached = c.prepareStatement("SELECT 1");
+		// The cached statement is in use, so this one is not cached
+		PreparedStatement uncached = c.prepareStatement("SELECT 1");
+		c.close();
+
+		assertTrue(statement.isClosed());
+		assertTrue(cached.isClosed());
+		assertTrue(uncached.isClosed());
+
+		// The cached statement was returned to the cache
+		c = pool.getConnection();
+		c.prepareStatement("SELECT 1").close();
+		assertEquals(1, pool.getStatementCacheHits());
+		c.close();
+	}
+
+	public void testPhysicalConnectionIsNotExposed() throws SQLException {
+		Connection c = pool.getConnection();
+		Statement statement = c.createStatement();
+		assertSame(c, statement.getConnection());
+		ResultSet rs = statement.executeQuery("SELECT 1");
+		assertSame(statement, rs.getStatement());
+		assertSame(c, c.getMetaData().getConnection());
+		assertSame(c, c.unwrap(Connection.class));
+		assertFalse(c.isWrapperFor(org.h2.jdbc.JdbcConnection.class));
+		try {
+			c.unwrap(org.h2.jdbc.JdbcConnection.class);
+			fail("Physical connection should not be exposed.");
+		} catch(SQLException ex) { /* expected */ }
+		rs.close();
+		statement.close();
+		c.close();
+	}
+
+	public void testConnectionStateIsRestored() throws SQLException {
+		Connection c = pool.getConnection();
+		int defaultIsolation = c.getTransactionIsolation();
+		int otherIsolation = defaultIsolation == Connection.TRANSACTION_SERIALIZABLE
+				? Connection.TRANSACTION_READ_COMMITTED : Connection.TRANSACTION_SERIALIZABLE;
+		c.setTransactionIsolation(otherIsolation);
+		c.setReadOnly(true);
+		c.close();
+
+		c = pool.getConnection();
+		assertEquals(1, pool.getCreatedCount());
+		assertEquals(defaultIsolation, c.getTransactionIsolation());
+		assertFalse(c.isReadOnly());
+		c.close();
+	}
+
+	public void testConnectionWithCredentialsIsNotPooled() throws SQLException {
+		long borrowedCount = pool.getBorrowedCount();
+		Connection c = pool.getConnection("sa", "");
+		assertEquals(borrowedCount, pool.getBorrowedCount());
+		assertEquals(1, pool.getOpenCount());
+		c.close();
+	}
+
+	public void testPoolingDisabled() throws SQLException {
+		pool.destroy();
+		DriverManagerDataSource target = new DriverManagerDataSource();
+		target.setDriverClassName("org.h2.Driver");
+		target.setUrl("jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1");
+		pool = new PooledDataSource();
+		pool.setTargetDataSource(target);
+		pool.setPooled(false);
+		pool.afterPropertiesSet();
+		assertFalse(pool.isPooled());
+
+		Connection c = pool.getConnection();
+		c.close();
+		assertTrue(c.isClosed());
+		assertEquals(0, pool.getCreatedCount());
+		assertEquals(0, pool.getBorrowedCount());
+		assertEquals(0, pool.getOpenCount());
+	}
+}
@@ -7,15 +7,21 @@ import static org.mockito.Mockito.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
 
+import net.frontlinesms.csv.CsvImportReport;
 import net.frontlinesms.csv.CsvParseException;
 import net.frontlinesms.csv.CsvRowFormat;
 import net.frontlinesms.csv.CsvUtils;
 import net.frontlinesms.data.DuplicateKeyException;
 import net.frontlinesms.data.domain.Contact;
 import net.frontlinesms.data.domain.Group;
+import net.frontlinesms.data.domain.GroupMembership;
 import net.frontlinesms.data.importexport.ContactCsvImporter;
 import net.frontlinesms.data.repository.ContactDao;
 import net.frontlinesms.data.repository.GroupDao;
@@ -65,10 +71,76 @@ public class ContactCsvImporterTest extends HibernateTestCase {
 		GroupDao groupDao = mock(GroupDao.class);
 		GroupMembershipDao groupMembershipDao = mock(GroupMembershipDao.class);
 		
-		new ContactCsvImporter(importFile).importContacts(contactDao, groupMembershipDao, groupDao, rowFormat);
+		CsvImportReport report = new ContactCsvImporter(importFile).importContacts(contactDao, groupMembershipDao, groupDao, rowFormat);
+		
+		Contact morgan = new Contact("Morgan", "07691321654", "", "", "dangerous", false);
+		Contact testNumber = new Contact("Test Number", "000", "", "", "", true);
+		Contact alex = new Contact("alex", "123456789", "", "", "", true);
+		Contact laura = new Contact("laura", "07788112233", "+44123456789", "lol@example.com", "", true);
+		
+		// New contacts, and their group memberships, should each be saved together
+		verify(contactDao).saveContacts(Arrays.asList(morgan, testNumber, alex, laura));
+		verify(contactDao, never()).saveContact(any(Contact.class));
+		verify(groupMembershipDao).addMembers(Arrays.asList(
+				new GroupMembership(ContactCsvImporter.createGroups(groupDao, "/wrecking crew"), morgan),
+				new GroupMembership(ContactCsvImporter.createGroups(groupDao, "/a/b"), morgan),
+				new GroupMembership(ContactCsvImporter.createGroups(groupDao, "/a/b/c/d"), laura),
+				new GroupMembership(ContactCsvImporter.createGroups(groupDao, "/rootChildren"), laura)));
+		verify(groupMembershipDao, never()).addMember(any(Group.class), any(Contact.class));
+		
+		assertTrue(report.isSuccessful());
+		assertEquals(4, report.getRowCount());
+		assertEquals(4, report.getCreatedCount());
+		assertEquals(0, report.getExistingCount());
+	}
+	
+	@SuppressWarnings("unchecked")
+	public void testImportExistingContacts() throws IOException, CsvParseException, DuplicateKeyException {
+		File importFile = new File(RESOURCE_PATH + "WithGroups.csv");
+		CsvRowFormat rowFormat = getRowFormatForContacts();
+		
+		ContactDao contactDao = mock(ContactDao.class);
+		GroupDao groupDao = mock(GroupDao.class);
+		GroupMembershipDao groupMembershipDao = mock(GroupMembershipDao.class);
+		
+		Contact existingLaura = new Contact("Laura", "07788112233", "", "", "", true);
+		Map<String, Contact> existingContacts = new HashMap<String, Contact>();
+		existingContacts.put("07788112233", existingLaura);
+		when(contactDao.getFromMsisdns(any(Collection.class))).thenReturn(existingContacts);
+		
+		CsvImportReport report = new ContactCsvImporter(importFile).importContacts(contactDao, groupMembershipDao, groupDao, rowFormat);
+		
+		Contact morgan = new Contact("Morgan", "07691321654", "", "", "dangerous", false);
+		Contact testNumber = new Contact("Test Number", "000", "", "", "", true);
+		Contact alex = new Contact("alex", "123456789", "", "", "", true);
+		
+		// Existing contacts should not be saved again, but should still be added to their groups
+		verify(contactDao).saveContacts(Arrays.asList(morgan, testNumber, alex));
+		verify(groupMembershipDao).addMember(ContactCsvImporter.createGroups(groupDao, "/a/b/c/d"), existingLaura);
+		verify(groupMembershipDao).addMember(ContactCsvImporter.createGroups(groupDao, "/rootChildren"), existingLaura);
+		
+		assertEquals(4, report.getRowCount());
+		assertEquals(3, report.getCreatedCount());
+		assertEquals(1, report.getExistingCount());
+	}
+
+	/** A report supplied to the import should be updated with its progress, so that it can be polled while the import runs. */
+	public void testImportUpdatesSuppliedReport() throws IOException, CsvParseException {
+		File importFile = new File(RESOURCE_PATH + "WithGroups.csv");
+		CsvRowFormat rowFormat = getRowFormatForContacts();
+		
+		ContactDao contactDao = mock(ContactDao.class);
+		GroupDao groupDao = mock(GroupDao.class);
+		GroupMembershipDao groupMembershipDao = mock(GroupMembershipDao.class);
+		
+		CsvImportReport report = new CsvImportReport();
+		assertEquals(0, report.getRowCount());
+		assertSame(report, new ContactCsvImporter(importFile).importContacts(contactDao, groupMembershipDao, groupDao, rowFormat, report));
 		
-		verify(contactDao, times(4)).saveContact(any(Contact.class));
-		// TODO: check creation of groups
+		assertTrue(report.isSuccessful());
+		assertEquals(4, report.getRowCount());
+		assertEquals(4, report.getCreatedCount());
+		assertEquals(0, report.getExistingCount());
 	}
 
 	public void testImportContactStatus () throws IOException, CsvParseException, DuplicateKeyException {
@@ -86,10 +158,7 @@ public class ContactCsvImporterTest extends HibernateTestCase {
 		Contact alex = new Contact("alex", "123456789", "", "", "dangerous", false);
 		Contact laura = new Contact("laura", "07788112233", "+44123456789", "lol@example.com", "", true);
 		
-		verify(contactDao).saveContact(morgan);
-		verify(contactDao).saveContact(testNumber);
-		verify(contactDao).saveContact(alex);
-		verify(contactDao).saveContact(laura);
+		verify(contactDao).saveContacts(Arrays.asList(morgan, testNumber, alex, laura));
 	}
 	
 //> PRIVATE HELPER METHODS
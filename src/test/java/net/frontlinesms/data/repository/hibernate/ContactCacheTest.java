@@ -0,0 +1,165 @@
+/**
+ * 
+ */
+package net.frontlinesms.data.repository.hibernate;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.frontlinesms.data.domain.Contact;
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link ContactCache}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class ContactCacheTest extends BaseTestCase {
+	/** Contacts which the cache under test loads, by phone number */
+	private final Map<String, Contact> contacts = new HashMap<String, Contact>();
+	/** The number of times the cache under test has loaded a contact */
+	private int loadCount;
+	/** The cache under test */
+	private ContactCache cache;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		cache = new ContactCache(2) {
+			@Override
+			protected Contact load(String phoneNumber) {
+				++loadCount;
+				return contacts.get(phoneNumber);
+			}
+		};
+	}
+
+	public void testHitsAndMisses() {
+		Contact alice = createContact(1, "+123");
+
+		assertSame(alice, cache.get("+123"));
+		assertSame(alice, cache.get("+123"));
+		assertEquals(1, loadCount);
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(0.5, cache.getHitRate());
+	}
+
+	public void testMissingContactCached() {
+		assertNull(cache.get("+999"));
+		assertNull(cache.get("+999"));
+		assertEquals(1, loadCount);
+
+		// Alice's number may be written differently from the number looked up
+		Contact alice = createContact(1, "0999");
+		contacts.put("+999", alice);
+		cache.invalidate(alice);
+		assertSame(alice, cache.get("+999"));
+	}
+
+	/** The same number written in different ways should share one entry. */
+	public void testNumbersCachedInCanonicalForm() {
+		Contact alice = createContact(1, "+447890123456");
+
+		assertSame(alice, cache.get("+447890123456"));
+		assertSame(alice, cache.get("0044 7890 123456"));
+		assertSame(alice, cache.get("+44 (0)7890 123-456"));
+		assertEquals(1, loadCount);
+		assertEquals(1, cache.size());
+	}
+
+	public void testGetAll() {
+		Contact alice = createContact(1, "+1");
+		Contact bob = createContact(2, "+2");
+		cache.get("+1");
+
+		Map<String, Contact> found = cache.getAll(Arrays.asList("+1", "+2", "+3", null));
+		assertEquals(2, found.size());
+		assertSame(alice, found.get("+1"));
+		assertSame(bob, found.get("+2"));
+		assertEquals(3, loadCount);
+
+		// Alice is discarded as least recently used; Bob and the missing number are cached
+		found = cache.getAll(Arrays.asList("+2", "+3"));
+		assertEquals(1, found.size());
+		assertSame(bob, found.get("+2"));
+		assertEquals(3, loadCount);
+		assertEquals(3, cache.getHitCount());
+		assertEquals(3, cache.getMissCount());
+	}
+
+	public void testLeastRecentlyUsedDiscarded() {
+		createContact(1, "+1");
+		createContact(2, "+2");
+		createContact(3, "+3");
+
+		cache.get("+1");
+		cache.get("+2");
+		cache.get("+1");
+		cache.get("+3");
+		assertEquals(2, cache.size());
+		assertEquals(3, loadCount);
+
+		cache.get("+1");
+		assertEquals(3, loadCount);
+		cache.get("+2");
+		assertEquals(4, loadCount);
+	}
+
+	public void testInvalidateChangedPhoneNumber() {
+		Contact alice = createContact(1, "+1");
+		cache.get("+1");
+
+		// Alice's number changes, so her entry must go even though the contact no longer has it
+		contacts.remove("+1");
+		Contact changed = createContact(1, "+2");
+		cache.invalidate(changed);
+
+		assertNull(cache.get("+1"));
+		assertSame(changed, cache.get("+2"));
+		assertNotSame(alice, changed);
+	}
+
+	public void testClear() {
+		createContact(1, "+1");
+		cache.get("+1");
+		cache.clear();
+		assertEquals(0, cache.size());
+		cache.get("+1");
+		assertEquals(2, loadCount);
+	}
+
+	public void testStaleLoadNotCached() {
+		final Contact alice = createContact(1, "+1");
+		cache = new ContactCache(2) {
+			@Override
+			protected Contact load(String phoneNumber) {
+				++loadCount;
+				// Simulate the contact being changed while it is loaded
+				invalidate(alice);
+				return contacts.get(phoneNumber);
+			}
+		};
+
+		assertSame(alice, cache.get("+1"));
+		assertEquals(0, cache.size());
+	}
+
+//> HELPER METHODS
+	/**
+	 * Creates a contact which the cache under test can load.
+	 * @param id the id of the contact
+	 * @param phoneNumber the phone number of the contact
+	 * @return the contact
+	 */
+	private Contact createContact(long id, String phoneNumber) {
+		Contact contact = mock(Contact.class);
+		when(contact.getId()).thenReturn(id);
+		when(contact.getPhoneNumber()).thenReturn(phoneNumber);
+		contacts.put(phoneNumber, contact);
+		return contact;
+	}
+}
@@ -0,0 +1,157 @@
+/**
+ * 
+ */
+package net.frontlinesms.data.repository.hibernate;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import net.frontlinesms.data.domain.Contact;
+import net.frontlinesms.data.domain.Group;
+import net.frontlinesms.data.domain.GroupMembership;
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link GroupMembershipIndex}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class GroupMembershipIndexTest extends BaseTestCase {
+	/** Memberships which the index under test loads */
+	private final List<GroupMembership> memberships = new ArrayList<GroupMembership>();
+	/** The number of times the index under test has been loaded */
+	private int loadCount;
+	/** The index under test */
+	private GroupMembershipIndex index;
+
+	private final Group root = new Group(null, null);
+	private final Group parent = new Group(root, "parent");
+	private final Group child1 = new Group(parent, "child1");
+	private final Group child2 = new Group(parent, "child2");
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		index = new GroupMembershipIndex() {
+			@Override
+			protected Collection<GroupMembership> load() {
+				++loadCount;
+				return new ArrayList<GroupMembership>(memberships);
+			}
+		};
+	}
+
+	public void testSubgroupMembers() {
+		Contact alice = createContact(1, true);
+		Contact bob = createContact(2, true);
+		Contact charlie = createContact(3, true);
+		addMembership(child1, alice);
+		addMembership(child2, alice);
+		addMembership(child2, bob);
+		addMembership(parent, charlie);
+
+		assertEquals(Arrays.asList(alice, bob, charlie), index.getMembers(parent));
+		assertEquals(3, index.getMemberCount(parent));
+		assertEquals(Arrays.asList(alice), index.getMembers(child1));
+		assertEquals(2, index.getMemberCount(child2));
+		assertTrue(index.isMember(parent, bob));
+		assertFalse(index.isMember(child1, bob));
+		assertEquals(1, loadCount);
+	}
+
+	public void testPaging() {
+		for(int id=1; id<=5; ++id) {
+			addMembership(child1, createContact(id, true));
+		}
+		assertEquals(2, index.getMembers(parent, 1, 2).size());
+		assertEquals(3, index.getMembers(parent, 1, 2).get(1).getId());
+		assertEquals(1, index.getMembers(parent, 4, 2).size());
+		assertTrue(index.getMembers(parent, 5, 2).isEmpty());
+	}
+
+	public void testActiveMembers() {
+		Contact active = createContact(1, true);
+		Contact inactive = createContact(2, false);
+		addMembership(child1, active);
+		addMembership(child1, inactive);
+
+		assertEquals(Arrays.asList(active), index.getActiveMembers(parent));
+
+		Contact reactivated = createContact(2, true);
+		index.update(reactivated);
+		assertEquals(Arrays.asList(active, reactivated), index.getActiveMembers(parent));
+	}
+
+	public void testAddAndRemove() {
+		Contact alice = createContact(1, true);
+		addMembership(child1, alice);
+		assertEquals(1, index.getMemberCount(parent));
+
+		// Applying a change which was already loaded has no effect
+		index.add(child1.getPath(), alice);
+		index.add(child2.getPath(), alice);
+		assertEquals(1, index.getMemberCount(parent));
+
+		index.remove(child1.getPath(), alice);
+		assertTrue(index.isMember(parent, alice));
+		assertFalse(index.isMember(child1, alice));
+		index.remove(child1.getPath(), alice);
+		assertTrue(index.isMember(parent, alice));
+
+		index.remove(child2.getPath(), alice);
+		assertEquals(0, index.getMemberCount(parent));
+		assertEquals(1, loadCount);
+	}
+
+	public void testRemoveContact() {
+		Contact alice = createContact(1, true);
+		Contact bob = createContact(2, true);
+		addMembership(child1, alice);
+		addMembership(child2, alice);
+		addMembership(child2, bob);
+		assertEquals(2, index.getMemberCount(parent));
+
+		index.removeContact(alice);
+		assertEquals(Arrays.asList(bob), index.getMembers(parent));
+		assertEquals(0, index.getMemberCount(child1));
+	}
+
+	public void testChangesBeforeLoadIgnored() {
+		Contact alice = createContact(1, true);
+		index.add(child1.getPath(), alice);
+		assertFalse(index.isLoaded());
+		assertEquals(0, index.getMemberCount(parent));
+	}
+
+	public void testClear() {
+		addMembership(child1, createContact(1, true));
+		assertEquals(1, index.getMemberCount(parent));
+
+		memberships.clear();
+		index.clear();
+		assertEquals(0, index.getMemberCount(parent));
+		assertEquals(2, loadCount);
+	}
+
+//> HELPER METHODS
+	/**
+	 * @param id the id of the contact
+	 * @param active <code>true</code> if the contact is active
+	 * @return a contact
+	 */
+	private Contact createContact(long id, boolean active) {
+		Contact contact = mock(Contact.class);
+		when(contact.getId()).thenReturn(id);
+		when(contact.isActive()).thenReturn(active);
+		return contact;
+	}
+
+	/** Adds a membership for the index under test to load. */
+	private void addMembership(Group group, Contact contact) {
+		memberships.add(new GroupMembership(group, contact));
+	}
+}
@@ -3,8 +3,11 @@
  */
 package net.frontlinesms.data.repository.hibernate;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import net.frontlinesms.data.DuplicateKeyException;
 import net.frontlinesms.data.domain.Contact;
@@ -52,6 +55,67 @@ public class HibernateContactDaoTest extends HibernateTestCase {
 		} catch(DuplicateKeyException ex) {/* expected */}
 	}
 	
+	/** Phone numbers should be stored in canonical form, so the same number cannot be saved twice by writing it differently. */
+	public void testPhoneNumbersStoredInCanonicalForm() throws DuplicateKeyException {
+		Contact one = new Contact("Jeremy 1", "+44 7890 123-456", null, null, null, true);
+		contactDao.saveContact(one);
+		assertEquals("+447890123456", one.getPhoneNumber());
+		assertEquals(one, contactDao.getFromMsisdn("+447890123456"));
+
+		Contact two = new Contact("Jeremy 2", "0044 7890 123456", null, null, null, true);
+		try {
+			contactDao.saveContact(two);
+			fail("Saving the same number written differently has been successful.");
+		} catch(DuplicateKeyException ex) {/* expected */}
+
+		assertEquals(0, contactDao.canonicalisePhoneNumbers());
+	}
+
+	/** Test cases for {@link ContactDao#getFromMsisdns(java.util.Collection)} */
+	public void testGetFromMsisdns() throws DuplicateKeyException {
+		Contact one = new Contact("Jeremy 1", "+123456789", null, null, null, true);
+		contactDao.saveContact(one);
+		Contact two = new Contact("Jeremy 2", "+987654321", null, null, null, true);
+		contactDao.saveContact(two);
+		
+		Map<String, Contact> contacts = contactDao.getFromMsisdns(Arrays.asList("+123456789", "+987654321", "+555", null));
+		assertEquals(2, contacts.size());
+		assertEquals(one, contacts.get("+123456789"));
+		assertEquals(two, contacts.get("+987654321"));
+		
+		assertTrue(contactDao.getFromMsisdns(Arrays.asList("+555")).isEmpty());
+		
+		// Numbers are matched however they are written, and keyed on the number as supplied
+		contacts = contactDao.getFromMsisdns(Arrays.asList("00123456789"));
+		assertEquals(1, contacts.size());
+		assertEquals(one, contacts.get("00123456789"));
+	}
+	
+	/** Test that {@link ContactDao#getContactsAfter(Contact, int)} pages through every contact exactly once, in order of ID. */
+	public void testGetContactsAfter() {
+		createContactForFiltering("Abril");
+		createContactForFiltering("Acacia");
+		createContactForFiltering("Alicia");
+		createContactForFiltering("Alita");
+		createContactForFiltering("Clara");
+		
+		List<Contact> paged = new ArrayList<Contact>();
+		Contact previous = null;
+		List<Contact> page;
+		do {
+			page = contactDao.getContactsAfter(previous, 2);
+			assertTrue(page.size() <= 2);
+			paged.addAll(page);
+			if(page.size() > 0) previous = page.get(page.size() - 1);
+		} while(page.size() > 0);
+		
+		assertEquals(5, paged.size());
+		assertTrue(paged.containsAll(contactDao.getAllContacts()));
+		for(int i=1; i<paged.size(); ++i) {
+			assertTrue(paged.get(i - 1).getId() < paged.get(i).getId());
+		}
+	}
+	
 	/** Test cases for {@link ContactDao#getContactsFilteredByName(String, int, int)} */
 	public void testFilterByName() {
 		// Set up the test data
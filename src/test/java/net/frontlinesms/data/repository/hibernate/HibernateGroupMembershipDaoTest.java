@@ -52,6 +52,30 @@ public class HibernateGroupMembershipDaoTest extends HibernateTestCase {
 		testRelationship(group);
 	}
 	
+	/** Pages of members should be ordered by contact ID, so that paging through a group returns each member exactly once. */
+	public void testMembersPagedInContactIdOrder() throws DuplicateKeyException {
+		Group parent = createGroup("parent");
+		Group child = createGroup(parent, "child");
+		Contact[] members = new Contact[] {
+				createContact("Zed", "+111000001", child),
+				createContact("Amy", "+111000002", parent),
+				createContact("Mo", "+111000003", child, parent),
+				createContact("Bea", "+111000004", child),
+				createContact("Yan", "+111000005", parent),
+		};
+		
+		for(Group group : new Group[] { getRootGroup(), parent }) {
+			List<Contact> paged = new ArrayList<Contact>();
+			for(int startIndex = 0; startIndex < members.length; startIndex += 2) {
+				paged.addAll(this.groupMembershipDao.getMembers(group, startIndex, 2));
+			}
+			assertEqualsIgnoreOrder("paged members of " + group.getPath(), members, paged);
+			for(int i = 1; i < paged.size(); i++) {
+				assertTrue("Members not in order of contact ID", paged.get(i - 1).getId() < paged.get(i).getId());
+			}
+		}
+	}
+	
 	public void testFiltering() throws DuplicateKeyException {
 		// Create the groups
 		Group parent = createGroup("parent");
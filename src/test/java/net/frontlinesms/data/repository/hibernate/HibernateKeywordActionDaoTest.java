@@ -95,6 +95,25 @@ public class HibernateKeywordActionDaoTest extends HibernateTestCase {
 		assertEquals(randomIncrements + 1, this.keywordActionDao.getActions(this.testKeyword).get(0).getCounter());
 	}
 	
+	public void testKeywordActionsFlushCounters() {
+		KeywordAction action = KeywordAction.createReplyAction(this.testKeyword, "some reply text", 14343274L, 21340345L);
+		this.keywordActionDao.saveKeywordAction(action);
+		
+		for (int i = 0 ; i < 3 ; ++i) {
+			this.keywordActionDao.incrementCounter(action);
+		}
+		this.keywordActionDao.flushCounters();
+		assertEquals(3, action.getCounter());
+		assertEquals(3, this.keywordActionDao.getAction(this.testKeyword, KeywordAction.Type.REPLY).getCounter());
+		
+		// Updating the action must not overwrite the counter
+		this.keywordActionDao.updateKeywordAction(action);
+		this.keywordActionDao.incrementCounter(action);
+		this.keywordActionDao.flushCounters();
+		this.keywordActionDao.flushCounters();
+		assertEquals(4, this.keywordActionDao.getActions(this.testKeyword).get(0).getCounter());
+	}
+	
 //> INIT METHODS
 	@Override
 	protected void onSetUp() throws Exception {
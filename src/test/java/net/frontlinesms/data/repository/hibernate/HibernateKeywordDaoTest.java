@@ -179,6 +179,25 @@ public class HibernateKeywordDaoTest extends HibernateTestCase {
 		testKeywordMatching(blankKeyword, "my one two three is a four five six");
 	}
 	
+	/**
+	 * Tests that keyword matching reflects keywords which are deleted after matching has started.
+	 * @throws DuplicateKeyException if there was a problem creating a keyword required by this test
+	 */
+	public void testKeywordMatchingAfterDelete() throws DuplicateKeyException {
+		Keyword keyword1 = new Keyword("one", "");
+		dao.saveKeyword(keyword1);
+		Keyword keyword1a = new Keyword("one a", "");
+		dao.saveKeyword(keyword1a);
+
+		testKeywordMatching(keyword1a, "one a message");
+
+		dao.deleteKeyword(keyword1a);
+		testKeywordMatching(keyword1, "one a message");
+
+		dao.deleteKeyword(keyword1);
+		testKeywordMatching(blankKeyword, "one a message");
+	}
+
 	private void testKeywordMatching(Keyword expectedKeyword, String messageText) {
 		Keyword fetchedKeyword = dao.getFromMessageText(messageText);
 		assertEquals("Incorrect keyword retrieved for message text: '" + messageText + "'", expectedKeyword, fetchedKeyword);
@@ -11,6 +11,7 @@ import java.util.TimeZone;
 
 
 import net.frontlinesms.data.DuplicateKeyException;
+import net.frontlinesms.data.MessageCounts;
 import net.frontlinesms.data.Order;
 import net.frontlinesms.data.domain.Contact;
 import net.frontlinesms.data.domain.FrontlineMessage.Status;
@@ -24,6 +25,8 @@ import net.frontlinesms.data.repository.KeywordDao;
 import net.frontlinesms.data.repository.MessageDao;
 import net.frontlinesms.junit.HibernateTestCase;
 
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.support.AopUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
@@ -59,6 +62,23 @@ public class HibernateMessageDaoTest extends HibernateTestCase {
 		}
 	}
 
+	/** Test saving several messages in one transaction. */
+	public void testSaveMessages() {
+		List<FrontlineMessage> messages = new ArrayList<FrontlineMessage>();
+		for(int i=0; i<3; ++i) {
+			messages.add(FrontlineMessage.createIncomingMessage(DATE_2000 + i, ARTHUR, BERNADETTE, "Message " + i));
+		}
+		dao.saveMessages(messages);
+		
+		assertEquals(3, dao.getSMSCount(0l, Long.MAX_VALUE));
+		assertEquals(3, dao.getSMSCountForMsisdn(ARTHUR, 0l, Long.MAX_VALUE));
+		List<FrontlineMessage> saved = dao.getAllMessages(Type.RECEIVED, FrontlineMessage.Field.DATE, Order.ASCENDING, null, null, 0, 10);
+		assertEquals(3, saved.size());
+		for(int i=0; i<3; ++i) {
+			assertEquals("Message " + i, saved.get(i).getTextContent());
+		}
+	}
+	
 	/**
 	 * Test everything all at once!
 	 */
@@ -83,7 +103,7 @@ public class HibernateMessageDaoTest extends HibernateTestCase {
 		assertEquals(0, dao.getSMSCount(startTime, Long.MAX_VALUE));
 	}
 	
-	public void testGetSimilarKeywords() throws DuplicateKeyException {
+	public void testGetSimilarKeywords() throws Exception {
 		// Create a number of keywords and messages, and perform queries over them
 		createKeywords("", "te", "test", "test complex", "test other complex", "test complex again", "distraction", "another distraction");
 		testGetSimilarKeywords("", "te", "test", "test complex", "test other complex", "test complex again", "distraction", "another distraction");
@@ -96,8 +116,8 @@ public class HibernateMessageDaoTest extends HibernateTestCase {
 		testGetSimilarKeywords("another distraction");
 	}
 	
-	private void testGetSimilarKeywords(String keyword, String... expectedMatches) {
-		HibernateMessageDao dao = (HibernateMessageDao) this.dao;
+	private void testGetSimilarKeywords(String keyword, String... expectedMatches) throws Exception {
+		HibernateMessageDao dao = getDaoImplementation();
 		
 		// Convert expectedMathches to upper case
 		for (int i = 0; i < expectedMatches.length; i++) {
@@ -197,6 +217,81 @@ public class HibernateMessageDaoTest extends HibernateTestCase {
 		}
 	}
 	
+	/** Test that {@link MessageDao#getMessagesAfter(Type, Order, Long, Long, FrontlineMessage, int)} pages through every message exactly once. */
+	public void testGetMessagesAfter() {
+		createMessagesWithParameters("", "test");
+		final int totalMessageCount = dao.getMessageCount(Type.ALL, null, null);
+		
+		for(Order order : Order.values()) {
+			List<FrontlineMessage> fetched = new ArrayList<FrontlineMessage>();
+			FrontlineMessage previous = null;
+			List<FrontlineMessage> page;
+			do {
+				page = dao.getMessagesAfter(Type.ALL, order, null, null, previous, 3);
+				assertTrue(page.size() <= 3);
+				fetched.addAll(page);
+				if(page.size() > 0) previous = page.get(page.size() - 1);
+			} while(page.size() > 0);
+			
+			assertEquals(totalMessageCount, fetched.size());
+			for(int i=1; i<fetched.size(); ++i) {
+				FrontlineMessage a = fetched.get(i - 1);
+				FrontlineMessage b = fetched.get(i);
+				if(order == Order.ASCENDING) {
+					assertTrue(a.getDate() < b.getDate() || (a.getDate() == b.getDate() && a.getId() < b.getId()));
+				} else {
+					assertTrue(a.getDate() > b.getDate() || (a.getDate() == b.getDate() && a.getId() > b.getId()));
+				}
+			}
+		}
+	}
+	
+	/** Test that the aggregate {@link MessageCounts} agree with the messages they count. */
+	public void testGetMessageCounts() throws DuplicateKeyException {
+		createKeywords("", "test");
+		createMessagesWithParameters("", "test");
+		// A message long enough to need more than one SMS part
+		StringBuilder longText = new StringBuilder("test");
+		while(longText.length() < 400) longText.append(" long");
+		createMessages(longText.toString(), DATE_1990);
+		
+		List<String> phoneNumbers = Arrays.asList("test sender");
+		for(Type type : new Type[]{Type.ALL, Type.RECEIVED, Type.OUTBOUND}) {
+			for(Long[] dates : new Long[][]{{null, null}, {DATE_1980, DATE_1990}, {DATE_2000, null}}) {
+				assertCounts(dao.getMessages(type, dates[0], dates[1]),
+						dao.getMessageCounts(type, dates[0], dates[1]));
+				assertCounts(dao.getMessages(type, phoneNumbers, dates[0], dates[1]),
+						dao.getMessageCounts(type, phoneNumbers, dates[0], dates[1]));
+				Keyword keyword = new Keyword("test", "");
+				assertCounts(dao.getMessagesForKeyword(type, keyword, dates[0], dates[1]),
+						dao.getMessageCountsForKeyword(type, keyword, dates[0], dates[1]));
+			}
+		}
+		
+		MessageCounts counts = dao.getMessageCounts(Type.ALL, null, null);
+		assertEquals(42, counts.getMessageCount());
+		assertEquals(21, counts.getMessageCount(Type.OUTBOUND));
+		assertTrue(counts.getSmsPartCount(Type.OUTBOUND) > 21);
+	}
+	
+	/** Asserts that some {@link MessageCounts} describe a list of messages. */
+	private void assertCounts(List<FrontlineMessage> messages, MessageCounts counts) {
+		assertEquals(messages.size(), counts.getMessageCount());
+		int outboundCount = 0;
+		int outboundSmsParts = 0;
+		int totalSmsParts = 0;
+		for(FrontlineMessage m : messages) {
+			if(m.getType() == Type.OUTBOUND) {
+				++outboundCount;
+				outboundSmsParts += m.getNumberOfSMS();
+			}
+			totalSmsParts += m.getNumberOfSMS();
+		}
+		assertEquals(outboundCount, counts.getMessageCount(Type.OUTBOUND));
+		assertEquals(outboundSmsParts, counts.getSmsPartCount(Type.OUTBOUND));
+		assertEquals(totalSmsParts, counts.getSmsPartCount(Type.ALL));
+	}
+	
 	private void createMessagesWithParameters(String... keywords) {
 		for(String keyword : keywords) {
 			String prefix = keyword.length() > 0 ? keyword + " " : "";
@@ -276,6 +371,24 @@ public class HibernateMessageDaoTest extends HibernateTestCase {
 		assertTrue("Message count mismatch for keyword: '" + keywordString + "'", incomingMessageCount == outgoingMessageCount);
 		assertTrue("Message count mismatch for keyword: '" + keywordString + "'", allMessageCount == 2 * incomingMessageCount);
 		assertEquals("Unexpected message count for keyword: '" + keywordString + "'", expectedMessageCount, incomingMessageCount);	
+		
+		// Paging through the messages should fetch each message exactly once, in order
+		List<FrontlineMessage> paged = new ArrayList<FrontlineMessage>();
+		FrontlineMessage previous = null;
+		List<FrontlineMessage> page;
+		do {
+			page = dao.getMessagesForKeywordAfter(FrontlineMessage.Type.ALL, keyword, previous, 2);
+			assertTrue(page.size() <= 2);
+			paged.addAll(page);
+			if(page.size() > 0) previous = page.get(page.size() - 1);
+		} while(page.size() > 0);
+		assertEquals("Paged message count mismatch for keyword: '" + keywordString + "'", allMessageCount, paged.size());
+		assertTrue(paged.containsAll(allMessagesForBlankKeyword));
+		for(int i=1; i<paged.size(); ++i) {
+			FrontlineMessage a = paged.get(i - 1);
+			FrontlineMessage b = paged.get(i);
+			assertTrue(a.getDate() < b.getDate() || (a.getDate() == b.getDate() && a.getId() < b.getId()));
+		}
 	}
 	
 	/** TODO may not be necessary to create keywords. */
@@ -398,6 +511,25 @@ public class HibernateMessageDaoTest extends HibernateTestCase {
 		cleanupMessagesAndContactsAndEndTransaction();
 	}
 	
+	public void testSenderNameSetForNumberWrittenDifferently() throws Exception {
+		// given
+		assertEquals(0, dao.getAllMessages().size());
+		dao.saveMessage(FrontlineMessage.createIncomingMessage(DATE_2010, "00447890123456", "987", "test"));
+		contactDao.saveContact(new Contact("bob", "+447890123456", null, null, null, true));
+		setComplete();
+		endTransaction();
+		startNewTransaction();
+		
+		// when
+		FrontlineMessage m = dao.getAllMessages().get(0);
+		
+		// then
+		assertEquals("bob", m.getSenderName());
+		
+		// cleanup
+		cleanupMessagesAndContactsAndEndTransaction();
+	}
+	
 	public void testRecipientNameBlank() {
 		// given
 		assertEquals(0, dao.getAllMessages().size());
@@ -435,6 +567,60 @@ public class HibernateMessageDaoTest extends HibernateTestCase {
 		cleanupMessagesAndContactsAndEndTransaction();
 	}
 	
+	public void testContactNamesSetByAllQueries() throws Exception {
+		// given
+		assertEquals(0, dao.getAllMessages().size());
+		dao.saveMessage(FrontlineMessage.createIncomingMessage(DATE_2010, "123", "987", "test message"));
+		contactDao.saveContact(new Contact("bob", "123", null, null, null, true));
+		contactDao.saveContact(new Contact("carol", "987", null, null, null, true));
+		setComplete();
+		endTransaction();
+		startNewTransaction();
+		
+		// when
+		Keyword keyword = new Keyword("test", "");
+		List<FrontlineMessage> paged = dao.getAllMessages(FrontlineMessage.Type.ALL, FrontlineMessage.Field.DATE, Order.ASCENDING, null, null, 0, 10);
+		List<FrontlineMessage> forKeyword = dao.getMessagesForKeyword(FrontlineMessage.Type.ALL, keyword);
+		List<FrontlineMessage> forKeywordPaged = dao.getMessagesForKeyword(FrontlineMessage.Type.ALL, keyword, FrontlineMessage.Field.DATE, Order.ASCENDING, null, null, 0, 10);
+		List<FrontlineMessage> forMsisdn = dao.getMessagesForMsisdn(FrontlineMessage.Type.ALL, "123", FrontlineMessage.Field.DATE, Order.ASCENDING, null, null, 0, 10);
+		List<FrontlineMessage> forStati = dao.getMessagesForStati(FrontlineMessage.Type.ALL, FrontlineMessage.Status.values(), FrontlineMessage.Field.DATE, Order.ASCENDING, 0, 10);
+		
+		// then
+		for(List<FrontlineMessage> messages : Arrays.asList(paged, forKeyword, forKeywordPaged, forMsisdn, forStati)) {
+			assertEquals(1, messages.size());
+			assertEquals("bob", messages.get(0).getSenderName());
+			assertEquals("carol", messages.get(0).getRecipientName());
+		}
+		
+		// cleanup
+		cleanupMessagesAndContactsAndEndTransaction();
+	}
+	
+	public void testSenderNameUpdatedWithContact() throws Exception {
+		// given
+		assertEquals(0, dao.getAllMessages().size());
+		dao.saveMessage(FrontlineMessage.createIncomingMessage(DATE_2010, "123", "987", "test"));
+		Contact bob = new Contact("bob", "123", null, null, null, true);
+		contactDao.saveContact(bob);
+		setComplete();
+		endTransaction();
+		startNewTransaction();
+		assertEquals("bob", dao.getAllMessages().get(0).getSenderName());
+
+		// when
+		bob.setName("robert");
+		contactDao.updateContact(bob);
+		setComplete();
+		endTransaction();
+		startNewTransaction();
+
+		// then
+		assertEquals("robert", dao.getAllMessages().get(0).getSenderName());
+
+		// cleanup
+		cleanupMessagesAndContactsAndEndTransaction();
+	}
+
 	public void testGetForStatusUpdateShouldGetNullIfNoMatch() {
 		// expect
 		assertNull(dao.getMessageForStatusUpdate(TEST_MSISDN, 1));
@@ -479,6 +665,32 @@ public class HibernateMessageDaoTest extends HibernateTestCase {
 		assertEquals(pendingMessage, dao.getMessageForStatusUpdate(TEST_MSISDN, 3));
 	}
 	
+	/** Test paging through the outbox with {@link MessageDao#getMessagesAfterId(Type, long, long, int, Status[])}. */
+	public void testGetMessagesAfterId() {
+		assertEquals(0, dao.getMaxMessageId(Type.OUTBOUND, Status.OUTBOX, Status.PENDING));
+		
+		List<FrontlineMessage> waiting = new ArrayList<FrontlineMessage>();
+		for(int i=0; i<7; ++i) {
+			waiting.add(createMessageWithStatus(i%2==0 ? Status.OUTBOX : Status.PENDING, i));
+			createMessageWithStatus(Status.SENT, i);
+		}
+		long maxId = dao.getMaxMessageId(Type.OUTBOUND, Status.OUTBOX, Status.PENDING);
+		assertEquals(waiting.get(waiting.size() - 1).getId(), maxId);
+		// Messages created after the max ID was read should not be included
+		createMessageWithStatus(Status.OUTBOX, 100);
+		
+		List<FrontlineMessage> fetched = new ArrayList<FrontlineMessage>();
+		List<FrontlineMessage> page;
+		long lastId = 0;
+		do {
+			page = dao.getMessagesAfterId(Type.OUTBOUND, lastId, maxId, 3, Status.OUTBOX, Status.PENDING);
+			assertTrue(page.size() <= 3);
+			fetched.addAll(page);
+			if(page.size() > 0) lastId = page.get(page.size() - 1).getId();
+		} while(page.size() > 0);
+		assertEquals(waiting, fetched);
+	}
+	
 	private FrontlineMessage createMessageWithStatus(FrontlineMessage.Status status, int smscReference) {
 		return createMessageWithStatus(status, smscReference, DATE_1990);
 	}
@@ -499,6 +711,17 @@ public class HibernateMessageDaoTest extends HibernateTestCase {
 		assertEquals(dao.getSMSCount(0l, Long.MAX_VALUE), dao.getAllMessages().size());
 	}
 
+	/**
+	 * {@link HibernateMessageDao#saveMessages(java.util.Collection)} is transactional, so the
+	 * autowired DAO is a proxy which only exposes {@link MessageDao}.
+	 * @return the DAO implementation behind {@link #dao}
+	 */
+	private HibernateMessageDao getDaoImplementation() throws Exception {
+		if(AopUtils.isAopProxy(dao)) {
+			return (HibernateMessageDao) ((Advised) dao).getTargetSource().getTarget();
+		} else return (HibernateMessageDao) dao;
+	}
+
 	private void cleanupMessagesAndContactsAndEndTransaction() {
 		for(FrontlineMessage message : dao.getAllMessages()) {
 			dao.deleteMessage(message);
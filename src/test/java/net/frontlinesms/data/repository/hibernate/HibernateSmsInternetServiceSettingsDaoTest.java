@@ -191,6 +191,16 @@ class FakeInternetService implements SmsInternetService {
 		
 	}
 
+	public int getOutboxSize() {
+		// TODO Auto-generated method stub
+		return 0;
+	}
+
+	public double getSendCapacityPerMinute() {
+		// TODO Auto-generated method stub
+		return 0;
+	}
+
 	public boolean isBinarySendingSupported() {
 		// TODO Auto-generated method stub
 		return false;
@@ -0,0 +1,47 @@
+/**
+ * 
+ */
+package net.frontlinesms.data.repository.hibernate;
+
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link StripedCounter}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class StripedCounterTest extends BaseTestCase {
+	public void testIncrement() {
+		StripedCounter counter = new StripedCounter();
+		assertEquals(0, counter.sum());
+		counter.increment();
+		counter.add(4);
+		assertEquals(5, counter.sum());
+		assertEquals(5, counter.sumThenReset());
+		assertEquals(0, counter.sum());
+	}
+	
+	public void testConcurrentIncrement() throws InterruptedException {
+		final StripedCounter counter = new StripedCounter();
+		final int incrementsPerThread = 10000;
+		Thread[] threads = new Thread[8];
+		for(int i=0; i<threads.length; ++i) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for(int j=0; j<incrementsPerThread; ++j) {
+						counter.increment();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		
+		long flushed = 0;
+		for(Thread thread : threads) {
+			flushed += counter.sumThenReset();
+			thread.join();
+		}
+		
+		assertEquals(threads.length * incrementsPerThread, flushed + counter.sum());
+	}
+}
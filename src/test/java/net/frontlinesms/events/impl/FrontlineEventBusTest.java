@@ -0,0 +1,113 @@
+/**
+ * 
+ */
+package net.frontlinesms.events.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.frontlinesms.data.events.EntitySavedNotification;
+import net.frontlinesms.events.EventObserver;
+import net.frontlinesms.events.FrontlineEventNotification;
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link FrontlineEventBus}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class FrontlineEventBusTest extends BaseTestCase {
+	private FrontlineEventBus eventBus;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		this.eventBus = new FrontlineEventBus();
+	}
+	
+	public void testSynchronousObservers() {
+		RecordingObserver all = new RecordingObserver();
+		RecordingObserver saved = new RecordingObserver();
+		eventBus.registerObserver(all);
+		eventBus.registerObserver(all);
+		eventBus.registerObserver(saved, EntitySavedNotification.class);
+		
+		FrontlineEventNotification other = new TestNotification();
+		EntitySavedNotification<String> entitySaved = new EntitySavedNotification<String>("entity");
+		eventBus.notifyObservers(other);
+		eventBus.notifyObservers(entitySaved);
+		
+		assertEquals(list(other, entitySaved), all.received);
+		assertEquals(list(entitySaved), saved.received);
+		
+		eventBus.unregisterObserver(all);
+		eventBus.notifyObservers(other);
+		assertEquals(list(other, entitySaved), all.received);
+	}
+	
+	public void testAsynchronousObserversReceiveNotificationsInOrder() throws InterruptedException {
+		final int notificationCount = 100;
+		final CountDownLatch done = new CountDownLatch(notificationCount);
+		final Thread sender = Thread.currentThread();
+		final List<Thread> deliveryThreads = Collections.synchronizedList(new ArrayList<Thread>());
+		RecordingObserver observer = new RecordingObserver() {
+			@Override
+			public void notify(FrontlineEventNotification notification) {
+				deliveryThreads.add(Thread.currentThread());
+				super.notify(notification);
+				done.countDown();
+			}
+		};
+		eventBus.registerAsynchronousObserver(observer, EntitySavedNotification.class);
+		
+		List<FrontlineEventNotification> sent = new ArrayList<FrontlineEventNotification>();
+		for(int i=0; i<notificationCount; ++i) {
+			EntitySavedNotification<String> notification = new EntitySavedNotification<String>("entity");
+			sent.add(notification);
+			eventBus.notifyObservers(notification);
+		}
+		eventBus.notifyObservers(new TestNotification());
+		
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(sent, observer.received);
+		assertFalse(deliveryThreads.contains(sender));
+	}
+	
+	public void testSlowAsynchronousObserverDoesNotBlockSender() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		eventBus.registerAsynchronousObserver(new EventObserver() {
+			public void notify(FrontlineEventNotification notification) {
+				try {
+					release.await();
+				} catch(InterruptedException ex) {}
+			}
+		}, FrontlineEventNotification.class);
+		RecordingObserver synchronous = new RecordingObserver();
+		eventBus.registerObserver(synchronous);
+		
+		for(int i=0; i<10; ++i) {
+			eventBus.notifyObservers(new TestNotification());
+		}
+		assertEquals(10, synchronous.received.size());
+		release.countDown();
+	}
+	
+//> HELPER METHODS
+	private static List<FrontlineEventNotification> list(FrontlineEventNotification... notifications) {
+		List<FrontlineEventNotification> list = new ArrayList<FrontlineEventNotification>();
+		Collections.addAll(list, notifications);
+		return list;
+	}
+	
+//> HELPER CLASSES
+	private static class TestNotification implements FrontlineEventNotification {}
+	
+	private static class RecordingObserver implements EventObserver {
+		final List<FrontlineEventNotification> received = Collections.synchronizedList(new ArrayList<FrontlineEventNotification>());
+		public void notify(FrontlineEventNotification notification) {
+			received.add(notification);
+		}
+	}
+}
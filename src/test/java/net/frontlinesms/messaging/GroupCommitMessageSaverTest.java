@@ -0,0 +1,164 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging;
+
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.data.repository.MessageDao;
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link GroupCommitMessageSaver}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class GroupCommitMessageSaverTest extends BaseTestCase {
+	/** Maximum time, in millis, to wait for other threads to reach an expected state */
+	private static final long WAIT_TIMEOUT = 5000;
+
+	/** DAO which the saver under test saves messages with */
+	private MessageDao messageDao;
+	/** The sizes of the batches committed, in the order they were committed */
+	private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+	/** Commits of batches wait until this is released */
+	private CountDownLatch commitsAllowed = new CountDownLatch(0);
+	/** The saver under test */
+	private GroupCommitMessageSaver saver;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		messageDao = mock(MessageDao.class);
+		doAnswer(new Answer<Object>() {
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				batchSizes.add(((Collection<?>) invocation.getArguments()[0]).size());
+				commitsAllowed.await();
+				return null;
+			}
+		}).when(messageDao).saveMessages(anyCollection());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		commitsAllowed.countDown();
+		if(saver != null) saver.stopRunning();
+	}
+
+	public void testLoneMessageCommittedAlone() {
+		startSaver(4);
+		FrontlineMessage message = mock(FrontlineMessage.class);
+		saver.save(message);
+		verify(messageDao).saveMessages(Arrays.asList(message));
+		assertEquals(Arrays.asList(1), batchSizes);
+	}
+
+	public void testMessagesSavedDuringCommitBatched() throws Exception {
+		startSaver(4);
+		assertEquals(Arrays.asList(1, 3), saveConcurrently(4));
+	}
+
+	public void testBatchSizeLimited() throws Exception {
+		startSaver(2);
+		assertEquals(Arrays.asList(1, 2, 1), saveConcurrently(4));
+	}
+
+	public void testFailedBatchSavedIndividually() {
+		startSaver(4);
+		FrontlineMessage good = mock(FrontlineMessage.class);
+		FrontlineMessage bad = mock(FrontlineMessage.class);
+		doThrow(new RuntimeException("Thrown to test batch failure.")).when(messageDao).saveMessages(anyCollection());
+		doThrow(new RuntimeException("Thrown to test message failure.")).when(messageDao).saveMessage(bad);
+
+		saver.save(good);
+		verify(messageDao).saveMessage(good);
+		try {
+			saver.save(bad);
+			fail("Failure to save message should be thrown to the thread which saved it.");
+		} catch(RuntimeException ex) {
+			assertEquals("Thrown to test message failure.", ex.getMessage());
+		}
+	}
+
+	public void testSavedDirectlyWhenNotRunning() {
+		saver = new GroupCommitMessageSaver(messageDao, 4);
+		FrontlineMessage message = mock(FrontlineMessage.class);
+		saver.save(message);
+		verify(messageDao).saveMessage(message);
+		verify(messageDao, never()).saveMessages(anyCollection());
+	}
+
+//> HELPER METHODS
+	/** @param maxBatchSize the maximum batch size for the saver under test */
+	private void startSaver(int maxBatchSize) {
+		saver = new GroupCommitMessageSaver(messageDao, maxBatchSize);
+		saver.start();
+	}
+
+	/**
+	 * Saves one message on its own thread, and then more messages on other threads while the first is
+	 * being committed.
+	 * @param messageCount the total number of messages to save
+	 * @return the sizes of the batches committed
+	 */
+	private List<Integer> saveConcurrently(int messageCount) throws InterruptedException {
+		commitsAllowed = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		threads.add(startSaving());
+		waitUntil(new Condition() {
+			public boolean isMet() { return batchSizes.size() == 1; }
+		});
+		for(int i=1; i<messageCount; ++i) {
+			threads.add(startSaving());
+		}
+		final int expectedPending = messageCount - 1;
+		waitUntil(new Condition() {
+			public boolean isMet() { return saver.getPendingCount() == expectedPending; }
+		});
+		commitsAllowed.countDown();
+		for(Thread thread : threads) {
+			thread.join(WAIT_TIMEOUT);
+		}
+		return new ArrayList<Integer>(batchSizes);
+	}
+
+	/** @return a started thread which saves a message */
+	private Thread startSaving() {
+		Thread thread = new Thread() {
+			public void run() {
+				saver.save(mock(FrontlineMessage.class));
+			}
+		};
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Waits until a condition is met, failing if it takes longer than {@link #WAIT_TIMEOUT}.
+	 * @param condition the condition to wait for
+	 */
+	private void waitUntil(Condition condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+		while(!condition.isMet()) {
+			if(System.currentTimeMillis() > deadline) fail("Timed out waiting for condition.");
+			Thread.sleep(10);
+		}
+	}
+
+	/** A condition which {@link GroupCommitMessageSaverTest#waitUntil(Condition)} can wait for. */
+	private interface Condition {
+		/** @return <code>true</code> if the condition has been met */
+		boolean isMet();
+	}
+}
@@ -5,7 +5,11 @@ package net.frontlinesms.messaging;
 
 import static org.mockito.Mockito.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -42,6 +46,8 @@ public class IncomingMessageProcessorTest extends BaseTestCase {
 	
 	private IncomingMessageProcessor imp;
 	private BlockingIncomingMessageEventListener bimel;
+	/** The ID given to the last {@link KeywordAction} created by {@link #mockKeywordAction(boolean)} */
+	private long lastActionId;
 	
 //> TEST META METHODS
 	@Override
@@ -104,11 +110,97 @@ public class IncomingMessageProcessorTest extends BaseTestCase {
 	
 	private KeywordAction mockKeywordAction(boolean isAlive) {
 		KeywordAction action = mock(KeywordAction.class);
+		when(action.getId()).thenReturn(++lastActionId);
 		when(action.isAlive(anyLong())).thenReturn(isAlive);
 		when(action.getType()).thenReturn(KeywordAction.Type.NO_ACTION);
 		return action;
 	}
 	
+	/**
+	 * Verify that when processing of a message fails part way through its keyword actions, the retry
+	 * does not save the message or run the actions which were already handled a second time.
+	 */
+	public void testRetryDoesNotRepeatActions() {
+		Keyword mockKeyword = mock(Keyword.class);
+		when(keywordDao.getFromMessageText(anyString())).thenReturn(mockKeyword);
+		
+		KeywordAction firstAction = mockKeywordAction(true);
+		KeywordAction failingAction = mockKeywordAction(true);
+		when(failingAction.isAlive(anyLong()))
+				.thenThrow(new RuntimeException("Thrown to test retries."))
+				.thenReturn(true);
+		when(keywordActionDao.getActions(mockKeyword)).thenReturn(Arrays.asList(firstAction, failingAction));
+		
+		testTextMessage("retry me");
+		verify(keywordActionDao, times(1)).incrementCounter(firstAction);
+		verify(keywordActionDao, times(1)).incrementCounter(failingAction);
+	}
+	
+	/**
+	 * Verify that messages from the same sender are processed in the order they were queued when they
+	 * are spread across several workers.
+	 */
+	public void testMessagesFromSameSenderProcessedInOrder() throws Exception {
+		IncomingMessageProcessor partitioned = new IncomingMessageProcessor(frontline, 4, 2, 3);
+		BlockingIncomingMessageEventListener listener = new BlockingIncomingMessageEventListener();
+		partitioned.setUiListener(listener);
+		partitioned.start();
+		try {
+			SmsService receiver = mock(SmsService.class);
+			String[] senders = { "+111", "+222", "+333", "+444", "+555" };
+			int messagesPerSender = 10;
+			for(int i=0; i<messagesPerSender; ++i) {
+				for(String sender : senders) {
+					partitioned.queue(receiver, new CIncomingMessage(sender, Integer.toString(i)));
+				}
+			}
+			
+			Map<String, List<String>> received = new HashMap<String, List<String>>();
+			for(int i=senders.length*messagesPerSender; i>0; --i) {
+				FrontlineMessage message = listener.getIncomingMessage();
+				List<String> texts = received.get(message.getSenderMsisdn());
+				if(texts == null) {
+					texts = new ArrayList<String>();
+					received.put(message.getSenderMsisdn(), texts);
+				}
+				texts.add(message.getTextContent());
+			}
+			
+			List<String> expected = new ArrayList<String>();
+			for(int i=0; i<messagesPerSender; ++i) expected.add(Integer.toString(i));
+			for(String sender : senders) {
+				assertEquals("Messages from " + sender + " were processed out of order.", expected, received.get(sender));
+			}
+		} finally {
+			partitioned.die();
+		}
+	}
+	
+	/** Verify that queueing a message does not block forever once the processor has been stopped. */
+	public void testQueueingAbandonedOnceStopped() {
+		// This processor is never started, so its single worker's queue fills up
+		IncomingMessageProcessor stopped = new IncomingMessageProcessor(frontline, 1, 1, 1);
+		SmsService receiver = mock(SmsService.class);
+		stopped.queue(receiver, new CIncomingMessage(TEST_ORIGINATOR, "queued"));
+		stopped.die();
+		
+		stopped.queue(receiver, new CIncomingMessage(TEST_ORIGINATOR, "dropped"));
+		assertEquals(1, stopped.getQueuedMessageCount());
+	}
+	
+	/** Verify that interrupting a thread which is waiting for space in a full queue stops it waiting. */
+	public void testQueueingInterrupted() {
+		IncomingMessageProcessor full = new IncomingMessageProcessor(frontline, 1, 1, 1);
+		SmsService receiver = mock(SmsService.class);
+		full.queue(receiver, new CIncomingMessage(TEST_ORIGINATOR, "queued"));
+		
+		Thread.currentThread().interrupt();
+		full.queue(receiver, new CIncomingMessage(TEST_ORIGINATOR, "dropped"));
+		assertTrue("Interrupt should be preserved.", Thread.interrupted());
+		assertEquals(1, full.getQueuedMessageCount());
+		full.die();
+	}
+	
 	/**
 	 * Verify that new message objects are created and saved for messages which have no
 	 * keywords linked to them.
@@ -176,7 +268,7 @@ public class IncomingMessageProcessorTest extends BaseTestCase {
 		
 		// Wait for the message to be processed, and then check that the expected steps were taken
 		FrontlineMessage mess = bimel.getIncomingMessage();
-		verify(messageDao).saveMessage(mess);
+		verify(messageDao).saveMessages(Arrays.asList(mess));
 		
 		return mess;
 	}
@@ -0,0 +1,164 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.frontlinesms.data.domain.KeywordAction;
+import net.frontlinesms.junit.BaseTestCase;
+import net.frontlinesms.messaging.KeywordActionExecutor.ActionPool;
+import net.frontlinesms.messaging.KeywordActionExecutor.ActionStatistics;
+import net.frontlinesms.messaging.KeywordActionExecutor.PoolSettings;
+
+/**
+ * Unit tests for {@link KeywordActionExecutor}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class KeywordActionExecutorTest extends BaseTestCase {
+	/** The sender used as the partition key of actions */
+	private static final String SENDER = "+447890123456";
+
+	/** The executor under test */
+	private KeywordActionExecutor executor;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		executor = new KeywordActionExecutor(new EnumMap<ActionPool, PoolSettings>(ActionPool.class));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		executor.shutdown();
+	}
+
+	public void testInlineActionStatistics() {
+		final int[] runCount = new int[1];
+		executor.execute(KeywordAction.Type.REPLY, SENDER, new Runnable() {
+			public void run() {
+				++runCount[0];
+			}
+		});
+
+		ActionStatistics stats = executor.getStatistics(KeywordAction.Type.REPLY);
+		assertEquals(1, runCount[0]);
+		assertEquals(0, stats.getQueueDepth());
+		assertEquals(1, stats.getCompletedCount());
+		assertEquals(0, stats.getFailedCount());
+	}
+
+	public void testFailedActionCounted() {
+		executor.execute(KeywordAction.Type.REPLY, SENDER, new Runnable() {
+			public void run() {
+				throw new RuntimeException("Thrown to test failure counting.");
+			}
+		});
+
+		ActionStatistics stats = executor.getStatistics(KeywordAction.Type.REPLY);
+		assertEquals(1, stats.getCompletedCount());
+		assertEquals(1, stats.getFailedCount());
+	}
+
+	public void testQueuedActionsCancelledOnShutdown() throws InterruptedException {
+		// Occupy the single thread of the group pool, so the next action has to wait in the queue
+		final CountDownLatch started = new CountDownLatch(1);
+		executor.execute(KeywordAction.Type.JOIN, SENDER, new Runnable() {
+			public void run() {
+				started.countDown();
+				try {
+					new CountDownLatch(1).await();
+				} catch(InterruptedException ex) {
+					// Interrupted by shutdown
+				}
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		final boolean[] queuedActionRun = new boolean[1];
+		executor.execute(KeywordAction.Type.JOIN, SENDER, new Runnable() {
+			public void run() {
+				queuedActionRun[0] = true;
+			}
+		});
+		assertEquals(1, executor.getStatistics(KeywordAction.Type.JOIN).getQueueDepth());
+
+		executor.shutdown();
+		assertEquals(0, executor.getStatistics(KeywordAction.Type.JOIN).getQueueDepth());
+		assertFalse(queuedActionRun[0]);
+	}
+
+	public void testActionRejectedAfterShutdown() {
+		executor.shutdown();
+
+		final boolean[] run = new boolean[1];
+		executor.execute(KeywordAction.Type.EMAIL, SENDER, new Runnable() {
+			public void run() {
+				run[0] = true;
+			}
+		});
+
+		assertFalse(run[0]);
+		assertEquals(0, executor.getStatistics(KeywordAction.Type.EMAIL).getQueueDepth());
+	}
+
+	/** Actions from one sender should run in the order they were executed, even on a multi-threaded pool. */
+	public void testActionsForSenderRunInOrder() throws InterruptedException {
+		executor.shutdown();
+		Map<ActionPool, PoolSettings> settings = new EnumMap<ActionPool, PoolSettings>(ActionPool.class);
+		settings.put(ActionPool.FORWARD, new PoolSettings(4, 1000, 0));
+		executor = new KeywordActionExecutor(settings);
+
+		List<Integer> expected = new ArrayList<Integer>();
+		List<Integer> runOrder = executeNumberedActions(KeywordAction.Type.FORWARD, 50, expected);
+		assertEquals(expected, runOrder);
+	}
+
+	/** When a queue is full, later actions from the same sender must wait rather than overtake those already queued. */
+	public void testFullQueueDoesNotReorderActions() throws InterruptedException {
+		executor.shutdown();
+		Map<ActionPool, PoolSettings> settings = new EnumMap<ActionPool, PoolSettings>(ActionPool.class);
+		settings.put(ActionPool.GROUP, new PoolSettings(2, 1, 0));
+		executor = new KeywordActionExecutor(settings);
+
+		List<Integer> expected = new ArrayList<Integer>();
+		List<Integer> runOrder = executeNumberedActions(KeywordAction.Type.JOIN, 20, expected);
+		assertEquals(expected, runOrder);
+	}
+
+	/**
+	 * Executes numbered actions for {@link #SENDER}, each of which takes a little time, and waits for them all to finish.
+	 * @param type the type of the actions
+	 * @param count the number of actions to execute
+	 * @param executed list to which the number of each action is added as it is executed
+	 * @return the numbers of the actions, in the order they were run
+	 */
+	private List<Integer> executeNumberedActions(KeywordAction.Type type, int count, List<Integer> executed) throws InterruptedException {
+		final List<Integer> runOrder = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch finished = new CountDownLatch(count);
+		for(int i = 0; i < count; i++) {
+			final int actionNumber = i;
+			executor.execute(type, SENDER, new Runnable() {
+				public void run() {
+					runOrder.add(actionNumber);
+					try {
+						Thread.sleep(5);
+					} catch(InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					}
+					finished.countDown();
+				}
+			});
+			executed.add(actionNumber);
+		}
+		assertTrue(finished.await(10, TimeUnit.SECONDS));
+		return runOrder;
+	}
+}
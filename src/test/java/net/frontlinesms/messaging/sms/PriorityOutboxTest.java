@@ -0,0 +1,70 @@
+/**
+ * 
+ */
+package net.frontlinesms.messaging.sms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.data.domain.FrontlineMessage.Priority;
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link PriorityOutbox}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class PriorityOutboxTest extends BaseTestCase {
+	/** Test that messages are taken in order of priority, and in the order they were added within each priority. */
+	public void testPollOrder() {
+		PriorityOutbox outbox = new PriorityOutbox();
+		FrontlineMessage bulk1 = createMessage("bulk 1", null);
+		FrontlineMessage bulk2 = createMessage("bulk 2", Priority.NORMAL);
+		FrontlineMessage forward = createMessage("forward", Priority.FORWARD);
+		FrontlineMessage reply1 = createMessage("reply 1", Priority.AUTO_REPLY);
+		FrontlineMessage reply2 = createMessage("reply 2", Priority.AUTO_REPLY);
+		outbox.addAll(Arrays.asList(bulk1, bulk2, forward, reply1, reply2));
+		assertEquals(5, outbox.size());
+		
+		List<FrontlineMessage> iterated = new ArrayList<FrontlineMessage>();
+		for(FrontlineMessage m : outbox) iterated.add(m);
+		List<FrontlineMessage> expected = Arrays.asList(reply1, reply2, forward, bulk1, bulk2);
+		assertEquals(expected, iterated);
+		
+		assertEquals(reply1, outbox.peek());
+		List<FrontlineMessage> polled = new ArrayList<FrontlineMessage>();
+		FrontlineMessage m;
+		while((m = outbox.poll()) != null) polled.add(m);
+		assertEquals(expected, polled);
+		assertEquals(0, outbox.size());
+		assertNull(outbox.peek());
+	}
+	
+	/** Test that removing messages keeps the size of the outbox correct. */
+	public void testRemove() {
+		PriorityOutbox outbox = new PriorityOutbox();
+		FrontlineMessage bulk = createMessage("bulk", Priority.NORMAL);
+		FrontlineMessage reply = createMessage("reply", Priority.AUTO_REPLY);
+		outbox.add(bulk);
+		outbox.add(reply);
+		
+		assertTrue(outbox.remove(bulk));
+		assertFalse(outbox.remove(bulk));
+		assertEquals(1, outbox.size());
+		
+		Iterator<FrontlineMessage> iterator = outbox.iterator();
+		assertEquals(reply, iterator.next());
+		iterator.remove();
+		assertFalse(iterator.hasNext());
+		assertTrue(outbox.isEmpty());
+	}
+	
+	/** Creates an outgoing message with the supplied text and priority. */
+	private static FrontlineMessage createMessage(String text, Priority priority) {
+		FrontlineMessage m = FrontlineMessage.createOutgoingMessage(0, "", "+123456789", text);
+		m.setPriority(priority);
+		return m;
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * 
+ */
+package net.frontlinesms.messaging.sms;
+
+import net.frontlinesms.junit.BaseTestCase;
+import net.frontlinesms.messaging.sms.SmsLength.Encoding;
+
+/**
+ * Unit tests for {@link SmsLength}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SmsLengthTest extends BaseTestCase {
+	/** Test measuring text in the GSM default alphabet. */
+	public void testGsm7() {
+		SmsLength empty = SmsLength.forText("");
+		assertEquals(Encoding.GSM7, empty.getEncoding());
+		assertEquals(0, empty.getPartCount());
+		assertEquals(160, empty.getRemaining());
+		
+		assertLength(Encoding.GSM7, 160, 1, 0, repeat('a', 160));
+		assertLength(Encoding.GSM7, 161, 2, 145, repeat('a', 161));
+		assertLength(Encoding.GSM7, 306, 2, 0, repeat('a', 306));
+		assertLength(Encoding.GSM7, 307, 3, 152, repeat('a', 307));
+		
+		// Extension characters take two septets
+		assertLength(Encoding.GSM7, 160, 1, 0, repeat('\u20ac', 80));
+		// ...and are not split between parts, so the first part here holds only 152 septets
+		assertLength(Encoding.GSM7, 161, 2, 144, repeat('a', 152) + "\u20ac" + repeat('a', 7));
+	}
+	
+	/** Test measuring text which must be sent as UCS-2. */
+	public void testUcs2() {
+		assertLength(Encoding.UCS2, 70, 1, 0, "\u00f4" + repeat('a', 69));
+		assertLength(Encoding.UCS2, 71, 2, 63, "\u00f4" + repeat('a', 70));
+		assertLength(Encoding.UCS2, 134, 2, 0, "\u00f4" + repeat('a', 133));
+		// Greek lowercase is only sent as a lookalike in GSM, so must be sent as UCS-2
+		assertEquals(Encoding.UCS2, SmsLength.forText("\u03b1").getEncoding());
+		// Surrogate pairs are not split between parts
+		assertLength(Encoding.UCS2, 72, 2, 61, repeat('a', 66) + "\ud83d\ude00" + repeat('a', 4));
+	}
+	
+	/** Test measuring binary messages. */
+	public void testBinary() {
+		assertEquals(0, SmsLength.forBinary(0).getPartCount());
+		assertEquals(1, SmsLength.forBinary(140).getPartCount());
+		assertEquals(2, SmsLength.forBinary(141).getPartCount());
+		assertEquals(2, SmsLength.forBinary(268).getPartCount());
+		assertEquals(0, SmsLength.forBinary(268).getRemaining());
+		assertEquals(3, SmsLength.forBinary(269).getPartCount());
+	}
+	
+//> PRIVATE HELPER METHODS
+	private static void assertLength(Encoding encoding, int length, int partCount, int remaining, String text) {
+		SmsLength smsLength = SmsLength.forText(text);
+		assertEquals(encoding, smsLength.getEncoding());
+		assertEquals(length, smsLength.getLength());
+		assertEquals(partCount, smsLength.getPartCount());
+		assertEquals(remaining, smsLength.getRemaining());
+	}
+	
+	private static String repeat(char c, int count) {
+		StringBuilder bob = new StringBuilder(count);
+		while(--count >= 0) bob.append(c);
+		return bob.toString();
+	}
+}
@@ -40,14 +40,14 @@ public class SmsServiceManagerTest extends BaseTestCase {
 	}
 	
 	/**
-	 * Test that all messages sent will be given to the {@link SmsInternetService} in preference to
-	 * any {@link SmsModem}s available.
+	 * Test that messages sent will be shared between the {@link SmsInternetService}s and {@link SmsModem}s
+	 * which can send them.
 	 * @throws IllegalAccessException 
 	 * @throws NoSuchFieldException 
 	 * @throws IllegalArgumentException 
 	 * @throws SecurityException 
 	 */
-	public void testMessageDispatchPriorities_text() throws SecurityException, IllegalArgumentException, NoSuchFieldException, IllegalAccessException {
+	public void testMessageDispatch_text() throws SecurityException, IllegalArgumentException, NoSuchFieldException, IllegalAccessException {
 		SmsInternetService sisNoSend = createMockSmsInternetService(false, true);
 		addSmsInternetService(manager, 1, sisNoSend);
 		SmsInternetService sisNoSendNoBinary = createMockSmsInternetService(false, false);
@@ -60,27 +60,27 @@ public class SmsServiceManagerTest extends BaseTestCase {
 		SmsModem modem = createMockModem(true, true, true, true);
 		addModem(manager, modem, "TestModem1");
 		
-		sendSms(manager, generateMessages(20, MessageType.GSM7BIT_TEXT));
+		sendSms(manager, generateMessages(21, MessageType.GSM7BIT_TEXT));
 		
 		manager.doRun();
 		
-		// Check that all messages were sent with the TWO functioning internet services, and nothing else
-		verify(modem, never()).sendSMS(any(FrontlineMessage.class));
+		// Check that all messages were shared between the TWO functioning internet services and the modem, and nothing else
+		verify(modem, times(7)).sendSMS(any(FrontlineMessage.class));
 		verify(sisNoSend, never()).sendSMS(any(FrontlineMessage.class));
 		verify(sisNoSendNoBinary, never()).sendSMS(any(FrontlineMessage.class));
-		verify(sisBinary, times(10)).sendSMS(any(FrontlineMessage.class));
-		verify(sisNoBinary, times(10)).sendSMS(any(FrontlineMessage.class));
+		verify(sisBinary, times(7)).sendSMS(any(FrontlineMessage.class));
+		verify(sisNoBinary, times(7)).sendSMS(any(FrontlineMessage.class));
 	}
 	
 	/**
-	 * Test that all messages sent will be given to the {@link SmsInternetService} in preference to
-	 * any {@link SmsModem}s available.
+	 * Test that binary messages sent will be shared between the {@link SmsInternetService}s and
+	 * {@link SmsModem}s which can send them.
 	 * @throws IllegalAccessException 
 	 * @throws NoSuchFieldException 
 	 * @throws IllegalArgumentException 
 	 * @throws SecurityException 
 	 */
-	public void testMessageDispatchPriorities_binary() throws SecurityException, IllegalArgumentException, NoSuchFieldException, IllegalAccessException {
+	public void testMessageDispatch_binary() throws SecurityException, IllegalArgumentException, NoSuchFieldException, IllegalAccessException {
 		SmsInternetService sisNoSend = createMockSmsInternetService(false, true);
 		addSmsInternetService(manager, 1, sisNoSend);
 		SmsInternetService sisNoSendNoBinary = createMockSmsInternetService(false, false);
@@ -97,12 +97,12 @@ public class SmsServiceManagerTest extends BaseTestCase {
 		
 		manager.doRun();
 		
-		// Check that all messages were sent with the ONE internet services which is functioning and sends binary, and nothing else
-		verify(modem, never()).sendSMS(any(FrontlineMessage.class));
+		// Check that all messages were shared between the ONE internet service which is functioning and sends binary and the modem, and nothing else
+		verify(modem, times(10)).sendSMS(any(FrontlineMessage.class));
 		verify(sisNoSend, never()).sendSMS(any(FrontlineMessage.class));
 		verify(sisNoSendNoBinary, never()).sendSMS(any(FrontlineMessage.class));
 		verify(sisNoBinary, never()).sendSMS(any(FrontlineMessage.class));
-		verify(sisBinary, times(20)).sendSMS(any(FrontlineMessage.class));
+		verify(sisBinary, times(10)).sendSMS(any(FrontlineMessage.class));
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -251,6 +251,33 @@ public class SmsServiceManagerTest extends BaseTestCase {
 		assertEquals(Status.OUTBOX, m.getStatus());
 	}
 	
+	/** Tests that a running manager dispatches a message as soon as it is sent, rather than waiting for its next poll. */
+	public void testSendWakesDispatch() throws InterruptedException {
+		SmsModem modem = createMockModem(true, true, true, true);
+		addModem(manager, modem, "TestModem1");
+		manager.start();
+		// give the manager time to start waiting
+		Thread.sleep(100);
+		
+		sendSms(manager, generateMessages(1, MessageType.GSM7BIT_TEXT));
+		
+		// The fallback poll would take a second, so the message should be dispatched well before this
+		long giveUpTime = System.currentTimeMillis() + 500;
+		while(true) {
+			try {
+				verify(modem).sendSMS(any(FrontlineMessage.class));
+				break;
+			} catch(AssertionError err) {
+				if(System.currentTimeMillis() > giveUpTime) throw err;
+				Thread.sleep(10);
+			}
+		}
+		
+		manager.stopRunning();
+		manager.join(2000);
+		assertFalse(manager.isAlive());
+	}
+	
 //> PRIVATE HELPER METHODS
 	/** @return a mock {@link SmsInternetService} with certain important methods stubbed */
 	private SmsInternetService createMockSmsInternetService(boolean useForSending, boolean supportsBinary) {
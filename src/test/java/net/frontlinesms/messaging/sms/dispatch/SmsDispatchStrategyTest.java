@@ -0,0 +1,100 @@
+/**
+ * 
+ */
+package net.frontlinesms.messaging.sms.dispatch;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.junit.BaseTestCase;
+import net.frontlinesms.messaging.sms.SmsService;
+import net.frontlinesms.messaging.sms.internet.SmsInternetService;
+import net.frontlinesms.messaging.sms.modem.SmsModem;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the {@link SmsDispatchStrategy} implementations.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SmsDispatchStrategyTest extends BaseTestCase {
+	/** Test that messages go to the services with the shortest outboxes. */
+	public void testLeastQueued() {
+		SmsService a = createMockService(SmsModem.class, 10);
+		SmsService b = createMockService(SmsModem.class, 60);
+		int[] counts = dispatch(new LeastQueuedDispatchStrategy(), Arrays.asList(a, b), new int[] { 4, 0 }, 10);
+		assertEquals(7, counts[0]);
+		assertEquals(7, counts[1]);
+	}
+	
+	/** Test that faster services are given proportionally more messages. */
+	public void testThroughputWeighted() {
+		SmsService modem = createMockService(SmsModem.class, 10);
+		SmsService internetService = createMockService(SmsInternetService.class, 50);
+		int[] counts = dispatch(new ThroughputWeightedDispatchStrategy(), Arrays.asList(modem, internetService), new int[2], 60);
+		assertTrue("Unexpected modem count: " + counts[0], Math.abs(counts[0] - 10) <= 1);
+		assertTrue("Unexpected internet service count: " + counts[1], Math.abs(counts[1] - 50) <= 1);
+	}
+	
+	/** Test that the more expensive service is only used once the cheaper one is backed up. */
+	public void testCostAware() {
+		SmsService modem = createMockService(SmsModem.class, 10);
+		SmsService internetService = createMockService(SmsInternetService.class, 50);
+		CostAwareDispatchStrategy strategy = new CostAwareDispatchStrategy(0, 1, 60 * 1000);
+		int[] counts = dispatch(strategy, Arrays.asList(modem, internetService), new int[2], 30);
+		// The modem can send 10 messages within a minute
+		assertEquals(10, counts[0]);
+		assertEquals(20, counts[1]);
+	}
+	
+	/** Test that a service's own cost is used in preference to the cost for its type of service. */
+	public void testCostAwarePerService() {
+		SmsModem cheapModem = (SmsModem) createMockService(SmsModem.class, 10);
+		when(cheapModem.getSerial()).thenReturn("cheap");
+		SmsModem expensiveModem = (SmsModem) createMockService(SmsModem.class, 10);
+		when(expensiveModem.getSerial()).thenReturn("expensive");
+		SmsInternetService internetService = (SmsInternetService) createMockService(SmsInternetService.class, 10);
+		when(internetService.getIdentifier()).thenReturn("internet");
+		
+		Map<String, Double> costs = new HashMap<String, Double>();
+		costs.put(CostAwareDispatchStrategy.COST_KEY_MODEM, 1.0);
+		costs.put(CostAwareDispatchStrategy.COST_KEY_MODEM + ".expensive", 3.0);
+		costs.put(CostAwareDispatchStrategy.COST_KEY_INTERNET_SERVICE, 2.0);
+		CostAwareDispatchStrategy strategy = new CostAwareDispatchStrategy(costs, 60 * 1000);
+		int[] counts = dispatch(strategy, Arrays.<SmsService>asList(expensiveModem, internetService, cheapModem), new int[3], 15);
+		// Each service can send 10 messages within a minute, so they are filled in order of cost
+		assertEquals(0, counts[0]);
+		assertEquals(5, counts[1]);
+		assertEquals(10, counts[2]);
+	}
+	
+//> PRIVATE HELPER METHODS
+	/**
+	 * Dispatches messages with a strategy, simulating each service's outbox filling up.
+	 * @param strategy the strategy under test
+	 * @param services the services to dispatch to
+	 * @param counts the initial size of each service's outbox
+	 * @param messageCount the number of messages to dispatch
+	 * @return the final size of each service's outbox
+	 */
+	private int[] dispatch(SmsDispatchStrategy strategy, List<SmsService> services, int[] counts, int messageCount) {
+		FrontlineMessage message = FrontlineMessage.createOutgoingMessage(System.currentTimeMillis(), "+123456", "+987654", "Hi");
+		for(int i=0; i<messageCount; ++i) {
+			for(int j=0; j<services.size(); ++j) {
+				when(services.get(j).getOutboxSize()).thenReturn(counts[j]);
+			}
+			++counts[services.indexOf(strategy.choose(services, message))];
+		}
+		return counts;
+	}
+	
+	/** @return a mock {@link SmsService} with its send capacity stubbed */
+	private SmsService createMockService(Class<? extends SmsService> serviceClass, double sendCapacityPerMinute) {
+		SmsService mock = mock(serviceClass);
+		when(mock.getSendCapacityPerMinute()).thenReturn(sendCapacityPerMinute);
+		return mock;
+	}
+}
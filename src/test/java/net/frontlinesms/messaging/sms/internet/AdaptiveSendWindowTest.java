@@ -0,0 +1,67 @@
+/**
+ * 
+ */
+package net.frontlinesms.messaging.sms.internet;
+
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link AdaptiveSendWindow}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class AdaptiveSendWindowTest extends BaseTestCase {
+	/** Test that no more sends than the size of the window can be in progress at once. */
+	public void testAcquire() {
+		AdaptiveSendWindow window = new AdaptiveSendWindow(3);
+		assertTrue(window.tryAcquire());
+		assertTrue(window.tryAcquire());
+		assertTrue(window.tryAcquire());
+		assertFalse(window.tryAcquire());
+		assertEquals(3, window.getInFlight());
+		
+		window.cancel();
+		assertEquals(2, window.getInFlight());
+		assertTrue(window.tryAcquire());
+	}
+	
+	/** Test that the window halves on failure, and grows again after a window's worth of successes. */
+	public void testAdapt() {
+		AdaptiveSendWindow window = new AdaptiveSendWindow(4);
+		
+		assertTrue(window.tryAcquire());
+		window.release(false);
+		assertEquals(2, window.getSize());
+		
+		assertTrue(window.tryAcquire());
+		window.release(false);
+		assertEquals(1, window.getSize());
+		
+		// The window should never shrink below 1
+		assertTrue(window.tryAcquire());
+		assertFalse(window.tryAcquire());
+		window.release(false);
+		assertEquals(1, window.getSize());
+		
+		sendSuccessfully(window, 1);
+		assertEquals(2, window.getSize());
+		sendSuccessfully(window, 1);
+		assertEquals(2, window.getSize());
+		sendSuccessfully(window, 1);
+		assertEquals(3, window.getSize());
+		sendSuccessfully(window, 3);
+		assertEquals(4, window.getSize());
+		
+		// The window should never grow beyond its maximum size
+		sendSuccessfully(window, 10);
+		assertEquals(4, window.getSize());
+		assertEquals(0, window.getInFlight());
+	}
+	
+	/** Sends the supplied number of messages successfully, one at a time. */
+	private void sendSuccessfully(AdaptiveSendWindow window, int count) {
+		for(int i=0; i<count; ++i) {
+			assertTrue(window.tryAcquire());
+			window.release(true);
+		}
+	}
+}
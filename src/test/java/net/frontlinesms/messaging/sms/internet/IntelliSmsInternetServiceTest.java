@@ -0,0 +1,74 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.internet;
+
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import IntelliSoftware.SMSGateway.SDK.IntelliSMSJavaSDK.ResultCodes;
+import IntelliSoftware.SMSGateway.SDK.IntelliSMSJavaSDK.SendStatus;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.data.domain.FrontlineMessage.Status;
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for the mapping of IntelliSMS send results on to messages in {@link IntelliSmsInternetService}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class IntelliSmsInternetServiceTest extends BaseTestCase {
+	/** Each message should be given the status reported for its own recipient, whatever order they are reported in. */
+	public void testStatusesMappedByRecipient() {
+		List<FrontlineMessage> messages = createMessages("+447890123401", "+447890123402", "+447890123403");
+		boolean insufficientCredit = IntelliSmsInternetService.updateStatuses(messages, Arrays.asList(
+				createSendStatus("447890123403", ResultCodes.OK),
+				createSendStatus("447890123401", ResultCodes.OK),
+				createSendStatus("+447890123402", ResultCodes.InsufficientCredit)));
+
+		assertTrue(insufficientCredit);
+		assertEquals(Status.SENT, messages.get(0).getStatus());
+		assertEquals(Status.FAILED, messages.get(1).getStatus());
+		assertEquals(Status.SENT, messages.get(2).getStatus());
+	}
+
+	/** Messages whose recipient has no status reported should be marked as failed. */
+	public void testUnreportedRecipientFailed() {
+		List<FrontlineMessage> messages = createMessages("+447890123401", "+447890123402");
+		boolean insufficientCredit = IntelliSmsInternetService.updateStatuses(messages, Arrays.asList(
+				createSendStatus("447890123401", ResultCodes.OK),
+				createSendStatus(null, ResultCodes.OK)));
+
+		assertFalse(insufficientCredit);
+		assertEquals(Status.SENT, messages.get(0).getStatus());
+		assertEquals(Status.FAILED, messages.get(1).getStatus());
+	}
+
+//> HELPER METHODS
+	/**
+	 * @param recipients the recipients of the messages
+	 * @return outgoing messages with the same text to each recipient
+	 */
+	private static List<FrontlineMessage> createMessages(String... recipients) {
+		List<FrontlineMessage> messages = new ArrayList<FrontlineMessage>();
+		for(String recipient : recipients) {
+			messages.add(FrontlineMessage.createOutgoingMessage(System.currentTimeMillis(), null, recipient, "Hello"));
+		}
+		return messages;
+	}
+
+	/**
+	 * @param to the recipient the status is reported for
+	 * @param resultCode the result reported
+	 * @return a status as reported by IntelliSMS
+	 */
+	private static SendStatus createSendStatus(String to, ResultCodes resultCode) {
+		SendStatus status = mock(SendStatus.class);
+		status.To = to;
+		status.ResultCode = resultCode;
+		return status;
+	}
+}
@@ -0,0 +1,35 @@
+/**
+ * 
+ */
+package net.frontlinesms.messaging.sms.internet;
+
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link SendRateLimiter}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SendRateLimiterTest extends BaseTestCase {
+	/** Test that the rate limiter allows a burst of a second's worth of sends, and then makes further sends wait. */
+	public void testRateLimiter() {
+		SendRateLimiter limiter = new SendRateLimiter(5);
+		for(int i=0; i<5; ++i) {
+			assertEquals(0, limiter.getWaitTime());
+			assertEquals(1, limiter.tryAcquire(1));
+		}
+		assertEquals(0, limiter.tryAcquire(1));
+		long wait = limiter.getWaitTime();
+		assertTrue("Unexpected wait: " + wait, wait > 0 && wait <= 200);
+	}
+
+	/** Test that a batch takes a token per message, and cannot take more tokens than are available. */
+	public void testBatchTakesTokenPerMessage() {
+		SendRateLimiter limiter = new SendRateLimiter(5);
+		assertEquals(3, limiter.tryAcquire(3));
+		assertEquals(2, limiter.tryAcquire(100));
+		assertEquals(0, limiter.tryAcquire(1));
+
+		limiter.release(2);
+		assertEquals(2, limiter.tryAcquire(100));
+	}
+}
@@ -0,0 +1,223 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.internet;
+
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.frontlinesms.data.domain.FrontlineMessage;
+import net.frontlinesms.data.domain.FrontlineMessage.Status;
+import net.frontlinesms.events.EventBus;
+import net.frontlinesms.junit.BaseTestCase;
+import net.frontlinesms.serviceconfig.ConfigurableServiceProperties;
+
+/**
+ * Tests for the dispatch of messages from the outbox of an {@link AbstractSmsInternetService}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SmsInternetServiceDispatchTest extends BaseTestCase {
+	/** The service under test */
+	private DispatchTestService service;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		service = new DispatchTestService();
+		service.setEventBus(mock(EventBus.class));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		service.sendAllowed.countDown();
+		service.stopService();
+	}
+
+	/** Consecutive messages with the same text should be sent together, up to the maximum batch size. */
+	public void testMessagesWithSameTextBatched() throws InterruptedException {
+		for(FrontlineMessage message : createMessages(12, "same")) {
+			service.sendSMS(message);
+		}
+		service.startService();
+
+		assertTrue("Messages were not sent.", service.awaitSent(12));
+		List<Integer> batchSizes = new ArrayList<Integer>(service.batchSizes);
+		Collections.sort(batchSizes);
+		assertEquals("[2, 5, 5]", batchSizes.toString());
+	}
+
+	/** A batch should end at the first message which cannot be sent in the same request. */
+	public void testOnlyConsecutiveBatchableMessagesBatched() throws InterruptedException {
+		List<FrontlineMessage> messages = createMessages(4, "same");
+		messages.add(2, createMessages(1, "different").get(0));
+		messages.add(FrontlineMessage.createBinaryOutgoingMessage(System.currentTimeMillis(), null, "+447890123499", 1234, new byte[]{1, 2, 3}));
+		for(FrontlineMessage message : messages) {
+			service.sendSMS(message);
+		}
+		service.startService();
+
+		assertTrue("Messages were not sent.", service.awaitSent(6));
+		List<Integer> batchSizes = new ArrayList<Integer>(service.batchSizes);
+		Collections.sort(batchSizes);
+		assertEquals("[1, 1, 2, 2]", batchSizes.toString());
+	}
+
+	/** Messages should be sent concurrently, but no more at once than the service allows. */
+	public void testSendsLimitedToMaxConcurrentSends() throws InterruptedException {
+		service.sendAllowed = new CountDownLatch(1);
+		for(int i=0; i<6; ++i) {
+			service.sendSMS(createMessages(1, "message " + i).get(0));
+		}
+		service.startService();
+
+		assertTrue("Sends did not start concurrently.", service.awaitInProgress(3));
+		// Give the dispatcher time to start more sends than it should
+		Thread.sleep(100);
+		assertEquals(3, service.maxInProgress.get());
+
+		service.sendAllowed.countDown();
+		assertTrue("Messages were not sent.", service.awaitSent(6));
+		assertEquals(3, service.maxInProgress.get());
+		for(FrontlineMessage message : service.sent) {
+			assertEquals(Status.SENT, message.getStatus());
+		}
+	}
+
+	/** Each message in a batch should count towards the service's rate limit, so batches cannot exceed it. */
+	public void testBatchesLimitedBySendRate() throws InterruptedException {
+		service = new RateLimitedDispatchTestService();
+		service.setEventBus(mock(EventBus.class));
+		for(FrontlineMessage message : createMessages(12, "same")) {
+			service.sendSMS(message);
+		}
+		long startTime = System.currentTimeMillis();
+		service.startService();
+
+		assertTrue("Messages were not sent.", service.awaitSent(12));
+		long duration = System.currentTimeMillis() - startTime;
+		// 4 messages may be sent at once, and the remaining 8 at 4 per second
+		assertTrue("Messages were sent too quickly: " + duration + "ms", duration >= 1500);
+		assertEquals(Integer.valueOf(4), service.batchSizes.get(0));
+		for(int batchSize : service.batchSizes) {
+			assertTrue("Batch larger than the send rate: " + batchSize, batchSize <= 4);
+		}
+	}
+
+	/** Messages queued while the service is running should be sent without waiting for the receive interval. */
+	public void testMessageQueuedWhileRunningSentPromptly() throws InterruptedException {
+		service.startService();
+		service.sendSMS(createMessages(1, "prompt").get(0));
+		assertTrue("Message was not sent.", service.awaitSent(1));
+	}
+
+//> HELPER METHODS
+	/**
+	 * @param count the number of messages to create
+	 * @param text the text of the messages
+	 * @return outgoing messages to different recipients
+	 */
+	private static List<FrontlineMessage> createMessages(int count, String text) {
+		List<FrontlineMessage> messages = new ArrayList<FrontlineMessage>();
+		for(int i=0; i<count; ++i) {
+			messages.add(FrontlineMessage.createOutgoingMessage(System.currentTimeMillis(), null, "+4478901234" + (10 + i), text));
+		}
+		return messages;
+	}
+}
+
+/**
+ * Internet service which records the messages it is asked to send, rather than sending them.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+@ConfigurableServiceProperties(name = "Dispatch test", icon = "", maxConcurrentSends = 3, maxBatchSize = 5)
+class DispatchTestService extends ClickatellInternetService {
+	/** Maximum time, in millis, to wait for sends */
+	private static final long WAIT_TIMEOUT = 5000;
+
+	/** Sends wait until this is released */
+	volatile CountDownLatch sendAllowed = new CountDownLatch(0);
+	/** The messages which have been sent */
+	final List<FrontlineMessage> sent = Collections.synchronizedList(new ArrayList<FrontlineMessage>());
+	/** The number of messages in each request made */
+	final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+	/** The number of requests currently in progress */
+	final AtomicInteger inProgress = new AtomicInteger();
+	/** The greatest number of requests which have been in progress at once */
+	final AtomicInteger maxInProgress = new AtomicInteger();
+
+	@Override
+	protected void init() { /* nothing to connect to */ }
+	@Override
+	protected void deinit() { /* nothing to disconnect from */ }
+	@Override
+	public boolean isConnected() { return true; }
+	@Override
+	public boolean isUseForSending() { return true; }
+	@Override
+	public boolean isUseForReceiving() { return false; }
+	@Override
+	public String getMsisdn() { return "+447890123456"; }
+
+	@Override
+	protected void sendSmsDirect(FrontlineMessage message) {
+		sendSmsBatchDirect(Collections.singletonList(message));
+	}
+
+	@Override
+	protected void sendSmsBatchDirect(List<FrontlineMessage> messages) {
+		int current = inProgress.incrementAndGet();
+		int max;
+		while(current > (max = maxInProgress.get()) && !maxInProgress.compareAndSet(max, current)) {}
+		try {
+			sendAllowed.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		batchSizes.add(messages.size());
+		for(FrontlineMessage message : messages) {
+			message.setStatus(Status.SENT);
+		}
+		inProgress.decrementAndGet();
+		sent.addAll(messages);
+	}
+
+	/**
+	 * @param count the number of messages to wait for
+	 * @return <code>true</code> if the messages were sent before the timeout
+	 */
+	boolean awaitSent(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+		while(sent.size() < count) {
+			if(System.currentTimeMillis() > deadline) return false;
+			Thread.sleep(10);
+		}
+		return true;
+	}
+
+	/**
+	 * @param count the number of requests to wait for
+	 * @return <code>true</code> if the requests were in progress at once before the timeout
+	 */
+	boolean awaitInProgress(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+		while(inProgress.get() < count) {
+			if(System.currentTimeMillis() > deadline) return false;
+			Thread.sleep(10);
+		}
+		return true;
+	}
+}
+
+/**
+ * {@link DispatchTestService} which may send fewer messages per second than it can send in a single request.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+@ConfigurableServiceProperties(name = "Rate limited dispatch test", icon = "", maxConcurrentSends = 3, maxSendsPerSecond = 4, maxBatchSize = 5)
+class RateLimitedDispatchTestService extends DispatchTestService {}
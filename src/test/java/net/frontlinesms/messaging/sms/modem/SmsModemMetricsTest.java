@@ -0,0 +1,34 @@
+/**
+ * 
+ */
+package net.frontlinesms.messaging.sms.modem;
+
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for {@link SmsModemMetrics}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SmsModemMetricsTest extends BaseTestCase {
+	/** Test that sends and receives are counted, and that send capacity is calculated from the time recent sends have taken. */
+	public void testMetrics() {
+		SmsModemMetrics metrics = new SmsModemMetrics();
+		assertEquals(0.0, metrics.getSendCapacityPerMinute());
+
+		metrics.recordSend(8, 2, 5000);
+		metrics.recordSend(0, 0, 5000);
+		metrics.recordReceived(3);
+		metrics.recordReceived(0);
+
+		assertEquals(8, metrics.getSentCount());
+		assertEquals(2, metrics.getFailedCount());
+		assertEquals(3, metrics.getReceivedCount());
+		assertEquals(10000, metrics.getSendTime());
+		// 500ms per message; the empty send should not affect capacity
+		assertEquals(120.0, metrics.getSendCapacityPerMinute());
+
+		metrics.recordSend(1, 0, 1000);
+		// moving average of 500ms and 1000ms per message
+		assertEquals(600.0, 60000 / metrics.getSendCapacityPerMinute(), 0.001);
+	}
+}
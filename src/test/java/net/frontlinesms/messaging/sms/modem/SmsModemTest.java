@@ -0,0 +1,40 @@
+/**
+ *
+ */
+package net.frontlinesms.messaging.sms.modem;
+
+import static net.frontlinesms.messaging.sms.modem.SmsModem.*;
+
+import net.frontlinesms.junit.BaseTestCase;
+
+/**
+ * Unit tests for the scheduling of {@link SmsModem#run()}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class SmsModemTest extends BaseTestCase {
+	/** The wait between passes should double while the device is idle, up to the maximum. */
+	public void testIdleBackoff() {
+		int interval = ACTIVE_POLL_INTERVAL;
+		int[] expected = { 1000, 2000, 4000, MAX_POLL_INTERVAL, MAX_POLL_INTERVAL };
+		for(int expectedInterval : expected) {
+			interval = getNextPollInterval(interval, false, false);
+			assertEquals(expectedInterval, interval);
+		}
+	}
+
+	/** The wait between passes should shorten while there is a backlog of messages to send. */
+	public void testBacklogShortensInterval() {
+		int interval = MAX_POLL_INTERVAL;
+		int[] expected = { 250, 125, MIN_POLL_INTERVAL, MIN_POLL_INTERVAL };
+		for(int expectedInterval : expected) {
+			interval = getNextPollInterval(interval, true, true);
+			assertEquals(expectedInterval, interval);
+		}
+	}
+
+	/** Once the backlog is cleared, the device should be polled at the normal active rate, and then back off from there. */
+	public void testActiveAfterBacklog() {
+		assertEquals(ACTIVE_POLL_INTERVAL, getNextPollInterval(MIN_POLL_INTERVAL, true, false));
+		assertEquals(1000, getNextPollInterval(MIN_POLL_INTERVAL, false, false));
+	}
+}
@@ -3,6 +3,7 @@
  */
 package net.frontlinesms.ui.i18n;
 
+import java.util.Arrays;
 import java.util.Locale;
 
 import net.frontlinesms.junit.BaseTestCase;
@@ -40,6 +41,50 @@ public class CountryCallingCodeTest extends BaseTestCase {
 		assertEquals("+336123456789", CountryCallingCode.format("06123456789", Locale.FRANCE.getCountry()));
 	}
 	
+	public void testGetFromInternationalNumber() {
+		assertEquals(KE, CountryCallingCode.getFromInternationalNumber("+254789012345"));
+		assertEquals(GB, CountryCallingCode.getFromInternationalNumber("+447890123456"));
+		// Countries sharing calling code 1 are matched to the first declared
+		assertEquals(US, CountryCallingCode.getFromInternationalNumber("+12425551234"));
+		assertNull(CountryCallingCode.getFromInternationalNumber("+999"));
+		assertNull(CountryCallingCode.getFromInternationalNumber("+"));
+	}
+	
+	public void testToCanonicalForm() {
+		for(String phoneNumber : new String[]{ "+254789012345", "254789012345", "00254789012345", "0789012345", "+254 (0)789 012-345" }) {
+			assertEquals(phoneNumber, "+254789012345", CountryCallingCode.toCanonicalForm(phoneNumber, KE.name()));
+		}
+		assertEquals("+447890123456", CountryCallingCode.toCanonicalForm("+447890123456", KE.name()));
+		assertNull(CountryCallingCode.toCanonicalForm("-", KE.name()));
+	}
+	
+	public void testGetEquivalentForms() {
+		assertEquals(Arrays.asList("+254789012345", "254789012345", "0789012345"),
+				CountryCallingCode.getEquivalentForms("+254789012345", KE.name()));
+		assertEquals(Arrays.asList("0789012345", "+254789012345", "254789012345"),
+				CountryCallingCode.getEquivalentForms("0789012345", KE.name()));
+		assertEquals(Arrays.asList("+254789012345", "254789012345"),
+				CountryCallingCode.getEquivalentForms("+254789012345", GB.name()));
+		assertEquals(Arrays.asList("-"), CountryCallingCode.getEquivalentForms("-", KE.name()));
+	}
+	
+	/** Some countries the user can choose have no calling code declared, so local numbers cannot be converted. */
+	public void testCountryWithoutCallingCode() {
+		assertNull(CountryCallingCode.getFromCountry("RE"));
+		assertNull(CountryCallingCode.getFromCountry(null));
+		assertEquals(KE, CountryCallingCode.getFromCountry("ke"));
+		
+		assertEquals(Arrays.asList("0789012345"), CountryCallingCode.getEquivalentForms("0789012345", "RE"));
+		assertEquals(Arrays.asList("0789012345"), CountryCallingCode.getEquivalentForms("0789012345", null));
+		assertEquals(Arrays.asList("00254789012345", "+254789012345", "254789012345"),
+				CountryCallingCode.getEquivalentForms("00254789012345", "RE"));
+		assertFalse(CountryCallingCode.isValidLocalNumber("0789012345", "RE"));
+		assertEquals("+254789012345", CountryCallingCode.format("+254789012345", "RE"));
+		assertEquals("+789012345", CountryCallingCode.format("0789012345", "RE"));
+		assertNull(CountryCallingCode.toCanonicalForm("0789012345", "RE"));
+		assertEquals("+254789012345", CountryCallingCode.toCanonicalForm("00254789012345", "RE"));
+	}
+	
 //> SPECIFIC COUNTRY TESTS
 	private static final Object[] TEST_CASES = {
 		// COUNTRY | INTERNATIONAL? | VALID? | phone number
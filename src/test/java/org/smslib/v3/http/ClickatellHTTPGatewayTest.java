@@ -0,0 +1,76 @@
+/**
+ *
+ */
+package org.smslib.v3.http;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.frontlinesms.junit.BaseTestCase;
+
+import org.smslib.v3.FailureCauses;
+import org.smslib.v3.MessageStatuses;
+import org.smslib.v3.OutboundMessage;
+
+/**
+ * Unit tests for the handling of responses to multi-recipient requests in {@link ClickatellHTTPGateway}.
+ * @author Alex Anderson <alex@frontlinesms.com>
+ */
+public class ClickatellHTTPGatewayTest extends BaseTestCase {
+	/** The gateway under test */
+	private ClickatellHTTPGateway gateway;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		gateway = new ClickatellHTTPGateway("test", "apiId", "username", "password");
+	}
+
+	/** Each line naming a recipient should set the status of that recipient's message only. */
+	public void testResponseLinesAppliedToNamedRecipients() {
+		OutboundMessage first = new OutboundMessage("+447890123401", "Hello");
+		OutboundMessage second = new OutboundMessage("+447890123402", "Hello");
+		OutboundMessage third = new OutboundMessage("+447890123403", "Hello");
+		List<OutboundMessage> recipients = Arrays.asList(first, second, third);
+
+		boolean ok = gateway.handleBulkResponse(recipients, Arrays.asList(
+				"ID: abc123 To: 447890123403",
+				"ERR: 114, Cannot route message To: 447890123401",
+				"ID: def456 To: 447890123402"));
+
+		assertTrue(ok);
+		assertEquals(MessageStatuses.FAILED, first.getMessageStatus());
+		assertEquals(FailureCauses.NO_ROUTE, first.getFailureCause());
+		assertEquals(MessageStatuses.SENT, second.getMessageStatus());
+		assertEquals("def456", second.getRefNo());
+		assertEquals(MessageStatuses.SENT, third.getMessageStatus());
+		assertEquals("abc123", third.getRefNo());
+	}
+
+	/** A line which does not name a recipient, e.g. an authentication error, applies to every recipient. */
+	public void testResponseWithoutRecipientAppliedToAll() {
+		OutboundMessage first = new OutboundMessage("+447890123401", "Hello");
+		OutboundMessage second = new OutboundMessage("+447890123402", "Hello");
+
+		boolean ok = gateway.handleBulkResponse(Arrays.asList(first, second),
+				Arrays.asList("ERR: 301, No credit left"));
+
+		assertFalse(ok);
+		for(OutboundMessage message : Arrays.asList(first, second)) {
+			assertEquals(MessageStatuses.FAILED, message.getMessageStatus());
+			assertEquals(FailureCauses.NO_CREDIT, message.getFailureCause());
+		}
+	}
+
+	/** Messages to recipients not mentioned in the response should be left unsent. */
+	public void testUnmentionedRecipientLeftUnsent() {
+		OutboundMessage first = new OutboundMessage("+447890123401", "Hello");
+		OutboundMessage second = new OutboundMessage("+447890123402", "Hello");
+
+		gateway.handleBulkResponse(Arrays.asList(first, second),
+				Arrays.asList("ID: abc123 To: 447890123401"));
+
+		assertEquals(MessageStatuses.SENT, first.getMessageStatus());
+		assertEquals(MessageStatuses.UNSENT, second.getMessageStatus());
+	}
+}